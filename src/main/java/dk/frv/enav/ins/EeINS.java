@@ -30,6 +30,7 @@
 package dk.frv.enav.ins;
 
 import java.awt.event.ActionEvent;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
@@ -58,12 +59,17 @@ import dk.frv.enav.ins.gui.MainFrame;
 import dk.frv.enav.ins.gui.route.RouteManagerDialog;
 import dk.frv.enav.ins.msi.MsiHandler;
 import dk.frv.enav.ins.nmea.NmeaFileSensor;
+import dk.frv.enav.ins.nmea.NmeaMultiplexSensor;
+import dk.frv.enav.ins.nmea.NmeaRecorder;
 import dk.frv.enav.ins.nmea.NmeaSensor;
 import dk.frv.enav.ins.nmea.NmeaSerialSensor;
+import dk.frv.enav.ins.nmea.NmeaServer;
 import dk.frv.enav.ins.nmea.NmeaStdinSensor;
 import dk.frv.enav.ins.nmea.NmeaTcpSensor;
 import dk.frv.enav.ins.nmea.SensorType;
+import dk.frv.enav.ins.risk.CpaEngine;
 import dk.frv.enav.ins.risk.RiskHandler;
+import dk.frv.enav.ins.risk.RouteConflictDetector;
 import dk.frv.enav.ins.nogo.NogoHandler;
 import dk.frv.enav.ins.route.RouteManager;
 import dk.frv.enav.ins.services.ais.AisServices;
@@ -93,6 +99,8 @@ public class EeINS {
 	private static GpsHandler gpsHandler;
 	private static AisHandler aisHandler;
 	private static RiskHandler riskHandler;
+	private static CpaEngine cpaEngine;
+	private static RouteConflictDetector routeConflictDetector;
 	private static RouteManager routeManager;
 	private static ShoreServices shoreServices;
 	private static AisServices aisServices;
@@ -160,12 +168,20 @@ public class EeINS {
         aisHandler = new AisHandler();
         aisHandler.loadView();
         mapHandler.add(aisHandler);
+        
+        // Start collision assessment of own ship against AIS targets
+        cpaEngine = new CpaEngine();
+        mapHandler.add(cpaEngine);
 
     
         // Load routeManager and register as GPS data listener
         routeManager = RouteManager.loadRouteManager();
         mapHandler.add(routeManager);
         
+        // Start conflict detection of intended routes
+        routeConflictDetector = new RouteConflictDetector();
+        mapHandler.add(routeConflictDetector);
+        
         // Create shore services
         shoreServices = new ShoreServices(getSettings().getEnavSettings());
         mapHandler.add(shoreServices);
@@ -217,6 +233,9 @@ public class EeINS {
 		case FILE:
 			aisSensor = new NmeaFileSensor(sensorSettings.getAisFilename(), sensorSettings);
 			break;
+		case MULTI:
+			aisSensor = new NmeaMultiplexSensor(sensorSettings.getAisSources());
+			break;
 		default:
 			LOG.error("Unknown sensor connection type: " + sensorSettings.getAisConnectionType());
 		}
@@ -238,6 +257,9 @@ public class EeINS {
         case FILE:
         	gpsSensor = new NmeaFileSensor(sensorSettings.getGpsFilename(), sensorSettings);
         	break;
+        case MULTI:
+        	gpsSensor = new NmeaMultiplexSensor(sensorSettings.getGpsSources());
+        	break;
         case AIS_SHARED:
 			gpsSensor = aisSensor;
 			break;
@@ -249,21 +271,49 @@ public class EeINS {
         	gpsSensor.addSensorType(SensorType.GPS);
         }
         
+        // Record live sensors
+        NmeaRecorder recorder = null;
+        if (sensorSettings.getRecordDirectory().length() > 0) {
+        	recorder = new NmeaRecorder(new File(sensorSettings.getRecordDirectory()),
+        			sensorSettings.getRecordSegmentMinutes() * 60000L, NmeaRecorder.DEFAULT_QUEUE_SIZE);
+        	recorder.start();
+        }
+        
         if (aisSensor != null) {
+        	if (!aisSensor.isReplay()) {
+        		aisSensor.setRecorder(recorder);
+        	}
         	aisSensor.setSimulateGps(sensorSettings.isSimulateGps());
         	aisSensor.setSimulatedOwnShip(sensorSettings.getSimulatedOwnShip());
+        	aisSensor.setDecodeWorkers(sensorSettings.getEffectiveDecodeWorkers());
+        	aisSensor.setQueueSize(sensorSettings.getQueueSize());
+        	aisSensor.setOverflowPolicy(sensorSettings.getOverflowPolicy());
+        	aisSensor.setDuplicateWindow(sensorSettings.getDuplicateWindow());
         	aisSensor.start();
         	// Add ais sensor to bean context
         	mapHandler.add(aisSensor);
         }
         if (gpsSensor != null && gpsSensor != aisSensor) {
+        	if (!gpsSensor.isReplay()) {
+        		gpsSensor.setRecorder(recorder);
+        	}
         	gpsSensor.setSimulateGps(sensorSettings.isSimulateGps());
         	gpsSensor.setSimulatedOwnShip(sensorSettings.getSimulatedOwnShip());
+        	gpsSensor.setQueueSize(sensorSettings.getQueueSize());
+        	gpsSensor.setOverflowPolicy(sensorSettings.getOverflowPolicy());
         	gpsSensor.start();
         	// Add gps sensor to bean context
         	mapHandler.add(gpsSensor);
         }
         
+        // Serve the merged feed
+        if (sensorSettings.getServerPort() > 0) {
+        	NmeaServer nmeaServer = new NmeaServer(sensorSettings.getServerPort());
+        	nmeaServer.setMaxClientBuffer(sensorSettings.getServerMaxClientBuffer());
+        	nmeaServer.start();
+        	mapHandler.add(nmeaServer);
+        }
+        
 	}
 	
 	public static void startRiskHandler(){
@@ -482,6 +532,16 @@ public class EeINS {
 		return settings;
 	}
 	
+	/**
+	 * Set settings for components used outside the application, e.g. by
+	 * tools
+	 * 
+	 * @param settings
+	 */
+	public static void setSettings(Settings settings) {
+		EeINS.settings = settings;
+	}
+	
 	public static NmeaSensor getAisSensor() {
 		return aisSensor;
 	}
@@ -536,5 +596,13 @@ public class EeINS {
 	public static RiskHandler getRiskHandler() {
 		return riskHandler;
 	}
+	
+	public static CpaEngine getCpaEngine() {
+		return cpaEngine;
+	}
+	
+	public static RouteConflictDetector getRouteConflictDetector() {
+		return routeConflictDetector;
+	}
 
 }
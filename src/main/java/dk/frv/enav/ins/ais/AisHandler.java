@@ -29,13 +29,7 @@
  */
 package dk.frv.enav.ins.ais;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -43,7 +37,11 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
 import com.bbn.openmap.MapHandlerChild;
@@ -57,30 +55,44 @@ import dk.frv.ais.message.AisMessage21;
 import dk.frv.ais.message.AisMessage24;
 import dk.frv.ais.message.AisMessage5;
 import dk.frv.ais.message.AisMessage6;
+import dk.frv.ais.message.AisPosition;
 import dk.frv.ais.message.AisPositionMessage;
 import dk.frv.ais.message.binary.AddressedRouteInformation;
 import dk.frv.ais.message.binary.AisApplicationMessage;
 import dk.frv.ais.message.binary.BroadcastIntendedRoute;
 import dk.frv.enav.ins.EeINS;
+import dk.frv.enav.ins.common.util.Calculator;
 import dk.frv.enav.ins.common.util.Converter;
+import dk.frv.enav.ins.common.util.LongObjectMap;
 import dk.frv.enav.ins.gps.GnssTime;
 import dk.frv.enav.ins.gps.GpsData;
+import dk.frv.enav.ins.gps.GpsHandler;
+import dk.frv.enav.ins.gps.IGpsDataListener;
+import dk.frv.enav.ins.nmea.AisHeader;
+import dk.frv.enav.ins.nmea.IAisHeaderFilter;
 import dk.frv.enav.ins.nmea.IAisListener;
 import dk.frv.enav.ins.nmea.NmeaSensor;
 import dk.frv.enav.ins.nmea.SensorType;
 import dk.frv.enav.ins.services.ais.AisServices;
+import dk.frv.enav.ins.settings.AisSettings;
 import dk.frv.enav.ins.status.AisStatus;
 import dk.frv.enav.ins.status.ComponentStatus;
 import dk.frv.enav.ins.status.IStatusComponent;
 
 /**
- * Class for handling incoming AIS messages and maintainer of AIS target tables 
+ * Class for handling incoming AIS messages and maintainer of AIS target tables.
+ * Messages may be received from several threads at once. Updates of a target
+ * are serialized by a lock chosen from a fixed set of locks by MMSI. Readers
+ * outside the ingest path should use snapshots of the tables.
  */
-public class AisHandler extends MapHandlerChild implements IAisListener, IStatusComponent, Runnable {
+public class AisHandler extends MapHandlerChild implements IAisListener, IAisHeaderFilter, IGpsDataListener, IStatusComponent, Runnable {
 
 	private static final Logger LOG = Logger.getLogger(AisHandler.class);
 	
 	private static final String aisViewFile = ".aisview";
+	private static final String staticRegistryFile = ".aisstatics";
+	// Time between checkpoints of the view
+	private static final long CHECKPOINT_INTERVAL = 60 * 1000; // One minute
 	
 	public class AisMessageExtended {
 		public String name;
@@ -99,18 +111,39 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 	// How long targets are saved without reports
 	private static final long TARGET_TTL = 60 * 60 * 1000; // One hour
 	private static final double SIMULATED_AIS_RANGE = 20;
+	// Number of locks for target updates
+	private static final int LOCK_STRIPES = 64;
+	// Max age of a snapshot when the tables have changed
+	private static final long SNAPSHOT_MAX_AGE = 1000;
+	// Max status changes of a target in one aging check
+	private static final int MAX_AGING_STEPS = 4;
 
-	private Map<Long, AtoNTarget> atonTargets = new HashMap<Long, AtoNTarget>();
-	private Map<Long, VesselTarget> vesselTargets = new HashMap<Long, VesselTarget>();
-	private Map<Long, SarTarget> sarTargets = new HashMap<Long, SarTarget>();
-	private List<IAisTargetListener> listeners = new ArrayList<IAisTargetListener>();
-	private List<IAisRouteSuggestionListener> suggestionListeners = new ArrayList<IAisRouteSuggestionListener>();
-	private VesselTarget ownShip = new VesselTarget();	
+	private TargetStripe[] stripes = new TargetStripe[LOCK_STRIPES];
+	private AtomicInteger vesselCount = new AtomicInteger();
+	private AisTargetGrid grid = new AisTargetGrid();
+	private AisTargetWheel agingWheel;
+	private AisTrackStore trackStore;
+	private KinematicStore kinematics = new KinematicStore();
+	private AisViewFile viewFile = new AisViewFile(aisViewFile);
+	private VesselStaticRegistry staticRegistry = new VesselStaticRegistry(staticRegistryFile, CHECKPOINT_INTERVAL);
+	private AisTargetDispatcher dispatcher;
+	private List<IAisTargetListener> listeners = new CopyOnWriteArrayList<IAisTargetListener>();
+	private List<IAisRouteSuggestionListener> suggestionListeners = new CopyOnWriteArrayList<IAisRouteSuggestionListener>();
+	private volatile VesselTarget ownShip = new VesselTarget();	
+	private volatile VesselTarget ownShipCopy = null;
+	private AtomicLong version = new AtomicLong();
+	private volatile AisTargetSnapshot snapshot = null;
+	private Object snapshotLock = new Object();
 	private double aisRange = 0;
 	private NmeaSensor nmeaSensor = null;
+	private GpsHandler gpsHandler = null;
+	private volatile GpsData ownPosition = null;
 	private AisServices aisServices = null;
 	private AisStatus aisStatus = new AisStatus();
 	private String sartMmsiPrefix = "970";
+	// SART prefix as number and the power of ten above it, -1 if it cannot match
+	private long sartPrefix = 970;
+	private long sartPrefixLimit = 1000;
 	
 	public AisHandler() {
 		if (EeINS.getSettings().getSensorSettings().isSimulateGps() && EeINS.getSettings().getSensorSettings().getAisSensorRange() == 0) {
@@ -120,7 +153,155 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 			aisRange = EeINS.getSettings().getSensorSettings().getAisSensorRange();
 		}
 		sartMmsiPrefix = EeINS.getSettings().getAisSettings().getSartPrefix();
+		setSartPrefix(sartMmsiPrefix);
+		for (int i = 0; i < LOCK_STRIPES; i++) {
+			stripes[i] = new TargetStripe();
+		}
+		agingWheel = new AisTargetWheel(GnssTime.getInstance().getTime());
+		AisSettings aisSettings = EeINS.getSettings().getAisSettings();
+		trackStore = new AisTrackStore(aisSettings.getTrackDuration() * 60 * 1000L, aisSettings.getTrackMinDistance(),
+				aisSettings.getTrackMaxPoints());
+		dispatcher = new AisTargetDispatcher(this, aisSettings.getDispatchInterval());
 		EeINS.startThread(this, "AisHandler");
+		EeINS.startThread(dispatcher, "AisTargetDispatcher");
+	}
+	
+	/**
+	 * Targets of the MMSI's mapping to one stripe. The stripe is also the lock
+	 * guarding its tables and updates of its targets. Changes not yet
+	 * dispatched to batch listeners and changes not yet written to the
+	 * journal of the view file are kept by MMSI.
+	 */
+	private static class TargetStripe {
+		final LongObjectMap<VesselTarget> vesselTargets = new LongObjectMap<VesselTarget>();
+		final LongObjectMap<SarTarget> sarTargets = new LongObjectMap<SarTarget>();
+		final LongObjectMap<AtoNTarget> atonTargets = new LongObjectMap<AtoNTarget>();
+		final LongObjectMap<AisTarget> added = new LongObjectMap<AisTarget>();
+		final LongObjectMap<AisTarget> updated = new LongObjectMap<AisTarget>();
+		final LongObjectMap<AisTarget> removed = new LongObjectMap<AisTarget>();
+		final LongObjectMap<AisTarget> journalChanged = new LongObjectMap<AisTarget>();
+		final LongObjectMap<AisTarget> journalRemoved = new LongObjectMap<AisTarget>();
+
+		/**
+		 * Get the table holding targets of the kind of aisTarget
+		 */
+		LongObjectMap<? extends AisTarget> tableOf(AisTarget aisTarget) {
+			if (aisTarget instanceof VesselTarget) {
+				return vesselTargets;
+			} else if (aisTarget instanceof SarTarget) {
+				return sarTargets;
+			}
+			return atonTargets;
+		}
+
+		/**
+		 * Insert target in the table of its kind
+		 */
+		void put(AisTarget aisTarget) {
+			long mmsi = aisTarget.getMmsi();
+			if (aisTarget instanceof VesselTarget) {
+				vesselTargets.put(mmsi, (VesselTarget) aisTarget);
+			} else if (aisTarget instanceof SarTarget) {
+				sarTargets.put(mmsi, (SarTarget) aisTarget);
+			} else {
+				atonTargets.put(mmsi, (AtoNTarget) aisTarget);
+			}
+		}
+
+		void markAdded(AisTarget aisTarget) {
+			long mmsi = aisTarget.getMmsi();
+			if (removed.remove(mmsi) != null) {
+				updated.put(mmsi, aisTarget);
+			} else {
+				added.put(mmsi, aisTarget);
+			}
+		}
+
+		void markUpdated(AisTarget aisTarget) {
+			long mmsi = aisTarget.getMmsi();
+			if (!added.containsKey(mmsi)) {
+				updated.put(mmsi, aisTarget);
+			}
+		}
+
+		void markRemoved(AisTarget aisTarget) {
+			long mmsi = aisTarget.getMmsi();
+			if (added.remove(mmsi) != null) {
+				// Never dispatched
+				return;
+			}
+			updated.remove(mmsi);
+			removed.put(mmsi, aisTarget);
+		}
+
+		void markJournalChanged(AisTarget aisTarget) {
+			long mmsi = aisTarget.getMmsi();
+			journalRemoved.remove(mmsi);
+			journalChanged.put(mmsi, aisTarget);
+		}
+
+		void markJournalRemoved(AisTarget aisTarget) {
+			long mmsi = aisTarget.getMmsi();
+			journalChanged.remove(mmsi);
+			journalRemoved.put(mmsi, aisTarget);
+		}
+
+		/**
+		 * Move the changes not yet journaled to the lists. Must be called
+		 * holding the lock of the stripe.
+		 */
+		void drainJournalTo(List<AisTarget> changed, List<AisTarget> removed) {
+			drain(journalChanged, changed);
+			drain(journalRemoved, removed);
+		}
+
+		/**
+		 * Move the pending changes to change set. Must be called holding the
+		 * lock of the stripe, so the copies are consistent.
+		 */
+		void drainTo(AisTargetChanges changes) {
+			drain(added, changes.added());
+			drain(updated, changes.updated());
+			drain(removed, changes.removed());
+		}
+
+		private static void drain(LongObjectMap<AisTarget> pending, List<AisTarget> list) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			for (AisTarget aisTarget : pending.values()) {
+				list.add(copyOf(aisTarget));
+			}
+			pending.clear();
+		}
+
+		/**
+		 * Copy target for the batch listeners. The display settings of a
+		 * vessel are shared with the copy, as they are set by the user on
+		 * the target shown.
+		 */
+		private static AisTarget copyOf(AisTarget aisTarget) {
+			if (aisTarget instanceof VesselTarget) {
+				VesselTarget vesselTarget = (VesselTarget) aisTarget;
+				VesselTarget copy = new VesselTarget(vesselTarget);
+				copy.setSettings(vesselTarget.getSettings());
+				return copy;
+			} else if (aisTarget instanceof SarTarget) {
+				return new SarTarget((SarTarget) aisTarget);
+			}
+			return new AtoNTarget((AtoNTarget) aisTarget);
+		}
+	}
+	
+	/**
+	 * Get the stripe holding target with mmsi
+	 * @param mmsi
+	 * @return
+	 */
+	private TargetStripe stripeFor(long mmsi) {
+		int h = (int) (mmsi ^ (mmsi >>> 32));
+		h ^= (h >>> 16);
+		return stripes[(h & 0x7fffffff) % LOCK_STRIPES];
 	}
 
 	/**
@@ -128,40 +309,76 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 	 * @param mmsi
 	 * @return
 	 */
-	public synchronized AisTarget getTarget(long mmsi) {
-		if (vesselTargets.containsKey(mmsi)) {
-			return new VesselTarget(vesselTargets.get(mmsi));
-		} else if (sarTargets.containsKey(mmsi)) {
-			return new SarTarget(sarTargets.get(mmsi));
-		} else if (atonTargets.containsKey(mmsi)) {
-			return new AtoNTarget(atonTargets.get(mmsi));
+	public AisTarget getTarget(long mmsi) {
+		TargetStripe stripe = stripeFor(mmsi);
+		synchronized (stripe) {
+			VesselTarget vesselTarget = stripe.vesselTargets.get(mmsi);
+			if (vesselTarget != null) {
+				return new VesselTarget(vesselTarget);
+			}
+			SarTarget sarTarget = stripe.sarTargets.get(mmsi);
+			if (sarTarget != null) {
+				return new SarTarget(sarTarget);
+			}
+			AtoNTarget atonTarget = stripe.atonTargets.get(mmsi);
+			if (atonTarget != null) {
+				return new AtoNTarget(atonTarget);
+			}
 		}
 		return null;
 	}
 	
+	/**
+	 * Decide from the header if a message from the AIS sensor is to be
+	 * decoded. Only message types handled here are accepted, and positions out
+	 * of range, messages addressed to others and application messages not
+	 * handled are discarded. Position reports without a position are accepted
+	 * as they keep known targets alive.
+	 */
+	@Override
+	public boolean accept(AisHeader header) {
+		// Mark successful reception 
+		aisStatus.markAisReception();
+		
+		switch (header.getMsgId()) {
+		case 1:
+		case 2:
+		case 3:
+		case 18:
+			if (header.getLatitude() > 90 || header.getLongitude() > 180) {
+				return true;
+			}
+			return isWithinRange(header.getLatitude(), header.getLongitude());
+		case 21:
+			return isWithinRange(header.getLatitude(), header.getLongitude());
+		case 5:
+		case 24:
+			return true;
+		case 6:
+			return header.getDestination() == ownShip.getMmsi() && header.getDac() == 1 && header.getFi() == 28;
+		case 8:
+			return header.getDac() == BroadcastIntendedRoute.DAC && header.getFi() == BroadcastIntendedRoute.FI;
+		default:
+			return false;
+		}
+	}
+	
 	/**
 	 * Method receiving AIS messages from AIS sensor
 	 */
 	@Override
-	public synchronized void receive(AisMessage aisMessage) {
+	public void receive(AisMessage aisMessage) {
 		// Mark successful reception 
 		aisStatus.markAisReception();
 		
 		if (aisMessage instanceof AisPositionMessage) {
 			AisPositionMessage aisPositionMessage = (AisPositionMessage) aisMessage;
-			// Create PositionData
-			VesselPositionData vesselPositionData = new VesselPositionData(aisPositionMessage);
 			// Update or create entry
-			if (vesselPositionData.hasPos()) {
-				updatePos(aisPositionMessage.getUserId(), vesselPositionData, VesselTarget.AisClass.A);
-			}
+			updatePos(aisPositionMessage.getUserId(), aisPositionMessage, aisPositionMessage.getPos(), VesselTarget.AisClass.A);
 		} else if (aisMessage instanceof AisMessage18) {
 			AisMessage18 posMessage = (AisMessage18) aisMessage;
-			VesselPositionData vesselPositionData = new VesselPositionData(posMessage);
 			// Update or create entry
-			if (vesselPositionData.hasPos()) {
-				updatePos(posMessage.getUserId(), vesselPositionData, VesselTarget.AisClass.B);
-			}
+			updatePos(posMessage.getUserId(), posMessage, posMessage.getPos(), VesselTarget.AisClass.B);
 		} else if (aisMessage instanceof AisMessage21) {
 			AisMessage21 msg21 = (AisMessage21) aisMessage;
 			updateAton(msg21);
@@ -218,23 +435,31 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 		}
 	}
 	
-	public synchronized void hideAllIntendedRoutes() {
-		for (VesselTarget vesselTarget : vesselTargets.values()) {
-			VesselTargetSettings settings = vesselTarget.getSettings();
-			if (settings.isShowRoute() && vesselTarget.hasIntendedRoute()) {
-				settings.setShowRoute(false);
-				publishUpdate(vesselTarget);
-			}			
+	public void hideAllIntendedRoutes() {
+		for (TargetStripe stripe : stripes) {
+			synchronized (stripe) {
+				for (VesselTarget vesselTarget : stripe.vesselTargets.values()) {
+					VesselTargetSettings settings = vesselTarget.getSettings();
+					if (settings.isShowRoute() && vesselTarget.hasIntendedRoute()) {
+						settings.setShowRoute(false);
+						publishUpdate(vesselTarget);
+					}
+				}
+			}
 		}
 	}
 	
-	public synchronized void showAllIntendedRoutes() {
-		for (VesselTarget vesselTarget : vesselTargets.values()) {
-			VesselTargetSettings settings = vesselTarget.getSettings();
-			if (!settings.isShowRoute() && vesselTarget.hasIntendedRoute()) {
-				settings.setShowRoute(true);
-				publishUpdate(vesselTarget);
-			}			
+	public void showAllIntendedRoutes() {
+		for (TargetStripe stripe : stripes) {
+			synchronized (stripe) {
+				for (VesselTarget vesselTarget : stripe.vesselTargets.values()) {
+					VesselTargetSettings settings = vesselTarget.getSettings();
+					if (!settings.isShowRoute() && vesselTarget.hasIntendedRoute()) {
+						settings.setShowRoute(true);
+						publishUpdate(vesselTarget);
+					}
+				}
+			}
 		}
 	}
 
@@ -266,6 +491,7 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 
 		ownShip.setLastReceived(GnssTime.getInstance().getDate());
 		ownShip.setMmsi(aisMessage.getUserId());
+		ownShipCopy = null;
 
 	}
 
@@ -273,26 +499,34 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 	 * Update AtoN target
 	 * @param msg21
 	 */
-	private synchronized void updateAton(AisMessage21 msg21) {
-		if (!isWithinRange(msg21.getPos().getGeoLocation())) {
-			return;
-		}
+	private void updateAton(AisMessage21 msg21) {
+		TargetStripe stripe = stripeFor(msg21.getUserId());
+		synchronized (stripe) {
+			if (!isWithinRange(msg21.getPos().getLatitude() / 600000.0, msg21.getPos().getLongitude() / 600000.0)) {
+				return;
+			}
 		
-		// Try to find existing entry
-		AtoNTarget atonTarget = atonTargets.get(msg21.getUserId());
-		// If not exists, create new and insert
-		if (atonTarget == null) {
-			atonTarget = new AtoNTarget();
-			atonTarget.setMmsi(msg21.getUserId());
-			atonTargets.put(msg21.getUserId(), atonTarget);
+			// Try to find existing entry
+			AtoNTarget atonTarget = stripe.atonTargets.get(msg21.getUserId());
+			// If not exists, create new and insert
+			if (atonTarget == null) {
+				atonTarget = new AtoNTarget();
+				atonTarget.setMmsi(msg21.getUserId());
+				stripe.atonTargets.put(msg21.getUserId(), atonTarget);
+				publishAdded(stripe, atonTarget);
+			}
+			// Update target
+			atonTarget.update(msg21);
+			if (atonTarget.getPos() != null) {
+				grid.update(atonTarget, atonTarget.getPos().getLatitude(), atonTarget.getPos().getLongitude());
+			}
+			// Update last received
+			atonTarget.setLastReceived(GnssTime.getInstance().getTime());
+			// Update status
+			atonTarget.setStatus(AisTarget.Status.OK);
+			scheduleAging(atonTarget);
+			publishUpdate(atonTarget);
 		}
-		// Update target
-		atonTarget.update(msg21);
-		// Update last received
-		atonTarget.setLastReceived(GnssTime.getInstance().getDate());
-		// Update status
-		atonTarget.setStatus(AisTarget.Status.OK);
-		publishUpdate(atonTarget);
 	}
 	
 	/**
@@ -300,16 +534,20 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 	 * @param mmsi
 	 * @param routeData
 	 */
-	private synchronized void updateIntendedRoute(long mmsi, AisIntendedRoute routeData) {
-		// Try to find exiting target
-		VesselTarget vesselTarget = vesselTargets.get(mmsi);
-		// If not exists, wait for it to be created by position report
-		if (vesselTarget == null) {
-			return;
+	private void updateIntendedRoute(long mmsi, AisIntendedRoute routeData) {
+		TargetStripe stripe = stripeFor(mmsi);
+		synchronized (stripe) {
+			// Try to find exiting target
+			VesselTarget vesselTarget = stripe.vesselTargets.get(mmsi);
+			// If not exists, wait for it to be created by position report
+			if (vesselTarget == null) {
+				return;
+			}
+			// Update intented route
+			vesselTarget.setAisRouteData(routeData);
+			scheduleAging(vesselTarget);
+			publishUpdate(vesselTarget);
 		}
-		// Update intented route
-		vesselTarget.setAisRouteData(routeData);
-		publishUpdate(vesselTarget);
 	}
 	
 	/**
@@ -317,45 +555,59 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 	 * @param mmsi
 	 * @param staticData
 	 */
-	private synchronized void updateStatics(long mmsi, VesselStaticData staticData) {
-		// Determine if this is SART
-		if (isSarTarget(mmsi)) {			
-			updateSartStatics(mmsi, staticData);
-			return;
-		}
+	private void updateStatics(long mmsi, VesselStaticData staticData) {
+		TargetStripe stripe = stripeFor(mmsi);
+		synchronized (stripe) {
+			// Determine if this is SART
+			if (isSarTarget(mmsi)) {			
+				updateSartStatics(mmsi, staticData);
+				return;
+			}
 		
-		// Try to find exiting target
-		VesselTarget vesselTarget = vesselTargets.get(mmsi);
-		// If not exists, wait for it to be created by position report
-		if (vesselTarget == null) {
-			return;
+			// Keep in registry also if target is not created by position report yet
+			staticRegistry.put(mmsi, staticData);
+			
+			// Try to find exiting target
+			VesselTarget vesselTarget = stripe.vesselTargets.get(mmsi);
+			if (vesselTarget == null) {
+				return;
+			}
+			// Update static data
+			vesselTarget.setStaticData(staticData);
+			stripe.markJournalChanged(vesselTarget);
+			version.incrementAndGet();
 		}
-		// Update static data
-		vesselTarget.setStaticData(staticData);
-		
 	}
 	
 	/**
 	 * Update class b vessel statics
 	 * @param msg24
 	 */
-	private synchronized void updateClassBStatics(AisMessage24 msg24) {
-		// Try to find exiting target
-		VesselTarget vesselTarget = vesselTargets.get(msg24.getUserId());
-		// If not exists, wait for it to be created by position report
-		if (vesselTarget == null) {
-			return;
-		}
+	private void updateClassBStatics(AisMessage24 msg24) {
+		TargetStripe stripe = stripeFor(msg24.getUserId());
+		synchronized (stripe) {
+			// Try to find exiting target
+			VesselTarget vesselTarget = stripe.vesselTargets.get(msg24.getUserId());
 		
-		// Get or create static data
-		VesselStaticData staticData = vesselTarget.getStaticData();
-		if (staticData == null) {
-			staticData = new VesselStaticData(msg24);
+			// Get static data, from registry if target is not created by
+			// position report yet
+			VesselStaticData staticData = (vesselTarget != null) ? vesselTarget.getStaticData() : staticRegistry
+					.get(msg24.getUserId());
+			// Update a copy as the registry may be writing the current one
+			if (staticData == null) {
+				staticData = new VesselStaticData(msg24);
+			} else {
+				staticData = new VesselStaticData(staticData);
+				staticData.update(msg24);
+			}
+			staticRegistry.put(msg24.getUserId(), staticData);
+			if (vesselTarget == null) {
+				return;
+			}
 			vesselTarget.setStaticData(staticData);
-		} else {
-			staticData.update(msg24);
+			stripe.markJournalChanged(vesselTarget);
+			version.incrementAndGet();
 		}
-		
 	}
 	
 	/**
@@ -363,15 +615,20 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 	 * @param mmsi
 	 * @param staticData
 	 */
-	private synchronized void updateSartStatics(long mmsi, VesselStaticData staticData) {
-		// Try to find exiting target
-		SarTarget sarTarget = sarTargets.get(mmsi);
-		// If not exists, wait for it to be created by position report
-		if (sarTarget == null) {
-			return;
-		}		
-		// Update static data
-		sarTarget.setStaticData(staticData);
+	private void updateSartStatics(long mmsi, VesselStaticData staticData) {
+		TargetStripe stripe = stripeFor(mmsi);
+		synchronized (stripe) {
+			// Try to find exiting target
+			SarTarget sarTarget = stripe.sarTargets.get(mmsi);
+			// If not exists, wait for it to be created by position report
+			if (sarTarget == null) {
+				return;
+			}		
+			// Update static data
+			sarTarget.setStaticData(staticData);
+			stripe.markJournalChanged(sarTarget);
+			version.incrementAndGet();
+		}
 	}
 	
 	/**
@@ -381,75 +638,181 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 	 */
 	public boolean isSarTarget(long mmsi) {
 		// AIS-SART transponder MMSI begins with 970
-		String strMmsi = Long.toString(mmsi);
-		return strMmsi.startsWith(sartMmsiPrefix);
+		if (sartPrefix < 0) {
+			return false;
+		}
+		// Strip trailing digits until as many as in the prefix
+		while (mmsi >= sartPrefixLimit) {
+			mmsi /= 10;
+		}
+		return mmsi == sartPrefix;
+	}
+	
+	/**
+	 * Set the SART MMSI prefix as number for the check done for every
+	 * position report
+	 * @param prefix
+	 */
+	private void setSartPrefix(String prefix) {
+		if (prefix == null || prefix.length() == 0) {
+			// Every MMSI matches an empty prefix
+			sartPrefix = 0;
+			sartPrefixLimit = 1;
+			return;
+		}
+		if (prefix.length() > 18 || prefix.charAt(0) == '0' || !StringUtils.isNumeric(prefix)) {
+			// No MMSI can start with this
+			sartPrefix = -1;
+			return;
+		}
+		sartPrefix = Long.parseLong(prefix);
+		sartPrefixLimit = 1;
+		for (int i = 0; i < prefix.length(); i++) {
+			sartPrefixLimit *= 10;
+		}
 	}
 
 	/**
-	 * Update vessel target position data
+	 * Update vessel target position data. The position data of an existing
+	 * target is updated in place.
 	 * @param mmsi
-	 * @param positionData
+	 * @param posMessage message #1, #2, #3 or #18
+	 * @param aisPos
 	 * @param aisClass
 	 */
-	private synchronized void updatePos(long mmsi, VesselPositionData positionData, VesselTarget.AisClass aisClass) {
-		if (!isWithinRange(positionData.getPos())) {
+	private void updatePos(long mmsi, AisMessage posMessage, AisPosition aisPos, VesselTarget.AisClass aisClass) {
+		double lat = aisPos.getLatitude() / 600000.0;
+		double lon = aisPos.getLongitude() / 600000.0;
+		// Position not available
+		if (lat > 90 || lon > 180) {
+			refreshWithoutPosition(mmsi);
 			return;
 		}
 		
-		// Determine if this is SART
-		if (isSarTarget(mmsi)) {			
-			updateSartPos(mmsi, positionData);
-			return;
-		}
+		TargetStripe stripe = stripeFor(mmsi);
+		synchronized (stripe) {
+			if (!isWithinRange(lat, lon)) {
+				return;
+			}
+		
+			// Determine if this is SART
+			if (isSarTarget(mmsi)) {			
+				updateSartPos(mmsi, posMessage, lat, lon);
+				return;
+			}
 		
-		// Try to find exiting target
-		VesselTarget vesselTarget = vesselTargets.get(mmsi);
-		// If not exists, create and insert
-		if (vesselTarget == null) {
-			vesselTarget = new VesselTarget();
-			vesselTarget.getSettings().setShowRoute(EeINS.getSettings().getAisSettings().isShowIntendedRouteByDefault());
-			vesselTarget.setMmsi(mmsi);
-			vesselTargets.put(mmsi, vesselTarget);
-		}
-		// Update class and pos data
-		vesselTarget.setAisClass(aisClass);
-		vesselTarget.setPositionData(positionData);
-		// Update track
-		// TODO
-		// Update last received
-		vesselTarget.setLastReceived(GnssTime.getInstance().getDate());
-		// Update status
-		vesselTarget.setStatus(AisTarget.Status.OK);
-		// Publish update
-		publishUpdate(vesselTarget);
+			// Try to find exiting target
+			VesselTarget vesselTarget = stripe.vesselTargets.get(mmsi);
+			// If not exists, create and insert
+			if (vesselTarget == null) {
+				vesselTarget = new VesselTarget();
+				vesselTarget.getSettings().setShowRoute(EeINS.getSettings().getAisSettings().isShowIntendedRouteByDefault());
+				vesselTarget.setMmsi(mmsi);
+				vesselTarget.setStaticData(staticRegistry.get(mmsi));
+				stripe.vesselTargets.put(mmsi, vesselTarget);
+				vesselCount.incrementAndGet();
+				publishAdded(stripe, vesselTarget);
+			}
+			// Update class and pos data
+			vesselTarget.setAisClass(aisClass);
+			vesselTarget.setPositionData(updatePositionData(vesselTarget.getPositionData(), posMessage));
+			grid.update(vesselTarget, lat, lon);
+			long now = GnssTime.getInstance().getTime();
+			// Update track
+			trackStore.add(mmsi, lat, lon, now);
+			// Update last received
+			vesselTarget.setLastReceived(now);
+			kinematics.update(vesselTarget);
+			// Update status
+			vesselTarget.setStatus(AisTarget.Status.OK);
+			scheduleAging(vesselTarget);
+			// Publish update
+			publishUpdate(vesselTarget);
+		}
+	}
+	
+	/**
+	 * Keep a known vessel or SART reporting without a position from going
+	 * gone. Its last position is kept, and listeners are only told if it
+	 * comes back from gone, so displays keep predicting from the last
+	 * position reported. No target is created without a position.
+	 * @param mmsi
+	 */
+	private void refreshWithoutPosition(long mmsi) {
+		TargetStripe stripe = stripeFor(mmsi);
+		synchronized (stripe) {
+			AisTarget aisTarget = isSarTarget(mmsi) ? stripe.sarTargets.get(mmsi) : stripe.vesselTargets.get(mmsi);
+			if (aisTarget == null) {
+				return;
+			}
+			boolean wasOk = aisTarget.getStatus() == AisTarget.Status.OK;
+			aisTarget.setLastReceived(GnssTime.getInstance().getTime());
+			aisTarget.setStatus(AisTarget.Status.OK);
+			scheduleAging(aisTarget);
+			if (wasOk) {
+				stripe.markJournalChanged(aisTarget);
+				version.incrementAndGet();
+			} else {
+				publishUpdate(aisTarget);
+			}
+		}
 	}
 	
 	/**
 	 * Update SART position data
 	 * @param mmsi
-	 * @param positionData
-	 */
-	private synchronized void updateSartPos(long mmsi,  VesselPositionData positionData) {
-		Date now = GnssTime.getInstance().getDate();
-		// Try to find target
-		SarTarget sarTarget = sarTargets.get(mmsi);
-		// If not exists, create and insert
-		if (sarTarget == null) {
-			sarTarget = new SarTarget();
-			sarTarget.setMmsi(mmsi);
-			sarTarget.setFirstReceived(now);
-			sarTargets.put(mmsi, sarTarget);
-		}
-		// Update pos data
-		sarTarget.setPositionData(positionData);
-		// Update last received
-		sarTarget.setLastReceived(now);
-		// Update status
-		sarTarget.setStatus(AisTarget.Status.OK);
-		// Update old
-		sarTarget.setOld(false);
-		// Publish update
-		publishUpdate(sarTarget);
+	 * @param posMessage
+	 * @param lat
+	 * @param lon
+	 */
+	private void updateSartPos(long mmsi, AisMessage posMessage, double lat, double lon) {
+		TargetStripe stripe = stripeFor(mmsi);
+		synchronized (stripe) {
+			long now = GnssTime.getInstance().getTime();
+			// Try to find target
+			SarTarget sarTarget = stripe.sarTargets.get(mmsi);
+			// If not exists, create and insert
+			if (sarTarget == null) {
+				sarTarget = new SarTarget();
+				sarTarget.setMmsi(mmsi);
+				sarTarget.setFirstReceived(new Date(now));
+				stripe.sarTargets.put(mmsi, sarTarget);
+				publishAdded(stripe, sarTarget);
+			}
+			// Update pos data
+			sarTarget.setPositionData(updatePositionData(sarTarget.getPositionData(), posMessage));
+			grid.update(sarTarget, lat, lon);
+			// Update last received
+			sarTarget.setLastReceived(now);
+			// Update status
+			sarTarget.setStatus(AisTarget.Status.OK);
+			// Update old
+			sarTarget.setOld(false);
+			scheduleAging(sarTarget);
+			// Publish update
+			publishUpdate(sarTarget);
+		}
+	}
+	
+	/**
+	 * Update position data in place or create if none
+	 * @param positionData existing position data or null
+	 * @param posMessage message #1, #2, #3 or #18
+	 * @return
+	 */
+	private static VesselPositionData updatePositionData(VesselPositionData positionData, AisMessage posMessage) {
+		if (posMessage instanceof AisPositionMessage) {
+			if (positionData == null) {
+				return new VesselPositionData((AisPositionMessage) posMessage);
+			}
+			positionData.update((AisPositionMessage) posMessage);
+		} else {
+			if (positionData == null) {
+				return new VesselPositionData((AisMessage18) posMessage);
+			}
+			positionData.update((AisMessage18) posMessage);
+		}
+		return positionData;
 	}
 	
 	/**
@@ -457,56 +820,126 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 	 * @param pos
 	 * @return
 	 */
-	private synchronized boolean isWithinRange(GeoLocation pos) {
+	private boolean isWithinRange(double lat, double lon) {
 		if (getAisRange() <= 0) {
 			return true;
 		}
-		GpsData gpsData = EeINS.getGpsHandler().getCurrentData();
-		if (gpsData == null) {
+		GpsData gpsData = ownPosition;
+		if (gpsData == null || gpsData.getPosition() == null) {
 			return false;
 		}
 		if (gpsData.isBadPosition()) {
 			// If simulation we will not accept targets before own pos is known once
-			if (EeINS.getSettings().getSensorSettings().isSimulateGps() && vesselTargets.size() == 0) {
+			if (EeINS.getSettings().getSensorSettings().isSimulateGps() && vesselCount.get() == 0) {
 				return false;
 			}
 		}
 		
-		double distance = gpsData.getPosition().getRhumbLineDistance(pos) / 1852.0;
+		GeoLocation ownPos = gpsData.getPosition();
+		double distance = Calculator.rhumbLineDistance(ownPos.getLatitude(), ownPos.getLongitude(), lat, lon) / 1852.0;
 		return (distance <= aisRange);		
 	}
 
 	/**
-	 * Publish the update of a target to all listeners
+	 * Keep own position for range checks. The data is a copy made for this
+	 * listener and is not changed after it is received.
+	 */
+	@Override
+	public void gpsDataUpdate(GpsData gpsData) {
+		ownPosition = gpsData;
+	}
+
+	/**
+	 * Publish the update of a target to all listeners. Must be called holding
+	 * the lock of the target.
+	 * @param aisTarget
+	 */
+	private void publishUpdate(AisTarget aisTarget) {
+		version.incrementAndGet();
+		// The iterator is not always optimized away, so skip it when unused
+		if (!listeners.isEmpty()) {
+			for (IAisTargetListener listener : listeners) {
+				listener.targetUpdated(aisTarget);
+			}
+		}
+		TargetStripe stripe = stripeFor(aisTarget.getMmsi());
+		stripe.markJournalChanged(aisTarget);
+		if (dispatcher.hasListeners()) {
+			stripe.markUpdated(aisTarget);
+		}
+	}
+	
+	/**
+	 * Mark target as added for the batch listeners. Must be called holding the
+	 * lock of the stripe.
+	 * @param stripe
 	 * @param aisTarget
 	 */
-	private synchronized void publishUpdate(AisTarget aisTarget) {
-		for (IAisTargetListener listener : listeners) {
-			listener.targetUpdated(aisTarget);
+	private void publishAdded(TargetStripe stripe, AisTarget aisTarget) {
+		if (dispatcher.hasListeners()) {
+			stripe.markAdded(aisTarget);
 		}
 	}
 	
-	private synchronized void publishAll() {
+	/**
+	 * Collect the changes since last call for the batch listeners
+	 * @param changes
+	 */
+	void collectChanges(AisTargetChanges changes) {
+		for (TargetStripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.drainTo(changes);
+			}
+		}
+	}
+	
+	/**
+	 * Collect copies of the targets changed and removed since last call for
+	 * the journal of the view file
+	 * @param changed
+	 * @param removed
+	 */
+	void collectJournal(List<AisTarget> changed, List<AisTarget> removed) {
+		for (TargetStripe stripe : stripes) {
+			synchronized (stripe) {
+				stripe.drainJournalTo(changed, removed);
+			}
+		}
+	}
+	
+	private void publishAll() {
 		LOG.debug("Published all targets");
-		publishAll(vesselTargets.values());
-		publishAll(atonTargets.values());
-		publishAll(sarTargets.values());
+		for (TargetStripe stripe : stripes) {
+			synchronized (stripe) {
+				publishAll(stripe.vesselTargets.values());
+				publishAll(stripe.atonTargets.values());
+				publishAll(stripe.sarTargets.values());
+			}
+		}
 	}
 	
-	private synchronized void publishAll(Collection<?> targets) {
-		for (Object aisTarget : targets) {
-			publishUpdate((AisTarget)aisTarget);
+	private void publishAll(Iterable<? extends AisTarget> targets) {
+		for (AisTarget aisTarget : targets) {
+			publishUpdate(aisTarget);
 		}
 	}
 	
-	public synchronized void addListener(IAisTargetListener targetListener) {
+	public void addListener(IAisTargetListener targetListener) {
 		listeners.add(targetListener);
 	}
 	
-	public synchronized void removeListener(IAisTargetListener targetListener) {
+	public void removeListener(IAisTargetListener targetListener) {
 		listeners.remove(targetListener);
 	}
 	
+	public void addBatchListener(IAisTargetBatchListener batchListener) {
+		dispatcher.addListener(batchListener);
+	}
+	
+	public void removeBatchListener(IAisTargetBatchListener batchListener) {
+		dispatcher.removeListener(batchListener);
+	}
+	
 	public void addRouteSuggestionListener(IAisRouteSuggestionListener routeSuggestionListener) {
 		suggestionListeners.add(routeSuggestionListener);
 	}
@@ -515,67 +948,178 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 		suggestionListeners.remove(routeSuggestionListener);
 	}
 	
-	public synchronized VesselTarget getOwnShip() {		
-		if (ownShip == null) return null;
-		return new VesselTarget(ownShip);
-	}
-
 	/**
-	 * Update status of all targets
+	 * Get a copy of own ship. The copy is shared between callers until own
+	 * ship changes and must not be modified.
+	 * @return
 	 */
-	private synchronized void updateStatus() {
-		Date now = GnssTime.getInstance().getDate();
-		List<Long> deadTargets = new ArrayList<Long>();
-
-		// Go through all vessel targets
-		for (VesselTarget vesselTarget : vesselTargets.values()) {
-			if (updateTarget(vesselTarget, now)) {
-				deadTargets.add(vesselTarget.getMmsi());
+	public VesselTarget getOwnShip() {
+		VesselTarget copy = ownShipCopy;
+		if (copy != null) {
+			return copy;
+		}
+		synchronized (this) {
+			if (ownShip == null) return null;
+			if (ownShipCopy == null) {
+				ownShipCopy = new VesselTarget(ownShip);
 			}
+			return ownShipCopy;
 		}
-		
-		// Remove dead targets
-		for (Long mmsi : deadTargets) {
-			LOG.debug("Dead target " + mmsi);
-			vesselTargets.remove(mmsi);
+	}
+	
+	/**
+	 * Get an immutable snapshot of the target tables. A new snapshot is made
+	 * when the tables have changed and the current snapshot is older than
+	 * SNAPSHOT_MAX_AGE, so readers are never more than that behind. Targets
+	 * are copied one at a time under their own lock and ingest is never
+	 * blocked for more than the copy of a single target.
+	 * @return
+	 */
+	public AisTargetSnapshot getSnapshot() {
+		return getSnapshot(SNAPSHOT_MAX_AGE);
+	}
+	
+	/**
+	 * Get a snapshot holding all changes made before the call
+	 * @return
+	 */
+	AisTargetSnapshot getCurrentSnapshot() {
+		return getSnapshot(0);
+	}
+	
+	private AisTargetSnapshot getSnapshot(long maxAge) {
+		AisTargetSnapshot current = snapshot;
+		if (isSnapshotValid(current, maxAge)) {
+			return current;
 		}
-		
-		deadTargets.clear();
-
-		// Go through all aton targets
-		for (AtoNTarget atonTarget : atonTargets.values()) {
-			if (updateTarget(atonTarget, now)) {
-				deadTargets.add(atonTarget.getMmsi());
+		synchronized (snapshotLock) {
+			current = snapshot;
+			if (isSnapshotValid(current, maxAge)) {
+				return current;
 			}
+			// Read version before copying, changes while copying gives a new
+			// snapshot next time
+			long currentVersion = version.get();
+			Map<Long, VesselTarget> vesselCopies = new HashMap<Long, VesselTarget>(vesselCount.get() * 2);
+			Map<Long, AtoNTarget> atonCopies = new HashMap<Long, AtoNTarget>();
+			Map<Long, SarTarget> sarCopies = new HashMap<Long, SarTarget>();
+			for (TargetStripe stripe : stripes) {
+				synchronized (stripe) {
+					for (VesselTarget vesselTarget : stripe.vesselTargets.values()) {
+						vesselCopies.put(vesselTarget.getMmsi(), new VesselTarget(vesselTarget));
+					}
+					for (AtoNTarget atonTarget : stripe.atonTargets.values()) {
+						atonCopies.put(atonTarget.getMmsi(), new AtoNTarget(atonTarget));
+					}
+					for (SarTarget sarTarget : stripe.sarTargets.values()) {
+						sarCopies.put(sarTarget.getMmsi(), new SarTarget(sarTarget));
+					}
+				}
+			}
+			current = new AisTargetSnapshot(currentVersion, vesselCopies, atonCopies, sarCopies, getOwnShip());
+			snapshot = current;
+			return current;
 		}
-		
-		// Remove dead targets
-		for (Long mmsi : deadTargets) {
-			LOG.debug("Dead AtoN target " + mmsi);
-			atonTargets.remove(mmsi);
+	}
+	
+	private boolean isSnapshotValid(AisTargetSnapshot current, long maxAge) {
+		if (current == null) {
+			return false;
 		}
-		
-		deadTargets.clear();
-		
-		// Go through all sart targets
-		for (SarTarget sarTarget : sarTargets.values()) {
-			if (updateTarget(sarTarget, now)) {
-				deadTargets.add(sarTarget.getMmsi());
+		if (current.getVersion() == version.get()) {
+			return true;
+		}
+		return System.currentTimeMillis() - current.getCreated() < maxAge;
+	}
+
+	/**
+	 * Check the targets due in the aging wheel
+	 */
+	private void ageTargets() {
+		long now = GnssTime.getInstance().getTime();
+		Date nowDate = new Date(now);
+		for (AisTarget aisTarget : agingWheel.advance(now)) {
+			ageTarget(aisTarget, now, nowDate);
+		}
+	}
+	
+	/**
+	 * Update status of target if its aging deadline has passed and schedule
+	 * the next check. Dead targets are removed.
+	 * @param aisTarget
+	 * @param now
+	 * @param nowDate
+	 */
+	private void ageTarget(AisTarget aisTarget, long now, Date nowDate) {
+		long mmsi = aisTarget.getMmsi();
+		TargetStripe stripe = stripeFor(mmsi);
+		synchronized (stripe) {
+			// Rescheduled or removed since
+			long deadline = aisTarget.getAgingDeadline();
+			LongObjectMap<? extends AisTarget> targets = stripe.tableOf(aisTarget);
+			if (deadline == 0 || deadline > now || targets.get(mmsi) != aisTarget) {
+				return;
 			}
+			aisTarget.setAgingDeadline(0);
+			// A target not checked for long, e.g. when loaded, may need more
+			// than one step
+			for (int i = 0; i < MAX_AGING_STEPS; i++) {
+				if (updateTarget(aisTarget, nowDate)) {
+					LOG.debug("Dead target " + mmsi);
+					grid.remove(aisTarget);
+					trackStore.remove(mmsi);
+					targets.remove(mmsi);
+					stripe.markJournalRemoved(aisTarget);
+					if (dispatcher.hasListeners()) {
+						stripe.markRemoved(aisTarget);
+					}
+					if (aisTarget instanceof VesselTarget) {
+						vesselCount.decrementAndGet();
+						kinematics.remove((VesselTarget) aisTarget);
+					}
+					version.incrementAndGet();
+					return;
+				}
+				if (getAgingTime(aisTarget) > now) {
+					break;
+				}
+			}
+			scheduleAging(aisTarget);
 		}
-		
-		// Remove dead targets
-		for (Long mmsi : deadTargets) {
-			LOG.debug("Dead target " + mmsi);
-			sarTargets.remove(mmsi);
+	}
+	
+	/**
+	 * Schedule the next aging check of target unless one is already
+	 * scheduled earlier. Must be called holding the lock of the target.
+	 * @param aisTarget
+	 */
+	private void scheduleAging(AisTarget aisTarget) {
+		long deadline = getAgingTime(aisTarget);
+		long current = aisTarget.getAgingDeadline();
+		if (current == 0 || deadline < current) {
+			aisTarget.setAgingDeadline(deadline);
+			agingWheel.schedule(aisTarget, deadline);
 		}
-		
-		deadTargets.clear();
-
-		
-		
 	}
 	
+	/**
+	 * Get the first time the status of target may change without further
+	 * reports: gone, dead, route expired or SART old.
+	 * @param aisTarget
+	 * @return time in milliseconds
+	 */
+	private long getAgingTime(AisTarget aisTarget) {
+		if (aisTarget.isGone()) {
+			return aisTarget.getLastReceivedTime() + TARGET_TTL + 1;
+		}
+		long time = aisTarget.getGoneTime(EeINS.getSettings().getAisSettings().isStrict());
+		if (aisTarget instanceof VesselTarget) {
+			time = Math.min(time, ((VesselTarget) aisTarget).getRouteExpiry());
+		} else if (aisTarget instanceof SarTarget) {
+			time = Math.min(time, ((SarTarget) aisTarget).getOldTime());
+		}
+		return time;
+	}
 	
 	/**
 	 * Update AIS target. Return true if the target is considered dead, not just gone
@@ -584,33 +1128,35 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 	 * @return
 	 */
 	private boolean updateTarget(AisTarget aisTarget, Date now) {
-		if (aisTarget.isGone()) {
-			// Maybe too old and needs to be deleted
-			if (aisTarget.isDeadTarget(TARGET_TTL, now)) {							
-				return true;
-			}
-			return false;
-		}
-		if (aisTarget.hasGone(now, EeINS.getSettings().getAisSettings().isStrict())) {
-			aisTarget.setStatus(AisTarget.Status.GONE);
-			publishUpdate(aisTarget);
-			return false;
-		}
-		// Check if route information is invalid
-		if (aisTarget instanceof VesselTarget) {
-			if (((VesselTarget)aisTarget).checkAisRouteData()) {
-				publishUpdate(aisTarget);
+		synchronized (stripeFor(aisTarget.getMmsi())) {
+			if (aisTarget.isGone()) {
+				// Maybe too old and needs to be deleted
+				if (aisTarget.isDeadTarget(TARGET_TTL, now)) {							
+					return true;
+				}
 				return false;
 			}
-		}
-		// Check if sart has gone old
-		if (aisTarget instanceof SarTarget) {
-			if (((SarTarget)aisTarget).hasGoneOld(now)) {
+			if (aisTarget.hasGone(now, EeINS.getSettings().getAisSettings().isStrict())) {
+				aisTarget.setStatus(AisTarget.Status.GONE);
 				publishUpdate(aisTarget);
 				return false;
 			}
+			// Check if route information is invalid
+			if (aisTarget instanceof VesselTarget) {
+				if (((VesselTarget)aisTarget).checkAisRouteData()) {
+					publishUpdate(aisTarget);
+					return false;
+				}
+			}
+			// Check if sart has gone old
+			if (aisTarget instanceof SarTarget) {
+				if (((SarTarget)aisTarget).hasGoneOld(now)) {
+					publishUpdate(aisTarget);
+					return false;
+				}
+			}
+			return false;
 		}
-		return false;
 	}
 	
 	public double getAisRange() {
@@ -628,9 +1174,9 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 		publishAll();
 		
 		while (true) {
-			EeINS.sleep(10000);
-			// Update status on targets
-			updateStatus();
+			EeINS.sleep(AisTargetWheel.DEFAULT_TICK);
+			// Update status on targets due
+			ageTargets();
 		}
 	}
 
@@ -642,11 +1188,17 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 				LOG.info("Found AIS sensor");
 				nmeaSensor = sensor;
 				nmeaSensor.addAisListener(this);
+				aisStatus.setPipeline(nmeaSensor.getPipeline());
 			}
 		}
 		else if (obj instanceof AisServices) {
 			aisServices = (AisServices)obj;
 		}
+		else if (gpsHandler == null && obj instanceof GpsHandler) {
+			gpsHandler = (GpsHandler)obj;
+			gpsHandler.addListener(this);
+			ownPosition = gpsHandler.getCurrentData();
+		}
 	}
 	
 	@Override
@@ -654,6 +1206,10 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 		if (obj == nmeaSensor) {
 			nmeaSensor.removeAisListener(this);
 		}
+		else if (obj == gpsHandler) {
+			gpsHandler.removeListener(this);
+			gpsHandler = null;
+		}
 	}
 
 	@Override
@@ -665,32 +1221,108 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 		return aisStatus;
 	}
 	
+	/**
+	 * Find targets inside a box. A box where minLon is greater than maxLon
+	 * crosses the date line.
+	 * @param minLat
+	 * @param minLon
+	 * @param maxLat
+	 * @param maxLon
+	 * @return MMSI's of targets found
+	 */
+	public List<Long> queryBox(double minLat, double minLon, double maxLat, double maxLon) {
+		return grid.queryBox(minLat, minLon, maxLat, maxLon);
+	}
+	
+	/**
+	 * Insert loaded targets, index them and update to old and gone
+	 * @param targets
+	 * @return number of targets inserted
+	 */
+	private int addLoaded(Collection<? extends AisTarget> targets) {
+		long now = GnssTime.getInstance().getTime();
+		Date nowDate = new Date(now);
+		int count = 0;
+		for (AisTarget aisTarget : targets) {
+			TargetStripe stripe = stripeFor(aisTarget.getMmsi());
+			synchronized (stripe) {
+				// Targets received since start are kept
+				if (stripe.tableOf(aisTarget).containsKey(aisTarget.getMmsi())) {
+					continue;
+				}
+				stripe.put(aisTarget);
+				count++;
+				if (aisTarget instanceof VesselTarget) {
+					VesselTarget vesselTarget = (VesselTarget) aisTarget;
+					vesselTarget.setStaticData(staticRegistry.merge(vesselTarget.getMmsi(), vesselTarget.getStaticData()));
+					vesselCount.incrementAndGet();
+					kinematics.update(vesselTarget);
+				}
+				GeoLocation pos = aisTarget.getPos();
+				if (pos != null) {
+					grid.update(aisTarget, pos.getLatitude(), pos.getLongitude());
+				}
+				scheduleAging(aisTarget);
+				ageTarget(aisTarget, now, nowDate);
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Get the track history of a vessel target
+	 * @param mmsi
+	 * @param since oldest point to include in milliseconds
+	 * @return latitude and longitude pairs in degrees, oldest first, or null if no track
+	 */
+	public double[] getTrack(long mmsi, long since) {
+		return trackStore.getTrack(mmsi, since);
+	}
+	
+	public AisTrackStore getTrackStore() {
+		return trackStore;
+	}
+	
+	/**
+	 * Get the columnar store of vessel kinematics for bulk computations
+	 * @return
+	 */
+	public KinematicStore getKinematics() {
+		return kinematics;
+	}
+	
+	public VesselStaticRegistry getStaticRegistry() {
+		return staticRegistry;
+	}
+	
 	public Map<Long, VesselTarget> getVesselTargets() {
-		return vesselTargets;
+		return getSnapshot().getVesselTargets();
 	}
 	
-	public synchronized List<AisMessageExtended> getShipList() {
+	public List<AisMessageExtended> getShipList() {
 		List<AisMessageExtended> list = new ArrayList<AisMessageExtended>();
+		Map<Long, VesselTarget> vesselTargets = getVesselTargets();
+		GpsData gpsData = EeINS.getGpsHandler().getCurrentData();
 	
-		if (this.getVesselTargets() != null){
+		if (vesselTargets != null){
 			GeoLocation ownPosition;
 			double hdg = -1;
 			GeoLocation targetPosition = null;
 			
 
-			for (Long key : this.getVesselTargets().keySet()) {
+			for (Long key : vesselTargets.keySet()) {
 				String name = " N/A";	
 				String dst = "N/A";
-				VesselTarget currentTarget = this.getVesselTargets().get(key);
+				VesselTarget currentTarget = vesselTargets.get(key);
 				
 				if (currentTarget.getStaticData() != null ){
-					name = " " + AisMessage.trimText(this.getVesselTargets().get(key).getStaticData().getName());
+					name = " " + AisMessage.trimText(currentTarget.getStaticData().getName());
 				}
-				if (!EeINS.getGpsHandler().getCurrentData().isBadPosition()){
-					ownPosition = EeINS.getGpsHandler().getCurrentData().getPosition();
+				if (!gpsData.isBadPosition()){
+					ownPosition = gpsData.getPosition();
 					
 					if (currentTarget.getPositionData().getPos() != null){
-						targetPosition = this.getVesselTargets().get(key).getPositionData().getPos();
+						targetPosition = currentTarget.getPositionData().getPos();
 						NumberFormat nf = NumberFormat.getInstance();  
 						nf.setMaximumFractionDigits(2);
 						dst = nf.format(Converter.metersToNm(ownPosition.getRhumbLineDistance(targetPosition))) + " NM";
@@ -702,7 +1334,7 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 			    //System.out.println("Key: " + key + ", Value: " + this.getVesselTargets().get(key));
 			    AisMessageExtended newEntry = new AisMessageExtended(name, key, hdg, dst);
 			    
-			    if (!this.getVesselTargets().get(key).isGone()){
+			    if (!currentTarget.isGone()){
 			    	list.add(newEntry);
 			    }
 			}
@@ -713,70 +1345,64 @@ public class AisHandler extends MapHandlerChild implements IAisListener, IStatus
 	/**
 	 * Try to load AIS view from disk
 	 */
-	public synchronized void loadView() {
+	public void loadView() {
 		AisStore aisStore = null;		 
 		
+		// Load static data of known vessels and start writing changes
+		staticRegistry.load();
+		EeINS.startThread(staticRegistry, "VesselStaticRegistry");
+		
+		long start = System.nanoTime();
 		try {
-			FileInputStream fileIn = new FileInputStream(aisViewFile);
-			ObjectInputStream objectIn = new ObjectInputStream(fileIn);
-			aisStore = (AisStore) objectIn.readObject();
-			objectIn.close();
-			fileIn.close();
-		} catch (FileNotFoundException e) {
-			// Not an error
+			aisStore = viewFile.read();
 		} catch (Exception e) {
 			LOG.error("Failed to load AIS view file: " + e.getMessage());
 			// Delete possible corrupted or old file
-			(new File(aisViewFile)).delete();
+			viewFile.delete();
 		}
 		
+		// Start writing checkpoints of targets changed
+		EeINS.startThread(new AisViewCheckpoint(this, viewFile, CHECKPOINT_INTERVAL), "AisViewCheckpoint");
+		
 		if (aisStore == null) {
 			return;
 		}
 		
-		// Retrieve targets
+		// Insert loaded targets, index them and update to old and gone
+		int count = 0;
 		if (aisStore.getVesselTargets() != null) {
-			vesselTargets = aisStore.getVesselTargets();
+			count += addLoaded(aisStore.getVesselTargets().values());
 		}
 		if (aisStore.getAtonTargets() != null) {
-			atonTargets = aisStore.getAtonTargets();
+			count += addLoaded(aisStore.getAtonTargets().values());
 		}
 		if (aisStore.getSarTargets() != null) {
-			sarTargets = aisStore.getSarTargets();
+			count += addLoaded(aisStore.getSarTargets().values());
 		}
 		
 		// Retrieve own ship
 		ownShip = aisStore.getOwnShip();
+		ownShipCopy = null;
+		version.incrementAndGet();
 		
-		LOG.info("AIS handler loaded total targets: " + (vesselTargets.size() + atonTargets.size() + sarTargets.size()));
-				
-		// Update status to update old and gone (twice for old and gone)
-		updateStatus();
-		updateStatus();
-		
+		LOG.info("AIS handler loaded total targets: " + count
+				+ " in " + EeINS.elapsed(start) + " ms");
 	}
 	
 	/**
 	 * Save AIS view to file
 	 */
-	public synchronized void saveView() {
-		AisStore aisStore = new AisStore();
-		aisStore.setVesselTargets(vesselTargets);
-		aisStore.setAtonTargets(atonTargets);
-		aisStore.setSarTargets(sarTargets);
-		ownShip.setPositionData(null);
-		aisStore.setOwnShip(ownShip);
-		
+	public void saveView() {
 		try {
-			FileOutputStream fileOut = new FileOutputStream(aisViewFile);
-			ObjectOutputStream objectOut = new ObjectOutputStream(fileOut);
-			objectOut.writeObject(aisStore);
-			objectOut.close();
-			fileOut.close();
+			viewFile.write(getCurrentSnapshot());
 		} catch (IOException e) {
-			e.printStackTrace();
 			LOG.error("Failed to save Ais view file: " + e.getMessage());
 		}
+		try {
+			staticRegistry.flush();
+		} catch (IOException e) {
+			LOG.error("Failed to save vessel static registry: " + e.getMessage());
+		}
 	}
 	
 }
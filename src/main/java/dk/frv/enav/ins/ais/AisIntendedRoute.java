@@ -45,6 +45,13 @@ public class AisIntendedRoute extends AisRouteData {
 	protected Double speed = null;
 	protected Double activeWpRange = null;
 	
+	/**
+	 * Empty constructor, e.g. for reading from file
+	 */
+	protected AisIntendedRoute() {
+		super();
+	}
+	
 	/**
 	 * Copy constructor
 	 * @param routeData
@@ -59,6 +59,13 @@ public abstract class AisRouteData implements Serializable {
 	protected int routeType;
 	protected int senderClassification;
 	
+	/**
+	 * Empty constructor, e.g. for reading from file
+	 */
+	protected AisRouteData() {
+		
+	}
+	
 	/**
 	 * Copy constructor
 	 * @param routeData
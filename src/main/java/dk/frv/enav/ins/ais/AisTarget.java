@@ -32,6 +32,8 @@ package dk.frv.enav.ins.ais;
 import java.io.Serializable;
 import java.util.Date;
 
+import dk.frv.ais.geo.GeoLocation;
+
 /**
  * Abstract base class for AIS targets
  */
@@ -44,9 +46,13 @@ public abstract class AisTarget implements Serializable {
 	 */
 	public enum Status {OK, GONE};
 	
-	protected Date lastReceived;
+	protected long lastReceived;
 	protected long mmsi;
 	protected Status status;
+	// Entry in the spatial index, null when not indexed
+	private transient AisTargetGrid.Entry gridEntry;
+	// Time of next aging check, zero when not scheduled
+	private transient long agingDeadline;
 	
 	public AisTarget() {
 		status = Status.OK;
@@ -68,7 +74,26 @@ public abstract class AisTarget implements Serializable {
 	 * @param strict
 	 * @return
 	 */
-	public abstract boolean hasGone(Date now, boolean strict);
+	public boolean hasGone(Date now, boolean strict) {
+		long elapsed = (now.getTime() - lastReceived) / 1000;
+		return (elapsed > getGoneTimeout(strict));
+	}
+	
+	/**
+	 * Seconds without reports before the target has gone
+	 * @param strict
+	 * @return
+	 */
+	public abstract long getGoneTimeout(boolean strict);
+	
+	/**
+	 * Time the target will have gone without further reports
+	 * @param strict
+	 * @return time in milliseconds
+	 */
+	public long getGoneTime(boolean strict) {
+		return lastReceived + (getGoneTimeout(strict) + 1) * 1000;
+	}
 	
 	/**
 	 * Determine if target is dead given ttl (time-to-live)
@@ -77,14 +102,26 @@ public abstract class AisTarget implements Serializable {
 	 * @return
 	 */
 	public boolean isDeadTarget(long ttl, Date now) {
-		return (now.getTime() - lastReceived.getTime() > ttl);		
+		return (now.getTime() - lastReceived > ttl);		
 	}
 	
 	public void setLastReceived(Date lastReceived) {
+		this.lastReceived = lastReceived.getTime();
+	}
+	
+	/**
+	 * Set last received time in milliseconds
+	 * @param lastReceived
+	 */
+	public void setLastReceived(long lastReceived) {
 		this.lastReceived = lastReceived;
 	}
 	
 	public Date getLastReceived() {
+		return new Date(lastReceived);
+	}
+	
+	public long getLastReceivedTime() {
 		return lastReceived;
 	}
 	
@@ -104,6 +141,30 @@ public abstract class AisTarget implements Serializable {
 		this.status = status;
 	}
 	
+	/**
+	 * Get the current position of the target
+	 * @return position or null if not known
+	 */
+	public GeoLocation getPos() {
+		return null;
+	}
+	
+	AisTargetGrid.Entry getGridEntry() {
+		return gridEntry;
+	}
+	
+	void setGridEntry(AisTargetGrid.Entry gridEntry) {
+		this.gridEntry = gridEntry;
+	}
+	
+	long getAgingDeadline() {
+		return agingDeadline;
+	}
+	
+	void setAgingDeadline(long agingDeadline) {
+		this.agingDeadline = agingDeadline;
+	}
+	
 	public boolean isGone() {
 		return (status == Status.GONE);
 	}
@@ -117,7 +178,7 @@ public abstract class AisTarget implements Serializable {
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
 		builder.append("AisTarget [lastReceived=");
-		builder.append(lastReceived);
+		builder.append(getLastReceived());
 		builder.append(", mmsi=");
 		builder.append(mmsi);
 		builder.append(", status=");
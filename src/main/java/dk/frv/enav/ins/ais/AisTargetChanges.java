@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Set of targets changed during one dispatch interval. A target appears in
+ * at most one of the lists. A target added and removed within the interval
+ * is not included, and a target removed and added again is included as
+ * updated. The targets are copies of the targets of the AIS handler.
+ */
+public class AisTargetChanges {
+
+	private final List<AisTarget> added = new ArrayList<AisTarget>();
+	private final List<AisTarget> updated = new ArrayList<AisTarget>();
+	private final List<AisTarget> removed = new ArrayList<AisTarget>();
+
+	AisTargetChanges() {
+
+	}
+
+	/**
+	 * @return targets not seen before
+	 */
+	public List<AisTarget> getAdded() {
+		return Collections.unmodifiableList(added);
+	}
+
+	/**
+	 * @return targets that have been updated, including targets that have
+	 *         gone. Targets loaded from the saved view are delivered as
+	 *         updated shortly after start.
+	 */
+	public List<AisTarget> getUpdated() {
+		return Collections.unmodifiableList(updated);
+	}
+
+	/**
+	 * @return targets removed from the tables of the AIS handler
+	 */
+	public List<AisTarget> getRemoved() {
+		return Collections.unmodifiableList(removed);
+	}
+
+	public int size() {
+		return added.size() + updated.size() + removed.size();
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	List<AisTarget> added() {
+		return added;
+	}
+
+	List<AisTarget> updated() {
+		return updated;
+	}
+
+	List<AisTarget> removed() {
+		return removed;
+	}
+
+	@Override
+	public String toString() {
+		return "AisTargetChanges [added=" + added.size() + ", updated=" + updated.size() + ", removed=" + removed.size()
+				+ "]";
+	}
+
+}
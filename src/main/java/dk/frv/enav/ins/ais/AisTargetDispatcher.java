@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.log4j.Logger;
+
+import dk.frv.enav.ins.EeINS;
+
+/**
+ * Delivers the target changes collected by the AIS handler to batch
+ * listeners. Changes are collected per MMSI between deliveries, so a target
+ * reporting several times within an interval gives one update.
+ */
+public class AisTargetDispatcher implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(AisTargetDispatcher.class);
+
+	private final AisHandler aisHandler;
+	private final long interval;
+	private final List<IAisTargetBatchListener> listeners = new CopyOnWriteArrayList<IAisTargetBatchListener>();
+
+	/**
+	 * @param aisHandler
+	 * @param interval
+	 *            time between deliveries in milliseconds
+	 */
+	public AisTargetDispatcher(AisHandler aisHandler, long interval) {
+		this.aisHandler = aisHandler;
+		this.interval = Math.max(interval, 10);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			EeINS.sleep(interval);
+			dispatch();
+		}
+	}
+
+	/**
+	 * Collect changes and deliver to listeners
+	 */
+	void dispatch() {
+		AisTargetChanges changes = new AisTargetChanges();
+		aisHandler.collectChanges(changes);
+		if (changes.isEmpty()) {
+			return;
+		}
+		for (IAisTargetBatchListener listener : listeners) {
+			try {
+				listener.targetsChanged(changes);
+			} catch (RuntimeException e) {
+				LOG.error("Failed to deliver " + changes + " to " + listener, e);
+			}
+		}
+	}
+
+	/**
+	 * @return if any listeners, if not changes need not be collected
+	 */
+	boolean hasListeners() {
+		return !listeners.isEmpty();
+	}
+
+	public void addListener(IAisTargetBatchListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(IAisTargetBatchListener listener) {
+		listeners.remove(listener);
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+}
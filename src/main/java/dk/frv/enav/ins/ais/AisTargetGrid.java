@@ -0,0 +1,232 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Spatial index of AIS targets on a regular latitude/longitude grid. A target
+ * is only moved between cells when it crosses a cell border, so keeping the
+ * index up to date costs next to nothing for most position reports. Each
+ * cell is locked on its own and there is no lock for the whole grid. The
+ * index keeps its own copy of the position of each target, written and read
+ * under the lock of the cell, so queries never see a position being updated.
+ * Query results are MMSI's of the targets found.
+ */
+public class AisTargetGrid {
+
+	/**
+	 * Default cell size in degrees
+	 */
+	public static final double DEFAULT_CELL_SIZE = 0.1;
+
+	private final double cellSize;
+	private final int rows;
+	private final int cols;
+	private final ConcurrentHashMap<Integer, List<Entry>> cells = new ConcurrentHashMap<Integer, List<Entry>>();
+
+	/**
+	 * Indexed target with its position, kept by the target while indexed
+	 */
+	static class Entry {
+		final long mmsi;
+		int cell;
+		double lat;
+		double lon;
+
+		Entry(long mmsi) {
+			this.mmsi = mmsi;
+		}
+	}
+
+	public AisTargetGrid() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	public AisTargetGrid(double cellSize) {
+		this.cellSize = cellSize;
+		this.rows = (int) Math.ceil(180 / cellSize);
+		this.cols = (int) Math.ceil(360 / cellSize);
+	}
+
+	/**
+	 * Update the position of target in the index. Updates of the same target
+	 * must be serialized by the caller.
+	 * 
+	 * @param target
+	 * @param lat
+	 * @param lon
+	 */
+	public void update(AisTarget target, double lat, double lon) {
+		int cell = cellOf(row(lat), col(lon));
+		Entry entry = target.getGridEntry();
+		if (entry != null && entry.cell == cell) {
+			List<Entry> list = cells.get(cell);
+			synchronized (list) {
+				entry.lat = lat;
+				entry.lon = lon;
+			}
+			return;
+		}
+		if (entry != null) {
+			removeFromCell(entry);
+		} else {
+			entry = new Entry(target.getMmsi());
+			target.setGridEntry(entry);
+		}
+		List<Entry> list = cells.get(cell);
+		if (list == null) {
+			list = new ArrayList<Entry>(4);
+			List<Entry> existing = cells.putIfAbsent(cell, list);
+			if (existing != null) {
+				list = existing;
+			}
+		}
+		synchronized (list) {
+			entry.cell = cell;
+			entry.lat = lat;
+			entry.lon = lon;
+			list.add(entry);
+		}
+	}
+
+	/**
+	 * Remove target from the index
+	 * 
+	 * @param target
+	 */
+	public void remove(AisTarget target) {
+		Entry entry = target.getGridEntry();
+		if (entry != null) {
+			removeFromCell(entry);
+			target.setGridEntry(null);
+		}
+	}
+
+	private void removeFromCell(Entry entry) {
+		List<Entry> list = cells.get(entry.cell);
+		if (list == null) {
+			return;
+		}
+		synchronized (list) {
+			for (int i = 0; i < list.size(); i++) {
+				if (list.get(i) == entry) {
+					// Order in a cell does not matter
+					list.set(i, list.get(list.size() - 1));
+					list.remove(list.size() - 1);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find targets inside box. A box where minLon is greater than maxLon
+	 * crosses the date line.
+	 * 
+	 * @param minLat
+	 * @param minLon
+	 * @param maxLat
+	 * @param maxLon
+	 * @return
+	 */
+	public List<Long> queryBox(double minLat, double minLon, double maxLat, double maxLon) {
+		List<Long> result = new ArrayList<Long>();
+		if (minLon > maxLon) {
+			collectBox(minLat, minLon, maxLat, 180, result);
+			collectBox(minLat, -180, maxLat, maxLon, result);
+		} else {
+			collectBox(minLat, minLon, maxLat, maxLon, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of targets in the index
+	 */
+	public int size() {
+		int size = 0;
+		for (List<Entry> list : cells.values()) {
+			synchronized (list) {
+				size += list.size();
+			}
+		}
+		return size;
+	}
+
+	private void collectBox(double minLat, double minLon, double maxLat, double maxLon, List<Long> result) {
+		int minRow = row(minLat);
+		int maxRow = row(maxLat);
+		int minCol = col(minLon);
+		int maxCol = col(maxLon);
+		for (int row = minRow; row <= maxRow; row++) {
+			for (int col = minCol; col <= maxCol; col++) {
+				List<Entry> list = cells.get(cellOf(row, col));
+				if (list == null) {
+					continue;
+				}
+				synchronized (list) {
+					for (Entry entry : list) {
+						if (entry.lat >= minLat && entry.lat <= maxLat && entry.lon >= minLon && entry.lon <= maxLon) {
+							result.add(entry.mmsi);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private int row(double lat) {
+		int row = (int) Math.floor((lat + 90) / cellSize);
+		return Math.max(0, Math.min(rows - 1, row));
+	}
+
+	private int col(double lon) {
+		int col = (int) Math.floor((normalizeLon(lon) + 180) / cellSize);
+		return Math.max(0, Math.min(cols - 1, col));
+	}
+
+	private int cellOf(int row, int col) {
+		return row * cols + col;
+	}
+
+	private static double normalizeLon(double lon) {
+		while (lon > 180) {
+			lon -= 360;
+		}
+		while (lon < -180) {
+			lon += 360;
+		}
+		return lon;
+	}
+
+}
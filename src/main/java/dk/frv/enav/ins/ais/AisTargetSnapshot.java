@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable view of the AIS target tables at one point in time. The targets
+ * are copies and will not change after the snapshot is made, so readers may
+ * use them freely without locking. Targets in a snapshot must not be
+ * modified as the snapshot is shared between readers.
+ */
+public class AisTargetSnapshot {
+
+	private final long version;
+	private final long created;
+	private final Map<Long, VesselTarget> vesselTargets;
+	private final Map<Long, AtoNTarget> atonTargets;
+	private final Map<Long, SarTarget> sarTargets;
+	private final VesselTarget ownShip;
+
+	public AisTargetSnapshot(long version, Map<Long, VesselTarget> vesselTargets, Map<Long, AtoNTarget> atonTargets,
+			Map<Long, SarTarget> sarTargets, VesselTarget ownShip) {
+		this.version = version;
+		this.created = System.currentTimeMillis();
+		this.vesselTargets = Collections.unmodifiableMap(vesselTargets);
+		this.atonTargets = Collections.unmodifiableMap(atonTargets);
+		this.sarTargets = Collections.unmodifiableMap(sarTargets);
+		this.ownShip = ownShip;
+	}
+
+	/**
+	 * Get target with mmsi
+	 * @param mmsi
+	 * @return target or null if not in snapshot
+	 */
+	public AisTarget getTarget(long mmsi) {
+		AisTarget target = vesselTargets.get(mmsi);
+		if (target == null) {
+			target = sarTargets.get(mmsi);
+		}
+		if (target == null) {
+			target = atonTargets.get(mmsi);
+		}
+		return target;
+	}
+
+	/**
+	 * Version of the target tables the snapshot was made from
+	 * @return
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Time the snapshot was made in milliseconds
+	 * @return
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	public Map<Long, VesselTarget> getVesselTargets() {
+		return vesselTargets;
+	}
+
+	public Map<Long, AtoNTarget> getAtonTargets() {
+		return atonTargets;
+	}
+
+	public Map<Long, SarTarget> getSarTargets() {
+		return sarTargets;
+	}
+
+	public VesselTarget getOwnShip() {
+		return ownShip;
+	}
+
+	public int size() {
+		return vesselTargets.size() + atonTargets.size() + sarTargets.size();
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel holding the time each AIS target is to be checked for
+ * gone, dead, old or expired route. Targets are scheduled in the slot of their
+ * deadline and only slots passed since the last advance are visited. Deadlines
+ * further away than one turn of the wheel stay in their slot until a later
+ * turn. When time goes back, e.g. when an older log is replayed or a replay
+ * seeks backwards, the wheel is anchored at the new time and all entries are
+ * scheduled again.
+ * <p>
+ * The wheel does not track if a target has been rescheduled. The owner keeps
+ * the current deadline in the target and ignores entries not matching it.
+ */
+public class AisTargetWheel {
+
+	/**
+	 * Default tick in milliseconds
+	 */
+	public static final long DEFAULT_TICK = 1000;
+	/**
+	 * Default number of slots, a little more than 17 minutes at one second
+	 */
+	public static final int DEFAULT_SLOTS = 1024;
+
+	private final long tick;
+	private final Entry[] slots;
+	private long currentTick;
+	private int size = 0;
+
+	/**
+	 * Entry in a slot list
+	 */
+	private static class Entry {
+		AisTarget target;
+		long deadline;
+		Entry next;
+
+		Entry(AisTarget target, long deadline, Entry next) {
+			this.target = target;
+			this.deadline = deadline;
+			this.next = next;
+		}
+	}
+
+	public AisTargetWheel(long now) {
+		this(now, DEFAULT_TICK, DEFAULT_SLOTS);
+	}
+
+	public AisTargetWheel(long now, long tick, int slots) {
+		this.tick = tick;
+		this.slots = new Entry[slots];
+		this.currentTick = now / tick;
+	}
+
+	/**
+	 * Schedule target to be returned by advance once deadline has passed.
+	 * Deadlines already passed are returned by the next advance.
+	 * 
+	 * @param target
+	 * @param deadline
+	 *            time in milliseconds
+	 */
+	public synchronized void schedule(AisTarget target, long deadline) {
+		insert(target, deadline);
+		size++;
+	}
+
+	private void insert(AisTarget target, long deadline) {
+		// Round up so the deadline has passed when the slot is visited
+		long deadlineTick = deadline / tick + ((deadline % tick == 0) ? 0 : 1);
+		deadlineTick = Math.max(deadlineTick, currentTick + 1);
+		int slot = (int) (deadlineTick % slots.length);
+		slots[slot] = new Entry(target, deadline, slots[slot]);
+	}
+
+	/**
+	 * Advance the wheel to now and remove entries with deadline passed
+	 * 
+	 * @param now
+	 *            time in milliseconds
+	 * @return targets due in no particular order
+	 */
+	public synchronized List<AisTarget> advance(long now) {
+		List<AisTarget> due = new ArrayList<AisTarget>();
+		long nowTick = now / tick;
+		if (nowTick < currentTick) {
+			anchor(nowTick);
+		}
+		long lastTick = Math.min(nowTick, currentTick + slots.length);
+		for (long t = currentTick + 1; t <= lastTick; t++) {
+			int slot = (int) (t % slots.length);
+			Entry prev = null;
+			Entry entry = slots[slot];
+			while (entry != null) {
+				if (entry.deadline <= now) {
+					due.add(entry.target);
+					size--;
+					if (prev == null) {
+						slots[slot] = entry.next;
+					} else {
+						prev.next = entry.next;
+					}
+				} else {
+					prev = entry;
+				}
+				entry = entry.next;
+			}
+		}
+		currentTick = Math.max(currentTick, nowTick);
+		return due;
+	}
+
+	/**
+	 * Move the wheel back to tick and schedule all entries again relative to
+	 * it. Deadlines already passed are returned by the next advance.
+	 * 
+	 * @param nowTick
+	 */
+	private void anchor(long nowTick) {
+		Entry all = null;
+		for (int i = 0; i < slots.length; i++) {
+			Entry entry = slots[i];
+			while (entry != null) {
+				Entry next = entry.next;
+				entry.next = all;
+				all = entry;
+				entry = next;
+			}
+			slots[i] = null;
+		}
+		currentTick = nowTick;
+		for (Entry entry = all; entry != null; entry = entry.next) {
+			insert(entry.target, entry.deadline);
+		}
+	}
+
+	/**
+	 * @return number of entries including those no longer current
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import dk.frv.enav.ins.common.util.LongObjectMap;
+
+/**
+ * Store of the track history of AIS targets. The total number of points
+ * allocated for all tracks is kept below a global limit. When the limit is
+ * reached tracks no longer grow but overwrite their oldest points, and new
+ * tracks are not created until capacity is released by removed targets.
+ * Tracks are kept in tables striped by MMSI, each table being its own lock,
+ * so updates of different targets seldom wait for each other.
+ */
+public class AisTrackStore {
+
+	/**
+	 * Max number of points in a single track
+	 */
+	public static final int MAX_TRACK_POINTS = 4096;
+
+	// Number of track tables
+	private static final int STRIPES = 64;
+
+	private final LongObjectMap<?>[] stripes = new LongObjectMap<?>[STRIPES];
+	private final AtomicLong allocated = new AtomicLong();
+	private final long maxPoints;
+	private final long duration;
+	private final double minDistance;
+
+	/**
+	 * @param duration
+	 *            time to keep points in milliseconds
+	 * @param minDistance
+	 *            min distance in meters between points
+	 * @param maxPoints
+	 *            max number of points allocated for all tracks
+	 */
+	public AisTrackStore(long duration, double minDistance, long maxPoints) {
+		this.duration = duration;
+		this.minDistance = minDistance;
+		this.maxPoints = maxPoints;
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new LongObjectMap<TargetTrack>();
+		}
+	}
+
+	/**
+	 * Get the table holding track of mmsi
+	 */
+	@SuppressWarnings("unchecked")
+	private LongObjectMap<TargetTrack> stripeFor(long mmsi) {
+		int h = (int) (mmsi ^ (mmsi >>> 32));
+		h ^= (h >>> 16);
+		return (LongObjectMap<TargetTrack>) stripes[(h & 0x7fffffff) % STRIPES];
+	}
+
+	/**
+	 * Add position to track of target. Updates of a target must be serialized
+	 * by the caller.
+	 * 
+	 * @param mmsi
+	 * @param lat
+	 * @param lon
+	 * @param time
+	 *            time in milliseconds
+	 */
+	public void add(long mmsi, double lat, double lon, long time) {
+		if (duration <= 0) {
+			return;
+		}
+		LongObjectMap<TargetTrack> tracks = stripeFor(mmsi);
+		TargetTrack track;
+		synchronized (tracks) {
+			track = tracks.get(mmsi);
+			if (track == null) {
+				if (!reserve(TargetTrack.INITIAL_CAPACITY)) {
+					return;
+				}
+				track = new TargetTrack(this, time);
+				tracks.put(mmsi, track);
+			}
+		}
+		track.add(lat, lon, time);
+	}
+
+	/**
+	 * Remove track of target and release its capacity
+	 * 
+	 * @param mmsi
+	 */
+	public void remove(long mmsi) {
+		LongObjectMap<TargetTrack> tracks = stripeFor(mmsi);
+		TargetTrack track;
+		synchronized (tracks) {
+			track = tracks.remove(mmsi);
+		}
+		if (track != null) {
+			allocated.addAndGet(-track.getCapacity());
+		}
+	}
+
+	/**
+	 * Get track of target
+	 * 
+	 * @param mmsi
+	 * @param since
+	 *            time in milliseconds of oldest point to include
+	 * @return latitude and longitude pairs in degrees, oldest first, or null
+	 *         if no track
+	 */
+	public double[] getTrack(long mmsi, long since) {
+		LongObjectMap<TargetTrack> tracks = stripeFor(mmsi);
+		TargetTrack track;
+		synchronized (tracks) {
+			track = tracks.get(mmsi);
+		}
+		if (track == null) {
+			return null;
+		}
+		return track.getLatLons(Math.max(since, 0));
+	}
+
+	/**
+	 * Try to reserve capacity for a number of points
+	 * 
+	 * @param points
+	 * @return if reserved
+	 */
+	boolean reserve(int points) {
+		while (true) {
+			long current = allocated.get();
+			if (current + points > maxPoints) {
+				return false;
+			}
+			if (allocated.compareAndSet(current, current + points)) {
+				return true;
+			}
+		}
+	}
+
+	public long getDuration() {
+		return duration;
+	}
+
+	public double getMinDistance() {
+		return minDistance;
+	}
+
+	public long getMaxPoints() {
+		return maxPoints;
+	}
+
+	/**
+	 * @return number of points allocated for all tracks
+	 */
+	public long getAllocated() {
+		return allocated.get();
+	}
+
+	/**
+	 * @return number of tracks
+	 */
+	public int size() {
+		int size = 0;
+		for (LongObjectMap<?> tracks : stripes) {
+			synchronized (tracks) {
+				size += tracks.size();
+			}
+		}
+		return size;
+	}
+
+}
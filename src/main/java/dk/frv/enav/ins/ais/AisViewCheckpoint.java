@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import dk.frv.enav.ins.EeINS;
+
+/**
+ * Periodic checkpoints of the AIS view written in a thread of its own.
+ * Targets changed since the last checkpoint, as marked by the AIS handler,
+ * are appended to the journal of the view file together with the targets
+ * removed. When the journal has grown larger than the file, the whole view is
+ * written instead.
+ */
+public class AisViewCheckpoint implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(AisViewCheckpoint.class);
+
+	// Journal size below which the view is never rewritten
+	private static final long MIN_JOURNAL_SIZE = 64 * 1024;
+
+	private final AisHandler aisHandler;
+	private final AisViewFile viewFile;
+	private final long interval;
+
+	/**
+	 * @param aisHandler
+	 * @param viewFile
+	 * @param interval
+	 *            time between checkpoints in milliseconds
+	 */
+	public AisViewCheckpoint(AisHandler aisHandler, AisViewFile viewFile, long interval) {
+		this.aisHandler = aisHandler;
+		this.viewFile = viewFile;
+		this.interval = interval;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			EeINS.sleep(interval);
+			try {
+				checkpoint();
+			} catch (IOException e) {
+				LOG.error("Failed to write AIS view checkpoint: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Write targets changed and removed since last checkpoint
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void checkpoint() throws IOException {
+		List<AisTarget> changed = new ArrayList<AisTarget>();
+		List<AisTarget> removed = new ArrayList<AisTarget>();
+		aisHandler.collectJournal(changed, removed);
+		if (changed.isEmpty() && removed.isEmpty()) {
+			return;
+		}
+		long journalSize = viewFile.getJournalSize();
+		if (journalSize > MIN_JOURNAL_SIZE && journalSize > viewFile.getFileSize()) {
+			// Snapshot taken after collecting holds all changes collected
+			viewFile.write(aisHandler.getCurrentSnapshot());
+		} else {
+			viewFile.append(changed, removed);
+		}
+	}
+
+}
@@ -0,0 +1,736 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import dk.frv.ais.geo.GeoLocation;
+
+/**
+ * Binary file holding the AIS view between runs. The file starts with a
+ * header of magic number, format version and time of writing followed by a
+ * sequence of records. Each record is a type byte and a length followed by
+ * the fields of the target. Readers skip record types they do not know and
+ * fields beyond those they read, so fields can be added at the end of a
+ * record without breaking older readers. The format version is only to be
+ * increased on incompatible changes.
+ * <p>
+ * Between full writes, targets updated since the last write are appended as
+ * checkpoints to a journal next to the file, and targets removed are appended
+ * as removal records. Reading applies the journal on top of the file, and a
+ * full write removes the journal once the new file is in place. A journal
+ * started before the file was written is left over from a full write that
+ * did not complete and is ignored. Files in the old
+ * format of a serialized {@link AisStore} are read as well.
+ */
+public class AisViewFile {
+
+	private static final Logger LOG = Logger.getLogger(AisViewFile.class);
+
+	public static final int MAGIC = 0x41495356; // AISV
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int HEADER_SIZE = 16;
+	private static final byte VESSEL_RECORD = 1;
+	private static final byte SAR_RECORD = 2;
+	private static final byte ATON_RECORD = 3;
+	private static final byte OWN_SHIP_RECORD = 4;
+	private static final byte REMOVED_RECORD = 5;
+	// Flags of optional parts of vessel and SART records
+	private static final int HAS_POSITION = 1;
+	private static final int HAS_STATIC = 2;
+	private static final int HAS_ROUTE = 4;
+	private static final int HAS_SETTINGS = 8;
+	private static final long NULL_TIME = Long.MIN_VALUE;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final File journal;
+
+	public AisViewFile(String filename) {
+		this.file = new File(filename);
+		this.journal = new File(filename + ".journal");
+	}
+
+	/**
+	 * Write all targets of snapshot replacing file and journal
+	 * 
+	 * @param snapshot
+	 * @throws IOException
+	 */
+	public synchronized void write(AisTargetSnapshot snapshot) throws IOException {
+		Output out = new Output(HEADER_SIZE + 256 * snapshot.size());
+		writeHeader(out);
+		if (snapshot.getOwnShip() != null) {
+			writeVessel(out, OWN_SHIP_RECORD, snapshot.getOwnShip());
+		}
+		writeTargets(out, snapshot.getVesselTargets().values());
+		writeTargets(out, snapshot.getSarTargets().values());
+		writeTargets(out, snapshot.getAtonTargets().values());
+
+		// Write to temporary file and rename so a failed write leaves the old
+		// file and its journal
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(tmp);
+		try {
+			fileOut.write(out.buf.array(), 0, out.buf.position());
+		} finally {
+			fileOut.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+		// The journal is only obsolete once the new file is in place
+		journal.delete();
+	}
+
+	/**
+	 * Append targets changed and removed to the journal
+	 * 
+	 * @param targets
+	 * @param removed
+	 * @throws IOException
+	 */
+	public synchronized void append(Collection<? extends AisTarget> targets, Collection<? extends AisTarget> removed)
+			throws IOException {
+		if (targets.size() == 0 && removed.size() == 0) {
+			return;
+		}
+		Output out = new Output(HEADER_SIZE + 256 * targets.size() + 16 * removed.size());
+		boolean newJournal = !journal.exists() || journal.length() < HEADER_SIZE;
+		if (newJournal) {
+			writeHeader(out);
+		}
+		writeTargets(out, targets);
+		for (AisTarget aisTarget : removed) {
+			writeRemoved(out, aisTarget);
+		}
+		FileOutputStream fileOut = new FileOutputStream(journal, !newJournal);
+		try {
+			fileOut.write(out.buf.array(), 0, out.buf.position());
+		} finally {
+			fileOut.close();
+		}
+	}
+
+	/**
+	 * Read file and journal
+	 * 
+	 * @return store with targets, or null if there is no file
+	 * @throws IOException
+	 *             if the file is not a valid AIS view
+	 */
+	public synchronized AisStore read() throws IOException {
+		AisStore aisStore = new AisStore();
+		aisStore.setVesselTargets(new HashMap<Long, VesselTarget>());
+		aisStore.setSarTargets(new HashMap<Long, SarTarget>());
+		aisStore.setAtonTargets(new HashMap<Long, AtoNTarget>());
+		if (!file.exists()) {
+			if (!journal.exists()) {
+				return null;
+			}
+		} else if (!readFile(file, aisStore)) {
+			return readLegacy();
+		}
+		if (journal.exists()) {
+			try {
+				if (file.exists() && readWritten(journal) < readWritten(file)) {
+					LOG.warn("Ignoring AIS view journal older than " + file);
+					journal.delete();
+				} else {
+					readFile(journal, aisStore);
+				}
+			} catch (IOException e) {
+				LOG.error("Failed to read AIS view journal: " + e.getMessage());
+			}
+		}
+		return aisStore;
+	}
+
+	/**
+	 * Remove file and journal
+	 */
+	public synchronized void delete() {
+		file.delete();
+		journal.delete();
+	}
+
+	/**
+	 * @return size of the file in bytes
+	 */
+	public long getFileSize() {
+		return file.length();
+	}
+
+	/**
+	 * @return size of the journal in bytes
+	 */
+	public long getJournalSize() {
+		return journal.length();
+	}
+
+	/**
+	 * Read records of file mapped into memory. A truncated last record, e.g.
+	 * from an interrupted append, is ignored.
+	 * 
+	 * @param f
+	 * @param aisStore
+	 * @return false if the file is not in this format
+	 * @throws IOException
+	 */
+	private static boolean readFile(File f, AisStore aisStore) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				return false;
+			}
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buf.getInt() != MAGIC) {
+				return false;
+			}
+			int version = buf.getInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported AIS view format version: " + version);
+			}
+			// Time of writing
+			buf.getLong();
+			while (buf.remaining() >= 5) {
+				byte type = buf.get();
+				int length = buf.getInt();
+				if (length < 0 || length > buf.remaining()) {
+					LOG.warn("Truncated record in " + f);
+					break;
+				}
+				int end = buf.position() + length;
+				readRecord(buf, type, aisStore);
+				buf.position(end);
+			}
+			return true;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read time of writing from header
+	 * 
+	 * @param f
+	 * @return time in milliseconds, or 0 if there is no header
+	 * @throws IOException
+	 */
+	private static long readWritten(File f) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+				return 0;
+			}
+			raf.readInt();
+			return raf.readLong();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read file in the old format of a serialized AisStore
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	private AisStore readLegacy() throws IOException {
+		ObjectInputStream objectIn = new ObjectInputStream(new FileInputStream(file));
+		try {
+			return (AisStore) objectIn.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			objectIn.close();
+		}
+	}
+
+	private static void writeHeader(Output out) {
+		out.ensure(HEADER_SIZE);
+		out.buf.putInt(MAGIC);
+		out.buf.putInt(FORMAT_VERSION);
+		out.buf.putLong(System.currentTimeMillis());
+	}
+
+	private static void writeTargets(Output out, Collection<? extends AisTarget> targets) {
+		for (AisTarget aisTarget : targets) {
+			if (aisTarget instanceof VesselTarget) {
+				writeVessel(out, VESSEL_RECORD, (VesselTarget) aisTarget);
+			} else if (aisTarget instanceof SarTarget) {
+				writeSar(out, (SarTarget) aisTarget);
+			} else if (aisTarget instanceof AtoNTarget) {
+				writeAton(out, (AtoNTarget) aisTarget);
+			}
+		}
+	}
+
+	private static void readRecord(ByteBuffer buf, byte type, AisStore aisStore) {
+		switch (type) {
+		case VESSEL_RECORD:
+			VesselTarget vesselTarget = readVessel(buf);
+			aisStore.getVesselTargets().put(vesselTarget.getMmsi(), vesselTarget);
+			break;
+		case OWN_SHIP_RECORD:
+			aisStore.setOwnShip(readVessel(buf));
+			break;
+		case SAR_RECORD:
+			SarTarget sarTarget = readSar(buf);
+			aisStore.getSarTargets().put(sarTarget.getMmsi(), sarTarget);
+			break;
+		case ATON_RECORD:
+			AtoNTarget atonTarget = readAton(buf);
+			aisStore.getAtonTargets().put(atonTarget.getMmsi(), atonTarget);
+			break;
+		case REMOVED_RECORD:
+			readRemoved(buf, aisStore);
+			break;
+		default:
+			// Unknown record type skipped
+			break;
+		}
+	}
+
+	/**
+	 * Write removal of target as record type of the target and MMSI
+	 */
+	private static void writeRemoved(Output out, AisTarget aisTarget) {
+		byte type = ATON_RECORD;
+		if (aisTarget instanceof VesselTarget) {
+			type = VESSEL_RECORD;
+		} else if (aisTarget instanceof SarTarget) {
+			type = SAR_RECORD;
+		}
+		int start = out.startRecord(REMOVED_RECORD);
+		out.ensure(9);
+		out.buf.put(type);
+		out.buf.putLong(aisTarget.getMmsi());
+		out.endRecord(start);
+	}
+
+	private static void readRemoved(ByteBuffer buf, AisStore aisStore) {
+		byte type = buf.get();
+		long mmsi = buf.getLong();
+		switch (type) {
+		case VESSEL_RECORD:
+			aisStore.getVesselTargets().remove(mmsi);
+			break;
+		case SAR_RECORD:
+			aisStore.getSarTargets().remove(mmsi);
+			break;
+		case ATON_RECORD:
+			aisStore.getAtonTargets().remove(mmsi);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static void writeTarget(Output out, AisTarget aisTarget) {
+		out.ensure(17);
+		out.buf.putLong(aisTarget.getMmsi());
+		out.buf.putLong(aisTarget.getLastReceivedTime());
+		out.buf.put((byte) ((aisTarget.getStatus() == null) ? -1 : aisTarget.getStatus().ordinal()));
+	}
+
+	private static void readTarget(ByteBuffer buf, AisTarget aisTarget) {
+		aisTarget.setMmsi(buf.getLong());
+		aisTarget.setLastReceived(buf.getLong());
+		byte status = buf.get();
+		aisTarget.setStatus((status < 0) ? null : AisTarget.Status.values()[status]);
+	}
+
+	private static void writeVessel(Output out, byte type, VesselTarget vesselTarget) {
+		int start = out.startRecord(type);
+		writeTarget(out, vesselTarget);
+		// Position of own ship is not kept
+		boolean position = type != OWN_SHIP_RECORD && vesselTarget.getPositionData() != null;
+		int flags = 0;
+		flags |= position ? HAS_POSITION : 0;
+		flags |= (vesselTarget.getStaticData() != null) ? HAS_STATIC : 0;
+		flags |= (vesselTarget.getAisRouteData() != null) ? HAS_ROUTE : 0;
+		flags |= (vesselTarget.getSettings() != null) ? HAS_SETTINGS : 0;
+		out.ensure(2);
+		out.buf.put((byte) flags);
+		out.buf.put((byte) ((vesselTarget.getAisClass() == null) ? -1 : vesselTarget.getAisClass().ordinal()));
+		if (position) {
+			writePositionData(out, vesselTarget.getPositionData());
+		}
+		if (vesselTarget.getStaticData() != null) {
+			writeStaticData(out, vesselTarget.getStaticData());
+		}
+		if (vesselTarget.getAisRouteData() != null) {
+			writeRoute(out, vesselTarget.getAisRouteData());
+		}
+		if (vesselTarget.getSettings() != null) {
+			out.ensure(2);
+			out.putBoolean(vesselTarget.getSettings().isHide());
+			out.putBoolean(vesselTarget.getSettings().isShowRoute());
+		}
+		out.endRecord(start);
+	}
+
+	private static VesselTarget readVessel(ByteBuffer buf) {
+		VesselTarget vesselTarget = new VesselTarget();
+		readTarget(buf, vesselTarget);
+		int flags = buf.get();
+		byte aisClass = buf.get();
+		vesselTarget.setAisClass((aisClass < 0) ? null : VesselTarget.AisClass.values()[aisClass]);
+		if ((flags & HAS_POSITION) != 0) {
+			vesselTarget.setPositionData(readPositionData(buf));
+		}
+		if ((flags & HAS_STATIC) != 0) {
+			vesselTarget.setStaticData(readStaticData(buf));
+		}
+		if ((flags & HAS_ROUTE) != 0) {
+			vesselTarget.setAisRouteData(readRoute(buf));
+		}
+		if ((flags & HAS_SETTINGS) != 0) {
+			vesselTarget.getSettings().setHide(getBoolean(buf));
+			vesselTarget.getSettings().setShowRoute(getBoolean(buf));
+		}
+		return vesselTarget;
+	}
+
+	private static void writeSar(Output out, SarTarget sarTarget) {
+		int start = out.startRecord(SAR_RECORD);
+		writeTarget(out, sarTarget);
+		int flags = 0;
+		flags |= (sarTarget.getPositionData() != null) ? HAS_POSITION : 0;
+		flags |= (sarTarget.getStaticData() != null) ? HAS_STATIC : 0;
+		out.ensure(10);
+		out.buf.put((byte) flags);
+		out.putBoolean(sarTarget.isOld());
+		out.putTime(sarTarget.getFirstReceived());
+		if (sarTarget.getPositionData() != null) {
+			writePositionData(out, sarTarget.getPositionData());
+		}
+		if (sarTarget.getStaticData() != null) {
+			writeStaticData(out, sarTarget.getStaticData());
+		}
+		out.endRecord(start);
+	}
+
+	private static SarTarget readSar(ByteBuffer buf) {
+		SarTarget sarTarget = new SarTarget();
+		readTarget(buf, sarTarget);
+		int flags = buf.get();
+		sarTarget.setOld(getBoolean(buf));
+		sarTarget.setFirstReceived(getTime(buf));
+		if ((flags & HAS_POSITION) != 0) {
+			sarTarget.setPositionData(readPositionData(buf));
+		}
+		if ((flags & HAS_STATIC) != 0) {
+			sarTarget.setStaticData(readStaticData(buf));
+		}
+		return sarTarget;
+	}
+
+	private static void writeAton(Output out, AtoNTarget atonTarget) {
+		int start = out.startRecord(ATON_RECORD);
+		writeTarget(out, atonTarget);
+		out.ensure(16 + 13 * 4);
+		out.putPos(atonTarget.getPos());
+		out.buf.putInt(atonTarget.getAtonType());
+		out.buf.putInt(atonTarget.getPosAcc());
+		out.buf.putInt(atonTarget.getDimBow());
+		out.buf.putInt(atonTarget.getDimStern());
+		out.buf.putInt(atonTarget.getDimPort());
+		out.buf.putInt(atonTarget.getDimStarboard());
+		out.buf.putInt(atonTarget.getPosType());
+		out.buf.putInt(atonTarget.getOffPosition());
+		out.buf.putInt(atonTarget.getRegional());
+		out.buf.putInt(atonTarget.getRaim());
+		out.buf.putInt(atonTarget.getVirtual());
+		out.buf.putInt(atonTarget.getAssigned());
+		out.putString(atonTarget.getName());
+		out.putString(atonTarget.getNameExt());
+		out.endRecord(start);
+	}
+
+	private static AtoNTarget readAton(ByteBuffer buf) {
+		AtoNTarget atonTarget = new AtoNTarget();
+		readTarget(buf, atonTarget);
+		atonTarget.setPos(getPos(buf));
+		atonTarget.setAtonType(buf.getInt());
+		atonTarget.setPosAcc(buf.getInt());
+		atonTarget.setDimBow(buf.getInt());
+		atonTarget.setDimStern(buf.getInt());
+		atonTarget.setDimPort(buf.getInt());
+		atonTarget.setDimStarboard(buf.getInt());
+		atonTarget.setPosType(buf.getInt());
+		atonTarget.setOffPosition(buf.getInt());
+		atonTarget.setRegional(buf.getInt());
+		atonTarget.setRaim(buf.getInt());
+		atonTarget.setVirtual(buf.getInt());
+		atonTarget.setAssigned(buf.getInt());
+		atonTarget.setName(getString(buf));
+		atonTarget.setNameExt(getString(buf));
+		return atonTarget;
+	}
+
+	private static void writePositionData(Output out, VesselPositionData positionData) {
+		out.ensure(16 + 6 * 4);
+		out.putPos(positionData.getPos());
+		out.buf.putInt(positionData.getNavStatus());
+		out.buf.putFloat(positionData.getRot());
+		out.buf.putFloat(positionData.getSog());
+		out.buf.putInt(positionData.getPosAcc());
+		out.buf.putFloat(positionData.getCog());
+		out.buf.putFloat(positionData.getTrueHeading());
+	}
+
+	private static VesselPositionData readPositionData(ByteBuffer buf) {
+		VesselPositionData positionData = new VesselPositionData();
+		positionData.setPos(getPos(buf));
+		positionData.setNavStatus(buf.getInt());
+		positionData.setRot(buf.getFloat());
+		positionData.setSog(buf.getFloat());
+		positionData.setPosAcc(buf.getInt());
+		positionData.setCog(buf.getFloat());
+		positionData.setTrueHeading(buf.getFloat());
+		return positionData;
+	}
+
+	static void writeStaticData(Output out, VesselStaticData staticData) {
+		out.ensure(8 + 6 * 4 + 8 + 4);
+		out.buf.putLong(staticData.getImo());
+		out.buf.putInt(staticData.getShipTypeCode());
+		out.buf.putInt(staticData.getDimBow());
+		out.buf.putInt(staticData.getDimStern());
+		out.buf.putInt(staticData.getDimPort());
+		out.buf.putInt(staticData.getDimStarboard());
+		out.buf.putInt(staticData.getPosType());
+		out.buf.putLong(staticData.getEta());
+		out.buf.putFloat(staticData.getDraught());
+		out.putString(staticData.getCallsign());
+		out.putString(staticData.getName());
+		out.putString(staticData.getDestination());
+	}
+
+	static VesselStaticData readStaticData(ByteBuffer buf) {
+		VesselStaticData staticData = new VesselStaticData();
+		staticData.setImo(buf.getLong());
+		staticData.setShipTypeCode(buf.getInt());
+		staticData.setDimBow(buf.getInt());
+		staticData.setDimStern(buf.getInt());
+		staticData.setDimPort(buf.getInt());
+		staticData.setDimStarboard(buf.getInt());
+		staticData.setPosType(buf.getInt());
+		staticData.setEta(buf.getLong());
+		staticData.setDraught(buf.getFloat());
+		staticData.setCallsign(getString(buf));
+		staticData.setName(getString(buf));
+		staticData.setDestination(getString(buf));
+		return staticData;
+	}
+
+	private static void writeRoute(Output out, AisIntendedRoute route) {
+		out.ensure(5 * 8 + 4 * 4);
+		out.putTime(route.received);
+		out.buf.putLong(route.duration);
+		out.putTime(route.etaFirst);
+		out.putTime(route.etaLast);
+		out.buf.putLong(route.sender);
+		out.buf.putInt(route.msgLinkId);
+		out.buf.putInt(route.routeType);
+		out.buf.putInt(route.senderClassification);
+		out.buf.putInt(route.waypoints.size());
+		for (GeoLocation wp : route.waypoints) {
+			out.ensure(16);
+			out.putPos(wp);
+		}
+		out.putDoubles(route.ranges);
+		out.ensure(4 + 8 * route.etas.size() + 3 * 8);
+		out.buf.putInt(route.etas.size());
+		for (Date eta : route.etas) {
+			out.putTime(eta);
+		}
+		out.putDouble(route.routeRange);
+		out.putDouble(route.speed);
+		out.putDouble(route.activeWpRange);
+	}
+
+	private static AisIntendedRoute readRoute(ByteBuffer buf) {
+		AisIntendedRoute route = new AisIntendedRoute();
+		route.received = getTime(buf);
+		route.duration = buf.getLong();
+		route.etaFirst = getTime(buf);
+		route.etaLast = getTime(buf);
+		route.sender = buf.getLong();
+		route.msgLinkId = buf.getInt();
+		route.routeType = buf.getInt();
+		route.senderClassification = buf.getInt();
+		int count = buf.getInt();
+		for (int i = 0; i < count; i++) {
+			route.waypoints.add(getPos(buf));
+		}
+		count = buf.getInt();
+		for (int i = 0; i < count; i++) {
+			route.ranges.add(getDouble(buf));
+		}
+		count = buf.getInt();
+		for (int i = 0; i < count; i++) {
+			route.etas.add(getTime(buf));
+		}
+		route.routeRange = getDouble(buf);
+		route.speed = getDouble(buf);
+		route.activeWpRange = getDouble(buf);
+		return route;
+	}
+
+	private static boolean getBoolean(ByteBuffer buf) {
+		return buf.get() != 0;
+	}
+
+	private static Date getTime(ByteBuffer buf) {
+		long time = buf.getLong();
+		return (time == NULL_TIME) ? null : new Date(time);
+	}
+
+	private static Double getDouble(ByteBuffer buf) {
+		double d = buf.getDouble();
+		return Double.isNaN(d) ? null : d;
+	}
+
+	private static GeoLocation getPos(ByteBuffer buf) {
+		double lat = buf.getDouble();
+		double lon = buf.getDouble();
+		return Double.isNaN(lat) ? null : new GeoLocation(lat, lon);
+	}
+
+	private static String getString(ByteBuffer buf) {
+		int len = buf.getShort();
+		if (len < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[len];
+		buf.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Growing buffer records are written to
+	 */
+	static class Output {
+		ByteBuffer buf;
+
+		Output(int capacity) {
+			buf = ByteBuffer.allocate(Math.max(capacity, 256));
+		}
+
+		void ensure(int bytes) {
+			if (buf.remaining() < bytes) {
+				ByteBuffer newBuf = ByteBuffer.allocate(Math.max(2 * buf.capacity(), buf.position() + bytes));
+				buf.flip();
+				newBuf.put(buf);
+				buf = newBuf;
+			}
+		}
+
+		/**
+		 * Write record type and room for length
+		 * 
+		 * @return position of length
+		 */
+		int startRecord(byte type) {
+			ensure(5);
+			buf.put(type);
+			int start = buf.position();
+			buf.putInt(0);
+			return start;
+		}
+
+		void endRecord(int start) {
+			buf.putInt(start, buf.position() - start - 4);
+		}
+
+		void putBoolean(boolean b) {
+			buf.put((byte) (b ? 1 : 0));
+		}
+
+		void putTime(Date date) {
+			buf.putLong((date == null) ? NULL_TIME : date.getTime());
+		}
+
+		void putDouble(Double d) {
+			buf.putDouble((d == null) ? Double.NaN : d);
+		}
+
+		void putPos(GeoLocation pos) {
+			buf.putDouble((pos == null) ? Double.NaN : pos.getLatitude());
+			buf.putDouble((pos == null) ? Double.NaN : pos.getLongitude());
+		}
+
+		void putDoubles(List<Double> list) {
+			ensure(4 + 8 * list.size());
+			buf.putInt(list.size());
+			for (Double d : list) {
+				putDouble(d);
+			}
+		}
+
+		void putString(String str) {
+			if (str == null) {
+				ensure(2);
+				buf.putShort((short) -1);
+				return;
+			}
+			byte[] bytes = str.getBytes(UTF8);
+			int len = Math.min(bytes.length, Short.MAX_VALUE);
+			ensure(2 + len);
+			buf.putShort((short) len);
+			buf.put(bytes, 0, len);
+		}
+	}
+
+}
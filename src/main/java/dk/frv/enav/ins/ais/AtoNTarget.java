@@ -30,7 +30,6 @@
 package dk.frv.enav.ins.ais;
 
 import java.io.Serializable;
-import java.util.Date;
 
 import dk.frv.ais.geo.GeoLocation;
 import dk.frv.ais.message.AisMessage21;
@@ -71,7 +70,9 @@ public class AtoNTarget extends AisTarget implements Serializable {
 	 */
 	public AtoNTarget(AtoNTarget atoNTarget) {
 		super(atoNTarget);
-		pos = new GeoLocation(pos);
+		if (atoNTarget.pos != null) {
+			pos = new GeoLocation(atoNTarget.pos);
+		}
 		atonType = atoNTarget.atonType;
 		name = atoNTarget.name;
 		posAcc = atoNTarget.posAcc;
@@ -111,16 +112,16 @@ public class AtoNTarget extends AisTarget implements Serializable {
 	}
 	
 	/**
-	 * Determine if AtoN target has gone
+	 * Determine the time without reports before AtoN target has gone
 	 */
 	@Override
-	public boolean hasGone(Date now, boolean strict) {
-		long elapsed = (now.getTime() - lastReceived.getTime()) / 1000;		
+	public long getGoneTimeout(boolean strict) {
 		// Base gone "loosely" on ITU-R Rec M1371-4 4.2.1  (3 minutes)
 		long tol = 600; // 10 minutes
-		return (elapsed > tol);
+		return tol;
 	}
 	
+	@Override
 	public GeoLocation getPos() {
 		return pos;
 	}
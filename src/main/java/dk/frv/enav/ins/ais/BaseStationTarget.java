@@ -30,7 +30,6 @@
 package dk.frv.enav.ins.ais;
 
 import java.io.Serializable;
-import java.util.Date;
 
 import dk.frv.ais.message.AisMessage4;
 
@@ -56,11 +55,10 @@ public class BaseStationTarget extends AisTarget implements Serializable {
 	}
 	
 	@Override
-	public boolean hasGone(Date now, boolean strict) {
-		long elapsed = (now.getTime() - lastReceived.getTime()) / 1000;		
+	public long getGoneTimeout(boolean strict) {
 		// Base gone "loosely" on ITU-R Rec M1371-4 4.2.1  (10 seconds)
 		long tol = 120; // 2 minutes		
-		return (elapsed > tol);
+		return tol;
 	}
 
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+/**
+ * Dead reckoning of targets between position reports. The target is moved
+ * from the reported position with reported speed over ground, course over
+ * ground and rate of turn. Predictions are fully trusted up to the horizon and
+ * the confidence falls linearly to zero over the same time after that. Beyond
+ * that the target is left where it was at the horizon.
+ */
+public class DeadReckoner {
+
+	// AIS ROT values with no turn rate information
+	private static final int ROT_UNKNOWN = 127;
+	// Turn rates below this is considered straight movement, radians per hour
+	private static final double MIN_TURN = 1e-6;
+
+	private final long horizon;
+
+	/**
+	 * @param horizon
+	 *            time in milliseconds predictions are fully trusted
+	 */
+	public DeadReckoner(long horizon) {
+		this.horizon = horizon;
+	}
+
+	/**
+	 * Convert AIS ROT indicator to degrees per minute. Unavailable and
+	 * turning without turn indicator gives zero.
+	 * 
+	 * @param rot
+	 * @return
+	 */
+	public static double rotToDegreesPerMinute(float rot) {
+		if (Math.abs(rot) >= ROT_UNKNOWN) {
+			return 0;
+		}
+		double rate = rot / 4.733;
+		return Math.signum(rate) * rate * rate;
+	}
+
+	/**
+	 * Predict the position of a target
+	 * 
+	 * @param lat
+	 *            reported latitude
+	 * @param lon
+	 *            reported longitude
+	 * @param sog
+	 *            knots
+	 * @param cog
+	 *            degrees
+	 * @param rot
+	 *            degrees per minute, positive to starboard
+	 * @param elapsed
+	 *            milliseconds since report
+	 * @param result
+	 *            receives latitude, longitude and course
+	 * @return confidence between 0 and 1
+	 */
+	public double predict(double lat, double lon, double sog, double cog, double rot, long elapsed, double[] result) {
+		long time = Math.min(Math.max(elapsed, 0), horizon);
+		double hours = time / 3600000.0;
+		double course = Math.toRadians(cog);
+		double turn = Math.toRadians(rot) * 60;
+		double north;
+		double east;
+		double endCourse;
+		if (Math.abs(turn) < MIN_TURN) {
+			double dist = sog * hours;
+			north = dist * Math.cos(course);
+			east = dist * Math.sin(course);
+			endCourse = course;
+		} else {
+			// Constant turn along a circle
+			endCourse = course + turn * hours;
+			double radius = sog / turn;
+			north = radius * (Math.sin(endCourse) - Math.sin(course));
+			east = radius * (Math.cos(course) - Math.cos(endCourse));
+		}
+		result[0] = lat + north / 60.0;
+		result[1] = lon + east / (60.0 * Math.cos(Math.toRadians(lat)));
+		double endCog = Math.toDegrees(endCourse) % 360;
+		result[2] = (endCog < 0) ? endCog + 360 : endCog;
+		return getConfidence(elapsed);
+	}
+
+	/**
+	 * @param elapsed
+	 *            milliseconds since report
+	 * @return confidence between 0 and 1
+	 */
+	public double getConfidence(long elapsed) {
+		if (elapsed <= horizon) {
+			return 1;
+		}
+		if (elapsed >= 2 * horizon) {
+			return 0;
+		}
+		return 1 - (double) (elapsed - horizon) / horizon;
+	}
+
+	public long getHorizon() {
+		return horizon;
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+/**
+ * Kinematic data of vessel targets in parallel arrays, one entry per target
+ * in the first {@link #size()} elements. Bulk computations over all targets
+ * run over the arrays without following references from target to position
+ * data to location.
+ */
+public class KinematicColumns {
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	long[] mmsi;
+	double[] lat;
+	double[] lon;
+	float[] sog;
+	float[] cog;
+	float[] heading;
+	long[] time;
+	int size = 0;
+
+	public KinematicColumns() {
+		this(INITIAL_CAPACITY);
+	}
+
+	public KinematicColumns(int capacity) {
+		allocate(Math.max(capacity, 1));
+	}
+
+	/**
+	 * Make room for at least capacity entries keeping the current
+	 */
+	void ensureCapacity(int capacity) {
+		if (capacity <= mmsi.length) {
+			return;
+		}
+		int newCapacity = mmsi.length;
+		while (newCapacity < capacity) {
+			newCapacity *= 2;
+		}
+		KinematicColumns old = new KinematicColumns(1);
+		old.mmsi = mmsi;
+		old.lat = lat;
+		old.lon = lon;
+		old.sog = sog;
+		old.cog = cog;
+		old.heading = heading;
+		old.time = time;
+		allocate(newCapacity);
+		copy(old, 0, this, 0, size);
+	}
+
+	/**
+	 * Replace content with that of other
+	 * 
+	 * @param other
+	 */
+	public void copyFrom(KinematicColumns other) {
+		if (mmsi.length < other.size) {
+			allocate(other.mmsi.length);
+		}
+		copy(other, 0, this, 0, other.size);
+		size = other.size;
+	}
+
+	/**
+	 * Add the entries of other after the current
+	 * 
+	 * @param other
+	 */
+	void append(KinematicColumns other) {
+		ensureCapacity(size + other.size);
+		copy(other, 0, this, size, other.size);
+		size += other.size;
+	}
+
+	/**
+	 * Find the entries within range of a position. Distances are computed on
+	 * a plane through the position, which is accurate for ranges up to some
+	 * tens of nautical miles away from the poles.
+	 * 
+	 * @param latitude
+	 * @param longitude
+	 * @param range
+	 *            range in nautical miles
+	 * @param result
+	 *            array of at least size elements receiving the indexes found
+	 * @return number of indexes found
+	 */
+	public int withinRange(double latitude, double longitude, double range, int[] result) {
+		double lonScale = Math.cos(Math.toRadians(latitude));
+		// Minutes of arc are nautical miles
+		double maxDist2 = (range / 60.0) * (range / 60.0);
+		int found = 0;
+		for (int i = 0; i < size; i++) {
+			double dLat = lat[i] - latitude;
+			double dLon = lon[i] - longitude;
+			if (dLon > 180) {
+				dLon -= 360;
+			} else if (dLon < -180) {
+				dLon += 360;
+			}
+			dLon *= lonScale;
+			if (dLat * dLat + dLon * dLon <= maxDist2) {
+				result[found++] = i;
+			}
+		}
+		return found;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long[] getMmsi() {
+		return mmsi;
+	}
+
+	public double[] getLat() {
+		return lat;
+	}
+
+	public double[] getLon() {
+		return lon;
+	}
+
+	/**
+	 * @return speed over ground in knots
+	 */
+	public float[] getSog() {
+		return sog;
+	}
+
+	/**
+	 * @return course over ground in degrees
+	 */
+	public float[] getCog() {
+		return cog;
+	}
+
+	/**
+	 * @return true heading in degrees, 511 if not available
+	 */
+	public float[] getHeading() {
+		return heading;
+	}
+
+	/**
+	 * @return time of last report in milliseconds
+	 */
+	public long[] getTime() {
+		return time;
+	}
+
+	/**
+	 * Copy length entries from src at srcPos to dst at dstPos
+	 */
+	static void copy(KinematicColumns src, int srcPos, KinematicColumns dst, int dstPos, int length) {
+		System.arraycopy(src.mmsi, srcPos, dst.mmsi, dstPos, length);
+		System.arraycopy(src.lat, srcPos, dst.lat, dstPos, length);
+		System.arraycopy(src.lon, srcPos, dst.lon, dstPos, length);
+		System.arraycopy(src.sog, srcPos, dst.sog, dstPos, length);
+		System.arraycopy(src.cog, srcPos, dst.cog, dstPos, length);
+		System.arraycopy(src.heading, srcPos, dst.heading, dstPos, length);
+		System.arraycopy(src.time, srcPos, dst.time, dstPos, length);
+	}
+
+	private void allocate(int capacity) {
+		mmsi = new long[capacity];
+		lat = new double[capacity];
+		lon = new double[capacity];
+		sog = new float[capacity];
+		cog = new float[capacity];
+		heading = new float[capacity];
+		time = new long[capacity];
+	}
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+/**
+ * Columnar store of the kinematic data of vessel targets kept by the AIS
+ * handler next to the target tables. The store is split in stripes by MMSI,
+ * each with its own columns and being its own lock, so updates of different
+ * targets seldom wait for each other. Each target with a position has a dense
+ * slot in its stripe, and removing a target moves the last entry of the
+ * stripe into its slot.
+ * <p>
+ * Bulk readers take a copy of the columns and scan it without holding any
+ * lock. The stripes are copied one at a time, so every entry of a copy is
+ * consistent but entries of different stripes may be from different times.
+ */
+public class KinematicStore {
+
+	// Number of stripes
+	private static final int STRIPES = 64;
+
+	/**
+	 * Columns of the targets mapping to one stripe
+	 */
+	private static class ColumnStripe {
+		final KinematicColumns columns = new KinematicColumns(16);
+		VesselTarget[] targets = new VesselTarget[columns.mmsi.length];
+		long version = 0;
+	}
+
+	private final ColumnStripe[] stripes = new ColumnStripe[STRIPES];
+
+	public KinematicStore() {
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new ColumnStripe();
+		}
+	}
+
+	private ColumnStripe stripeFor(long mmsi) {
+		int h = (int) (mmsi ^ (mmsi >>> 32));
+		h ^= (h >>> 16);
+		return stripes[(h & 0x7fffffff) % STRIPES];
+	}
+
+	/**
+	 * Insert or update the kinematic data of target from its position data.
+	 * Targets without a position are removed.
+	 * 
+	 * @param vesselTarget
+	 */
+	public void update(VesselTarget vesselTarget) {
+		VesselPositionData positionData = vesselTarget.getPositionData();
+		if (positionData == null || positionData.getPos() == null) {
+			remove(vesselTarget);
+			return;
+		}
+		ColumnStripe stripe = stripeFor(vesselTarget.getMmsi());
+		synchronized (stripe) {
+			KinematicColumns columns = stripe.columns;
+			int slot = vesselTarget.getKinematicSlot() - 1;
+			if (slot < 0) {
+				slot = columns.size;
+				columns.ensureCapacity(slot + 1);
+				if (stripe.targets.length < columns.mmsi.length) {
+					VesselTarget[] newTargets = new VesselTarget[columns.mmsi.length];
+					System.arraycopy(stripe.targets, 0, newTargets, 0, slot);
+					stripe.targets = newTargets;
+				}
+				stripe.targets[slot] = vesselTarget;
+				columns.mmsi[slot] = vesselTarget.getMmsi();
+				columns.size++;
+				vesselTarget.setKinematicSlot(slot + 1);
+			}
+			columns.lat[slot] = positionData.getPos().getLatitude();
+			columns.lon[slot] = positionData.getPos().getLongitude();
+			columns.sog[slot] = positionData.getSog();
+			columns.cog[slot] = positionData.getCog();
+			columns.heading[slot] = positionData.getTrueHeading();
+			columns.time[slot] = vesselTarget.getLastReceivedTime();
+			stripe.version++;
+		}
+	}
+
+	/**
+	 * Remove target from the store
+	 * 
+	 * @param vesselTarget
+	 */
+	public void remove(VesselTarget vesselTarget) {
+		ColumnStripe stripe = stripeFor(vesselTarget.getMmsi());
+		synchronized (stripe) {
+			int slot = vesselTarget.getKinematicSlot() - 1;
+			if (slot < 0) {
+				return;
+			}
+			KinematicColumns columns = stripe.columns;
+			VesselTarget[] targets = stripe.targets;
+			int last = columns.size - 1;
+			if (slot != last) {
+				KinematicColumns.copy(columns, last, columns, slot, 1);
+				targets[slot] = targets[last];
+				targets[slot].setKinematicSlot(slot + 1);
+			}
+			targets[last] = null;
+			columns.size--;
+			vesselTarget.setKinematicSlot(0);
+			stripe.version++;
+		}
+	}
+
+	/**
+	 * Copy the current columns
+	 * 
+	 * @param reuse
+	 *            columns to copy into or null to create new
+	 * @return the copy
+	 */
+	public KinematicColumns copy(KinematicColumns reuse) {
+		KinematicColumns copy = (reuse != null) ? reuse : new KinematicColumns(size());
+		copy.size = 0;
+		for (ColumnStripe stripe : stripes) {
+			synchronized (stripe) {
+				copy.append(stripe.columns);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * @return number of changes made, for readers to tell if a copy is
+	 *         current
+	 */
+	public long getVersion() {
+		long version = 0;
+		for (ColumnStripe stripe : stripes) {
+			synchronized (stripe) {
+				version += stripe.version;
+			}
+		}
+		return version;
+	}
+
+	public int size() {
+		int size = 0;
+		for (ColumnStripe stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.columns.size;
+			}
+		}
+		return size;
+	}
+
+}
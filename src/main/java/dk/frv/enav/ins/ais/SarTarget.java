@@ -32,6 +32,8 @@ package dk.frv.enav.ins.ais;
 import java.io.Serializable;
 import java.util.Date;
 
+import dk.frv.ais.geo.GeoLocation;
+
 /**
  * Class representing an AIS SART
  */
@@ -69,14 +71,20 @@ public class SarTarget extends AisTarget implements Serializable {
 	}
 
 	/**
-	 * Determines if the target should be considered gone
-	 * @return if the target has gone
+	 * Time without reports before the target should be considered gone
+	 * @return timeout in seconds
 	 */
 	@Override
-	public boolean hasGone(Date now, boolean strict) {		
-		long elapsed = (now.getTime() - lastReceived.getTime()) / 1000;		
-		// Determine if gone
-		return elapsed > GONE_TTL;
+	public long getGoneTimeout(boolean strict) {		
+		return GONE_TTL;
+	}
+	
+	/**
+	 * Time the target changes state to old without further reports
+	 * @return time in milliseconds or Long.MAX_VALUE if already old
+	 */
+	public long getOldTime() {
+		return old ? Long.MAX_VALUE : lastReceived + (OLD_TTL + 1) * 1000;
 	}
 	
 	/**
@@ -85,7 +93,7 @@ public class SarTarget extends AisTarget implements Serializable {
 	 * @return changed to old
 	 */
 	public boolean hasGoneOld(Date now) {
-		long elapsed = (now.getTime() - lastReceived.getTime()) / 1000;
+		long elapsed = (now.getTime() - lastReceived) / 1000;
 		boolean newOld = elapsed > OLD_TTL;
 		if (newOld != old) {
 			old = newOld;
@@ -97,6 +105,11 @@ public class SarTarget extends AisTarget implements Serializable {
 	public VesselPositionData getPositionData() {
 		return positionData;
 	}
+	
+	@Override
+	public GeoLocation getPos() {
+		return (positionData == null) ? null : positionData.getPos();
+	}
 
 	public void setPositionData(VesselPositionData positionData) {
 		this.positionData = positionData;
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import dk.frv.enav.ins.common.util.Calculator;
+
+/**
+ * Track history of a single target kept in primitive ring buffers. Positions
+ * are stored as fixed point integers of 1e-5 degrees (about one meter) and
+ * times as seconds relative to the time of the first point, twelve bytes per
+ * point. The buffers grow as needed until the capacity granted by the track
+ * store is used, after which the oldest points are overwritten.
+ * <p>
+ * Points closer than the minimum distance of the store to the last point are
+ * not added, instead the time of the last point is moved forward.
+ */
+class TargetTrack {
+
+	static final int INITIAL_CAPACITY = 16;
+	static final double SCALE = 100000.0;
+
+	private final AisTrackStore store;
+	private int[] lats;
+	private int[] lons;
+	private int[] times;
+	private long baseTime;
+	// Index of oldest point
+	private int head = 0;
+	private int count = 0;
+
+	TargetTrack(AisTrackStore store, long baseTime) {
+		this.store = store;
+		this.baseTime = baseTime;
+		lats = new int[INITIAL_CAPACITY];
+		lons = new int[INITIAL_CAPACITY];
+		times = new int[INITIAL_CAPACITY];
+	}
+
+	/**
+	 * Add position to the track
+	 * 
+	 * @param lat
+	 * @param lon
+	 * @param time
+	 *            time in milliseconds
+	 */
+	synchronized void add(double lat, double lon, long time) {
+		int t = (int) ((time - baseTime) / 1000);
+		expire(t - (int) (store.getDuration() / 1000));
+		if (count > 0) {
+			int last = index(count - 1);
+			if (t < times[last]) {
+				// Out of order, e.g. from another source
+				return;
+			}
+			double dist = Calculator.rhumbLineDistance(lats[last] / SCALE, lons[last] / SCALE, lat, lon);
+			if (dist < store.getMinDistance()) {
+				times[last] = t;
+				return;
+			}
+		}
+		if (count == lats.length && !grow()) {
+			// Overwrite oldest
+			head = index(1);
+			count--;
+		}
+		int i = index(count);
+		lats[i] = (int) Math.round(lat * SCALE);
+		lons[i] = (int) Math.round(lon * SCALE);
+		times[i] = t;
+		count++;
+	}
+
+	/**
+	 * Get the positions of the track not older than since
+	 * 
+	 * @param since
+	 *            time in milliseconds
+	 * @return latitude and longitude pairs in degrees, oldest first
+	 */
+	synchronized double[] getLatLons(long since) {
+		long t = (since - baseTime) / 1000;
+		int first = 0;
+		while (first < count && times[index(first)] < t) {
+			first++;
+		}
+		double[] latLons = new double[2 * (count - first)];
+		for (int j = first, k = 0; j < count; j++) {
+			int i = index(j);
+			latLons[k++] = lats[i] / SCALE;
+			latLons[k++] = lons[i] / SCALE;
+		}
+		return latLons;
+	}
+
+	synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * @return number of points allocated
+	 */
+	synchronized int getCapacity() {
+		return lats.length;
+	}
+
+	/**
+	 * Remove points older than t
+	 * 
+	 * @param t
+	 *            seconds relative to base time
+	 */
+	private void expire(int t) {
+		while (count > 0 && times[head] < t) {
+			head = index(1);
+			count--;
+		}
+	}
+
+	/**
+	 * Double the buffers if the store can grant the capacity
+	 * 
+	 * @return
+	 */
+	private boolean grow() {
+		int capacity = lats.length;
+		int newCapacity = Math.min(2 * capacity, AisTrackStore.MAX_TRACK_POINTS);
+		if (newCapacity <= capacity || !store.reserve(newCapacity - capacity)) {
+			return false;
+		}
+		lats = unroll(lats, newCapacity);
+		lons = unroll(lons, newCapacity);
+		times = unroll(times, newCapacity);
+		head = 0;
+		return true;
+	}
+
+	/**
+	 * Copy ring buffer into new array with oldest point first
+	 */
+	private int[] unroll(int[] buf, int newCapacity) {
+		int[] newBuf = new int[newCapacity];
+		int tail = Math.min(count, buf.length - head);
+		System.arraycopy(buf, head, newBuf, 0, tail);
+		System.arraycopy(buf, 0, newBuf, tail, count - tail);
+		return newBuf;
+	}
+
+	private int index(int j) {
+		int i = head + j;
+		return (i >= lats.length) ? i - lats.length : i;
+	}
+
+}
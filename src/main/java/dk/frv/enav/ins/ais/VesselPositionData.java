@@ -33,6 +33,7 @@ import java.io.Serializable;
 
 import dk.frv.ais.geo.GeoLocation;
 import dk.frv.ais.message.AisMessage18;
+import dk.frv.ais.message.AisPosition;
 import dk.frv.ais.message.AisPositionMessage;
 import dk.frv.ais.message.NavigationalStatus;
 
@@ -43,8 +44,17 @@ public class VesselPositionData implements Serializable {
 	
 	private static final long serialVersionUID = 1L;
 	
+	// Navigational status is immutable and shared between all position data
+	private static final NavigationalStatus UNKNOWN_NAV_STATUS = new NavigationalStatus(-1);
+	private static final NavigationalStatus[] NAV_STATUS = new NavigationalStatus[16];
+	static {
+		for (int i = 0; i < NAV_STATUS.length; i++) {
+			NAV_STATUS[i] = new NavigationalStatus(i);
+		}
+	}
+	
 	private GeoLocation pos;
-	private NavigationalStatus navEnumStatus = new NavigationalStatus(-1);
+	private NavigationalStatus navEnumStatus = UNKNOWN_NAV_STATUS;
 	private int navStatus = -1;
 	private float rot;
 	private float sog;
@@ -52,6 +62,13 @@ public class VesselPositionData implements Serializable {
 	private float cog;
 	private float trueHeading;
 	
+	/**
+	 * Empty constructor
+	 */
+	public VesselPositionData() {
+		
+	}
+	
 	/**
 	 * Copy constructor
 	 * @param vesselPositionData
@@ -61,6 +78,7 @@ public class VesselPositionData implements Serializable {
 			pos = new GeoLocation(vesselPositionData.pos);
 		}
 	    navStatus = vesselPositionData.navStatus;
+	    navEnumStatus = vesselPositionData.navEnumStatus;
 	    rot = vesselPositionData.rot;
 	    sog = vesselPositionData.sog;
 	    posAcc = vesselPositionData.posAcc;
@@ -74,9 +92,25 @@ public class VesselPositionData implements Serializable {
 	 * @param aisPositionMessage
 	 */
 	public VesselPositionData(AisPositionMessage aisPositionMessage) {
-		pos = aisPositionMessage.getPos().getGeoLocation();
+		update(aisPositionMessage);
+	}
+	
+	/**
+	 * Constructor given AIS message #18
+	 * @param aisPositionMessage18
+	 */
+	public VesselPositionData(AisMessage18 aisPositionMessage18) {
+		update(aisPositionMessage18);
+	}
+	
+	/**
+	 * Update in place given an AIS position message #1, #2 or #3
+	 * @param aisPositionMessage
+	 */
+	public void update(AisPositionMessage aisPositionMessage) {
+		setPos(aisPositionMessage.getPos());
 		navStatus = aisPositionMessage.getNavStatus();
-		navEnumStatus = new NavigationalStatus(aisPositionMessage.getNavStatus());
+		navEnumStatus = getNavigationalStatus(navStatus);
 		rot = aisPositionMessage.getRot();
 		sog = aisPositionMessage.getSog() / (float)10.0;
 		posAcc = aisPositionMessage.getPosAcc();
@@ -87,11 +121,14 @@ public class VesselPositionData implements Serializable {
 	}
 	
 	/**
-	 * Constructor given AIS message #18
+	 * Update in place given AIS message #18
 	 * @param aisPositionMessage18
 	 */
-	public VesselPositionData(AisMessage18 aisPositionMessage18) {
-		pos = aisPositionMessage18.getPos().getGeoLocation();
+	public void update(AisMessage18 aisPositionMessage18) {
+		setPos(aisPositionMessage18.getPos());
+		navStatus = -1;
+		navEnumStatus = UNKNOWN_NAV_STATUS;
+		rot = 0;
 		cog = aisPositionMessage18.getCog() / (float)10.0;
 		posAcc = aisPositionMessage18.getPosAcc();
 		sog = aisPositionMessage18.getSog() / (float)10.0;
@@ -100,6 +137,30 @@ public class VesselPositionData implements Serializable {
 		validate();
 	}
 	
+	/**
+	 * Set position from AIS position reusing the existing location
+	 * @param aisPos
+	 */
+	private void setPos(AisPosition aisPos) {
+		if (pos == null) {
+			pos = new GeoLocation();
+		}
+		pos.setLatitude(aisPos.getLatitude() / 600000.0);
+		pos.setLongitude(aisPos.getLongitude() / 600000.0);
+	}
+	
+	/**
+	 * Get shared navigational status instance
+	 * @param navStatus
+	 * @return
+	 */
+	private static NavigationalStatus getNavigationalStatus(int navStatus) {
+		if (navStatus < 0 || navStatus >= NAV_STATUS.length) {
+			return new NavigationalStatus(navStatus);
+		}
+		return NAV_STATUS[navStatus];
+	}
+	
 	/**
 	 * Validate the current position data
 	 */
@@ -136,6 +197,7 @@ public class VesselPositionData implements Serializable {
 
 	public void setNavStatus(int navStatus) {
 		this.navStatus = navStatus;
+		this.navEnumStatus = getNavigationalStatus(navStatus);
 	}
 	
 	public NavigationalStatus getEnumNavStatus() {
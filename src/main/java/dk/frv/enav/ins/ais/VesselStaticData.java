@@ -42,10 +42,19 @@ public class VesselStaticData implements Serializable {
 	
 	private static final long serialVersionUID = 1L;
 
+	// Shared ship type and cargo of each code
+	private static final ShipTypeCargo[] SHIP_TYPES = new ShipTypeCargo[256];
+	static {
+		for (int i = 0; i < SHIP_TYPES.length; i++) {
+			SHIP_TYPES[i] = new ShipTypeCargo(i);
+		}
+	}
+
 	private long imo;
 	private String callsign;
 	private String name;
-	private ShipTypeCargo shipType = new ShipTypeCargo(-1);
+	private ShipTypeCargo shipType = getShipTypeCargo(-1);
+	private int shipTypeCode = -1;
 	private int dimBow;
 	private int dimStern;
 	private int dimPort;
@@ -55,6 +64,13 @@ public class VesselStaticData implements Serializable {
 	private float draught;
 	private String destination;
 
+	/**
+	 * Empty constructor
+	 */
+	public VesselStaticData() {
+		
+	}
+	
 	/**
 	 * Copy constructor
 	 * @param vesselStaticData
@@ -64,6 +80,7 @@ public class VesselStaticData implements Serializable {
 		this.callsign = vesselStaticData.callsign;		
 		this.name = vesselStaticData.name;
 		this.shipType = vesselStaticData.shipType;
+		this.shipTypeCode = vesselStaticData.shipTypeCode;
 		this.dimBow = vesselStaticData.dimBow;
 		this.dimStern = vesselStaticData.dimStern;
 		this.dimPort = vesselStaticData.dimPort;
@@ -82,7 +99,7 @@ public class VesselStaticData implements Serializable {
 		imo = msg5.getImo();
 		callsign = msg5.getCallsign();
 		name = msg5.getName();
-		shipType = new ShipTypeCargo(msg5.getShipType());
+		setShipTypeCode(msg5.getShipType());
 		dimBow = msg5.getDimBow();
 		dimStern = msg5.getDimStern();
 		dimPort = msg5.getDimPort();
@@ -113,7 +130,7 @@ public class VesselStaticData implements Serializable {
 		}
 		// part B
 		callsign = msg24.getCallsign();
-		shipType = new ShipTypeCargo(msg24.getShipType());
+		setShipTypeCode(msg24.getShipType());
 		dimBow = msg24.getDimBow();
 		dimStern = msg24.getDimStern();
 		dimPort = msg24.getDimPort();
@@ -151,6 +168,29 @@ public class VesselStaticData implements Serializable {
 	public void setShipType(ShipTypeCargo shipType) {
 		this.shipType = shipType;
 	}
+	
+	/**
+	 * @return ship type and cargo as received, -1 if unknown
+	 */
+	public int getShipTypeCode() {
+		return shipTypeCode;
+	}
+	
+	public void setShipTypeCode(int shipTypeCode) {
+		this.shipTypeCode = shipTypeCode;
+		this.shipType = getShipTypeCargo(shipTypeCode);
+	}
+	
+	/**
+	 * @param shipTypeCode
+	 * @return shared instance for valid codes
+	 */
+	private static ShipTypeCargo getShipTypeCargo(int shipTypeCode) {
+		if (shipTypeCode >= 0 && shipTypeCode < SHIP_TYPES.length) {
+			return SHIP_TYPES[shipTypeCode];
+		}
+		return new ShipTypeCargo(shipTypeCode);
+	}
 
 	public int getDimBow() {
 		return dimBow;
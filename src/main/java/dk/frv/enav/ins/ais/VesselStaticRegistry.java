@@ -0,0 +1,310 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+import dk.frv.enav.ins.EeINS;
+import dk.frv.enav.ins.common.util.LongObjectMap;
+import dk.frv.enav.ins.common.util.StringInterner;
+
+/**
+ * Registry of the static data of all vessels seen, kept between runs. Static
+ * data is only broadcast every six minutes, so the registry gives names and
+ * dimensions to vessels from their first position report, and keeps static
+ * data received before any position report.
+ * <p>
+ * The file has the header of {@link AisViewFile} with its own magic number
+ * followed by a record per vessel of MMSI and static data. It is read memory
+ * mapped at startup, later records replacing earlier. Changes are appended
+ * in a thread of its own, and the file is rewritten when it holds more than
+ * twice the records needed. Names and destinations are shared between
+ * vessels, call signs are unique and not shared.
+ */
+public class VesselStaticRegistry implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(VesselStaticRegistry.class);
+
+	public static final int MAGIC = 0x41495353; // AISS
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int HEADER_SIZE = 16;
+	private static final byte STATIC_RECORD = 1;
+	// Records below which the file is never rewritten
+	private static final int MIN_RECORDS = 1000;
+
+	private final File file;
+	private final long interval;
+	private final LongObjectMap<VesselStaticData> statics = new LongObjectMap<VesselStaticData>();
+	// Vessels changed since last write
+	private LongObjectMap<VesselStaticData> changed = new LongObjectMap<VesselStaticData>();
+	private final StringInterner strings = new StringInterner();
+	// Records in file, guarded by the registry
+	private int records = 0;
+	private final Object fileLock = new Object();
+
+	/**
+	 * @param filename
+	 * @param interval
+	 *            time between writes in milliseconds
+	 */
+	public VesselStaticRegistry(String filename, long interval) {
+		this.file = new File(filename);
+		this.interval = interval;
+	}
+
+	/**
+	 * Read the registry file. A file that cannot be read is removed.
+	 */
+	public void load() {
+		long start = System.nanoTime();
+		synchronized (fileLock) {
+			try {
+				read();
+			} catch (IOException e) {
+				LOG.error("Failed to load vessel static registry: " + e.getMessage());
+				file.delete();
+				synchronized (this) {
+					statics.clear();
+					records = 0;
+				}
+			}
+		}
+		LOG.info("Vessel static registry loaded " + size() + " vessels " + strings.size() + " strings in "
+				+ EeINS.elapsed(start) + " ms");
+	}
+
+	private void read() throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < HEADER_SIZE) {
+				return;
+			}
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (buf.getInt() != MAGIC) {
+				throw new IOException("Not a vessel static registry: " + file);
+			}
+			int version = buf.getInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported vessel static registry format version: " + version);
+			}
+			// Time of writing
+			buf.getLong();
+			synchronized (this) {
+				while (buf.remaining() >= 5) {
+					byte type = buf.get();
+					int length = buf.getInt();
+					if (length < 0 || length > buf.remaining()) {
+						LOG.warn("Truncated record in " + file);
+						break;
+					}
+					int end = buf.position() + length;
+					if (type == STATIC_RECORD) {
+						long mmsi = buf.getLong();
+						VesselStaticData staticData = AisViewFile.readStaticData(buf);
+						intern(staticData);
+						statics.put(mmsi, staticData);
+						records++;
+					}
+					buf.position(end);
+				}
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param mmsi
+	 * @return static data of vessel, or null if never received
+	 */
+	public synchronized VesselStaticData get(long mmsi) {
+		return statics.get(mmsi);
+	}
+
+	/**
+	 * Store static data of vessel. Static data must not be changed once put,
+	 * as it is written outside the lock. Put a changed copy instead.
+	 * 
+	 * @param mmsi
+	 * @param staticData
+	 */
+	public synchronized void put(long mmsi, VesselStaticData staticData) {
+		intern(staticData);
+		statics.put(mmsi, staticData);
+		changed.put(mmsi, staticData);
+	}
+
+	/**
+	 * Share static data of a vessel loaded from elsewhere. The registry is
+	 * preferred as it is updated by all static reports.
+	 * 
+	 * @param mmsi
+	 * @param staticData
+	 *            loaded static data, may be null
+	 * @return static data to use for the vessel
+	 */
+	public synchronized VesselStaticData merge(long mmsi, VesselStaticData staticData) {
+		VesselStaticData current = statics.get(mmsi);
+		if (current != null || staticData == null) {
+			return current;
+		}
+		put(mmsi, staticData);
+		return staticData;
+	}
+
+	public synchronized int size() {
+		return statics.size();
+	}
+
+	private void intern(VesselStaticData staticData) {
+		staticData.setName(strings.intern(staticData.getName()));
+		staticData.setDestination(strings.intern(staticData.getDestination()));
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			EeINS.sleep(interval);
+			try {
+				flush();
+			} catch (IOException e) {
+				LOG.error("Failed to write vessel static registry: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Write the vessels changed since last write
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		synchronized (fileLock) {
+			LongObjectMap<VesselStaticData> toWrite;
+			boolean rewrite;
+			synchronized (this) {
+				if (changed.isEmpty()) {
+					return;
+				}
+				rewrite = records + changed.size() > Math.max(2 * statics.size(), MIN_RECORDS) || !file.exists();
+				if (rewrite) {
+					toWrite = new LongObjectMap<VesselStaticData>(statics.size());
+					for (long mmsi : statics.keys()) {
+						toWrite.put(mmsi, statics.get(mmsi));
+					}
+				} else {
+					toWrite = changed;
+				}
+				changed = new LongObjectMap<VesselStaticData>();
+			}
+			int written;
+			try {
+				written = rewrite ? rewrite(toWrite) : append(toWrite);
+			} catch (IOException e) {
+				// Keep changes for next write
+				synchronized (this) {
+					for (long mmsi : toWrite.keys()) {
+						if (!changed.containsKey(mmsi)) {
+							changed.put(mmsi, statics.get(mmsi));
+						}
+					}
+				}
+				throw e;
+			}
+			synchronized (this) {
+				records = rewrite ? written : records + written;
+			}
+		}
+	}
+
+	private int rewrite(LongObjectMap<VesselStaticData> all) throws IOException {
+		AisViewFile.Output out = write(all, true);
+		// Write to temporary file and rename so a failed write leaves the old
+		// file
+		File tmp = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(tmp);
+		try {
+			fileOut.write(out.buf.array(), 0, out.buf.position());
+		} finally {
+			fileOut.close();
+		}
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Failed to rename " + tmp + " to " + file);
+			}
+		}
+		return all.size();
+	}
+
+	private int append(LongObjectMap<VesselStaticData> vessels) throws IOException {
+		boolean newFile = !file.exists() || file.length() < HEADER_SIZE;
+		AisViewFile.Output out = write(vessels, newFile);
+		FileOutputStream fileOut = new FileOutputStream(file, !newFile);
+		try {
+			fileOut.write(out.buf.array(), 0, out.buf.position());
+		} finally {
+			fileOut.close();
+		}
+		return vessels.size();
+	}
+
+	private static AisViewFile.Output write(LongObjectMap<VesselStaticData> vessels, boolean header) {
+		AisViewFile.Output out = new AisViewFile.Output(HEADER_SIZE + 128 * vessels.size());
+		if (header) {
+			out.ensure(HEADER_SIZE);
+			out.buf.putInt(MAGIC);
+			out.buf.putInt(FORMAT_VERSION);
+			out.buf.putLong(System.currentTimeMillis());
+		}
+		for (long mmsi : vessels.keys()) {
+			int start = out.startRecord(STATIC_RECORD);
+			out.ensure(8);
+			out.buf.putLong(mmsi);
+			AisViewFile.writeStaticData(out, vessels.get(mmsi));
+			out.endRecord(start);
+		}
+		return out;
+	}
+
+}
@@ -32,6 +32,7 @@ package dk.frv.enav.ins.ais;
 import java.io.Serializable;
 import java.util.Date;
 
+import dk.frv.ais.geo.GeoLocation;
 import dk.frv.enav.ins.gps.GnssTime;
 
 /**
@@ -56,6 +57,8 @@ public class VesselTarget extends AisTarget implements Serializable {
 	private AisIntendedRoute aisIntendedRoute = null;
 	private AisClass aisClass; 
 	private VesselTargetSettings settings;
+	// Slot in the kinematic store plus one, zero when not stored
+	private transient int kinematicSlot;
 	
 
 	/**
@@ -87,9 +90,22 @@ public class VesselTarget extends AisTarget implements Serializable {
 		settings = new VesselTargetSettings();
 	}
 	
+	int getKinematicSlot() {
+		return kinematicSlot;
+	}
+	
+	void setKinematicSlot(int kinematicSlot) {
+		this.kinematicSlot = kinematicSlot;
+	}
+	
 	public VesselPositionData getPositionData() {
 		return positionData;
 	}
+	
+	@Override
+	public GeoLocation getPos() {
+		return (positionData == null) ? null : positionData.getPos();
+	}
 
 	public void setPositionData(VesselPositionData positionData) {
 		this.positionData = positionData;
@@ -156,15 +172,23 @@ public class VesselTarget extends AisTarget implements Serializable {
 
 	
 	/**
-	 * Determine if the target has gone.
-	 * @param now will be used as current time
+	 * Time the intended route becomes invalid
+	 * @return time in milliseconds or Long.MAX_VALUE if no route to expire
+	 */
+	public long getRouteExpiry() {
+		if (aisIntendedRoute == null || aisIntendedRoute.getWaypoints().size() == 0 || aisIntendedRoute.getDuration() == 0) {
+			return Long.MAX_VALUE;
+		}
+		return aisIntendedRoute.getReceived().getTime() + ROUTE_TTL + 1;
+	}
+	
+	/**
+	 * Determine the time without reports before the target has gone.
 	 * @param strict when strict is false more relaxed rules will used suitable for down sampled data
-	 * @return if the target has gone  
+	 * @return timeout in seconds
 	 */
 	@Override
-	public boolean hasGone(Date now, boolean strict) {
-		long elapsed = (now.getTime() - lastReceived.getTime()) / 1000;
-		
+	public long getGoneTimeout(boolean strict) {
 		// Base gone "loosely" on ITU-R Rec M1371-4 4.2.1
 		long tol = 10;
 		float sog = positionData.getSog();
@@ -202,7 +226,7 @@ public class VesselTarget extends AisTarget implements Serializable {
 			tol = 600; // 10 minutes
 		}
 		
-		return (elapsed > tol);
+		return tol;
 	}
 
 
@@ -68,4 +68,27 @@ public class Calculator {
 		}
 
 	}
+	
+	/**
+	 * Rhumb line distance in meters between two points given in decimal
+	 * degrees. Same calculation as GeoLocation.getRhumbLineDistance without
+	 * the need for location objects.
+	 * @param lat1
+	 * @param lon1
+	 * @param lat2
+	 * @param lon2
+	 * @return
+	 */
+	public static double rhumbLineDistance(double lat1, double lon1, double lat2, double lon2) {
+		double phi1 = Math.toRadians(lat1);
+		double phi2 = Math.toRadians(lat2);
+		double dPhi = Math.toRadians(lat2 - lat1);
+		double dLon = Math.toRadians(Math.abs(lon2 - lon1));
+		double dPsi = Math.log(Math.tan(phi2 / 2 + Math.PI / 4) / Math.tan(phi1 / 2 + Math.PI / 4));
+		double q = (dPsi == 0) ? Math.cos(phi1) : dPhi / dPsi;
+		if (dLon > Math.PI) {
+			dLon = 2 * Math.PI - dLon;
+		}
+		return Math.sqrt(dPhi * dPhi + q * q * dLon * dLon) * 6371.0 * 1000;
+	}
 }
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.common.util;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Hash map from primitive long keys to objects using open addressing with
+ * linear probing. Keys are not boxed and there are no entry objects, so
+ * lookups do not allocate. Removal shifts following entries back instead of
+ * leaving deleted markers. Null values are not allowed.
+ * <p>
+ * The map is not synchronized.
+ * 
+ * @param <V>
+ *            value type
+ */
+public class LongObjectMap<V> {
+
+	private static final int MIN_CAPACITY = 8;
+
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+	private int mask;
+	private int resizeAt;
+	private int modCount = 0;
+
+	public LongObjectMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of entries the map can hold without resizing
+	 */
+	public LongObjectMap(int expectedSize) {
+		allocate(capacityFor(expectedSize));
+	}
+
+	public V get(long key) {
+		int i = slot(key);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				return value(i);
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	public boolean containsKey(long key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Insert or replace value
+	 * 
+	 * @param key
+	 * @param value
+	 * @return previous value or null
+	 */
+	public V put(long key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Null values not allowed");
+		}
+		int i = slot(key);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				V old = value(i);
+				values[i] = value;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		values[i] = value;
+		modCount++;
+		if (++size > resizeAt) {
+			resize(2 * keys.length);
+		}
+		return null;
+	}
+
+	/**
+	 * Remove key
+	 * 
+	 * @param key
+	 * @return removed value or null
+	 */
+	public V remove(long key) {
+		int i = slot(key);
+		while (values[i] != null) {
+			if (keys[i] == key) {
+				V old = value(i);
+				shiftBack(i);
+				size--;
+				modCount++;
+				return old;
+			}
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		size = 0;
+		modCount++;
+	}
+
+	/**
+	 * @return copy of the keys in no particular order
+	 */
+	public long[] keys() {
+		long[] result = new long[size];
+		int j = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				result[j++] = keys[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * View of the values in no particular order. The map may not be changed
+	 * while iterating.
+	 * 
+	 * @return
+	 */
+	public Iterable<V> values() {
+		return new Iterable<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				return new ValueIterator();
+			}
+		};
+	}
+
+	/**
+	 * Close the gap at slot i by moving back entries of the following run
+	 * that would otherwise not be found
+	 */
+	private void shiftBack(int i) {
+		int gap = i;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (values[j] == null) {
+				break;
+			}
+			int home = slot(keys[j]);
+			// Move entry if its home slot is not in the cyclic range (gap, j]
+			if ((j > gap) ? (home <= gap || home > j) : (home <= gap && home > j)) {
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		values[gap] = null;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int j = slot(oldKeys[i]);
+				while (values[j] != null) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		resizeAt = capacity * 3 / 4;
+	}
+
+	@SuppressWarnings("unchecked")
+	private V value(int i) {
+		return (V) values[i];
+	}
+
+	private int slot(long key) {
+		return mix(key) & mask;
+	}
+
+	/**
+	 * Spread the bits of key, consecutive MMSI would otherwise cluster
+	 */
+	static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Power of two capacity keeping the load below 3/4
+	 */
+	static int capacityFor(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private class ValueIterator implements Iterator<V> {
+		private final int expectedModCount = modCount;
+		private int next = -1;
+
+		ValueIterator() {
+			advance();
+		}
+
+		private void advance() {
+			do {
+				next++;
+			} while (next < values.length && values[next] == null);
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < values.length;
+		}
+
+		@Override
+		public V next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (next >= values.length) {
+				throw new NoSuchElementException();
+			}
+			V value = value(next);
+			advance();
+			return value;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
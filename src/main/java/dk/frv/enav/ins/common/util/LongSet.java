@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.common.util;
+
+/**
+ * Hash set of primitive long values using open addressing with linear
+ * probing. Zero marks a free slot, so membership of zero is kept aside.
+ * <p>
+ * The set is not synchronized.
+ */
+public class LongSet {
+
+	private long[] keys;
+	private boolean containsZero = false;
+	private int size = 0;
+	private int mask;
+	private int resizeAt;
+
+	public LongSet() {
+		this(0);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of values the set can hold without resizing
+	 */
+	public LongSet(int expectedSize) {
+		allocate(LongObjectMap.capacityFor(expectedSize));
+	}
+
+	/**
+	 * Add value
+	 * 
+	 * @param key
+	 * @return true if not already in the set
+	 */
+	public boolean add(long key) {
+		if (key == 0) {
+			if (containsZero) {
+				return false;
+			}
+			containsZero = true;
+			size++;
+			return true;
+		}
+		int i = LongObjectMap.mix(key) & mask;
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		if (++size > resizeAt) {
+			resize(2 * keys.length);
+		}
+		return true;
+	}
+
+	public boolean contains(long key) {
+		if (key == 0) {
+			return containsZero;
+		}
+		int i = LongObjectMap.mix(key) & mask;
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	/**
+	 * Remove value
+	 * 
+	 * @param key
+	 * @return true if it was in the set
+	 */
+	public boolean remove(long key) {
+		if (key == 0) {
+			if (!containsZero) {
+				return false;
+			}
+			containsZero = false;
+			size--;
+			return true;
+		}
+		int i = LongObjectMap.mix(key) & mask;
+		while (keys[i] != 0) {
+			if (keys[i] == key) {
+				shiftBack(i);
+				size--;
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = 0;
+		}
+		containsZero = false;
+		size = 0;
+	}
+
+	/**
+	 * @return copy of the values in no particular order
+	 */
+	public long[] toArray() {
+		long[] result = new long[size];
+		int j = 0;
+		if (containsZero) {
+			j++;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != 0) {
+				result[j++] = keys[i];
+			}
+		}
+		return result;
+	}
+
+	private void shiftBack(int i) {
+		int gap = i;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (keys[j] == 0) {
+				break;
+			}
+			int home = LongObjectMap.mix(keys[j]) & mask;
+			if ((j > gap) ? (home <= gap || home > j) : (home <= gap && home > j)) {
+				keys[gap] = keys[j];
+				gap = j;
+			}
+		}
+		keys[gap] = 0;
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			long key = oldKeys[i];
+			if (key != 0) {
+				int j = LongObjectMap.mix(key) & mask;
+				while (keys[j] != 0) {
+					j = (j + 1) & mask;
+				}
+				keys[j] = key;
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		mask = capacity - 1;
+		resizeAt = capacity * 3 / 4;
+	}
+
+}
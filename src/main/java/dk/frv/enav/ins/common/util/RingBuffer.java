@@ -0,0 +1,246 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.common.util;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of pre-allocated events between any number of producers
+ * and a single consumer. A producer claims a slot, fills it and publishes it.
+ * The consumer exchanges a spare event for the oldest published one, so no
+ * events are allocated after construction.
+ * 
+ * @param <E>
+ *            event type
+ */
+public class RingBuffer<E> {
+
+	/**
+	 * What to do when a producer meets a full ring
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Wait for the consumer to make room
+		 */
+		BLOCK,
+		/**
+		 * Overwrite the oldest event not yet consumed
+		 */
+		DROP_OLDEST,
+		/**
+		 * Reject low priority (AIS class B) events when the ring is three
+		 * quarters full, and drop the oldest event when full
+		 */
+		DROP_CLASS_B_FIRST;
+		public static OverflowPolicy parseString(String policy) {
+			if (policy.equalsIgnoreCase("DROP_OLDEST")) {
+				return DROP_OLDEST;
+			} else if (policy.equalsIgnoreCase("DROP_CLASS_B_FIRST")) {
+				return DROP_CLASS_B_FIRST;
+			}
+			return BLOCK;
+		}
+	}
+
+	/**
+	 * Factory used for pre-allocating the events of the ring
+	 */
+	public interface EventFactory<E> {
+		E newEvent();
+	}
+
+	private final Object[] slots;
+	private final EventFactory<E> factory;
+	private final OverflowPolicy policy;
+	private final int lowPriorityLimit;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private int head = 0;
+	private int size = 0;
+	private int maxDepth = 0;
+	private long published = 0;
+	private long dropped = 0;
+	private long droppedLowPriority = 0;
+
+	public RingBuffer(int capacity, OverflowPolicy policy, EventFactory<E> factory) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Ring capacity must be positive: " + capacity);
+		}
+		this.slots = new Object[capacity];
+		this.factory = factory;
+		this.policy = policy;
+		this.lowPriorityLimit = Math.max(1, capacity - capacity / 4);
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = factory.newEvent();
+		}
+	}
+
+	/**
+	 * Claim the next free slot. If a slot is returned the ring is locked until
+	 * {@link #publish()} is called, so the caller must fill the slot and
+	 * publish it without delay.
+	 * 
+	 * @param lowPriority
+	 *            if the event may be shed before others
+	 * @return slot to fill, or null if the event is to be dropped
+	 */
+	@SuppressWarnings("unchecked")
+	public E claim(boolean lowPriority) {
+		lock.lock();
+		boolean claimed = false;
+		try {
+			if (lowPriority && policy == OverflowPolicy.DROP_CLASS_B_FIRST && size >= lowPriorityLimit) {
+				dropped++;
+				droppedLowPriority++;
+				return null;
+			}
+			while (size == slots.length) {
+				if (policy == OverflowPolicy.BLOCK) {
+					notFull.awaitUninterruptibly();
+				} else {
+					// Drop oldest
+					head = (head + 1) % slots.length;
+					size--;
+					dropped++;
+				}
+			}
+			claimed = true;
+			return (E) slots[(head + size) % slots.length];
+		} finally {
+			if (!claimed) {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Publish the slot returned by the last {@link #claim(boolean)} and
+	 * release the ring
+	 */
+	public void publish() {
+		try {
+			size++;
+			published++;
+			if (size > maxDepth) {
+				maxDepth = size;
+			}
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Take the oldest published event waiting if the ring is empty. The given
+	 * spare event takes its place in the ring, and the returned event is owned
+	 * by the consumer until handed back as spare in the next call.
+	 * 
+	 * @param spare
+	 *            event no longer used by the consumer, or null on first call
+	 * @return oldest event
+	 * @throws InterruptedException
+	 */
+	@SuppressWarnings("unchecked")
+	public E take(E spare) throws InterruptedException {
+		if (spare == null) {
+			spare = factory.newEvent();
+		}
+		lock.lock();
+		try {
+			while (size == 0) {
+				notEmpty.await();
+			}
+			E event = (E) slots[head];
+			slots[head] = spare;
+			head = (head + 1) % slots.length;
+			size--;
+			notFull.signal();
+			return event;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	public int getCapacity() {
+		return slots.length;
+	}
+
+	public int getDepth() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getMaxDepth() {
+		lock.lock();
+		try {
+			return maxDepth;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getPublished() {
+		lock.lock();
+		try {
+			return published;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getDropped() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getDroppedLowPriority() {
+		lock.lock();
+		try {
+			return droppedLowPriority;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.common.util;
+
+import java.util.HashMap;
+
+/**
+ * Pool of strings giving one shared instance of equal strings, e.g. for
+ * destinations and names repeated between many vessels. Unlike
+ * {@link String#intern()} the pool is kept on the heap and is released with
+ * its owner.
+ */
+public class StringInterner {
+
+	private final HashMap<String, String> strings;
+
+	public StringInterner() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            number of strings the pool can hold without resizing
+	 */
+	public StringInterner(int expectedSize) {
+		strings = new HashMap<String, String>(Math.max((int) (expectedSize / 0.75f) + 1, 16));
+	}
+
+	/**
+	 * Get the shared instance of string
+	 * 
+	 * @param str
+	 * @return shared instance equal to str, null if str is null
+	 */
+	public synchronized String intern(String str) {
+		if (str == null) {
+			return null;
+		}
+		String shared = strings.get(str);
+		if (shared == null) {
+			strings.put(str, str);
+			shared = str;
+		}
+		return shared;
+	}
+
+	/**
+	 * @return number of distinct strings
+	 */
+	public synchronized int size() {
+		return strings.size();
+	}
+
+	public synchronized void clear() {
+		strings.clear();
+	}
+
+}
@@ -45,7 +45,7 @@ public class GnssTime extends MapHandlerChild implements IGnssTimeListener {
 	
 	private static final Logger LOG = Logger.getLogger(GnssTime.class);
 	
-	private long offset = 0;
+	private volatile long offset = 0;
 	private NmeaSensor nmeaSensor = null;
 	
 	private static GnssTime instance = null;
@@ -70,8 +70,16 @@ public class GnssTime extends MapHandlerChild implements IGnssTimeListener {
 	 * Get GNSS date
 	 * @return date
 	 */
-	public synchronized Date getDate() {
-		return new Date((new Date()).getTime() - offset);		 
+	public Date getDate() {
+		return new Date(getTime());		 
+	}
+	
+	/**
+	 * Get GNSS time without allocating a date
+	 * @return milliseconds since epoch
+	 */
+	public long getTime() {
+		return System.currentTimeMillis() - offset;
 	}
 	
 	public static void init() {
@@ -49,6 +49,8 @@ import com.bbn.openmap.gui.OMComponentPanel;
 import dk.frv.enav.ins.EeINS;
 import dk.frv.enav.ins.ais.AisHandler;
 import dk.frv.enav.ins.gps.GpsHandler;
+import dk.frv.enav.ins.nmea.NmeaMultiplexSensor;
+import dk.frv.enav.ins.nmea.NmeaServer;
 import dk.frv.enav.ins.services.shore.ShoreServices;
 import dk.frv.enav.ins.status.IStatusComponent;
 
@@ -117,6 +119,10 @@ public class BottomPanel extends OMComponentPanel implements MouseListener, Runn
 		} else if (obj instanceof ShoreServices) {
 			shoreServices = (ShoreServices) obj;
 			statusComponents.add(shoreServices);
+		} else if (obj instanceof NmeaMultiplexSensor && !statusComponents.contains(obj)) {
+			statusComponents.add((NmeaMultiplexSensor) obj);
+		} else if (obj instanceof NmeaServer) {
+			statusComponents.add((NmeaServer) obj);
 		}
 
 	}
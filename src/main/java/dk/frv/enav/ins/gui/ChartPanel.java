@@ -64,6 +64,7 @@ import dk.frv.enav.ins.gui.nogo.NogoDialog;
 import dk.frv.enav.ins.layers.EncLayerFactory;
 import dk.frv.enav.ins.layers.GeneralLayer;
 import dk.frv.enav.ins.layers.ais.AisLayer;
+import dk.frv.enav.ins.layers.ais.AisTrackLayer;
 import dk.frv.enav.ins.layers.background.CoastalOutlineLayer;
 import dk.frv.enav.ins.layers.gps.GpsLayer;
 import dk.frv.enav.ins.layers.msi.MsiLayer;
@@ -88,6 +89,7 @@ public class ChartPanel extends OMComponentPanel implements IGpsDataListener, Mo
 	private GpsLayer gpsLayer;
 	private Layer encLayer;
 	private AisLayer aisLayer;
+	private AisTrackLayer aisTrackLayer;
 	private GeneralLayer generalLayer;
 	private CoastalOutlineLayer coastalOutlineLayer;
 	private NavigationMouseMode mapNavMouseMode;
@@ -196,9 +198,16 @@ public class ChartPanel extends OMComponentPanel implements IGpsDataListener, Mo
 		// Create AIS layer
 		aisLayer = new AisLayer();
 		aisLayer.setMinRedrawInterval(EeINS.getSettings().getAisSettings().getMinRedrawInterval() * 1000);
+		aisLayer.setPredictionHorizon(EeINS.getSettings().getAisSettings().getPredictionHorizon() * 1000L);
+		aisLayer.setFrameRate(EeINS.getSettings().getAisSettings().getAnimationFrameRate());
 		aisLayer.setVisible(true);
 		mapHandler.add(aisLayer);
 
+		// Create AIS track layer
+		aisTrackLayer = new AisTrackLayer();
+		aisTrackLayer.setVisible(EeINS.getSettings().getAisSettings().isShowTracks());
+		mapHandler.add(aisTrackLayer);
+
 		// Create GPS layer
 		gpsLayer = new GpsLayer();
 		gpsLayer.setVisible(true);
@@ -318,6 +327,10 @@ public class ChartPanel extends OMComponentPanel implements IGpsDataListener, Mo
 		aisLayer.setVisible(visible);
 	}
 
+	public void aisTracksVisible(boolean visible) {
+		aisTrackLayer.setVisible(visible);
+	}
+
 	public void encVisible(boolean visible) {
 		if (encLayer != null) {
 			encLayer.setVisible(visible);
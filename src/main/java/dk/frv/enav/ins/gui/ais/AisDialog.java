@@ -61,8 +61,8 @@ import dk.frv.ais.geo.GeoLocation;
 import dk.frv.ais.message.AisMessage;
 import dk.frv.enav.ins.ais.AisHandler;
 import dk.frv.enav.ins.ais.AisHandler.AisMessageExtended;
-import dk.frv.enav.ins.ais.AisTarget;
-import dk.frv.enav.ins.ais.IAisTargetListener;
+import dk.frv.enav.ins.ais.AisTargetChanges;
+import dk.frv.enav.ins.ais.IAisTargetBatchListener;
 import dk.frv.enav.ins.ais.VesselTarget;
 import dk.frv.enav.ins.ais.VesselTarget.AisClass;
 import dk.frv.enav.ins.common.text.Formatter;
@@ -72,7 +72,7 @@ import dk.frv.enav.ins.layers.ais.AisLayer;
 /**
  * AIS targets dialog
  */
-public class AisDialog extends ComponentFrame implements ListSelectionListener, ActionListener, IAisTargetListener, WindowListener {
+public class AisDialog extends ComponentFrame implements ListSelectionListener, ActionListener, IAisTargetBatchListener, WindowListener {
 	private static final long serialVersionUID = 1L;
 
 	private AisLayer aisLayer;
@@ -275,10 +275,11 @@ public class AisDialog extends ComponentFrame implements ListSelectionListener,
 	
 	private void updateDetails() {
 		int selected = aisTable.getSelectedRow();
-		if (selected >= 0 && selected < aisTable.getRowCount() && aisHandler.getVesselTargets() != null){
+		if (selected >= 0 && selected < aisTable.getRowCount()){
 			Object mmsi = aisTable.getValueAt(selected, 1);
-			if (aisHandler.getVesselTargets().get(mmsi) != null) {
-			setDetails(aisHandler.getVesselTargets().get(mmsi));
+			VesselTarget vesselTarget = aisHandler.getVesselTargets().get(mmsi);
+			if (vesselTarget != null) {
+			setDetails(vesselTarget);
 			//setRiskDetails(EeINS.getRiskHandler().getRiskList((Long)mmsi));
 			}
 		}
@@ -447,7 +448,7 @@ private boolean compare(Object value1, Object value2){
 		}
 		if (obj instanceof AisHandler) {
 			aisHandler = (AisHandler)obj;
-			aisHandler.addListener(this);
+			aisHandler.addBatchListener(this);
 			initGui();
 		}		
 	}
@@ -467,7 +468,7 @@ private boolean compare(Object value1, Object value2){
 	}
 
 	@Override
-	public void targetUpdated(AisTarget aisTarget) {
+	public void targetsChanged(AisTargetChanges changes) {
 		// Only update table if dialog is visible
 		if (isVisible()) {
 			updateTable();
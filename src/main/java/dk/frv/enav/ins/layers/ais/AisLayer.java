@@ -34,9 +34,7 @@ import java.awt.Point;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Point2D;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 
 import javax.swing.SwingUtilities;
 
@@ -49,31 +47,50 @@ import com.bbn.openmap.omGraphics.OMCircle;
 import com.bbn.openmap.omGraphics.OMGraphic;
 import com.bbn.openmap.omGraphics.OMGraphicList;
 import com.bbn.openmap.omGraphics.OMList;
+import com.bbn.openmap.proj.Projection;
 
 import dk.frv.ais.geo.GeoLocation;
 import dk.frv.enav.ins.EeINS;
 import dk.frv.enav.ins.ais.AisHandler;
 import dk.frv.enav.ins.ais.AisTarget;
+import dk.frv.enav.ins.ais.AisTargetChanges;
 import dk.frv.enav.ins.ais.AtoNTarget;
+import dk.frv.enav.ins.ais.DeadReckoner;
+import dk.frv.enav.ins.ais.IAisTargetBatchListener;
 import dk.frv.enav.ins.ais.IAisTargetListener;
 import dk.frv.enav.ins.ais.SarTarget;
 import dk.frv.enav.ins.ais.VesselTarget;
+import dk.frv.enav.ins.common.util.LongObjectMap;
+import dk.frv.enav.ins.common.util.LongSet;
 import dk.frv.enav.ins.event.NavigationMouseMode;
+import dk.frv.enav.ins.gps.GnssTime;
 import dk.frv.enav.ins.gps.GpsHandler;
 import dk.frv.enav.ins.gui.ChartPanel;
 import dk.frv.enav.ins.gui.MainFrame;
 import dk.frv.enav.ins.gui.MapMenu;
 import dk.frv.enav.ins.gui.TopPanel;
+import dk.frv.enav.ins.risk.CpaEngine;
+import dk.frv.enav.ins.risk.CpaResult;
+import dk.frv.enav.ins.risk.ICpaAlarmListener;
 
 /**
  * AIS layer. Showing AIS targets and intended routes. 
  */
-public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListener, Runnable, MapMouseListener {
+public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListener, IAisTargetBatchListener, ICpaAlarmListener, Runnable,
+		MapMouseListener {
 
 	private static final Logger LOG = Logger.getLogger(AisLayer.class);
 	private static final long serialVersionUID = 1L;
 
+	private static final double VIEW_MARGIN = 0.1;
+
 	private long minRedrawInterval = 5 * 1000; // 5 sec
+	private volatile long frameInterval = 0; // No animation
+	private volatile DeadReckoner deadReckoner = new DeadReckoner(60 * 1000);
+	private Runnable animator = null;
+	// Buffers for the dead reckoning of each frame
+	private double[] predicted = new double[3];
+	private Point2D.Double point = new Point2D.Double();
 
 	private AisHandler aisHandler = null;
 	private MapBean mapBean = null;
@@ -83,8 +100,14 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 	private SarTargetInfoPanel sarTargetInfoPanel = new SarTargetInfoPanel();
 	private MapMenu aisTargetMenu = null;
 
-	private Map<Long, TargetGraphic> targets = new HashMap<Long, TargetGraphic>();
+	private LongObjectMap<TargetGraphic> targets = new LongObjectMap<TargetGraphic>();
+	// Targets found dangerous by the CPA engine
+	private LongSet dangerous = new LongSet();
 	private OMGraphicList graphics = new OMGraphicList();
+	// Graphics of targets in view, the list being shown
+	private volatile OMGraphicList viewGraphics = graphics;
+	// Current view with margin, null when not known
+	private double[] viewBox = null;
 
 	private Date lastRedraw = new Date();
 	private Boolean redrawPending = false;
@@ -115,6 +138,29 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 		updateLayer(false);
 	}
 
+	/**
+	 * Move the vessels in view to their dead reckoned positions and repaint if
+	 * any has moved. Graphics are not projected again.
+	 */
+	private synchronized void animate() {
+		Projection projection = getProjection();
+		if (projection == null || !isVisible()) {
+			return;
+		}
+		long now = GnssTime.getInstance().getTime();
+		OMGraphicList list = viewGraphics;
+		boolean moved = false;
+		for (int i = 0; i < list.size(); i++) {
+			OMGraphic omGraphic = list.get(i);
+			if (omGraphic instanceof VesselTargetGraphic) {
+				moved |= ((VesselTargetGraphic) omGraphic).predict(deadReckoner, projection, now, predicted, point);
+			}
+		}
+		if (moved) {
+			repaint();
+		}
+	}
+
 	private void updateLayer(boolean force) {
 		if (!force) {
 			long elapsed = (new Date()).getTime() - getLastRedraw().getTime();
@@ -125,37 +171,112 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 		doPrepare();
 	}
 
+	/**
+	 * Update the graphic of a single target, e.g. when its settings have been
+	 * changed from a menu
+	 */
 	@Override
 	public synchronized void targetUpdated(AisTarget aisTarget) {
+		boolean forceRedraw = applyUpdate(aisTarget);
+		setRedrawPending(true);
+		updateLayer(forceRedraw);
+	}
+
+	/**
+	 * Apply the target changes collected by the AIS handler and redraw once
+	 */
+	@Override
+	public synchronized void targetsChanged(AisTargetChanges changes) {
+		boolean forceRedraw = false;
+		for (AisTarget aisTarget : changes.getRemoved()) {
+			removeGraphic(aisTarget.getMmsi());
+		}
+		for (AisTarget aisTarget : changes.getAdded()) {
+			forceRedraw |= applyUpdate(aisTarget);
+		}
+		for (AisTarget aisTarget : changes.getUpdated()) {
+			forceRedraw |= applyUpdate(aisTarget);
+		}
+		setRedrawPending(true);
+		updateLayer(forceRedraw);
+	}
+
+	/**
+	 * Mark the dangerous targets and redraw at once
+	 */
+	@Override
+	public synchronized void dangerousTargetsChanged(List<CpaResult> dangerousTargets) {
+		LongSet newDangerous = new LongSet(dangerousTargets.size());
+		for (CpaResult result : dangerousTargets) {
+			newDangerous.add(result.getMmsi());
+		}
+		for (long mmsi : dangerous.toArray()) {
+			if (!newDangerous.contains(mmsi)) {
+				setDangerous(mmsi, false);
+			}
+		}
+		for (long mmsi : newDangerous.toArray()) {
+			setDangerous(mmsi, true);
+		}
+		dangerous = newDangerous;
+		setRedrawPending(true);
+		updateLayer(true);
+	}
+
+	private void setDangerous(long mmsi, boolean isDangerous) {
+		TargetGraphic targetGraphic = targets.get(mmsi);
+		if (targetGraphic instanceof VesselTargetGraphic) {
+			((VesselTargetGraphic) targetGraphic).setDangerous(isDangerous);
+		}
+	}
+
+	/**
+	 * Remove the graphic of target if any
+	 * @param mmsi
+	 */
+	private void removeGraphic(long mmsi) {
+		TargetGraphic targetGraphic = targets.remove(mmsi);
+		if (targetGraphic != null) {
+			graphics.remove(targetGraphic);
+			if (viewGraphics != graphics) {
+				viewGraphics.remove(targetGraphic);
+			}
+		}
+	}
+
+	/**
+	 * Create or update the graphic of target. Gone targets are removed.
+	 * @param aisTarget
+	 * @return if the layer should be redrawn at once
+	 */
+	private boolean applyUpdate(AisTarget aisTarget) {
 		long mmsi = aisTarget.getMmsi();
 		TargetGraphic targetGraphic = targets.get(mmsi);
 
 		if (aisTarget.isGone()) {
-			if (targetGraphic != null) {
-				// Remove target
-				// LOG.info("Target has gone: " + mmsi);
-				targets.remove(mmsi);
-				graphics.remove(targetGraphic);
-				setRedrawPending(true);
-				updateLayer();
-			}
-			return;
+			removeGraphic(mmsi);
+			return false;
 		}
 
 		// Create and insert
 		if (targetGraphic == null) {
 			if (aisTarget instanceof VesselTarget) {
-				targetGraphic = new VesselTargetGraphic();
+				VesselTargetGraphic vesselTargetGraphic = new VesselTargetGraphic();
+				vesselTargetGraphic.setDangerous(dangerous.contains(mmsi));
+				targetGraphic = vesselTargetGraphic;
 			} else if (aisTarget instanceof SarTarget) {
 				targetGraphic = new SarTargetGraphic();
 			} else if (aisTarget instanceof AtoNTarget) {
 				targetGraphic = new AtonTargetGraphic();
 			} else {
 				LOG.error("Unknown target type");
-				return;
+				return false;
 			}
 			targets.put(mmsi, targetGraphic);
 			graphics.add(targetGraphic);
+			if (viewGraphics != graphics && isInView(aisTarget)) {
+				viewGraphics.add(targetGraphic);
+			}
 		}
 		
 		
@@ -179,13 +300,12 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 			targetGraphic.update((AtoNTarget) aisTarget);
 		}
 
-		targetGraphic.project(getProjection());
+		// Targets out of view are projected when they come into view
+		if (isInView(aisTarget) || forceRedraw) {
+			targetGraphic.project(getProjection());
+		}
 		
-		// System.out.println("targets.size() : " + targets.size());
-		// System.out.println("graphics.size(): " + graphics.size() + "\n---");
-
-		setRedrawPending(true);
-		updateLayer(forceRedraw);
+		return forceRedraw;
 	}
 
 	private void setRedrawPending(boolean val) {
@@ -212,24 +332,107 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 	@Override
 	public synchronized OMGraphicList prepare() {
 		// long start = System.nanoTime();
-		Iterator<TargetGraphic> it = targets.values().iterator();
+		Projection projection = getProjection();
+		viewGraphics = findViewGraphics(projection);
 		
-		for (OMGraphic omgraphic : graphics) {
+		for (OMGraphic omgraphic : viewGraphics) {
 			if(omgraphic instanceof IntendedRouteGraphic){
-				((IntendedRouteGraphic) omgraphic).showArrowHeads(getProjection().getScale() < EeINS.getSettings().getNavSettings().getShowArrowScale());
+				((IntendedRouteGraphic) omgraphic).showArrowHeads(projection.getScale() < EeINS.getSettings().getNavSettings().getShowArrowScale());
 			}
 		}
 
-		while (it.hasNext()) {
-			TargetGraphic target = it.next();
-			target.setMarksVisible(getProjection());
+		for (OMGraphic omgraphic : viewGraphics) {
+			((TargetGraphic) omgraphic).setMarksVisible(projection);
 		}
 
 		setRedrawPending(false);
-		graphics.project(getProjection());
+		viewGraphics.project(projection);
 		// System.out.println("Finished AisLayer.prepare() in " +
 		// EeINS.elapsed(start) + " ms\n---");
-		return graphics;
+		return viewGraphics;
+	}
+	
+	/**
+	 * Find the graphics to show using the spatial index of the AIS handler.
+	 * Targets with a visible intended route are always shown as the route
+	 * may cross the view.
+	 * @param projection
+	 * @return
+	 */
+	private OMGraphicList findViewGraphics(Projection projection) {
+		if (aisHandler == null || projection == null) {
+			viewBox = null;
+			return graphics;
+		}
+		viewBox = getViewBox(projection, VIEW_MARGIN);
+
+		OMGraphicList list = new OMGraphicList();
+		LongSet added = new LongSet();
+		for (Long mmsi : aisHandler.queryBox(viewBox[0], viewBox[1], viewBox[2], viewBox[3])) {
+			TargetGraphic targetGraphic = targets.get(mmsi);
+			if (targetGraphic != null && added.add(mmsi)) {
+				list.add(targetGraphic);
+			}
+		}
+		for (long mmsi : targets.keys()) {
+			TargetGraphic targetGraphic = targets.get(mmsi);
+			if (targetGraphic instanceof VesselTargetGraphic
+					&& ((VesselTargetGraphic) targetGraphic).getRouteGraphic().isVisible() && added.add(mmsi)) {
+				list.add(targetGraphic);
+			}
+		}
+		return list;
+	}
+	
+	/**
+	 * Get the area of the projection extended by a margin
+	 * @param projection
+	 * @param margin fraction of view width and height to add on each side
+	 * @return min lat, min lon, max lat, max lon. Min lon is greater than max lon if the date line is crossed.
+	 */
+	static double[] getViewBox(Projection projection, double margin) {
+		Point2D upperLeft = projection.getUpperLeft();
+		Point2D lowerRight = projection.getLowerRight();
+		double marginLat = (upperLeft.getY() - lowerRight.getY()) * margin;
+		double width = lowerRight.getX() - upperLeft.getX();
+		if (width < 0) {
+			width += 360;
+		}
+		double marginLon = width * margin;
+		double minLon = upperLeft.getX() - marginLon;
+		double maxLon = lowerRight.getX() + marginLon;
+		if (width + 2 * marginLon >= 360) {
+			minLon = -180;
+			maxLon = 180;
+		} else {
+			minLon = (minLon < -180) ? minLon + 360 : minLon;
+			maxLon = (maxLon > 180) ? maxLon - 360 : maxLon;
+		}
+		return new double[] { lowerRight.getY() - marginLat, minLon, upperLeft.getY() + marginLat, maxLon };
+	}
+	
+	/**
+	 * Determine if target is inside the current view
+	 * @param aisTarget
+	 * @return
+	 */
+	private boolean isInView(AisTarget aisTarget) {
+		if (viewBox == null) {
+			return true;
+		}
+		GeoLocation pos = aisTarget.getPos();
+		if (pos == null) {
+			return false;
+		}
+		double lat = pos.getLatitude();
+		double lon = pos.getLongitude();
+		if (lat < viewBox[0] || lat > viewBox[2]) {
+			return false;
+		}
+		if (viewBox[1] <= viewBox[3]) {
+			return lon >= viewBox[1] && lon <= viewBox[3];
+		}
+		return lon >= viewBox[1] || lon <= viewBox[3];
 	}
 
 	public long getMinRedrawInterval() {
@@ -240,6 +443,37 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 		this.minRedrawInterval = minRedrawInterval;
 	}
 
+	/**
+	 * Set the rate vessels are moved between reports
+	 * @param frameRate frames per second, 0 for no animation
+	 */
+	public synchronized void setFrameRate(int frameRate) {
+		frameInterval = (frameRate > 0) ? 1000 / frameRate : 0;
+		if (frameInterval == 0 || animator != null) {
+			return;
+		}
+		animator = new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					long interval = frameInterval;
+					EeINS.sleep((interval > 0) ? interval : 1000);
+					if (interval > 0) {
+						animate();
+					}
+				}
+			}
+		};
+		EeINS.startThread(animator, "AisLayerAnimator");
+	}
+
+	/**
+	 * @param horizon milliseconds vessels are moved after a report
+	 */
+	public void setPredictionHorizon(long horizon) {
+		deadReckoner = new DeadReckoner(horizon);
+	}
+
 	@Override
 	public void paint(Graphics g) {
 		//long start = System.nanoTime();
@@ -252,7 +486,7 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 	public void findAndInit(Object obj) {
 		if (obj instanceof AisHandler) {
 			aisHandler = (AisHandler) obj;
-			aisHandler.addListener(this);
+			aisHandler.addBatchListener(this);
 		}
 		if (obj instanceof MapBean) {
 			mapBean = (MapBean) obj;
@@ -272,6 +506,9 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 		if (obj instanceof ChartPanel) {
 			chartPanel = (ChartPanel) obj;
 		}
+		if (obj instanceof CpaEngine) {
+			((CpaEngine) obj).addAlarmListener(this);
+		}
 		if (obj instanceof TopPanel) {
 			topPanel = (TopPanel) obj;
 		}		
@@ -280,7 +517,10 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 	@Override
 	public void findAndUndo(Object obj) {
 		if (obj == aisHandler) {
-			aisHandler.removeListener(this);
+			aisHandler.removeBatchListener(this);
+		}
+		if (obj instanceof CpaEngine) {
+			((CpaEngine) obj).removeAlarmListener(this);
 		}
 	}
 
@@ -300,7 +540,7 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 		if (this.isVisible()) {
 			if (e.getButton() == MouseEvent.BUTTON3) {
 				selectedGraphic = null;
-				OMList<OMGraphic> allClosest = graphics.findAll(e.getX(), e.getY(), 5.0f);
+				OMList<OMGraphic> allClosest = viewGraphics.findAll(e.getX(), e.getY(), 5.0f);
 
 				for (OMGraphic omGraphic : allClosest) {
 					if (omGraphic instanceof IntendedRouteWpCircle || omGraphic instanceof VesselTargetTriangle
@@ -388,7 +628,7 @@ public class AisLayer extends OMGraphicHandlerLayer implements IAisTargetListene
 		}
 		
 		OMGraphic newClosest = null;
-		OMList<OMGraphic> allClosest = graphics.findAll(e.getX(), e.getY(), 3.0f);
+		OMList<OMGraphic> allClosest = viewGraphics.findAll(e.getX(), e.getY(), 3.0f);
 
 		for (OMGraphic omGraphic : allClosest) {
 			
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.layers.ais;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+
+import com.bbn.openmap.layer.OMGraphicHandlerLayer;
+import com.bbn.openmap.omGraphics.OMGraphic;
+import com.bbn.openmap.omGraphics.OMGraphicList;
+import com.bbn.openmap.omGraphics.OMPoly;
+import com.bbn.openmap.proj.Projection;
+
+import dk.frv.enav.ins.EeINS;
+import dk.frv.enav.ins.ais.AisHandler;
+import dk.frv.enav.ins.gps.GnssTime;
+
+/**
+ * Layer showing the track history of AIS vessel targets in view. Trails are
+ * rebuilt from the track store of the AIS handler at a fixed interval.
+ */
+public class AisTrackLayer extends OMGraphicHandlerLayer implements Runnable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final double VIEW_MARGIN = 0.1;
+	private static final Color TRACK_COLOR = new Color(80, 80, 80, 160);
+
+	private long redrawInterval = 10 * 1000; // 10 sec
+
+	private AisHandler aisHandler = null;
+
+	public AisTrackLayer() {
+		(new Thread(this)).start();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			EeINS.sleep(redrawInterval);
+			if (isVisible() && aisHandler != null) {
+				doPrepare();
+			}
+		}
+	}
+
+	@Override
+	public synchronized OMGraphicList prepare() {
+		OMGraphicList list = new OMGraphicList();
+		Projection projection = getProjection();
+		if (aisHandler == null || projection == null) {
+			return list;
+		}
+		long since = GnssTime.getInstance().getTime() - aisHandler.getTrackStore().getDuration();
+		double[] viewBox = AisLayer.getViewBox(projection, VIEW_MARGIN);
+		for (Long mmsi : aisHandler.queryBox(viewBox[0], viewBox[1], viewBox[2], viewBox[3])) {
+			double[] latLons = aisHandler.getTrack(mmsi, since);
+			if (latLons == null || latLons.length < 4) {
+				continue;
+			}
+			OMPoly trail = new OMPoly(latLons, OMGraphic.DECIMAL_DEGREES, OMGraphic.LINETYPE_RHUMB);
+			trail.setLinePaint(TRACK_COLOR);
+			trail.setStroke(new BasicStroke(1));
+			list.add(trail);
+		}
+		list.project(projection);
+		return list;
+	}
+
+	public long getRedrawInterval() {
+		return redrawInterval;
+	}
+
+	public void setRedrawInterval(long redrawInterval) {
+		this.redrawInterval = redrawInterval;
+	}
+
+	@Override
+	public void findAndInit(Object obj) {
+		if (obj instanceof AisHandler) {
+			aisHandler = (AisHandler) obj;
+		}
+	}
+
+	@Override
+	public void findAndUndo(Object obj) {
+		if (obj == aisHandler) {
+			aisHandler = null;
+		}
+	}
+
+}
@@ -29,9 +29,13 @@
  */
 package dk.frv.enav.ins.layers.ais;
 
+import java.awt.AlphaComposite;
 import java.awt.BasicStroke;
 import java.awt.Color;
+import java.awt.Composite;
 import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Paint;
 import java.awt.Stroke;
 import java.awt.geom.Point2D;
@@ -50,6 +54,7 @@ import dk.frv.enav.common.xml.risk.response.Risk;
 import dk.frv.enav.ins.EeINS;
 import dk.frv.enav.ins.ais.AisIntendedRoute;
 import dk.frv.enav.ins.ais.AisTarget;
+import dk.frv.enav.ins.ais.DeadReckoner;
 import dk.frv.enav.ins.ais.VesselPositionData;
 import dk.frv.enav.ins.ais.VesselStaticData;
 import dk.frv.enav.ins.ais.VesselTarget;
@@ -66,6 +71,16 @@ public class VesselTargetGraphic extends TargetGraphic {
 
 	public static final float STROKE_WIDTH = 1.5f;
 
+	// Opacity of targets with no confidence in the predicted position
+	private static final float MIN_ALPHA = 0.3f;
+	private static final int FADE_LEVELS = 10;
+	private static final AlphaComposite[] FADE = new AlphaComposite[FADE_LEVELS + 1];
+	static {
+		for (int i = 0; i <= FADE_LEVELS; i++) {
+			FADE[i] = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, MIN_ALPHA + (1 - MIN_ALPHA) * i / FADE_LEVELS);
+		}
+	}
+
 	private VesselTarget vesselTarget;
 
 	private OMLine speedVector;
@@ -86,6 +101,18 @@ public class VesselTargetGraphic extends TargetGraphic {
 	private Stroke stroke;
 	private IntendedRouteGraphic routeGraphic = new IntendedRouteGraphic();
 	private boolean showNameLabel = true;
+	private boolean dangerous = false;
+	// Last report used for dead reckoning
+	private double reportLat;
+	private double reportLon;
+	private double reportSog;
+	private double reportCog;
+	private double reportRot;
+	private long reportTime;
+	// Offset in pixels of predicted position from the projected report
+	private volatile double offsetX = 0;
+	private volatile double offsetY = 0;
+	private volatile int fade = FADE_LEVELS;
 
 	public VesselTargetGraphic() {
 		super();
@@ -126,6 +153,48 @@ public class VesselTargetGraphic extends TargetGraphic {
 		add(routeGraphic);
 	}
 
+	/**
+	 * Set color of vessel. Dangerous targets found by the CPA engine are
+	 * shown in red, otherwise the color is based on risk index.
+	 */
+	private void updateLinePaint() {
+		if (dangerous) {
+			vessel.setLinePaint(Color.RED);
+			return;
+		}
+		
+		Risk risk = EeINS.getRiskHandler().getRiskLevel(vesselTarget.getMmsi());
+		
+		if(risk==null){
+			vessel.setLinePaint(new Color(74, 97, 205, 255));
+		}
+		else if( risk.getRiskNorm()< 0.002){
+			vessel.setLinePaint(Color.GREEN);
+		}else if( risk.getRiskNorm()> 0.01){
+			vessel.setLinePaint(Color.RED);
+		}else{
+			System.out.println("risk :"+ risk);
+			int green = (int)((0.01-risk.getRiskNorm())/0.01*255);
+			System.out.println(green);
+			vessel.setLinePaint(new Color(255,green<0?255:green,51));
+		}
+	}
+
+	/**
+	 * Mark target as dangerous by the CPA engine
+	 * @param dangerous
+	 */
+	public void setDangerous(boolean dangerous) {
+		this.dangerous = dangerous;
+		if (vessel != null && vesselTarget != null) {
+			updateLinePaint();
+		}
+	}
+
+	public boolean isDangerous() {
+		return dangerous;
+	}
+
 	@Override
 	public void update(AisTarget aisTarget) {
 		vesselTarget = (VesselTarget) aisTarget;
@@ -149,28 +218,22 @@ public class VesselTargetGraphic extends TargetGraphic {
 			createGraphics();
 		}
 
-		// Set color based on risk index
-		
-		Risk risk = EeINS.getRiskHandler().getRiskLevel(vesselTarget.getMmsi());
-		
-		if(risk==null){
-			vessel.setLinePaint(new Color(74, 97, 205, 255));
-		}
-		else if( risk.getRiskNorm()< 0.002){
-			vessel.setLinePaint(Color.GREEN);
-		}else if( risk.getRiskNorm()> 0.01){
-			vessel.setLinePaint(Color.RED);
-		}else{
-			System.out.println("risk :"+ risk);
-			int green = (int)((0.01-risk.getRiskNorm())/0.01*255);
-			System.out.println(green);
-			vessel.setLinePaint(new Color(255,green<0?255:green,51));
-		}
+		updateLinePaint();
 
 		double sog = vesselTarget.getPositionData().getSog();
 		double cogR = Math.toRadians(vesselTarget.getPositionData().getCog());
 		double hdgR = Math.toRadians(trueHeading);
 
+		reportLat = lat;
+		reportLon = lon;
+		reportSog = sog;
+		reportCog = posData.getCog();
+		reportRot = DeadReckoner.rotToDegreesPerMinute(posData.getRot());
+		reportTime = vesselTarget.getLastReceivedTime();
+		offsetX = 0;
+		offsetY = 0;
+		fade = FADE_LEVELS;
+
 		// vessel.setLocation(lat, lon, OMGraphic.DECIMAL_DEGREES, hdgR);
 		vessel.update(lat, lon, OMGraphic.DECIMAL_DEGREES, hdgR, this);
 		heading.setLocation(lat, lon, OMGraphic.DECIMAL_DEGREES, hdgR);
@@ -253,6 +316,80 @@ public class VesselTargetGraphic extends TargetGraphic {
 		}
 	}
 
+	/**
+	 * Move the vessel to its dead reckoned position. The graphics stay
+	 * projected at the reported position and are offset when rendered.
+	 * 
+	 * @param deadReckoner
+	 * @param projection
+	 * @param now
+	 * @param predicted
+	 *            buffer for the prediction
+	 * @param point
+	 *            buffer for projected points
+	 * @return if the vessel has moved or faded visibly
+	 */
+	public boolean predict(DeadReckoner deadReckoner, Projection projection, long now, double[] predicted, Point2D point) {
+		if (vesselTarget == null) {
+			return false;
+		}
+		double confidence = deadReckoner.predict(reportLat, reportLon, reportSog, reportCog, reportRot, now - reportTime,
+				predicted);
+		projection.forward(reportLat, reportLon, point);
+		double x = point.getX();
+		double y = point.getY();
+		projection.forward(predicted[0], predicted[1], point);
+		double dx = point.getX() - x;
+		double dy = point.getY() - y;
+		int newFade = (int) Math.ceil(confidence * FADE_LEVELS);
+		if (Math.abs(dx - offsetX) < 0.5 && Math.abs(dy - offsetY) < 0.5 && newFade == fade) {
+			return false;
+		}
+		offsetX = dx;
+		offsetY = dy;
+		fade = newFade;
+		return true;
+	}
+
+	/**
+	 * Render the vessel at the predicted position. The intended route is not
+	 * moved.
+	 */
+	@Override
+	public void render(Graphics g) {
+		double dx = offsetX;
+		double dy = offsetY;
+		int level = fade;
+		if ((dx == 0 && dy == 0 && level == FADE_LEVELS) || !(g instanceof Graphics2D)) {
+			super.render(g);
+			return;
+		}
+		Graphics2D g2 = (Graphics2D) g;
+		Composite composite = g2.getComposite();
+		g2.translate(dx, dy);
+		g2.setComposite(FADE[level]);
+		if (getTraverseMode() == FIRST_ADDED_ON_TOP) {
+			for (int i = size() - 1; i >= 0; i--) {
+				renderMoved(get(i), g2);
+			}
+		} else {
+			for (int i = 0; i < size(); i++) {
+				renderMoved(get(i), g2);
+			}
+		}
+		g2.translate(-dx, -dy);
+		g2.setComposite(composite);
+		if (shouldProcess(routeGraphic)) {
+			routeGraphic.render(g2);
+		}
+	}
+
+	private void renderMoved(OMGraphic omGraphic, Graphics2D g2) {
+		if (omGraphic != routeGraphic && shouldProcess(omGraphic)) {
+			omGraphic.render(g2);
+		}
+	}
+
 	public VesselTarget getVesselTarget() {
 		return vesselTarget;
 	}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.util.List;
+
+/**
+ * Header fields of an AIS message read directly from the six bit payload of
+ * its VDM sentences without decoding the message. Used to discard messages
+ * before the full decode.
+ */
+public class AisHeader {
+
+	/**
+	 * Raw latitude of 91 degrees meaning not available, in 1/10000 minute
+	 */
+	public static final int LAT_NOT_AVAILABLE = 91 * 600000;
+	/**
+	 * Raw longitude of 181 degrees meaning not available, in 1/10000 minute
+	 */
+	public static final int LON_NOT_AVAILABLE = 181 * 600000;
+
+	private int msgId;
+	private long userId;
+	private long destination = -1;
+	private int dac = -1;
+	private int fi = -1;
+	private boolean hasPos = false;
+	private int rawLat = LAT_NOT_AVAILABLE;
+	private int rawLon = LON_NOT_AVAILABLE;
+
+	private byte[] bits;
+	private int bitLength;
+
+	private AisHeader() {
+
+	}
+
+	/**
+	 * Read header from the sentences of a complete message
+	 * 
+	 * @param sentences
+	 *            VDM sentences in order
+	 * @return header or null if the payload is too short or not six bit
+	 */
+	public static AisHeader parse(List<String> sentences) {
+		AisHeader header = new AisHeader();
+		if (!header.unpack(sentences)) {
+			return null;
+		}
+		if (header.bitLength < 38) {
+			return null;
+		}
+		header.msgId = header.getBits(0, 6);
+		header.userId = header.getBits(8, 30);
+		switch (header.msgId) {
+		case 1:
+		case 2:
+		case 3:
+		case 9:
+			header.readPos(61, 89, 28, 27, 1);
+			break;
+		case 4:
+		case 11:
+			header.readPos(79, 107, 28, 27, 1);
+			break;
+		case 18:
+		case 19:
+			header.readPos(57, 85, 28, 27, 1);
+			break;
+		case 21:
+			header.readPos(164, 192, 28, 27, 1);
+			break;
+		case 27:
+			// 1/10 minute resolution
+			header.readPos(44, 62, 18, 17, 1000);
+			break;
+		case 6:
+		case 12:
+			if (header.bitLength >= 70) {
+				header.destination = header.getBits(40, 30);
+			}
+			if (header.msgId == 6 && header.bitLength >= 88) {
+				header.dac = header.getBits(72, 10);
+				header.fi = header.getBits(82, 6);
+			}
+			break;
+		case 8:
+			if (header.bitLength >= 56) {
+				header.dac = header.getBits(40, 10);
+				header.fi = header.getBits(50, 6);
+			}
+			break;
+		default:
+			break;
+		}
+		return header;
+	}
+
+	/**
+	 * Unpack the six bit characters of the payload fields
+	 */
+	private boolean unpack(List<String> sentences) {
+		int chars = 0;
+		int[] payloadStart = new int[sentences.size()];
+		int[] payloadEnd = new int[sentences.size()];
+		for (int s = 0; s < sentences.size(); s++) {
+			String sentence = sentences.get(s);
+			// !AIVDM,total,num,seq,channel,payload,fill*cs
+			int idx = -1;
+			for (int i = 0; i < 5; i++) {
+				idx = sentence.indexOf(',', idx + 1);
+				if (idx < 0) {
+					return false;
+				}
+			}
+			int end = sentence.indexOf(',', idx + 1);
+			if (end < 0) {
+				return false;
+			}
+			payloadStart[s] = idx + 1;
+			payloadEnd[s] = end;
+			chars += end - idx - 1;
+		}
+		bits = new byte[chars];
+		int n = 0;
+		for (int s = 0; s < sentences.size(); s++) {
+			String sentence = sentences.get(s);
+			for (int i = payloadStart[s]; i < payloadEnd[s]; i++) {
+				int c = sentence.charAt(i) - 48;
+				if (c > 40) {
+					c -= 8;
+				}
+				if (c < 0 || c > 63) {
+					return false;
+				}
+				bits[n++] = (byte) c;
+			}
+		}
+		bitLength = chars * 6;
+		return true;
+	}
+
+	/**
+	 * Get unsigned value of bit field
+	 */
+	private int getBits(int start, int len) {
+		int value = 0;
+		for (int i = start; i < start + len; i++) {
+			int bit = (bits[i / 6] >> (5 - i % 6)) & 1;
+			value = (value << 1) | bit;
+		}
+		return value;
+	}
+
+	/**
+	 * Get two's complement value of bit field
+	 */
+	private int getSignedBits(int start, int len) {
+		int value = getBits(start, len);
+		return (value << (32 - len)) >> (32 - len);
+	}
+
+	private void readPos(int lonStart, int latStart, int lonLen, int latLen, int scale) {
+		if (bitLength < latStart + latLen) {
+			return;
+		}
+		int lon = getSignedBits(lonStart, lonLen);
+		int lat = getSignedBits(latStart, latLen);
+		if (scale != 1) {
+			// Map not available values of coarse fields onto the fine ones
+			lon = (lon == 181 * 600) ? LON_NOT_AVAILABLE : lon * scale;
+			lat = (lat == 91 * 600) ? LAT_NOT_AVAILABLE : lat * scale;
+		}
+		hasPos = true;
+		rawLon = lon;
+		rawLat = lat;
+	}
+
+	public int getMsgId() {
+		return msgId;
+	}
+
+	public long getUserId() {
+		return userId;
+	}
+
+	/**
+	 * @return destination of addressed message or -1
+	 */
+	public long getDestination() {
+		return destination;
+	}
+
+	/**
+	 * @return DAC of binary message or -1
+	 */
+	public int getDac() {
+		return dac;
+	}
+
+	/**
+	 * @return function identifier of binary message or -1
+	 */
+	public int getFi() {
+		return fi;
+	}
+
+	/**
+	 * @return true if the message type carries a position
+	 */
+	public boolean hasPos() {
+		return hasPos;
+	}
+
+	/**
+	 * @return true if the message has a position that is available and valid
+	 */
+	public boolean isPosValid() {
+		return hasPos && rawLat != LAT_NOT_AVAILABLE && rawLon != LON_NOT_AVAILABLE
+				&& Math.abs(rawLat) <= 90 * 600000 && Math.abs(rawLon) <= 180 * 600000;
+	}
+
+	/**
+	 * @return latitude in 1/10000 minute
+	 */
+	public int getRawLat() {
+		return rawLat;
+	}
+
+	/**
+	 * @return longitude in 1/10000 minute
+	 */
+	public int getRawLon() {
+		return rawLon;
+	}
+
+	public double getLatitude() {
+		return rawLat / 600000.0;
+	}
+
+	public double getLongitude() {
+		return rawLon / 600000.0;
+	}
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time windowed filter of AIS messages received more than once, typically
+ * from redundant feeds. Messages are identified by a 64 bit hash of the
+ * payload, fill bits and own message flag. Hashes are kept in fixed size
+ * open addressing tables, so memory is bounded and the oldest entries are
+ * evicted when the filter is saturated. The tables are split in
+ * independently locked segments to let decode workers check concurrently.
+ */
+public class DuplicateFilter {
+
+	public static final long DEFAULT_WINDOW = 5000; // 5 sec
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	/**
+	 * Source ids at or above this are counted together
+	 */
+	public static final int MAX_SOURCES = 32;
+
+	private static final int SEGMENTS = 16;
+	private static final int MAX_PROBE = 8;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private long window;
+	private Segment[] segments = new Segment[SEGMENTS];
+	private AtomicLongArray received = new AtomicLongArray(MAX_SOURCES);
+	private AtomicLongArray unique = new AtomicLongArray(MAX_SOURCES);
+
+	/**
+	 * Open addressing table of hashes and the time they were first seen
+	 */
+	private static class Segment {
+		long[] hashes;
+		long[] times;
+		int mask;
+
+		Segment(int size) {
+			hashes = new long[size];
+			times = new long[size];
+			mask = size - 1;
+		}
+
+		synchronized boolean check(long hash, long now, long window) {
+			int first = (int) hash & mask;
+			int free = -1;
+			int oldest = first;
+			for (int i = 0; i < MAX_PROBE; i++) {
+				int slot = (first + i) & mask;
+				if (hashes[slot] == hash && now - times[slot] <= window) {
+					return true;
+				}
+				if (free < 0 && (hashes[slot] == 0 || now - times[slot] > window)) {
+					free = slot;
+				}
+				if (times[slot] < times[oldest]) {
+					oldest = slot;
+				}
+			}
+			int slot = (free >= 0) ? free : oldest;
+			hashes[slot] = hash;
+			times[slot] = now;
+			return false;
+		}
+	}
+
+	public DuplicateFilter() {
+		this(DEFAULT_WINDOW, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param window
+	 *            time in ms a message is remembered
+	 * @param capacity
+	 *            number of remembered messages
+	 */
+	public DuplicateFilter(long window, int capacity) {
+		this.window = window;
+		int size = Integer.highestOneBit(Math.max(MAX_PROBE, capacity / SEGMENTS - 1) << 1);
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(size);
+		}
+	}
+
+	/**
+	 * Check if a message has been seen within the window and remember it if
+	 * not
+	 * 
+	 * @param hash
+	 *            message hash from {@link #hash(long, String, int, int)}
+	 * @param sourceId
+	 * @return true if the message is a duplicate
+	 */
+	public boolean isDuplicate(long hash, int sourceId) {
+		int source = Math.min(Math.max(sourceId, 0), MAX_SOURCES - 1);
+		received.incrementAndGet(source);
+		Segment segment = segments[(int) (hash >>> 60) & (SEGMENTS - 1)];
+		if (segment.check(hash, System.currentTimeMillis(), window)) {
+			return true;
+		}
+		unique.incrementAndGet(source);
+		return false;
+	}
+
+	/**
+	 * Add characters of a sentence field to a hash. Start with
+	 * {@link #newHash()} and end with {@link #finish(long)}.
+	 * 
+	 * @param hash
+	 * @param msg
+	 * @param start
+	 * @param end
+	 * @return updated hash
+	 */
+	public static long hash(long hash, String msg, int start, int end) {
+		for (int i = start; i < end; i++) {
+			hash = (hash ^ msg.charAt(i)) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	public static long newHash() {
+		return FNV_OFFSET;
+	}
+
+	/**
+	 * Mix the bits of a finished hash so both ends can be used for table
+	 * lookup. Never returns 0 which marks free slots.
+	 * 
+	 * @param hash
+	 * @return
+	 */
+	public static long finish(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return (hash == 0) ? 1 : hash;
+	}
+
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param sourceId
+	 * @return number of messages checked from the source
+	 */
+	public long getReceived(int sourceId) {
+		return received.get(Math.min(Math.max(sourceId, 0), MAX_SOURCES - 1));
+	}
+
+	/**
+	 * @param sourceId
+	 * @return number of messages from the source not seen before from any
+	 *         source
+	 */
+	public long getUnique(int sourceId) {
+		return unique.get(Math.min(Math.max(sourceId, 0), MAX_SOURCES - 1));
+	}
+
+	public long getDuplicates() {
+		long duplicates = 0;
+		for (int i = 0; i < MAX_SOURCES; i++) {
+			duplicates += received.get(i) - unique.get(i);
+		}
+		return duplicates;
+	}
+
+}
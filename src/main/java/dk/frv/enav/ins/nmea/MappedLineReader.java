@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads lines from a file through a sliding memory mapped window. Works for
+ * files larger than what can be mapped at once.
+ */
+public class MappedLineReader implements ILineReader {
+
+	private static final long WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private FileChannel channel;
+	private long length;
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	private long windowEnd = 0;
+	private long position = 0;
+
+	public MappedLineReader(FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.length = channel.size();
+	}
+
+	private void map(long pos) throws IOException {
+		windowStart = pos;
+		windowEnd = Math.min(length, pos + WINDOW_SIZE);
+		window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+	}
+
+	@Override
+	public int readLine(byte[] buf) throws IOException {
+		if (position >= length) {
+			return -1;
+		}
+		int n = 0;
+		boolean cut = false;
+		while (position < length) {
+			if (window == null || position < windowStart || position >= windowEnd) {
+				map(position);
+			}
+			byte b = window.get((int) (position - windowStart));
+			position++;
+			if (n < buf.length) {
+				buf[n++] = b;
+			} else {
+				cut = true;
+			}
+			if (b == '\n') {
+				break;
+			}
+		}
+		if (cut) {
+			buf[n - 1] = '\n';
+		}
+		return n;
+	}
+
+	@Override
+	public long position() {
+		return position;
+	}
+
+	@Override
+	public void seek(long position) {
+		this.position = Math.max(0, Math.min(position, length));
+	}
+
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public void close() {
+		window = null;
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+	}
+
+}
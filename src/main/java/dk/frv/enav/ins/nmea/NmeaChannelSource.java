@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import org.apache.log4j.Logger;
+
+/**
+ * NMEA source based on a non-blocking channel serviced by the selector of a
+ * {@link NmeaMultiplexSensor}
+ */
+public abstract class NmeaChannelSource extends NmeaSource {
+
+	private static final Logger LOG = Logger.getLogger(NmeaChannelSource.class);
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	protected ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	protected SelectableChannel channel = null;
+	protected SelectionKey key = null;
+
+	public NmeaChannelSource(String name) {
+		super(name);
+	}
+
+	/**
+	 * Open the channel and register it with the selector
+	 *
+	 * @param selector
+	 * @throws IOException
+	 */
+	public abstract void open(Selector selector) throws IOException;
+
+	/**
+	 * Handle ready operations on the selection key
+	 *
+	 * @param key
+	 * @throws IOException
+	 */
+	public abstract void handleKey(SelectionKey key) throws IOException;
+
+	/**
+	 * Called periodically from the selector thread. Sources may close idle
+	 * connections here.
+	 *
+	 * @param now
+	 */
+	public void checkTimeout(long now) {
+
+	}
+
+	/**
+	 * Hand the bytes currently in the read buffer to the line splitter
+	 */
+	protected void consumeReadBuffer() {
+		readBuffer.flip();
+		consume(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+		readBuffer.clear();
+	}
+
+	@Override
+	public void close() {
+		if (key != null) {
+			key.cancel();
+			key = null;
+		}
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.debug("Failed to close " + name + ": " + e.getMessage());
+			}
+			channel = null;
+		}
+	}
+
+	/**
+	 * Close the channel after a failure and schedule reconnect
+	 *
+	 * @param reason
+	 */
+	public void fail(String reason) {
+		close();
+		disconnected();
+		LOG.error("NMEA source " + name + " failed: " + reason + " retry in " + (getBackoff() / 1000) + " seconds");
+	}
+
+}
@@ -29,30 +29,28 @@
  */
 package dk.frv.enav.ins.nmea;
 
-import java.awt.Frame;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-
-import javax.swing.JOptionPane;
+import java.util.Date;
 
 import org.apache.log4j.Logger;
 
 import dk.frv.ais.reader.ISendResultListener;
 import dk.frv.ais.reader.SendException;
 import dk.frv.ais.reader.SendRequest;
-import dk.frv.enav.ins.EeINS;
+import dk.frv.enav.ins.common.util.RingBuffer.OverflowPolicy;
 import dk.frv.enav.ins.settings.SensorSettings;
 
 /**
- * NMEA sensor reading from file
+ * NMEA sensor replaying a log file. Replay is controlled through the
+ * {@link NmeaReplayEngine} of the sensor.
  */
 public class NmeaFileSensor extends NmeaSensor {
 	
 	private static final Logger LOG = Logger.getLogger(NmeaFileSensor.class);
 	
 	private String filename;
-	private Frame frame = null;
+	private NmeaReplayEngine replayEngine;
 	
 	public NmeaFileSensor(String filename, SensorSettings sensorSettings) {
 		LOG.info("Using AIS replay file: " + filename);
@@ -61,53 +59,57 @@ public class NmeaFileSensor extends NmeaSensor {
 		setReplaySpeedup(sensorSettings.getReplaySpeedup());
 		setReplayStartDate(sensorSettings.getReplayStartDate());
 		LOG.info("Replay start date: " + sensorSettings.getReplayStartDate());
+		replayEngine = new NmeaReplayEngine(this, new File(filename));
+		replayEngine.setSpeed(Math.max(1, sensorSettings.getReplaySpeedup()));
+	}
+
+	@Override
+	public void start() {
+		// Replay must not lose data when listeners fall behind
+		setOverflowPolicy(OverflowPolicy.BLOCK);
+		super.start();
 	}
 
 	@Override
 	public void run() {
-		// Open file
-		InputStream in = null;
 		try {
-			in = new FileInputStream(filename);
+			replayEngine.open();
 		} catch (IOException e) {
 			LOG.error("Failed to open replay file: " + filename + ": " + e.getMessage());
 			return;
 		}
+		LOG.info("Replay data start: " + replayEngine.getStartTime() + " end: " + replayEngine.getEndTime());
 		
-		// Wait for frame and confirmation
-		while (frame == null) {
-			EeINS.sleep(1000);
+		if (getReplayStartDate() != null) {
+			replayEngine.seek(getReplayStartDate());
 		}
-		EeINS.sleep(5000);
-		JOptionPane.showMessageDialog(frame, "Start replay");		
 		
+		Date realStart = new Date();
+		replayEngine.run();
 		
-		// Read
-		try {
-			readLoop(in);
-		} catch (IOException e) {
-			LOG.error("Error while reading replay file: " + filename + ": " + e.getMessage());
-		}
-		
-		long dataElapsed = getDataEnd().getTime() - getDataStart().getTime();
-		long realElapsed = (getReplayEnd().getTime() - getReplayStart().getTime()) * getReplaySpeedup();
-				
-		LOG.info("Replay data start: " + getDataStart() + " end: " + getDataEnd() + " elapsed: " + (dataElapsed / 1000));
-		LOG.info("Replay real start: " + getReplayStart() + " end: " + getReplayEnd() + " elapsed: " + (realElapsed / 1000));
+		long realElapsed = System.currentTimeMillis() - realStart.getTime();
+		LOG.info("Replay finished at " + replayEngine.getDataTime() + " real elapsed: " + (realElapsed / 1000));
+	}
+	
+	/**
+	 * Timestamps are paced by the replay engine
+	 */
+	@Override
+	protected void handleReplay(String msg) {
 		
-		if (frame != null) {
-			JOptionPane.showMessageDialog(frame, "Replay finished");
-		}
-
 	}
 	
 	@Override
-	public void findAndInit(Object obj) {
-		super.findAndInit(obj);
-		if (obj instanceof Frame) {
-			frame = (Frame)obj;
+	public void setReplaySpeedup(int replaySpeedup) {
+		super.setReplaySpeedup(replaySpeedup);
+		if (replayEngine != null) {
+			replayEngine.setSpeed(Math.max(1, replaySpeedup));
 		}
 	}
+	
+	public NmeaReplayEngine getReplayEngine() {
+		return replayEngine;
+	}
 
 	@Override
 	public void send(SendRequest sendRequest, ISendResultListener resultListener) throws SendException {
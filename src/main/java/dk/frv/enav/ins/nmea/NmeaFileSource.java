@@ -0,0 +1,90 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * NMEA source reading a file without pacing. Files are read by the file
+ * thread of the multiplexing sensor as they cannot be selected. Compressed
+ * files and directories are inflated by a thread of their own.
+ */
+public class NmeaFileSource extends NmeaSource {
+
+	private static final Logger LOG = Logger.getLogger(NmeaFileSource.class);
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private String filename;
+	private InputStream in = null;
+
+	public NmeaFileSource(String filename) {
+		super("file:" + filename);
+		this.filename = filename;
+	}
+
+	/**
+	 * Read the whole file
+	 */
+	public void readFile() {
+		byte[] buf = new byte[READ_BUFFER_SIZE];
+		try {
+			in = NmeaLogInputStream.open(new File(filename));
+			connected();
+			LOG.info("NMEA source opened " + name);
+			int count;
+			while ((count = in.read(buf)) >= 0) {
+				consume(buf, 0, count);
+			}
+			flush();
+			LOG.info("NMEA source finished " + name);
+		} catch (IOException e) {
+			LOG.error("NMEA source " + name + " failed: " + e.getMessage());
+		}
+		close();
+	}
+
+	@Override
+	public void close() {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+			}
+			in = null;
+		}
+		disconnected();
+	}
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.nio.charset.Charset;
+
+/**
+ * Byte level NMEA framer. Received bytes are scanned for line endings, the
+ * checksum is validated in place and the sentence type is determined from the
+ * address field through a lookup table. Frames are handed to the sensor as
+ * byte ranges, so no string is created for sentences that are not handled.
+ * Fields are located from the start delimiter of the sentence. A prefix such
+ * as a tag block is only kept for recording.
+ */
+public class NmeaFramer {
+
+	public static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+	public static final int MAX_FRAME_LENGTH = 1024;
+
+	/**
+	 * Sentence type by the three letter formatter
+	 */
+	private static final NmeaSentenceType[] FORMATTERS = new NmeaSentenceType[26 * 26 * 26];
+
+	static {
+		register("VDM", NmeaSentenceType.VDM);
+		register("VDO", NmeaSentenceType.VDM);
+		register("RMC", NmeaSentenceType.RMC);
+		register("ABK", NmeaSentenceType.ABK);
+	}
+
+	private static final byte[] PGHP = { 'G', 'H', 'P' };
+	private static final byte[] PSTT = { 'S', 'T', 'T' };
+
+	private NmeaSensor sensor;
+	private int sourceId;
+	private byte[] carry = new byte[MAX_FRAME_LENGTH];
+	private int carryLength = 0;
+	private boolean overflow = false;
+	private long frames = 0;
+	private long invalidChecksums = 0;
+	private long discarded = 0;
+
+	public NmeaFramer(NmeaSensor sensor) {
+		this(sensor, 0);
+	}
+
+	/**
+	 * Create framer for a sensor with more than one source
+	 * 
+	 * @param sensor
+	 * @param sourceId
+	 *            id of the source passed along with each frame
+	 */
+	public NmeaFramer(NmeaSensor sensor, int sourceId) {
+		this.sensor = sensor;
+		this.sourceId = sourceId;
+	}
+
+	private static void register(String formatter, NmeaSentenceType type) {
+		FORMATTERS[formatterIndex((byte) formatter.charAt(0), (byte) formatter.charAt(1), (byte) formatter.charAt(2))] = type;
+	}
+
+	private static int formatterIndex(byte c1, byte c2, byte c3) {
+		int i1 = c1 - 'A';
+		int i2 = c2 - 'A';
+		int i3 = c3 - 'A';
+		if (i1 < 0 || i1 >= 26 || i2 < 0 || i2 >= 26 || i3 < 0 || i3 >= 26) {
+			return -1;
+		}
+		return (i1 * 26 + i2) * 26 + i3;
+	}
+
+	/**
+	 * Append received bytes. Complete lines are framed and handed to the
+	 * sensor, a trailing partial line is kept until more data arrives.
+	 *
+	 * @param buf
+	 * @param off
+	 * @param len
+	 */
+	public void append(byte[] buf, int off, int len) {
+		int end = off + len;
+		int lineStart = off;
+		for (int i = off; i < end; i++) {
+			byte b = buf[i];
+			if (b != '\n' && b != '\r') {
+				continue;
+			}
+			if (carryLength > 0 || overflow) {
+				// Complete a line started in an earlier append
+				int n = i - lineStart;
+				if (!overflow && carryLength + n <= MAX_FRAME_LENGTH) {
+					System.arraycopy(buf, lineStart, carry, carryLength, n);
+					frame(carry, 0, carryLength + n);
+				} else {
+					discarded++;
+				}
+				carryLength = 0;
+				overflow = false;
+			} else if (i > lineStart) {
+				// Whole line within the buffer, no copy needed
+				frame(buf, lineStart, i);
+			}
+			lineStart = i + 1;
+		}
+
+		// Keep partial line
+		int n = end - lineStart;
+		if (n > 0 && !overflow) {
+			if (carryLength + n <= MAX_FRAME_LENGTH) {
+				System.arraycopy(buf, lineStart, carry, carryLength, n);
+				carryLength += n;
+			} else {
+				overflow = true;
+				carryLength = 0;
+			}
+		}
+	}
+
+	/**
+	 * Frame a possibly unterminated last line, e.g. at end of file
+	 */
+	public void flush() {
+		if (carryLength > 0 && !overflow) {
+			int n = carryLength;
+			carryLength = 0;
+			frame(carry, 0, n);
+		}
+		carryLength = 0;
+		overflow = false;
+	}
+
+	/**
+	 * Discard any partial line, e.g. after reconnect
+	 */
+	public void reset() {
+		carryLength = 0;
+		overflow = false;
+	}
+
+	private void frame(byte[] buf, int start, int end) {
+		// Find start of sentence
+		int s = start;
+		while (s < end && buf[s] != '$' && buf[s] != '!') {
+			s++;
+		}
+		if (s >= end) {
+			return;
+		}
+		// Trim trailing white space
+		int e = end;
+		while (e > s && buf[e - 1] <= ' ') {
+			e--;
+		}
+		if (!isChecksumValid(buf, s, e)) {
+			invalidChecksums++;
+			return;
+		}
+		frames++;
+		sensor.handleFrame(buf, start, s, e, classify(buf, s, e), sourceId);
+	}
+
+	/**
+	 * Validate checksum of sentence. Sentences without checksum are accepted.
+	 *
+	 * @param buf
+	 * @param s
+	 *            index of start delimiter
+	 * @param e
+	 *            end index (exclusive)
+	 * @return
+	 */
+	public static boolean isChecksumValid(byte[] buf, int s, int e) {
+		int star = e - 3;
+		if (star <= s || buf[star] != '*') {
+			return true;
+		}
+		int checksum = 0;
+		for (int i = s + 1; i < star; i++) {
+			checksum ^= buf[i];
+		}
+		int hi = hexValue(buf[star + 1]);
+		int lo = hexValue(buf[star + 2]);
+		if (hi < 0 || lo < 0) {
+			return false;
+		}
+		return checksum == ((hi << 4) | lo);
+	}
+
+	private static int hexValue(byte b) {
+		if (b >= '0' && b <= '9') {
+			return b - '0';
+		}
+		if (b >= 'A' && b <= 'F') {
+			return b - 'A' + 10;
+		}
+		if (b >= 'a' && b <= 'f') {
+			return b - 'a' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * Determine sentence type from the address field
+	 *
+	 * @param buf
+	 * @param s
+	 *            index of start delimiter
+	 * @param e
+	 *            end index (exclusive)
+	 * @return
+	 */
+	public static NmeaSentenceType classify(byte[] buf, int s, int e) {
+		int a = s + 1;
+		if (buf[s] == '$' && a < e && buf[a] == 'P') {
+			if (matches(buf, a + 1, e, PGHP)) {
+				return NmeaSentenceType.PGHP;
+			}
+			if (matches(buf, a + 1, e, PSTT)) {
+				return NmeaSentenceType.PSTT;
+			}
+			return NmeaSentenceType.PROPRIETARY;
+		}
+		// Two letter talker followed by three letter formatter
+		if (a + 5 > e) {
+			return NmeaSentenceType.UNKNOWN;
+		}
+		int idx = formatterIndex(buf[a + 2], buf[a + 3], buf[a + 4]);
+		if (idx < 0 || FORMATTERS[idx] == null) {
+			return NmeaSentenceType.UNKNOWN;
+		}
+		return FORMATTERS[idx];
+	}
+
+	private static boolean matches(byte[] buf, int off, int end, byte[] str) {
+		if (off + str.length > end) {
+			return false;
+		}
+		for (int i = 0; i < str.length; i++) {
+			if (buf[off + i] != str[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Materialize frame as string
+	 *
+	 * @param buf
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public static String toString(byte[] buf, int start, int end) {
+		return new String(buf, start, end - start, CHARSET);
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	public long getInvalidChecksums() {
+		return invalidChecksums;
+	}
+
+	public long getDiscarded() {
+		return discarded;
+	}
+
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Input stream over one or more NMEA log files which may be gzip or zip
+ * compressed. Files are read and inflated by a separate thread handing filled
+ * buffers to the reader, so decompression runs in parallel with framing and
+ * decoding. A directory is read as its files sorted by name, and the entries of
+ * a zip archive are read sorted by name.
+ */
+public class NmeaLogInputStream extends InputStream {
+
+	private static final Logger LOG = Logger.getLogger(NmeaLogInputStream.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int BUFFER_COUNT = 8;
+
+	private static class Chunk {
+		byte[] data;
+		int len = 0;
+
+		Chunk(int size) {
+			data = new byte[size];
+		}
+	}
+
+	private static final Chunk END = new Chunk(0);
+
+	private List<File> files;
+	private BlockingQueue<Chunk> filled = new ArrayBlockingQueue<Chunk>(BUFFER_COUNT + 1);
+	private BlockingQueue<Chunk> free = new ArrayBlockingQueue<Chunk>(BUFFER_COUNT);
+	private Thread inflater;
+	private long startOffset;
+	private volatile IOException error = null;
+	private int lastByte = '\n';
+	private Chunk current = null;
+	private int pos = 0;
+	private boolean eof = false;
+
+	public NmeaLogInputStream(File file) throws IOException {
+		this(file, 0, 0);
+	}
+
+	/**
+	 * Open log starting at an offset into one of its files. For a gzip file
+	 * the offset must be the start of a member.
+	 * 
+	 * @param file
+	 * @param firstFile
+	 *            index of the file to start from in {@link #listFiles(File)}
+	 * @param offset
+	 *            offset into the first file
+	 * @throws IOException
+	 */
+	public NmeaLogInputStream(File file, int firstFile, long offset) throws IOException {
+		List<File> all = listFiles(file);
+		files = all.subList(Math.min(firstFile, all.size()), all.size());
+		startOffset = offset;
+		for (int i = 0; i < BUFFER_COUNT; i++) {
+			free.add(new Chunk(BUFFER_SIZE));
+		}
+		inflater = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				inflate();
+			}
+		});
+		inflater.setName("NmeaLogInputStream-" + file.getName());
+		inflater.setDaemon(true);
+		inflater.start();
+	}
+
+	/**
+	 * Open a log file, archive or directory. Plain files are opened directly.
+	 * 
+	 * @param file
+	 * @return stream of the uncompressed log
+	 * @throws IOException
+	 */
+	public static InputStream open(File file) throws IOException {
+		if (isStreamed(file)) {
+			return new NmeaLogInputStream(file);
+		}
+		return new FileInputStream(file);
+	}
+
+	/**
+	 * @param file
+	 * @return true if the log is compressed or a directory and must be read
+	 *         as a stream
+	 */
+	public static boolean isStreamed(File file) {
+		return file.isDirectory() || isGzip(file) || isZip(file);
+	}
+
+	private static boolean isGzip(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".gz") || name.endsWith(".gzip");
+	}
+
+	private static boolean isZip(File file) {
+		return file.getName().toLowerCase().endsWith(".zip");
+	}
+
+	/**
+	 * List the files of a log. Index files and hidden files in a directory are
+	 * skipped.
+	 * 
+	 * @param file
+	 * @return files in replay order
+	 * @throws FileNotFoundException
+	 */
+	public static List<File> listFiles(File file) throws FileNotFoundException {
+		if (!file.exists()) {
+			throw new FileNotFoundException(file.getPath());
+		}
+		if (!file.isDirectory()) {
+			return Collections.singletonList(file);
+		}
+		List<File> files = new ArrayList<File>();
+		File[] entries = file.listFiles();
+		if (entries != null) {
+			Arrays.sort(entries);
+			for (File entry : entries) {
+				if (entry.isFile() && !entry.isHidden() && !entry.getName().endsWith(ReplayIndex.SUFFIX)
+						&& !entry.getName().endsWith(SegmentIndex.SUFFIX)) {
+					files.add(entry);
+				}
+			}
+		}
+		return files;
+	}
+
+	private void inflate() {
+		try {
+			long offset = startOffset;
+			for (File file : files) {
+				LOG.debug("Reading " + file);
+				if (isZip(file)) {
+					inflateZip(file);
+					offset = 0;
+					continue;
+				}
+				FileInputStream fileIn = new FileInputStream(file);
+				InputStream in = fileIn;
+				try {
+					if (offset > 0) {
+						fileIn.getChannel().position(offset);
+					}
+					if (isGzip(file)) {
+						// Concatenated gzip members are read as one stream
+						in = new GZIPInputStream(in, BUFFER_SIZE);
+					}
+					copy(in);
+				} finally {
+					in.close();
+				}
+				offset = 0;
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (InterruptedException e) {
+			return;
+		}
+		filled.offer(END);
+	}
+
+	private void inflateZip(File file) throws IOException, InterruptedException {
+		ZipFile zipFile = new ZipFile(file);
+		try {
+			List<ZipEntry> entries = new ArrayList<ZipEntry>();
+			Enumeration<? extends ZipEntry> e = zipFile.entries();
+			while (e.hasMoreElements()) {
+				ZipEntry entry = e.nextElement();
+				if (!entry.isDirectory()) {
+					entries.add(entry);
+				}
+			}
+			Collections.sort(entries, new Comparator<ZipEntry>() {
+				@Override
+				public int compare(ZipEntry e1, ZipEntry e2) {
+					return e1.getName().compareTo(e2.getName());
+				}
+			});
+			for (ZipEntry entry : entries) {
+				InputStream in = zipFile.getInputStream(entry);
+				try {
+					copy(in);
+				} finally {
+					in.close();
+				}
+			}
+		} finally {
+			zipFile.close();
+		}
+	}
+
+	/**
+	 * Fill free buffers from the stream and hand them over. A file not ending
+	 * in newline is terminated so its last line is not joined with the first
+	 * line of the next file.
+	 */
+	private void copy(InputStream in) throws IOException, InterruptedException {
+		if (lastByte != '\n') {
+			Chunk chunk = free.take();
+			chunk.data[0] = '\n';
+			chunk.len = 1;
+			filled.put(chunk);
+			lastByte = '\n';
+		}
+		while (true) {
+			Chunk chunk = free.take();
+			int count;
+			chunk.len = 0;
+			while (chunk.len < chunk.data.length
+					&& (count = in.read(chunk.data, chunk.len, chunk.data.length - chunk.len)) >= 0) {
+				chunk.len += count;
+			}
+			if (chunk.len == 0) {
+				free.put(chunk);
+				return;
+			}
+			lastByte = chunk.data[chunk.len - 1];
+			filled.put(chunk);
+			if (chunk.len < chunk.data.length) {
+				return;
+			}
+		}
+	}
+
+	private boolean nextChunk() throws IOException {
+		if (current != null) {
+			free.offer(current);
+			current = null;
+		}
+		if (eof) {
+			return false;
+		}
+		Chunk chunk;
+		try {
+			chunk = filled.take();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+		if (chunk == END) {
+			eof = true;
+			if (error != null) {
+				throw error;
+			}
+			return false;
+		}
+		current = chunk;
+		pos = 0;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if ((current == null || pos >= current.len) && !nextChunk()) {
+			return -1;
+		}
+		return current.data[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if ((current == null || pos >= current.len) && !nextChunk()) {
+			return -1;
+		}
+		int count = Math.min(len, current.len - pos);
+		System.arraycopy(current.data, pos, b, off, count);
+		pos += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return (current == null) ? 0 : current.len - pos;
+	}
+
+	/**
+	 * Stop the inflater thread
+	 */
+	@Override
+	public void close() {
+		inflater.interrupt();
+		eof = true;
+	}
+
+	public List<File> getFiles() {
+		return files;
+	}
+
+}
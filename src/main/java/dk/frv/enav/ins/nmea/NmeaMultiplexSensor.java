@@ -0,0 +1,251 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+
+import dk.frv.ais.reader.ISendResultListener;
+import dk.frv.ais.reader.SendException;
+import dk.frv.ais.reader.SendRequest;
+import dk.frv.enav.ins.status.ComponentStatus;
+import dk.frv.enav.ins.status.IStatusComponent;
+import dk.frv.enav.ins.status.IngestStatus;
+
+/**
+ * NMEA sensor multiplexing any number of TCP, UDP and file sources. All
+ * network sources are serviced by one selector thread, files are read by a
+ * second thread.
+ */
+public class NmeaMultiplexSensor extends NmeaSensor implements IStatusComponent {
+
+	private static final Logger LOG = Logger.getLogger(NmeaMultiplexSensor.class);
+
+	private static final long SELECT_TIMEOUT = 1000;
+
+	private List<NmeaChannelSource> channelSources = new ArrayList<NmeaChannelSource>();
+	private List<NmeaFileSource> fileSources = new ArrayList<NmeaFileSource>();
+	private List<NmeaSource> sources = new ArrayList<NmeaSource>();
+	private Selector selector = null;
+	private Object deliveryLock = new Object();
+
+	public NmeaMultiplexSensor() {
+
+	}
+
+	/**
+	 * Create sensor from a comma separated list of sources on the form
+	 * tcp://host:port, udp://port, udp://bindaddress:port or file:filename
+	 *
+	 * @param sourceList
+	 */
+	public NmeaMultiplexSensor(String sourceList) {
+		this();
+		String[] specs = StringUtils.split(sourceList, ",");
+		for (String spec : specs) {
+			NmeaSource source = parseSource(spec.trim());
+			if (source == null) {
+				LOG.error("Unknown NMEA source: " + spec);
+				continue;
+			}
+			addSource(source);
+		}
+	}
+
+	/**
+	 * Parse source specification
+	 *
+	 * @param spec
+	 * @return source or null if not understood
+	 */
+	public static NmeaSource parseSource(String spec) {
+		try {
+			if (spec.startsWith("file:")) {
+				return new NmeaFileSource(StringUtils.removeStart(spec.substring(5), "//"));
+			}
+			if (spec.startsWith("udp://")) {
+				String hostPort = spec.substring(6);
+				int idx = hostPort.lastIndexOf(':');
+				if (idx < 0) {
+					return new NmeaUdpSource(null, Integer.parseInt(hostPort));
+				}
+				String host = hostPort.substring(0, idx);
+				return new NmeaUdpSource((host.length() == 0) ? null : host, Integer.parseInt(hostPort.substring(idx + 1)));
+			}
+			String hostPort = StringUtils.removeStart(spec, "tcp://");
+			String[] parts = StringUtils.split(hostPort, ':');
+			if (parts.length == 2) {
+				return new NmeaTcpSource(parts[0], Integer.parseInt(parts[1]));
+			}
+		} catch (NumberFormatException e) {
+			LOG.error("Bad port in NMEA source: " + spec);
+		}
+		return null;
+	}
+
+	public void addSource(NmeaSource source) {
+		synchronized (sources) {
+			source.setSensor(this, sources.size());
+			sources.add(source);
+		}
+		if (source instanceof NmeaChannelSource) {
+			channelSources.add((NmeaChannelSource) source);
+		} else if (source instanceof NmeaFileSource) {
+			fileSources.add((NmeaFileSource) source);
+		}
+	}
+
+	public List<NmeaSource> getSources() {
+		synchronized (sources) {
+			return new ArrayList<NmeaSource>(sources);
+		}
+	}
+
+	/**
+	 * Receive a frame from one of the sources. Sentences from all sources are
+	 * serialized into the pipeline.
+	 */
+	@Override
+	protected void handleFrame(byte[] buf, int lineStart, int start, int end, NmeaSentenceType type, int sourceId) {
+		synchronized (deliveryLock) {
+			super.handleFrame(buf, lineStart, start, end, type, sourceId);
+		}
+	}
+
+	@Override
+	public void run() {
+		if (fileSources.size() > 0) {
+			Thread fileThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (NmeaFileSource fileSource : fileSources) {
+						fileSource.readFile();
+					}
+				}
+			});
+			fileThread.setName("NmeaMultiplexSensor-files");
+			fileThread.start();
+		}
+
+		if (channelSources.size() == 0) {
+			return;
+		}
+
+		try {
+			selector = Selector.open();
+		} catch (IOException e) {
+			LOG.error("Failed to open selector: " + e.getMessage());
+			return;
+		}
+
+		while (true) {
+			long now = System.currentTimeMillis();
+			for (NmeaChannelSource source : channelSources) {
+				if (source.isConnectDue(now)) {
+					try {
+						source.open(selector);
+					} catch (IOException e) {
+						source.fail(e.getMessage());
+					} catch (IllegalArgumentException e) {
+						// Unresolved address
+						source.fail(e.toString());
+					}
+				} else {
+					source.checkTimeout(now);
+				}
+				if (source instanceof NmeaTcpSource) {
+					((NmeaTcpSource) source).updateInterest();
+				}
+			}
+
+			try {
+				selector.select(SELECT_TIMEOUT);
+			} catch (IOException e) {
+				LOG.error("Select failed: " + e.getMessage());
+				continue;
+			}
+
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				NmeaChannelSource source = (NmeaChannelSource) key.attachment();
+				if (!key.isValid()) {
+					continue;
+				}
+				try {
+					source.handleKey(key);
+				} catch (IOException e) {
+					source.fail(e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wake up the selector thread, e.g. when there is data to send
+	 */
+	public void wakeup() {
+		if (selector != null) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Send using the first connected TCP source
+	 */
+	@Override
+	public void send(SendRequest sendRequest, ISendResultListener resultListener) throws SendException {
+		OutputStream out = null;
+		for (NmeaChannelSource source : channelSources) {
+			if (source instanceof NmeaTcpSource) {
+				out = ((NmeaTcpSource) source).getOutputStream();
+				if (out != null) {
+					break;
+				}
+			}
+		}
+		doSend(sendRequest, resultListener, out);
+	}
+
+	@Override
+	public ComponentStatus getStatus() {
+		return new IngestStatus(getSources());
+	}
+
+}
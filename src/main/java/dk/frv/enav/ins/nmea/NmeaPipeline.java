@@ -0,0 +1,342 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import org.apache.log4j.Logger;
+
+import dk.frv.enav.ins.common.util.LongObjectMap;
+import dk.frv.enav.ins.common.util.RingBuffer;
+import dk.frv.enav.ins.common.util.RingBuffer.OverflowPolicy;
+
+/**
+ * Staged pipeline between the I/O of a sensor and its listeners. The reading
+ * thread copies framed sentences into the pre-allocated ring of one of a
+ * number of shards. Each shard has a worker thread that reassembles, decodes
+ * and hands the messages to the listeners.
+ * <p>
+ * Messages are routed on the MMSI in the payload, so all reports from a
+ * vessel are handled in order by the same worker. For multi sentence messages
+ * the MMSI is in the first fragment. Later fragments follow the first through
+ * its source, channel and sequence id, so they meet in the reassembler of the
+ * vessel's shard. Other sentences go to the first shard.
+ * <p>
+ * A slow listener will only hold back the reading when the overflow policy is
+ * BLOCK.
+ */
+public class NmeaPipeline {
+
+	private static final Logger LOG = Logger.getLogger(NmeaPipeline.class);
+
+	public static final int DEFAULT_QUEUE_SIZE = 8192;
+
+	private static final int INITIAL_SENTENCE_SIZE = 128;
+
+	/**
+	 * Copy of a framed sentence
+	 */
+	static class SentenceEvent {
+		byte[] data = new byte[INITIAL_SENTENCE_SIZE];
+		int length;
+		NmeaSentenceType type;
+		int sourceId;
+		long published;
+	}
+
+	/**
+	 * Ring, reassembler and worker of a shard
+	 */
+	private class Shard implements Runnable {
+		RingBuffer<SentenceEvent> ring;
+		VdmReassembler vdmReassembler = new VdmReassembler();
+
+		Shard(int queueSize, OverflowPolicy policy) {
+			ring = new RingBuffer<SentenceEvent>(queueSize, policy, new RingBuffer.EventFactory<SentenceEvent>() {
+				@Override
+				public SentenceEvent newEvent() {
+					return new SentenceEvent();
+				}
+			});
+		}
+
+		@Override
+		public void run() {
+			SentenceEvent event = null;
+			while (true) {
+				try {
+					event = ring.take(event);
+				} catch (InterruptedException e) {
+					return;
+				}
+				IPipelineMonitor monitor = NmeaPipeline.this.monitor;
+				long taken = (monitor != null) ? System.nanoTime() : 0;
+				try {
+					sensor.processFrame(event.data, 0, event.length, event.type, event.sourceId, vdmReassembler);
+				} catch (RuntimeException e) {
+					LOG.error("Failed to handle sentence: " + NmeaFramer.toString(event.data, 0, event.length), e);
+				}
+				if (monitor != null) {
+					monitor.sentenceHandled(taken - event.published, System.nanoTime() - taken);
+				}
+			}
+		}
+	}
+
+	private NmeaSensor sensor;
+	private Shard[] shards;
+	private volatile boolean running = false;
+	private volatile IPipelineMonitor monitor = null;
+	// Shard of multi sentence messages being received by fragment key
+	private final LongObjectMap<Integer> fragmentShards = new LongObjectMap<Integer>();
+
+	/**
+	 * Create pipeline
+	 * 
+	 * @param sensor
+	 * @param workers
+	 *            number of shards
+	 * @param queueSize
+	 *            size of the ring of each shard
+	 * @param policy
+	 */
+	public NmeaPipeline(NmeaSensor sensor, int workers, int queueSize, OverflowPolicy policy) {
+		this.sensor = sensor;
+		shards = new Shard[Math.max(1, workers)];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new Shard(queueSize, policy);
+		}
+	}
+
+	/**
+	 * Start the worker threads
+	 * 
+	 * @param name
+	 *            prefix for thread names
+	 */
+	public void start(String name) {
+		running = true;
+		for (int i = 0; i < shards.length; i++) {
+			Thread worker = new Thread(shards[i]);
+			worker.setName(name + "-worker-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Copy framed sentence into the ring of its shard
+	 * 
+	 * @param buf
+	 * @param start
+	 * @param end
+	 * @param type
+	 * @param sourceId
+	 * @return false if the sentence was dropped
+	 */
+	public boolean publishSentence(byte[] buf, int start, int end, NmeaSentenceType type, int sourceId) {
+		int shard = 0;
+		boolean classB = false;
+		if (type == NmeaSentenceType.VDM) {
+			int total = fieldStart(buf, start, end, 1);
+			int payload = fieldStart(buf, start, end, 5);
+			if (payload >= 0 && buf[total] == '1' && buf[total + 1] == ',') {
+				// Single sentence message
+				classB = isClassB(buf, payload, end);
+				shard = shardOf(parseMmsi(buf, payload, end));
+			} else {
+				classB = isFirstFragment(buf, start, end) && payload >= 0 && isClassB(buf, payload, end);
+				shard = routeFragment(buf, start, end, sourceId, total, payload);
+			}
+		}
+
+		RingBuffer<SentenceEvent> ring = shards[shard].ring;
+		SentenceEvent event = ring.claim(classB);
+		if (event == null) {
+			return false;
+		}
+		int length = end - start;
+		if (event.data.length < length) {
+			event.data = new byte[length];
+		}
+		System.arraycopy(buf, start, event.data, 0, length);
+		event.length = length;
+		event.type = type;
+		event.sourceId = sourceId;
+		if (monitor != null) {
+			event.published = System.nanoTime();
+		}
+		ring.publish();
+		return true;
+	}
+
+	/**
+	 * Find the shard of a fragment. The first fragment is routed on the MMSI
+	 * and later fragments go to the same shard.
+	 * 
+	 * @return shard, the first if the first fragment was not seen
+	 */
+	private int routeFragment(byte[] buf, int start, int end, int sourceId, int total, int payload) {
+		int num = fieldStart(buf, start, end, 2);
+		if (total < 0 || num < 0 || num + 1 >= end) {
+			return 0;
+		}
+		boolean first = buf[num] == '1';
+		boolean last = buf[num] == buf[total];
+		long key = fragmentKey(buf, start, end, sourceId);
+		synchronized (fragmentShards) {
+			if (first) {
+				int shard = (payload >= 0) ? shardOf(parseMmsi(buf, payload, end)) : 0;
+				if (!last) {
+					fragmentShards.put(key, shard);
+				}
+				return shard;
+			}
+			Integer shard = last ? fragmentShards.remove(key) : fragmentShards.get(key);
+			return (shard != null) ? shard : 0;
+		}
+	}
+
+	private int shardOf(long key) {
+		if (shards.length == 1 || key < 0) {
+			return 0;
+		}
+		int h = (int) (key ^ (key >>> 32));
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % shards.length;
+	}
+
+	/**
+	 * Find start of field. The address field is field 0.
+	 * 
+	 * @param buf
+	 * @param start
+	 * @param end
+	 * @param field
+	 * @return index of the first character of the field or -1
+	 */
+	private static int fieldStart(byte[] buf, int start, int end, int field) {
+		int commas = 0;
+		for (int i = start; i < end; i++) {
+			if (buf[i] == ',' && ++commas == field) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isFirstFragment(byte[] buf, int start, int end) {
+		int num = fieldStart(buf, start, end, 2);
+		return num >= 0 && num + 1 < end && buf[num] == '1' && buf[num + 1] == ',';
+	}
+
+	/**
+	 * Key identifying the fragments of a multi sentence message. Must be
+	 * equal for all fragments.
+	 */
+	private static long fragmentKey(byte[] buf, int start, int end, int sourceId) {
+		int seq = fieldStart(buf, start, end, 3);
+		int channel = fieldStart(buf, start, end, 4);
+		long key = sourceId;
+		if (seq >= 0 && seq < end && buf[seq] != ',') {
+			key = (key << 8) | (buf[seq] & 0xff);
+		}
+		if (channel >= 0 && channel < end && buf[channel] != ',') {
+			key = (key << 8) | (buf[channel] & 0xff);
+		}
+		return key;
+	}
+
+	private static int sixbit(byte c) {
+		int val = c - 48;
+		if (val > 40) {
+			val -= 8;
+		}
+		return val & 0x3f;
+	}
+
+	/**
+	 * Read MMSI (bit 8 to 37) from the payload of the first sentence
+	 * 
+	 * @param buf
+	 * @param payload
+	 *            start of payload
+	 * @param end
+	 * @return mmsi or -1 if payload is too short
+	 */
+	public static long parseMmsi(byte[] buf, int payload, int end) {
+		if (payload + 7 > end) {
+			return -1;
+		}
+		long mmsi = sixbit(buf[payload + 1]) & 0x0f;
+		for (int i = 2; i <= 5; i++) {
+			mmsi = (mmsi << 6) | sixbit(buf[payload + i]);
+		}
+		mmsi = (mmsi << 2) | (sixbit(buf[payload + 6]) >> 4);
+		return mmsi;
+	}
+
+	/**
+	 * Determine from the first payload character if the message is class B
+	 * (18, 19 or 24)
+	 * 
+	 * @param buf
+	 * @param payload
+	 *            start of payload
+	 * @param end
+	 * @return
+	 */
+	public static boolean isClassB(byte[] buf, int payload, int end) {
+		if (payload >= end) {
+			return false;
+		}
+		int msgId = sixbit(buf[payload]);
+		return msgId == 18 || msgId == 19 || msgId == 24;
+	}
+
+	public void setMonitor(IPipelineMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	public RingBuffer<?> getRing(int shard) {
+		return shards[shard].ring;
+	}
+
+	public VdmReassembler getVdmReassembler(int shard) {
+		return shards[shard].vdmReassembler;
+	}
+
+}
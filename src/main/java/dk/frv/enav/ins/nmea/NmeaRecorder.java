@@ -0,0 +1,349 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.log4j.Logger;
+
+import dk.frv.enav.ins.common.util.RingBuffer;
+import dk.frv.enav.ins.common.util.RingBuffer.OverflowPolicy;
+
+/**
+ * Recorder of received NMEA sentences to rolling gzip compressed segment
+ * files. Sentences are copied into a ring by the reading thread and written by
+ * a thread of the recorder, so slow disks never hold up reception. A
+ * Gatehouse timestamp with the receive time is written every second, so the
+ * directory of segments can be replayed directly. Each segment is a sequence
+ * of gzip members started at a fixed interval, with the time and offset of
+ * each member in a {@link SegmentIndex} for seeking. The writer is stopped with
+ * an end marker in the ring rather than an interrupt, so a stop can never hit
+ * the writer in the middle of file I/O.
+ */
+public class NmeaRecorder implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(NmeaRecorder.class);
+
+	public static final long DEFAULT_SEGMENT_DURATION = 3600000; // 1 hour
+	public static final int DEFAULT_QUEUE_SIZE = 8192;
+	public static final String SEGMENT_SUFFIX = ".nmea.gz";
+
+	private static final int INITIAL_LINE_SIZE = 128;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	/**
+	 * Copy of a received sentence
+	 */
+	static class LineEvent {
+		byte[] data = new byte[INITIAL_LINE_SIZE];
+		int length;
+		long time;
+	}
+
+	/**
+	 * Stream counting the bytes written to the segment file, so member
+	 * offsets are known without asking the file channel
+	 */
+	static class CountingOutputStream extends FilterOutputStream {
+		long count;
+
+		CountingOutputStream(OutputStream out, long count) {
+			super(out);
+			this.count = count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	private File directory;
+	private long segmentDuration;
+	private long memberInterval = ReplayIndex.DEFAULT_INTERVAL;
+	private RingBuffer<LineEvent> ring;
+	private Thread thread = null;
+	private volatile boolean stopped = false;
+
+	// Owned by the writer thread
+	private File segment = null;
+	private CountingOutputStream fileOut = null;
+	private BufferedOutputStream bufferedOut;
+	private GZIPOutputStream gzipOut;
+	private BufferedOutputStream lineOut;
+	private DataOutputStream indexOut;
+	private long segmentEnd;
+	private long memberEnd;
+	private long lastSecond = -1;
+	private Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+	private SimpleDateFormat nameFormat = new SimpleDateFormat("yyyyMMdd-HHmmss");
+	private volatile long written = 0;
+	private volatile int segments = 0;
+
+	public NmeaRecorder(File directory) {
+		this(directory, DEFAULT_SEGMENT_DURATION, DEFAULT_QUEUE_SIZE);
+	}
+
+	/**
+	 * @param directory
+	 *            directory to write segments to
+	 * @param segmentDuration
+	 *            time covered by each segment in ms
+	 * @param queueSize
+	 *            number of sentences buffered for the writer
+	 */
+	public NmeaRecorder(File directory, long segmentDuration, int queueSize) {
+		this.directory = directory;
+		this.segmentDuration = segmentDuration;
+		nameFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		// Never block reception, rather lose the oldest sentences
+		ring = new RingBuffer<LineEvent>(queueSize, OverflowPolicy.DROP_OLDEST,
+				new RingBuffer.EventFactory<LineEvent>() {
+					@Override
+					public LineEvent newEvent() {
+						return new LineEvent();
+					}
+				});
+	}
+
+	/**
+	 * Start the writer thread. Open segments are closed on shutdown.
+	 */
+	public void start() {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			LOG.error("Could not create recording directory " + directory);
+			return;
+		}
+		thread = new Thread(this);
+		thread.setName("NmeaRecorder");
+		thread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				NmeaRecorder.this.stop();
+			}
+		});
+		LOG.info("Recording NMEA to " + directory);
+	}
+
+	/**
+	 * Stop recording and wait for the current segment to be closed
+	 */
+	public void stop() {
+		if (thread == null || stopped) {
+			return;
+		}
+		stopped = true;
+		// Wake the writer with an end marker after the sentences already queued
+		LineEvent event = ring.claim(false);
+		if (event != null) {
+			event.length = -1;
+			ring.publish();
+		}
+		try {
+			thread.join(5000);
+		} catch (InterruptedException e) {
+		}
+	}
+
+	/**
+	 * Record a sentence. Called from the reading thread.
+	 * 
+	 * @param buf
+	 * @param start
+	 * @param end
+	 */
+	public void record(byte[] buf, int start, int end) {
+		if (thread == null || stopped) {
+			return;
+		}
+		LineEvent event = ring.claim(false);
+		if (event == null) {
+			return;
+		}
+		int length = end - start;
+		if (event.data.length < length) {
+			event.data = new byte[length];
+		}
+		System.arraycopy(buf, start, event.data, 0, length);
+		event.length = length;
+		event.time = System.currentTimeMillis();
+		ring.publish();
+	}
+
+	@Override
+	public void run() {
+		LineEvent event = null;
+		try {
+			while (true) {
+				event = ring.take(event);
+				if (event.length < 0) {
+					break;
+				}
+				write(event);
+			}
+		} catch (IOException e) {
+			LOG.error("Recording to " + segment + " failed: " + e.getMessage());
+		} catch (InterruptedException e) {
+		}
+		closeSegment();
+		LOG.info("Recorded " + written + " sentences in " + segments + " segments");
+	}
+
+	private void write(LineEvent event) throws IOException {
+		long time = event.time;
+		if (segment == null || time >= segmentEnd) {
+			closeSegment();
+			openSegment(time);
+		} else if (time >= memberEnd) {
+			lineOut.flush();
+			gzipOut.finish();
+			bufferedOut.flush();
+			startMember(time, fileOut.count);
+		}
+		if (time / 1000 != lastSecond) {
+			writeTimestamp(time);
+			lastSecond = time / 1000;
+		}
+		lineOut.write(event.data, 0, event.length);
+		lineOut.write(CRLF);
+		written++;
+	}
+
+	/**
+	 * Open segment for the period containing time. An existing segment with
+	 * the same name is appended to.
+	 */
+	private void openSegment(long time) throws IOException {
+		segmentEnd = time - time % segmentDuration + segmentDuration;
+		segment = new File(directory, "nmea-" + nameFormat.format(new Date(time)) + SEGMENT_SUFFIX);
+		long length = segment.length();
+		fileOut = new CountingOutputStream(new FileOutputStream(segment, true), length);
+		bufferedOut = new BufferedOutputStream(fileOut, BUFFER_SIZE);
+		indexOut = SegmentIndex.open(segment);
+		segments++;
+		LOG.info("Recording to " + segment);
+		startMember(time, length);
+	}
+
+	private void startMember(long time, long offset) throws IOException {
+		gzipOut = new GZIPOutputStream(bufferedOut, BUFFER_SIZE);
+		lineOut = new BufferedOutputStream(gzipOut, BUFFER_SIZE);
+		SegmentIndex.writeEntry(indexOut, time, offset);
+		memberEnd = time - time % memberInterval + memberInterval;
+		// Every member starts with a timestamp
+		lastSecond = -1;
+	}
+
+	private void closeSegment() {
+		if (segment == null) {
+			return;
+		}
+		try {
+			lineOut.flush();
+			gzipOut.finish();
+			bufferedOut.close();
+		} catch (IOException e) {
+			LOG.error("Failed to close " + segment + ": " + e.getMessage());
+		}
+		try {
+			indexOut.close();
+		} catch (IOException e) {
+		}
+		segment = null;
+	}
+
+	/**
+	 * Write Gatehouse timestamp sentence
+	 * $PGHP,1,yyyy,M,d,H,m,s,S,,,,,*hh
+	 */
+	private void writeTimestamp(long time) throws IOException {
+		calendar.setTimeInMillis(time);
+		StringBuilder buf = new StringBuilder(64);
+		buf.append("$PGHP,1,");
+		buf.append(calendar.get(Calendar.YEAR)).append(',');
+		buf.append(calendar.get(Calendar.MONTH) + 1).append(',');
+		buf.append(calendar.get(Calendar.DAY_OF_MONTH)).append(',');
+		buf.append(calendar.get(Calendar.HOUR_OF_DAY)).append(',');
+		buf.append(calendar.get(Calendar.MINUTE)).append(',');
+		buf.append(calendar.get(Calendar.SECOND)).append(',');
+		buf.append(calendar.get(Calendar.MILLISECOND)).append(",,,,,*");
+		int checksum = 0;
+		for (int i = 1; i < buf.length() - 1; i++) {
+			checksum ^= buf.charAt(i);
+		}
+		if (checksum < 0x10) {
+			buf.append('0');
+		}
+		buf.append(Integer.toHexString(checksum).toUpperCase()).append("\r\n");
+		for (int i = 0; i < buf.length(); i++) {
+			lineOut.write(buf.charAt(i));
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return number of sentences written
+	 */
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * @return number of sentences lost because the writer fell behind
+	 */
+	public long getDropped() {
+		return ring.getDropped();
+	}
+
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Replay of an NMEA log with Gatehouse timestamps. A plain log is memory
+ * mapped and a sparse timestamp index is used for seeking. Compressed logs and
+ * directories of logs are inflated while streaming and seek by scanning.
+ * Replay is paced by the timestamps and can be paused, resumed, stepped, sped
+ * up and moved to any time while running.
+ */
+public class NmeaReplayEngine implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(NmeaReplayEngine.class);
+
+	// Do not bother sleeping for less
+	private static final long MIN_SLEEP = 20;
+
+	private NmeaSensor sensor;
+	private File file;
+	private NmeaFramer framer;
+	private ILineReader reader = null;
+	private ReplayIndex index = null;
+	private byte[] line = new byte[NmeaFramer.MAX_FRAME_LENGTH];
+
+	private Object lock = new Object();
+	private boolean paused = false;
+	private volatile boolean stopped = false;
+	private boolean finished = false;
+	private int steps = 0;
+	private double speed = 1;
+	private volatile long seekTarget = -1;
+	private long dataTime = -1;
+	private long dataAnchor = -1;
+	private long wallAnchor = 0;
+
+	public NmeaReplayEngine(NmeaSensor sensor, File file) {
+		this.sensor = sensor;
+		this.file = file;
+		this.framer = new NmeaFramer(sensor);
+	}
+
+	/**
+	 * Map the log and get the index, or start inflating a compressed log
+	 * 
+	 * @throws IOException
+	 */
+	public void open() throws IOException {
+		if (NmeaLogInputStream.isStreamed(file)) {
+			reader = new StreamLineReader(file);
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedLineReader mappedReader = new MappedLineReader(raf.getChannel());
+		index = ReplayIndex.get(file, mappedReader);
+		reader = mappedReader;
+	}
+
+	@Override
+	public void run() {
+		try {
+			if (reader == null) {
+				open();
+			}
+			replay();
+		} catch (IOException e) {
+			LOG.error("Error while replaying " + file + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			LOG.info("Replay interrupted");
+		}
+		framer.flush();
+		if (reader != null) {
+			reader.close();
+		}
+		synchronized (lock) {
+			finished = true;
+			lock.notifyAll();
+		}
+	}
+
+	private void replay() throws IOException, InterruptedException {
+		while (!stopped) {
+			long lineStart = reader.position();
+			int len = reader.readLine(line);
+			if (len < 0) {
+				return;
+			}
+			long time = parseTimestamp(line, 0, len);
+			if (time >= 0) {
+				synchronized (lock) {
+					awaitTimestamp(time);
+					if (stopped) {
+						return;
+					}
+					if (seekTarget >= 0) {
+						long target = seekTarget;
+						seekTarget = -1;
+						reader.seek(lineStart);
+						doSeek(target);
+						continue;
+					}
+					dataTime = time;
+				}
+				sensor.setReplayTime(new Date(time));
+			} else if (seekTarget >= 0) {
+				// Seek requested between timestamps
+				reader.seek(lineStart);
+				synchronized (lock) {
+					if (seekTarget >= 0) {
+						long target = seekTarget;
+						seekTarget = -1;
+						doSeek(target);
+					}
+				}
+				continue;
+			}
+			framer.append(line, 0, len);
+		}
+	}
+
+	/**
+	 * Wait until the data time may be replayed. Called with lock held.
+	 * 
+	 * @param time
+	 * @throws InterruptedException
+	 */
+	private void awaitTimestamp(long time) throws InterruptedException {
+		while (!stopped && seekTarget < 0) {
+			if (paused) {
+				if (steps > 0) {
+					steps--;
+					dataAnchor = -1;
+					return;
+				}
+				lock.wait();
+				continue;
+			}
+			// (Re)anchor at start, after changes and when time goes backwards
+			if (dataAnchor < 0 || time < dataAnchor) {
+				dataAnchor = time;
+				wallAnchor = System.currentTimeMillis();
+				return;
+			}
+			long wait = wallAnchor + (long) ((time - dataAnchor) / speed) - System.currentTimeMillis();
+			if (wait < MIN_SLEEP) {
+				return;
+			}
+			lock.wait(wait);
+		}
+	}
+
+	/**
+	 * Move to the first timestamp not before target. Without an index the log
+	 * is entered through its segment indexes if recorded in segments, and
+	 * otherwise scanned from the current line, or from the start when moving
+	 * back. Called with lock held.
+	 * 
+	 * @param target
+	 * @throws IOException
+	 */
+	private void doSeek(long target) throws IOException {
+		if (index != null) {
+			reader.seek(index.floorOffset(target));
+		} else if (reader instanceof StreamLineReader && ((StreamLineReader) reader).seekTime(target)) {
+			// Entered at segment member
+		} else if (target <= dataTime) {
+			reader.seek(0);
+		}
+		framer.reset();
+		dataAnchor = -1;
+		while (true) {
+			long lineStart = reader.position();
+			int len = reader.readLine(line);
+			if (len < 0) {
+				return;
+			}
+			long time = parseTimestamp(line, 0, len);
+			if (time >= target) {
+				reader.seek(lineStart);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Seek to the given time
+	 * 
+	 * @param time
+	 */
+	public void seek(Date time) {
+		synchronized (lock) {
+			seekTarget = time.getTime();
+			lock.notifyAll();
+		}
+	}
+
+	public void pause() {
+		synchronized (lock) {
+			paused = true;
+			lock.notifyAll();
+		}
+	}
+
+	public void resume() {
+		synchronized (lock) {
+			paused = false;
+			steps = 0;
+			dataAnchor = -1;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * When paused, replay the data up to the next timestamp
+	 */
+	public void step() {
+		synchronized (lock) {
+			if (paused) {
+				steps++;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Stop replay. The replay thread ends as soon as possible.
+	 */
+	public void stop() {
+		synchronized (lock) {
+			stopped = true;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Set speed as a factor of real time. Infinite speed replays as fast as
+	 * possible.
+	 * 
+	 * @param speed
+	 */
+	public void setSpeed(double speed) {
+		if (speed <= 0) {
+			throw new IllegalArgumentException("Replay speed must be positive: " + speed);
+		}
+		synchronized (lock) {
+			this.speed = speed;
+			dataAnchor = -1;
+			lock.notifyAll();
+		}
+	}
+
+	public double getSpeed() {
+		synchronized (lock) {
+			return speed;
+		}
+	}
+
+	public boolean isPaused() {
+		synchronized (lock) {
+			return paused;
+		}
+	}
+
+	public boolean isFinished() {
+		synchronized (lock) {
+			return finished;
+		}
+	}
+
+	/**
+	 * Wait for replay to finish
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void awaitFinished() throws InterruptedException {
+		synchronized (lock) {
+			while (!finished) {
+				lock.wait();
+			}
+		}
+	}
+
+	/**
+	 * @return time of the last replayed timestamp or null
+	 */
+	public Date getDataTime() {
+		synchronized (lock) {
+			return (dataTime < 0) ? null : new Date(dataTime);
+		}
+	}
+
+	/**
+	 * @return first timestamp in log or null if not known
+	 */
+	public Date getStartTime() {
+		return (index == null || index.getStartTime() < 0) ? null : new Date(index.getStartTime());
+	}
+
+	/**
+	 * @return last timestamp in log or null if not known
+	 */
+	public Date getEndTime() {
+		return (index == null || index.getEndTime() < 0) ? null : new Date(index.getEndTime());
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Parse a Gatehouse timestamp sentence on the form
+	 * $PGHP,1,yyyy,M,d,H,m,s,S,... directly from the bytes
+	 * 
+	 * @param buf
+	 * @param start
+	 * @param end
+	 * @return UTC milliseconds or -1 if not a timestamp sentence
+	 */
+	public static long parseTimestamp(byte[] buf, int start, int end) {
+		int i = start;
+		while (i < end && buf[i] != '$' && buf[i] != '!') {
+			i++;
+		}
+		if (i + 8 > end || buf[i + 1] != 'P' || buf[i + 2] != 'G' || buf[i + 3] != 'H' || buf[i + 4] != 'P'
+				|| buf[i + 5] != ',' || buf[i + 6] != '1' || buf[i + 7] != ',') {
+			return -1;
+		}
+		i += 8;
+		int[] fields = new int[7];
+		for (int f = 0; f < 7; f++) {
+			int val = 0;
+			int digits = 0;
+			while (i < end && buf[i] >= '0' && buf[i] <= '9') {
+				val = val * 10 + (buf[i] - '0');
+				digits++;
+				i++;
+			}
+			if (digits == 0 || i >= end || buf[i] != ',') {
+				return -1;
+			}
+			i++;
+			fields[f] = val;
+		}
+		int month = fields[1];
+		int day = fields[2];
+		if (month < 1 || month > 12 || day < 1 || day > 31) {
+			return -1;
+		}
+		long days = daysFromCivil(fields[0], month, day);
+		return (((days * 24 + fields[3]) * 60 + fields[4]) * 60 + fields[5]) * 1000 + fields[6];
+	}
+
+	/**
+	 * Days since 1970-01-01 in the proleptic Gregorian calendar
+	 */
+	private static long daysFromCivil(int y, int m, int d) {
+		y -= (m <= 2) ? 1 : 0;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yoe = y - era * 400;
+		long doy = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + d - 1;
+		long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+}
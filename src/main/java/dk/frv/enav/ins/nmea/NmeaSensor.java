@@ -29,14 +29,16 @@
  */
 package dk.frv.enav.ins.nmea;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -60,6 +62,7 @@ import dk.frv.ais.sentence.Sentence;
 import dk.frv.ais.sentence.SentenceException;
 import dk.frv.ais.sentence.Vdm;
 import dk.frv.enav.ins.EeINS;
+import dk.frv.enav.ins.common.util.RingBuffer.OverflowPolicy;
 import dk.frv.enav.ins.gps.GnssTimeMessage;
 import dk.frv.enav.ins.gps.IGnssTimeListener;
 
@@ -69,9 +72,11 @@ import dk.frv.enav.ins.gps.IGnssTimeListener;
 public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 
 	private static final Logger LOG = Logger.getLogger(NmeaSensor.class);
+	
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
 
 	public enum Status {
-		CONNECTED, DISCONNECTED
+		CONNECTED, CONNECTING, DISCONNECTED
 	};
 
 	private boolean replay = false;
@@ -88,10 +93,19 @@ public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 	protected Set<SensorType> sensorTypes = new HashSet<SensorType>();
 	private boolean simulateGps = false;
 	private long simulatedOwnShip;
-	private Set<IGpsListener> gpsListeners = new HashSet<IGpsListener>();
-	private Set<IAisListener> aisListeners = new HashSet<IAisListener>();
-	private Set<IGnssTimeListener> gnssTimeListeners = new HashSet<IGnssTimeListener>(); 
-	private Vdm vdm = new Vdm();
+	private Set<IGpsListener> gpsListeners = new CopyOnWriteArraySet<IGpsListener>();
+	private Set<IAisListener> aisListeners = new CopyOnWriteArraySet<IAisListener>();
+	private Set<INmeaListener> nmeaListeners = new CopyOnWriteArraySet<INmeaListener>();
+	private Set<IGnssTimeListener> gnssTimeListeners = new CopyOnWriteArraySet<IGnssTimeListener>(); 
+	private VdmReassembler vdmReassembler = new VdmReassembler();
+	private int queueSize = NmeaPipeline.DEFAULT_QUEUE_SIZE;
+	private int decodeWorkers = 1;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	private NmeaPipeline pipeline = null;
+	private long duplicateWindow = 0;
+	private DuplicateFilter duplicateFilter = null;
+	private NmeaRecorder recorder = null;
+	private AtomicLong discardedAis = new AtomicLong();
 	
 	
 	public NmeaSensor() {
@@ -105,16 +119,14 @@ public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 	 * @throws IOException
 	 */
 	protected void readLoop(InputStream stream) throws IOException {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
-		String msg;
+		NmeaFramer framer = new NmeaFramer(this);
+		byte[] buf = new byte[READ_BUFFER_SIZE];
+		int count;
 		
-		while ((msg = reader.readLine()) != null) {
-			if (replay) {
-				handleReplay(msg);
-			}
-			
-			handleSentence(msg);
-		}		
+		while ((count = stream.read(buf)) >= 0) {
+			framer.append(buf, 0, count);
+		}
+		framer.flush();
 		
 	}
 	
@@ -221,64 +233,127 @@ public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 		
 	}
 	
-	protected void handleSentence(String msg) {
-		if (!isSimulateGps() && gpsListeners.size() > 0 && msg.indexOf("$GPRMC") >= 0) {
-			handleGpRmc(msg);
-		} else if (aisListeners.size() > 0 && isVdm(msg)) {
-			handleAis(msg);
-		} else if (Abk.isAbk(msg)) {
-			handleAbk(msg);
-		} else if (msg.indexOf("$P") >= 0) {
-			handleProprietary(msg);
+	/**
+	 * Handle a sentence framed by a {@link NmeaFramer}. Called from the reading
+	 * thread. Replay timestamps are handled here to pace the reading, other
+	 * sentences are recorded and copied into the pipeline.
+	 * 
+	 * @param buf
+	 * @param lineStart
+	 *            start of the line including any prefix such as a tag block
+	 * @param start
+	 *            start delimiter of the sentence
+	 * @param end
+	 * @param type
+	 * @param sourceId
+	 */
+	protected void handleFrame(byte[] buf, int lineStart, int start, int end, NmeaSentenceType type, int sourceId) {
+		if (recorder != null && type != NmeaSentenceType.PGHP) {
+			// Recorder writes its own timestamps and keeps the whole line
+			recorder.record(buf, lineStart, end);
+		}
+		switch (type) {
+		case PGHP:
+			if (replay) {
+				handleReplay(NmeaFramer.toString(buf, start, end));
+			}
+			return;
+		case UNKNOWN:
+		case PROPRIETARY:
+			return;
+		default:
+			break;
+		}
+		if (pipeline != null && pipeline.isRunning()) {
+			pipeline.publishSentence(buf, start, end, type, sourceId);
+		} else {
+			processFrame(buf, start, end, type, sourceId, vdmReassembler);
 		}
 	}
-
-	protected boolean isVdm(String msg) {
-		return (msg.indexOf("!AIVDM") >= 0 || msg.indexOf("!AIVDO") >= 0 || msg.indexOf("!BSVDM") >= 0);
+	
+	/**
+	 * Handle a sentence taken from the pipeline by a worker. The sentence is
+	 * dispatched on its type and only turned into a string if it is handled.
+	 * 
+	 * @param buf
+	 * @param start
+	 * @param end
+	 * @param type
+	 * @param sourceId
+	 * @param reassembler
+	 *            reassembler of the worker
+	 */
+	protected void processFrame(byte[] buf, int start, int end, NmeaSentenceType type, int sourceId,
+			VdmReassembler reassembler) {
+		switch (type) {
+		case VDM:
+			if (aisListeners.size() > 0 || nmeaListeners.size() > 0) {
+				handleAis(NmeaFramer.toString(buf, start, end), sourceId, reassembler);
+			}
+			break;
+		case RMC:
+			if (nmeaListeners.size() > 0) {
+				distributeNmea(Collections.singletonList(NmeaFramer.toString(buf, start, end)));
+			}
+			if (!isSimulateGps() && gpsListeners.size() > 0) {
+				handleGpRmc(NmeaFramer.toString(buf, start, end));
+			}
+			break;
+		case ABK:
+			handleAbk(NmeaFramer.toString(buf, start, end));
+			break;
+		case PSTT:
+			handleProprietary(NmeaFramer.toString(buf, start, end));
+			break;
+		default:
+			break;
+		}
 	}
 
-	protected void handleAis(String msg) {
+	/**
+	 * Handle VDM sentence. Multi sentence messages are reassembled per source.
+	 * The header of complete messages is read from the payload, and messages
+	 * not accepted by any listener are discarded without decoding.
+	 * 
+	 * @param msg
+	 * @param sourceId
+	 * @param reassembler
+	 */
+	protected void handleAis(String msg, int sourceId, VdmReassembler reassembler) {
 		try {
-			int result = vdm.parse(msg);
-			if (result == 0) {
-				// Complete message
-				AisMessage aisMessage = AisMessage.getInstance(vdm);
-				if (aisMessage == null) {
-					vdm = new Vdm();
-					return;
-				}
-				
-				boolean ownMessage = false;
-				// Check if simulated own ship
-				if (isSimulateGps()) {
-					ownMessage = (aisMessage.getUserId() == simulatedOwnShip);
-				} else {
-					ownMessage = vdm.isOwnMessage();
-				}
-				
-				// Distribute GPS from own mesasge
-				if (ownMessage) {
-					handleGpsFromOwnMessage(aisMessage);
-				}
-				
-				// Distribute message
-				synchronized (aisListeners) {
-					for (IAisListener aisListener : aisListeners) {
-						if (ownMessage) {							
-							aisListener.receiveOwnMessage(aisMessage);
-						} else {
-							aisListener.receive(aisMessage);
-						}
-					}
-				}				
-
-				vdm = new Vdm();
+			Vdm vdm = reassembler.add(msg, sourceId);
+			if (vdm == null) {
+				// Wait for more data
 				return;
-
+			}
+			
+			// Complete message
+			if (nmeaListeners.size() > 0) {
+				distributeNmea(vdm.getOrgLines());
+			}
+			if (aisListeners.isEmpty()) {
+				return;
+			}
+			
+			AisHeader header = AisHeader.parse(vdm.getOrgLines());
+			boolean ownMessage = false;
+			// Check if simulated own ship
+			if (isSimulateGps()) {
+				ownMessage = (header != null && header.getUserId() == simulatedOwnShip);
 			} else {
-				// result = 1: Wait for more data
+				ownMessage = vdm.isOwnMessage();
+			}
+			if (!ownMessage && header != null && !isAccepted(header)) {
+				discardedAis.incrementAndGet();
 				return;
 			}
+			
+			AisMessage aisMessage = AisMessage.getInstance(vdm);
+			if (aisMessage == null) {
+				return;
+			}
+			
+			distributeAis(aisMessage, ownMessage);
 		} catch (AisMessageException e) {
 			LOG.error("AisMessageException: " + e.getMessage() + " msg: " + msg);
 		} catch (SentenceException e) {
@@ -289,6 +364,54 @@ public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 
 	}
 
+	/**
+	 * Check if any listener needs a message
+	 * 
+	 * @param header
+	 * @return
+	 */
+	private boolean isAccepted(AisHeader header) {
+		for (IAisListener aisListener : aisListeners) {
+			if (!(aisListener instanceof IAisHeaderFilter) || ((IAisHeaderFilter) aisListener).accept(header)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Distribute decoded AIS message to listeners
+	 * 
+	 * @param aisMessage
+	 * @param ownMessage
+	 */
+	protected void distributeAis(AisMessage aisMessage, boolean ownMessage) {
+		// Distribute GPS from own mesasge
+		if (ownMessage) {
+			handleGpsFromOwnMessage(aisMessage);
+		}
+		
+		// Distribute message
+		for (IAisListener aisListener : aisListeners) {
+			if (ownMessage) {							
+				aisListener.receiveOwnMessage(aisMessage);
+			} else {
+				aisListener.receive(aisMessage);
+			}
+		}
+	}
+
+	/**
+	 * Distribute raw sentences of a message to listeners
+	 * 
+	 * @param sentences
+	 */
+	protected void distributeNmea(List<String> sentences) {
+		for (INmeaListener nmeaListener : nmeaListeners) {
+			nmeaListener.receiveNmea(sentences);
+		}
+	}
+
 	protected void handleGpsFromOwnMessage(AisMessage aisMessage) {
 		GpsMessage gpsMessage = new GpsMessage();
 		boolean foundPos = false;
@@ -315,17 +438,13 @@ public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 
 		if (replay) {
 			GnssTimeMessage gnssTimeMessage = new GnssTimeMessage(getReplayTime());
-			synchronized (gnssTimeListeners) {
-				for (IGnssTimeListener gnssTimeListener : gnssTimeListeners) {
-					gnssTimeListener.receive(gnssTimeMessage);
-				}
+			for (IGnssTimeListener gnssTimeListener : gnssTimeListeners) {
+				gnssTimeListener.receive(gnssTimeMessage);
 			}
 		}
 		
-		synchronized (gpsListeners) {
-			for (IGpsListener gpsListener : gpsListeners) {
-				gpsListener.receive(gpsMessage);
-			}
+		for (IGpsListener gpsListener : gpsListeners) {
+			gpsListener.receive(gpsMessage);
 		}
 	}
 
@@ -343,10 +462,8 @@ public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 //				gpsListener.receive(sentence.getGpsMessage());
 //			}
 //		}
-		synchronized (gnssTimeListeners) {
-			for (IGnssTimeListener gnssTimeListener : gnssTimeListeners) {
-				gnssTimeListener.receive(sentence.getGnssTimeMessage());
-			}
+		for (IGnssTimeListener gnssTimeListener : gnssTimeListeners) {
+			gnssTimeListener.receive(sentence.getGnssTimeMessage());
 		}
 	}
 	
@@ -354,10 +471,8 @@ public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 		PsttSentence psttSentence = new PsttSentence();
 		try {
 			if (psttSentence.parse(msg)) {
-				synchronized (gnssTimeListeners) {
-					for (IGnssTimeListener gnssTimeListener : gnssTimeListeners) {
-						gnssTimeListener.receive(psttSentence.getGnssTimeMessage());
-					}
+				for (IGnssTimeListener gnssTimeListener : gnssTimeListeners) {
+					gnssTimeListener.receive(psttSentence.getGnssTimeMessage());
 				}
 			}
 		} catch (SentenceException e) {
@@ -367,39 +482,35 @@ public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 
 
 	public void addGpsListener(IGpsListener gpsListener) {
-		synchronized (gpsListeners) {
-			gpsListeners.add(gpsListener);
-		}
+		gpsListeners.add(gpsListener);
 	}
 	
 	public void removeGpsListener(IGpsListener gpsListener) {
-		synchronized (gpsListeners) {
-			gpsListeners.remove(gpsListener);
-		}
+		gpsListeners.remove(gpsListener);
 	}
 
 	public void addAisListener(IAisListener aisListener) {
-		synchronized (aisListeners) {
-			aisListeners.add(aisListener);
-		}
+		aisListeners.add(aisListener);
 	}
 	
 	public void removeAisListener(IAisListener aisListener) {
-		synchronized (aisListeners) {
-			aisListeners.remove(aisListener);
-		}
+		aisListeners.remove(aisListener);
+	}
+	
+	public void addNmeaListener(INmeaListener nmeaListener) {
+		nmeaListeners.add(nmeaListener);
+	}
+	
+	public void removeNmeaListener(INmeaListener nmeaListener) {
+		nmeaListeners.remove(nmeaListener);
 	}
 	
 	public void addGnssTimeListener(IGnssTimeListener gnssTimeListener) {
-		synchronized (gnssTimeListeners) {
-			gnssTimeListeners.add(gnssTimeListener);
-		}
+		gnssTimeListeners.add(gnssTimeListener);
 	}
 	
 	public void removeGnssTimeListener(IGnssTimeListener gnssTimeListener) {
-		synchronized (gnssTimeListeners) {
-			gnssTimeListeners.remove(gnssTimeListener);
-		}
+		gnssTimeListeners.remove(gnssTimeListener);
 	}
 
 	public boolean isSimulateGps() {
@@ -427,6 +538,16 @@ public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 	}
 	
 	public void start() {
+		pipeline = new NmeaPipeline(this, decodeWorkers, queueSize, overflowPolicy);
+		if (duplicateWindow > 0) {
+			// One filter shared by all workers as copies may be routed differently
+			duplicateFilter = new DuplicateFilter(duplicateWindow, DuplicateFilter.DEFAULT_CAPACITY);
+			vdmReassembler.setDuplicateFilter(duplicateFilter);
+			for (int i = 0; i < pipeline.getShardCount(); i++) {
+				pipeline.getVdmReassembler(i).setDuplicateFilter(duplicateFilter);
+			}
+		}
+		pipeline.start(getClass().getSimpleName());
 		(new Thread(this)).start();
 	}
 	
@@ -481,5 +602,101 @@ public abstract class NmeaSensor extends MapHandlerChild implements Runnable {
 	public void setReplayStartDate(Date replayStartDate) {
 		this.replayStartDate = replayStartDate;
 	}
+	
+	public VdmReassembler getVdmReassembler() {
+		return vdmReassembler;
+	}
+	
+	public int getDecodeWorkers() {
+		return decodeWorkers;
+	}
+	
+	/**
+	 * Set the number of decode workers. Must be set before start.
+	 * 
+	 * @param decodeWorkers
+	 */
+	public void setDecodeWorkers(int decodeWorkers) {
+		this.decodeWorkers = decodeWorkers;
+	}
+	
+	public int getQueueSize() {
+		return queueSize;
+	}
+	
+	/**
+	 * Set the size of the ring of each worker. Must be set before start.
+	 * 
+	 * @param queueSize
+	 */
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+	
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+	
+	/**
+	 * Set policy for full pipeline rings. Must be set before start.
+	 * 
+	 * @param overflowPolicy
+	 */
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+	
+	public long getDuplicateWindow() {
+		return duplicateWindow;
+	}
+	
+	/**
+	 * Set the time AIS messages are remembered to discard copies received
+	 * again, e.g. from redundant sources. 0 disables the filter. Must be set
+	 * before start.
+	 * 
+	 * @param duplicateWindow
+	 *            window in ms
+	 */
+	public void setDuplicateWindow(long duplicateWindow) {
+		this.duplicateWindow = duplicateWindow;
+	}
+	
+	/**
+	 * @return number of AIS messages discarded by listener header filters
+	 */
+	public long getDiscardedAis() {
+		return discardedAis.get();
+	}
+	
+	public NmeaRecorder getRecorder() {
+		return recorder;
+	}
+	
+	/**
+	 * Set recorder of received sentences
+	 * 
+	 * @param recorder
+	 *            started recorder or null
+	 */
+	public void setRecorder(NmeaRecorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * @return duplicate filter or null if not enabled
+	 */
+	public DuplicateFilter getDuplicateFilter() {
+		return duplicateFilter;
+	}
+	
+	/**
+	 * Get the pipeline between reading and listeners
+	 * 
+	 * @return pipeline or null if the sensor is not started
+	 */
+	public NmeaPipeline getPipeline() {
+		return pipeline;
+	}
 
 }
@@ -65,7 +65,8 @@ public class NmeaSerialSensor extends NmeaSensor implements SerialPortEventListe
 	CommPortIdentifier portId = null;
 	private InputStream inputStream;
 	private OutputStream outputStream;
-	private StringBuffer buffer = new StringBuffer();
+	private byte[] readBuffer = new byte[1024];
+	private NmeaFramer framer = new NmeaFramer(this);
 	private Boolean connected = false;
 	
 
@@ -158,18 +159,11 @@ public class NmeaSerialSensor extends NmeaSensor implements SerialPortEventListe
 			LOG.debug("Output buffer empty");
 			break;
 		case SerialPortEvent.DATA_AVAILABLE:
-			byte[] readBuffer = new byte[1024];
 			try {
 				while (inputStream.available() > 0) {
 					int count = inputStream.read(readBuffer);
-					for (int i = 0; i < count; i++) {
-						buffer.append((char) readBuffer[i]);
-						// If line feed we have a whole line
-						if (readBuffer[i] == '\n') {
-							String msg = buffer.toString();
-							handleSentence(msg);
-							buffer = new StringBuffer();
-						}
+					if (count > 0) {
+						framer.append(readBuffer, 0, count);
 					}
 				}
 			} catch (IOException e) {
@@ -178,6 +172,7 @@ public class NmeaSerialSensor extends NmeaSensor implements SerialPortEventListe
 				serialPort.close();
 				serialPort = null;
 				portId = null;
+				framer.reset();
 				setConnected(false);
 			}
 			break;
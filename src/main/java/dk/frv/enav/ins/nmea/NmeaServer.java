@@ -0,0 +1,392 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.bbn.openmap.MapHandlerChild;
+
+import dk.frv.enav.ins.status.ComponentStatus;
+import dk.frv.enav.ins.status.IStatusComponent;
+import dk.frv.enav.ins.status.NmeaServerStatus;
+
+/**
+ * TCP server passing the merged and de-duplicated feed of the sensors on to
+ * downstream consumers. Messages from the decode workers are queued and
+ * written to all clients by one selector thread. Each pass of the thread
+ * encodes the queued messages once into a buffer shared by all clients. A
+ * client with more unsent data than allowed is disconnected, so a slow client
+ * can neither hold up the others nor use unbounded memory.
+ */
+public class NmeaServer extends MapHandlerChild implements INmeaListener, IStatusComponent, Runnable {
+
+	private static final Logger LOG = Logger.getLogger(NmeaServer.class);
+
+	public static final int DEFAULT_MAX_CLIENT_BUFFER = 1024 * 1024;
+
+	private static final long SELECT_TIMEOUT = 1000;
+	private static final int MAX_PENDING = 64 * 1024;
+
+	/**
+	 * Connected client with its queue of shared buffers
+	 */
+	private static class Client {
+		SocketChannel channel;
+		SelectionKey key;
+		String name;
+		ArrayDeque<ByteBuffer> queue = new ArrayDeque<ByteBuffer>();
+		int queued = 0;
+	}
+
+	private int port;
+	private int maxClientBuffer = DEFAULT_MAX_CLIENT_BUFFER;
+	private Selector selector = null;
+	private ServerSocketChannel serverChannel = null;
+	private volatile boolean listening = false;
+	private List<Client> clients = new ArrayList<Client>();
+	private volatile int clientCount = 0;
+	private ConcurrentLinkedQueue<List<String>> pending = new ConcurrentLinkedQueue<List<String>>();
+	private AtomicInteger pendingCount = new AtomicInteger();
+	private AtomicBoolean wakeupPending = new AtomicBoolean();
+	private ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+	private AtomicLong dropped = new AtomicLong();
+	private volatile long messages = 0;
+	private volatile long slowDisconnects = 0;
+
+	public NmeaServer(int port) {
+		this.port = port;
+	}
+
+	public void start() {
+		Thread thread = new Thread(this);
+		thread.setName("NmeaServer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queue message for clients. Called from decode workers.
+	 */
+	@Override
+	public void receiveNmea(List<String> sentences) {
+		if (clientCount == 0) {
+			return;
+		}
+		if (pendingCount.incrementAndGet() > MAX_PENDING) {
+			pendingCount.decrementAndGet();
+			dropped.incrementAndGet();
+			return;
+		}
+		pending.add(sentences);
+		// Only wake the selector once per pass
+		if (wakeupPending.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			selector = Selector.open();
+			serverChannel = ServerSocketChannel.open();
+			serverChannel.configureBlocking(false);
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(new InetSocketAddress(port));
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			LOG.error("NMEA server could not listen on port " + port + ": " + e.getMessage());
+			return;
+		}
+		listening = true;
+		LOG.info("NMEA server listening on port " + port);
+
+		while (true) {
+			try {
+				if (pendingCount.get() > 0) {
+					selector.selectNow();
+				} else {
+					selector.select(SELECT_TIMEOUT);
+				}
+			} catch (IOException e) {
+				LOG.error("Select failed: " + e.getMessage());
+				continue;
+			}
+			wakeupPending.set(false);
+
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				if (!key.isValid()) {
+					continue;
+				}
+				if (key.isAcceptable()) {
+					accept();
+					continue;
+				}
+				Client client = (Client) key.attachment();
+				if (key.isReadable()) {
+					read(client);
+				}
+				if (key.isValid() && key.isWritable()) {
+					write(client);
+				}
+			}
+
+			ByteBuffer batch = encodePending();
+			if (batch != null) {
+				for (Client client : new ArrayList<Client>(clients)) {
+					if (enqueue(client, batch)) {
+						write(client);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Encode queued messages into one buffer. The buffer is kept well below
+	 * the client limit, remaining messages are taken in the next pass.
+	 * 
+	 * @return buffer or null if nothing queued
+	 */
+	private ByteBuffer encodePending() {
+		List<List<String>> messageList = new ArrayList<List<String>>();
+		List<String> sentences;
+		int length = 0;
+		int maxLength = maxClientBuffer / 8;
+		while (length < maxLength && (sentences = pending.poll()) != null) {
+			pendingCount.decrementAndGet();
+			messageList.add(sentences);
+			for (String sentence : sentences) {
+				length += sentence.length() + 2;
+			}
+		}
+		if (messageList.isEmpty()) {
+			return null;
+		}
+		byte[] data = new byte[length];
+		int pos = 0;
+		for (List<String> message : messageList) {
+			for (String sentence : message) {
+				for (int i = 0; i < sentence.length(); i++) {
+					data[pos++] = (byte) sentence.charAt(i);
+				}
+				data[pos++] = '\r';
+				data[pos++] = '\n';
+			}
+		}
+		messages += messageList.size();
+		return ByteBuffer.wrap(data).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Add a view of the shared buffer to the client queue, or disconnect the
+	 * client if it cannot keep up
+	 * 
+	 * @return false if the client was disconnected
+	 */
+	private boolean enqueue(Client client, ByteBuffer batch) {
+		if (client.queued + batch.remaining() > maxClientBuffer) {
+			LOG.warn("Disconnecting slow NMEA client " + client.name + " with " + client.queued + " bytes unsent");
+			slowDisconnects++;
+			close(client);
+			return false;
+		}
+		client.queue.add(batch.duplicate());
+		client.queued += batch.remaining();
+		return true;
+	}
+
+	private void write(Client client) {
+		try {
+			while (!client.queue.isEmpty()) {
+				ByteBuffer head = client.queue.peek();
+				client.queued -= client.channel.write(head);
+				if (head.hasRemaining()) {
+					break;
+				}
+				client.queue.poll();
+			}
+			int ops = SelectionKey.OP_READ;
+			if (!client.queue.isEmpty()) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+			client.key.interestOps(ops);
+		} catch (IOException e) {
+			LOG.info("NMEA client " + client.name + " failed: " + e.getMessage());
+			close(client);
+		}
+	}
+
+	/**
+	 * Discard anything sent by the client and detect disconnect
+	 */
+	private void read(Client client) {
+		try {
+			readBuffer.clear();
+			if (client.channel.read(readBuffer) < 0) {
+				LOG.info("NMEA client " + client.name + " disconnected");
+				close(client);
+			}
+		} catch (IOException e) {
+			LOG.info("NMEA client " + client.name + " failed: " + e.getMessage());
+			close(client);
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel channel = serverChannel.accept();
+			if (channel == null) {
+				return;
+			}
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			Client client = new Client();
+			client.channel = channel;
+			client.name = channel.socket().getRemoteSocketAddress().toString();
+			client.key = channel.register(selector, SelectionKey.OP_READ, client);
+			synchronized (clients) {
+				clients.add(client);
+				clientCount = clients.size();
+			}
+			LOG.info("NMEA client connected " + client.name);
+		} catch (IOException e) {
+			LOG.error("Failed to accept NMEA client: " + e.getMessage());
+		}
+	}
+
+	private void close(Client client) {
+		client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+		}
+		client.queue.clear();
+		synchronized (clients) {
+			clients.remove(client);
+			clientCount = clients.size();
+		}
+	}
+
+	@Override
+	public void findAndInit(Object obj) {
+		if (obj instanceof NmeaSensor) {
+			((NmeaSensor) obj).addNmeaListener(this);
+		}
+	}
+
+	@Override
+	public void findAndUndo(Object obj) {
+		if (obj instanceof NmeaSensor) {
+			((NmeaSensor) obj).removeNmeaListener(this);
+		}
+	}
+
+	@Override
+	public ComponentStatus getStatus() {
+		return new NmeaServerStatus(this);
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public boolean isListening() {
+		return listening;
+	}
+
+	public int getMaxClientBuffer() {
+		return maxClientBuffer;
+	}
+
+	/**
+	 * Set the number of unsent bytes allowed for a client before it is
+	 * disconnected
+	 * 
+	 * @param maxClientBuffer
+	 */
+	public void setMaxClientBuffer(int maxClientBuffer) {
+		this.maxClientBuffer = maxClientBuffer;
+	}
+
+	/**
+	 * @return names of connected clients
+	 */
+	public List<String> getClientNames() {
+		List<String> names = new ArrayList<String>();
+		synchronized (clients) {
+			for (Client client : clients) {
+				names.add(client.name);
+			}
+		}
+		return names;
+	}
+
+	public int getClientCount() {
+		return clientCount;
+	}
+
+	/**
+	 * @return number of messages sent to clients
+	 */
+	public long getMessages() {
+		return messages;
+	}
+
+	/**
+	 * @return number of messages dropped because the server thread fell behind
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	public long getSlowDisconnects() {
+		return slowDisconnects;
+	}
+
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.util.Date;
+
+import dk.frv.enav.ins.nmea.NmeaSensor.Status;
+
+/**
+ * Abstract base for a single NMEA input handled by the multiplexing sensor.
+ * Keeps connection status, reconnect backoff and reception counters.
+ */
+public abstract class NmeaSource {
+
+	private static final long MAX_BACKOFF = 60000; // 1 min
+
+	protected NmeaMultiplexSensor sensor;
+	protected String name;
+	private int sourceId = -1;
+	private Status status = Status.DISCONNECTED;
+	private long reconnectInterval = 5000; // Default 5 sec
+	private long backoff = 0;
+	private long nextConnectAttempt = 0;
+	private long connectDeadline = 0;
+	private long lastReceived = 0;
+	private long receivedBytes = 0;
+	private int reconnects = 0;
+	private NmeaFramer framer = null;
+
+	public NmeaSource(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Close the underlying connection
+	 */
+	public abstract void close();
+
+	/**
+	 * Hand received bytes to the framer of the source
+	 *
+	 * @param buf
+	 * @param off
+	 * @param len
+	 */
+	protected void consume(byte[] buf, int off, int len) {
+		synchronized (this) {
+			receivedBytes += len;
+			lastReceived = System.currentTimeMillis();
+		}
+		framer.append(buf, off, len);
+	}
+
+	/**
+	 * Frame a possibly unterminated last line
+	 */
+	protected void flush() {
+		framer.flush();
+	}
+
+	/**
+	 * Mark source as waiting for a connection to be established
+	 *
+	 * @param timeout
+	 *            milliseconds to wait before giving up
+	 */
+	protected synchronized void connecting(long timeout) {
+		status = Status.CONNECTING;
+		connectDeadline = System.currentTimeMillis() + timeout;
+	}
+
+	/**
+	 * @param now
+	 * @return if a pending connection has not been established in time
+	 */
+	protected synchronized boolean isConnectTimedOut(long now) {
+		return status == Status.CONNECTING && now > connectDeadline;
+	}
+
+	/**
+	 * Mark source as connected and reset backoff
+	 */
+	protected synchronized void connected() {
+		status = Status.CONNECTED;
+		backoff = 0;
+		lastReceived = System.currentTimeMillis();
+	}
+
+	/**
+	 * Mark source as disconnected and schedule the next connection attempt with
+	 * exponential backoff
+	 */
+	protected synchronized void disconnected() {
+		status = Status.DISCONNECTED;
+		if (framer != null) {
+			framer.reset();
+		}
+		backoff = (backoff == 0) ? reconnectInterval : Math.min(backoff * 2, MAX_BACKOFF);
+		nextConnectAttempt = System.currentTimeMillis() + backoff;
+		reconnects++;
+	}
+
+	public synchronized boolean isConnectDue(long now) {
+		return status == Status.DISCONNECTED && now >= nextConnectAttempt;
+	}
+
+	public void setSensor(NmeaMultiplexSensor sensor, int sourceId) {
+		this.sensor = sensor;
+		this.sourceId = sourceId;
+		this.framer = new NmeaFramer(sensor, sourceId);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized Status getStatus() {
+		return status;
+	}
+
+	public synchronized long getBackoff() {
+		return backoff;
+	}
+
+	public synchronized Date getLastReceived() {
+		return (lastReceived == 0) ? null : new Date(lastReceived);
+	}
+
+	protected synchronized long getLastReceivedTime() {
+		return lastReceived;
+	}
+
+	public synchronized long getReceivedBytes() {
+		return receivedBytes;
+	}
+
+	public long getReceivedLines() {
+		return framer.getFrames();
+	}
+
+	public long getInvalidChecksums() {
+		return framer.getInvalidChecksums();
+	}
+
+	/**
+	 * @return number of complete AIS messages checked for duplicates
+	 */
+	public long getAisMessages() {
+		DuplicateFilter filter = sensor.getDuplicateFilter();
+		return (filter == null) ? 0 : filter.getReceived(sourceId);
+	}
+
+	/**
+	 * @return number of AIS messages received first from this source
+	 */
+	public long getUniqueAisMessages() {
+		DuplicateFilter filter = sensor.getDuplicateFilter();
+		return (filter == null) ? 0 : filter.getUnique(sourceId);
+	}
+
+	public int getSourceId() {
+		return sourceId;
+	}
+
+	public synchronized int getReconnects() {
+		return reconnects;
+	}
+
+	public long getReconnectInterval() {
+		return reconnectInterval;
+	}
+
+	public void setReconnectInterval(long reconnectInterval) {
+		this.reconnectInterval = reconnectInterval;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+import dk.frv.enav.ins.nmea.NmeaSensor.Status;
+
+/**
+ * Non-blocking TCP client NMEA source
+ */
+public class NmeaTcpSource extends NmeaChannelSource {
+
+	private static final Logger LOG = Logger.getLogger(NmeaTcpSource.class);
+
+	private static final long TCP_READ_TIMEOUT = 60000; // 1 min
+	private static final long TCP_CONNECT_TIMEOUT = 10000; // 10 sec
+
+	private String hostname;
+	private int port;
+	private ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+	private OutputStream outputStream = new QueueOutputStream();
+
+	public NmeaTcpSource(String hostname, int port) {
+		super("tcp://" + hostname + ":" + port);
+		this.hostname = hostname;
+		this.port = port;
+	}
+
+	@Override
+	public void open(Selector selector) throws IOException {
+		// Never leave a channel of an earlier attempt behind
+		close();
+		SocketChannel socketChannel = SocketChannel.open();
+		channel = socketChannel;
+		socketChannel.configureBlocking(false);
+		socketChannel.socket().setKeepAlive(true);
+		if (socketChannel.connect(new InetSocketAddress(hostname, port))) {
+			key = socketChannel.register(selector, SelectionKey.OP_READ, this);
+			established();
+		} else {
+			key = socketChannel.register(selector, SelectionKey.OP_CONNECT, this);
+			connecting(TCP_CONNECT_TIMEOUT);
+		}
+	}
+
+	@Override
+	public void handleKey(SelectionKey key) throws IOException {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+		if (key.isConnectable()) {
+			if (!socketChannel.finishConnect()) {
+				return;
+			}
+			key.interestOps(SelectionKey.OP_READ);
+			established();
+		}
+		if (key.isValid() && key.isReadable()) {
+			int count = socketChannel.read(readBuffer);
+			if (count < 0) {
+				throw new IOException("Connection closed by peer");
+			}
+			if (count > 0) {
+				consumeReadBuffer();
+			}
+		}
+		if (key.isValid() && key.isWritable()) {
+			flushWrites(socketChannel);
+		}
+	}
+
+	private void established() {
+		connected();
+		LOG.info("NMEA source connected " + name);
+		updateInterest();
+	}
+
+	private void flushWrites(SocketChannel socketChannel) throws IOException {
+		ByteBuffer buf;
+		while ((buf = writeQueue.peek()) != null) {
+			socketChannel.write(buf);
+			if (buf.hasRemaining()) {
+				return;
+			}
+			writeQueue.poll();
+		}
+		key.interestOps(SelectionKey.OP_READ);
+	}
+
+	/**
+	 * Enable write interest if there is pending output. Called from the
+	 * selector thread.
+	 */
+	public void updateInterest() {
+		if (key != null && key.isValid() && !writeQueue.isEmpty() && getStatus() == Status.CONNECTED) {
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	@Override
+	public void checkTimeout(long now) {
+		if (isConnectTimedOut(now)) {
+			fail("Connect timeout");
+		} else if (getStatus() == Status.CONNECTED && now - getLastReceivedTime() > TCP_READ_TIMEOUT) {
+			fail("Read timeout");
+		}
+	}
+
+	@Override
+	public void close() {
+		super.close();
+		writeQueue.clear();
+	}
+
+	/**
+	 * Stream used for sending. Bytes are queued and written by the selector
+	 * thread.
+	 *
+	 * @return output stream or null if not connected
+	 */
+	public OutputStream getOutputStream() {
+		if (getStatus() != Status.CONNECTED) {
+			return null;
+		}
+		return outputStream;
+	}
+
+	private class QueueOutputStream extends OutputStream {
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (getStatus() != Status.CONNECTED) {
+				throw new IOException("Not connected");
+			}
+			byte[] copy = new byte[len];
+			System.arraycopy(b, off, copy, 0, len);
+			writeQueue.add(ByteBuffer.wrap(copy));
+			sensor.wakeup();
+		}
+	}
+
+}
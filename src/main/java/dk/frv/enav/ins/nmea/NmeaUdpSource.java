@@ -0,0 +1,81 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import org.apache.log4j.Logger;
+
+/**
+ * UDP NMEA source listening for datagrams on a local port
+ */
+public class NmeaUdpSource extends NmeaChannelSource {
+
+	private static final Logger LOG = Logger.getLogger(NmeaUdpSource.class);
+
+	private String bindAddress;
+	private int port;
+
+	public NmeaUdpSource(String bindAddress, int port) {
+		super("udp://" + ((bindAddress == null) ? "" : bindAddress) + ":" + port);
+		this.bindAddress = bindAddress;
+		this.port = port;
+	}
+
+	@Override
+	public void open(Selector selector) throws IOException {
+		close();
+		DatagramChannel datagramChannel = DatagramChannel.open();
+		channel = datagramChannel;
+		datagramChannel.configureBlocking(false);
+		InetSocketAddress address = (bindAddress == null) ? new InetSocketAddress(port) : new InetSocketAddress(
+				bindAddress, port);
+		datagramChannel.socket().setReuseAddress(true);
+		datagramChannel.socket().bind(address);
+		key = datagramChannel.register(selector, SelectionKey.OP_READ, this);
+		connected();
+		LOG.info("NMEA source listening " + name);
+	}
+
+	@Override
+	public void handleKey(SelectionKey key) throws IOException {
+		DatagramChannel datagramChannel = (DatagramChannel) key.channel();
+		while (datagramChannel.receive(readBuffer) != null) {
+			// Datagrams always contain whole sentences
+			readBuffer.put((byte) '\n');
+			consumeReadBuffer();
+		}
+	}
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Sparse index from Gatehouse timestamp to byte offset in an NMEA log. An
+ * entry is made for the first timestamp in every interval. The index is cached
+ * on disk next to the log and rebuilt if the log changes.
+ */
+public class ReplayIndex {
+
+	private static final Logger LOG = Logger.getLogger(ReplayIndex.class);
+
+	private static final int MAGIC = 0x4e49445a;
+	private static final int VERSION = 1;
+	public static final String SUFFIX = ".idx";
+	public static final long DEFAULT_INTERVAL = 10000; // 10 sec
+
+	private long logLength;
+	private long logModified;
+	private long interval;
+	private long[] times = new long[1024];
+	private long[] offsets = new long[1024];
+	private int size = 0;
+	private long endTime = -1;
+
+	private ReplayIndex(long logLength, long logModified, long interval) {
+		this.logLength = logLength;
+		this.logModified = logModified;
+		this.interval = interval;
+	}
+
+	/**
+	 * Get index for log. Loaded from cache if valid, otherwise built by
+	 * scanning the log and saved.
+	 * 
+	 * @param log
+	 * @param reader
+	 *            reader on the log, position is restored
+	 * @return
+	 * @throws IOException
+	 */
+	public static ReplayIndex get(File log, MappedLineReader reader) throws IOException {
+		File indexFile = new File(log.getPath() + SUFFIX);
+		ReplayIndex index = load(indexFile, log);
+		if (index != null) {
+			return index;
+		}
+		long start = System.currentTimeMillis();
+		index = build(reader, log.length(), log.lastModified(), DEFAULT_INTERVAL);
+		LOG.info("Built replay index for " + log + " with " + index.size + " entries in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		try {
+			index.save(indexFile);
+		} catch (IOException e) {
+			LOG.warn("Could not save replay index " + indexFile + ": " + e.getMessage());
+		}
+		return index;
+	}
+
+	/**
+	 * Build index by scanning all lines
+	 * 
+	 * @param reader
+	 * @param logLength
+	 * @param logModified
+	 * @param interval
+	 * @return
+	 * @throws IOException
+	 */
+	public static ReplayIndex build(MappedLineReader reader, long logLength, long logModified, long interval)
+			throws IOException {
+		ReplayIndex index = new ReplayIndex(logLength, logModified, interval);
+		long saved = reader.position();
+		reader.seek(0);
+		byte[] line = new byte[NmeaFramer.MAX_FRAME_LENGTH];
+		long lineStart = 0;
+		long nextEntry = Long.MIN_VALUE;
+		int len;
+		while ((len = reader.readLine(line)) >= 0) {
+			long time = NmeaReplayEngine.parseTimestamp(line, 0, len);
+			if (time >= 0) {
+				if (time >= nextEntry) {
+					index.add(time, lineStart);
+					nextEntry = time + interval;
+				}
+				index.endTime = time;
+			}
+			lineStart = reader.position();
+		}
+		reader.seek(saved);
+		return index;
+	}
+
+	private void add(long time, long offset) {
+		if (size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		times[size] = time;
+		offsets[size] = offset;
+		size++;
+	}
+
+	/**
+	 * Load cached index
+	 * 
+	 * @param indexFile
+	 * @param log
+	 * @return index or null if missing or not matching log
+	 */
+	public static ReplayIndex load(File indexFile, File log) {
+		if (!indexFile.exists()) {
+			return null;
+		}
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			long logLength = in.readLong();
+			long logModified = in.readLong();
+			if (logLength != log.length() || logModified != log.lastModified()) {
+				LOG.info("Replay index " + indexFile + " is outdated");
+				return null;
+			}
+			ReplayIndex index = new ReplayIndex(logLength, logModified, in.readLong());
+			index.endTime = in.readLong();
+			int size = in.readInt();
+			index.times = new long[Math.max(size, 1)];
+			index.offsets = new long[Math.max(size, 1)];
+			for (int i = 0; i < size; i++) {
+				index.times[i] = in.readLong();
+				index.offsets[i] = in.readLong();
+			}
+			index.size = size;
+			return index;
+		} catch (IOException e) {
+			LOG.error("Failed to read replay index " + indexFile + ": " + e.getMessage());
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Save index to file
+	 * 
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public void save(File indexFile) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(logLength);
+			out.writeLong(logModified);
+			out.writeLong(interval);
+			out.writeLong(endTime);
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				out.writeLong(times[i]);
+				out.writeLong(offsets[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Find offset to start reading from to reach the given time. Logs are
+	 * assumed to be in time order.
+	 * 
+	 * @param time
+	 * @return offset of the last entry not after time, or 0
+	 */
+	public long floorOffset(long time) {
+		int low = 0;
+		int high = size - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] <= time) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return (found < 0) ? 0 : offsets[found];
+	}
+
+	/**
+	 * @return first timestamp in log or -1 if none
+	 */
+	public long getStartTime() {
+		return (size == 0) ? -1 : times[0];
+	}
+
+	/**
+	 * @return last timestamp in log or -1 if none
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Time index of a compressed log segment written by {@link NmeaRecorder}. The
+ * segment consists of concatenated gzip members each starting with a
+ * timestamp, and the index holds the time and file offset of every member, so
+ * reading can start at any member. Entries are appended while recording and
+ * a partially written last entry is ignored.
+ */
+public class SegmentIndex {
+
+	private static final int MAGIC = 0x4e475a49;
+	private static final int VERSION = 1;
+	public static final String SUFFIX = ".gzi";
+
+	private long[] times = new long[64];
+	private long[] offsets = new long[64];
+	private int size = 0;
+
+	private SegmentIndex() {
+
+	}
+
+	/**
+	 * Get index file of a segment
+	 * 
+	 * @param segment
+	 * @return
+	 */
+	public static File indexFile(File segment) {
+		return new File(segment.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Load index of a segment
+	 * 
+	 * @param segment
+	 * @return index or null if the segment has no valid index
+	 */
+	public static SegmentIndex load(File segment) {
+		File indexFile = indexFile(segment);
+		if (!indexFile.exists()) {
+			return null;
+		}
+		SegmentIndex index = new SegmentIndex();
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				return null;
+			}
+			while (true) {
+				long time = in.readLong();
+				long offset = in.readLong();
+				index.add(time, offset);
+			}
+		} catch (EOFException e) {
+			return (index.size > 0) ? index : null;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	/**
+	 * Open index file for appending. A new file is created if none exists.
+	 * 
+	 * @param segment
+	 * @return stream to write entries to with {@link #writeEntry}
+	 * @throws IOException
+	 */
+	public static DataOutputStream open(File segment) throws IOException {
+		File indexFile = indexFile(segment);
+		boolean exists = indexFile.length() >= 8;
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile, exists));
+		if (!exists) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.flush();
+		}
+		return out;
+	}
+
+	/**
+	 * Append entry for a member
+	 * 
+	 * @param out
+	 * @param time
+	 *            first timestamp of the member
+	 * @param offset
+	 *            file offset of the member
+	 * @throws IOException
+	 */
+	public static void writeEntry(DataOutputStream out, long time, long offset) throws IOException {
+		out.writeLong(time);
+		out.writeLong(offset);
+		out.flush();
+	}
+
+	private void add(long time, long offset) {
+		if (size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+			offsets = Arrays.copyOf(offsets, size * 2);
+		}
+		times[size] = time;
+		offsets[size] = offset;
+		size++;
+	}
+
+	/**
+	 * Find member to start reading from to reach the given time
+	 * 
+	 * @param time
+	 * @return offset of the last member starting not after time, or 0
+	 */
+	public long floorOffset(long time) {
+		int low = 0;
+		int high = size - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] <= time) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return (found < 0) ? 0 : offsets[found];
+	}
+
+	/**
+	 * @return first timestamp of the segment
+	 */
+	public long getStartTime() {
+		return times[0];
+	}
+
+	/**
+	 * @return first timestamp of the last member
+	 */
+	public long getLastMemberTime() {
+		return times[size - 1];
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads lines from a compressed log or a directory of logs through a
+ * {@link NmeaLogInputStream}. Positions are offsets in the uncompressed
+ * stream. Seeking forward skips data, seeking backwards reopens the log,
+ * except seeking back to the start of the last read line which is cheap.
+ * Logs recorded in segments with a {@link SegmentIndex} can be entered at a
+ * given time, after which positions are relative to where reading started.
+ */
+public class StreamLineReader implements ILineReader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private File file;
+	private NmeaLogInputStream in = null;
+	private byte[] buf = new byte[BUFFER_SIZE];
+	private int bufPos = 0;
+	private int bufLen = 0;
+	private long position = 0;
+	private byte[] lastLine = new byte[NmeaFramer.MAX_FRAME_LENGTH];
+	private int lastLineLen = 0;
+	private long lastLineStart = -1;
+	private long lastLineEnd = -1;
+	private boolean pushedBack = false;
+	private boolean rebased = false;
+
+	public StreamLineReader(File file) throws IOException {
+		this.file = file;
+		reopen();
+	}
+
+	private void reopen() throws IOException {
+		if (in != null) {
+			in.close();
+		}
+		in = new NmeaLogInputStream(file);
+		reset();
+		rebased = false;
+	}
+
+	private void reset() {
+		bufPos = 0;
+		bufLen = 0;
+		position = 0;
+		lastLineStart = -1;
+		pushedBack = false;
+	}
+
+	private boolean fill() throws IOException {
+		bufPos = 0;
+		bufLen = in.read(buf, 0, buf.length);
+		if (bufLen < 0) {
+			bufLen = 0;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int readLine(byte[] out) throws IOException {
+		if (pushedBack) {
+			pushedBack = false;
+			int n = Math.min(lastLineLen, out.length);
+			System.arraycopy(lastLine, 0, out, 0, n);
+			if (n < lastLineLen) {
+				out[n - 1] = '\n';
+			}
+			position = lastLineEnd;
+			return n;
+		}
+		long start = position;
+		int n = 0;
+		boolean cut = false;
+		boolean found = false;
+		while (!found) {
+			if (bufPos >= bufLen && !fill()) {
+				break;
+			}
+			byte b = buf[bufPos++];
+			position++;
+			if (n < out.length) {
+				out[n++] = b;
+			} else {
+				cut = true;
+			}
+			found = (b == '\n');
+		}
+		if (n == 0) {
+			return -1;
+		}
+		if (cut) {
+			out[n - 1] = '\n';
+		}
+		lastLineLen = Math.min(n, lastLine.length);
+		System.arraycopy(out, 0, lastLine, 0, lastLineLen);
+		lastLineStart = start;
+		lastLineEnd = position;
+		return n;
+	}
+
+	@Override
+	public long position() {
+		return position;
+	}
+
+	@Override
+	public void seek(long target) throws IOException {
+		target = Math.max(0, target);
+		if (pushedBack) {
+			if (target == lastLineStart) {
+				return;
+			}
+			pushedBack = false;
+			position = lastLineEnd;
+		}
+		if (target == position && !(target == 0 && rebased)) {
+			return;
+		}
+		if (target == lastLineStart && position == lastLineEnd) {
+			pushedBack = true;
+			position = lastLineStart;
+			return;
+		}
+		if (target < position || (target == 0 && rebased)) {
+			reopen();
+		}
+		lastLineStart = -1;
+		while (position < target) {
+			if (bufPos >= bufLen && !fill()) {
+				return;
+			}
+			int skip = (int) Math.min(bufLen - bufPos, target - position);
+			bufPos += skip;
+			position += skip;
+		}
+	}
+
+	/**
+	 * Start reading at the last indexed member not after the given time. Only
+	 * possible if every file of the log is a segment with an index.
+	 * 
+	 * @param time
+	 * @return true if reading was moved
+	 * @throws IOException
+	 */
+	public boolean seekTime(long time) throws IOException {
+		List<File> files = NmeaLogInputStream.listFiles(file);
+		List<SegmentIndex> indexes = new ArrayList<SegmentIndex>(files.size());
+		for (File segment : files) {
+			SegmentIndex index = SegmentIndex.load(segment);
+			if (index == null) {
+				return false;
+			}
+			indexes.add(index);
+		}
+		if (indexes.isEmpty()) {
+			return false;
+		}
+		int first = 0;
+		while (first + 1 < indexes.size() && indexes.get(first + 1).getStartTime() <= time) {
+			first++;
+		}
+		if (in != null) {
+			in.close();
+		}
+		in = new NmeaLogInputStream(file, first, indexes.get(first).floorOffset(time));
+		reset();
+		rebased = true;
+		return true;
+	}
+
+	@Override
+	public void close() {
+		if (in != null) {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.nmea;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import dk.frv.ais.binary.SixbitException;
+import dk.frv.ais.sentence.SentenceException;
+import dk.frv.ais.sentence.Vdm;
+
+/**
+ * Reassembly of multi sentence VDM messages. Fragments are collected per
+ * source, channel and sequential message id, so interleaved messages from
+ * different stations or channels do not corrupt each other. Incomplete
+ * messages time out and the number of pending messages is bounded. Complete
+ * messages can be checked against a {@link DuplicateFilter} before they are
+ * parsed.
+ */
+public class VdmReassembler {
+
+	private static final Logger LOG = Logger.getLogger(VdmReassembler.class);
+
+	private static final long DEFAULT_TIMEOUT = 10000; // 10 sec
+	private static final int DEFAULT_MAX_PENDING = 1024;
+
+	private long timeout = DEFAULT_TIMEOUT;
+	private int maxPending = DEFAULT_MAX_PENDING;
+	private long completed = 0;
+	private long dropped = 0;
+	private long duplicates = 0;
+	private DuplicateFilter duplicateFilter = null;
+
+	/**
+	 * Pending messages in order of first fragment
+	 */
+	private LinkedHashMap<Long, Fragments> pending = new LinkedHashMap<Long, Fragments>(64, 0.75f, false) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Fragments> eldest) {
+			if (size() > maxPending) {
+				dropped++;
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * Fragments of one message
+	 */
+	private static class Fragments {
+		String[] parts;
+		int received = 0;
+		long created;
+
+		Fragments(int total, long created) {
+			parts = new String[total];
+			this.created = created;
+		}
+	}
+
+	public VdmReassembler() {
+
+	}
+
+	/**
+	 * Add VDM sentence
+	 * 
+	 * @param msg
+	 *            sentence
+	 * @param sourceId
+	 *            id of the source the sentence was received from
+	 * @return the complete VDM or null if waiting for more fragments or the
+	 *         message is a duplicate
+	 * @throws SentenceException
+	 * @throws SixbitException
+	 */
+	public Vdm add(String msg, int sourceId) throws SentenceException, SixbitException {
+		// Locate fields: !AIVDM,total,num,seq,channel,...
+		int f1 = msg.indexOf(',');
+		int f2 = (f1 < 0) ? -1 : msg.indexOf(',', f1 + 1);
+		int f3 = (f2 < 0) ? -1 : msg.indexOf(',', f2 + 1);
+		int f4 = (f3 < 0) ? -1 : msg.indexOf(',', f3 + 1);
+		int f5 = (f4 < 0) ? -1 : msg.indexOf(',', f4 + 1);
+		if (f5 < 0) {
+			throw new SentenceException("Too few fields in VDM sentence");
+		}
+		int total = parseDigits(msg, f1 + 1, f2);
+		int num = parseDigits(msg, f2 + 1, f3);
+		if (total < 1 || num < 1 || num > total) {
+			throw new SentenceException("Invalid fragment count or number in VDM sentence");
+		}
+
+		// Single sentence message
+		if (total == 1) {
+			if (isDuplicate(sourceId, msg)) {
+				return null;
+			}
+			Vdm vdm = new Vdm();
+			vdm.parse(msg);
+			synchronized (this) {
+				completed++;
+			}
+			return vdm;
+		}
+
+		int seq = (f4 - f3 == 2) ? msg.charAt(f3 + 1) - '0' : 0xff;
+		int channel = (f5 - f4 == 2) ? msg.charAt(f4 + 1) : 0;
+		Long key = ((long) sourceId << 16) | ((channel & 0xff) << 8) | (seq & 0xff);
+
+		String[] parts;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			expire(now);
+			Fragments fragments = pending.get(key);
+			if (fragments != null && (fragments.parts.length != total || fragments.parts[num - 1] != null)) {
+				// Sequence id reused before previous message was completed
+				pending.remove(key);
+				dropped++;
+				fragments = null;
+			}
+			if (fragments == null) {
+				fragments = new Fragments(total, now);
+				pending.put(key, fragments);
+			}
+			fragments.parts[num - 1] = msg;
+			fragments.received++;
+			if (fragments.received < total) {
+				return null;
+			}
+			pending.remove(key);
+			completed++;
+			parts = fragments.parts;
+		}
+
+		if (isDuplicate(sourceId, parts)) {
+			return null;
+		}
+
+		// Parse fragments in order
+		Vdm vdm = new Vdm();
+		for (String part : parts) {
+			vdm.parse(part);
+		}
+		return vdm;
+	}
+
+	/**
+	 * Check complete message with the duplicate filter. The hash covers the
+	 * payload of all fragments, the fill bits of the last and whether it is an
+	 * own message.
+	 * 
+	 * @param sourceId
+	 * @param parts
+	 *            all fragments in order
+	 * @return true if the message is a duplicate
+	 */
+	private boolean isDuplicate(int sourceId, String... parts) {
+		if (duplicateFilter == null) {
+			return false;
+		}
+		// VDM or VDO
+		int formatter = parts[0].indexOf(',');
+		long hash = DuplicateFilter.hash(DuplicateFilter.newHash(), parts[0], formatter - 1, formatter);
+		for (String part : parts) {
+			// !AIVDM,total,num,seq,channel,payload,fill*cs
+			int payload = nthComma(part, 5);
+			int fill = (payload < 0) ? -1 : part.indexOf(',', payload + 1);
+			if (fill < 0) {
+				return false;
+			}
+			hash = DuplicateFilter.hash(hash, part, payload + 1, fill);
+			if (part == parts[parts.length - 1] && fill + 1 < part.length()) {
+				hash = DuplicateFilter.hash(hash, part, fill, fill + 2);
+			}
+		}
+		if (!duplicateFilter.isDuplicate(DuplicateFilter.finish(hash), sourceId)) {
+			return false;
+		}
+		synchronized (this) {
+			duplicates++;
+		}
+		return true;
+	}
+
+	private static int nthComma(String msg, int n) {
+		int idx = -1;
+		for (int i = 0; i < n; i++) {
+			idx = msg.indexOf(',', idx + 1);
+			if (idx < 0) {
+				return -1;
+			}
+		}
+		return idx;
+	}
+
+	/**
+	 * Remove messages that have not been completed within timeout
+	 * 
+	 * @param now
+	 */
+	private void expire(long now) {
+		Iterator<Fragments> it = pending.values().iterator();
+		while (it.hasNext()) {
+			Fragments fragments = it.next();
+			if (now - fragments.created <= timeout) {
+				break;
+			}
+			it.remove();
+			dropped++;
+			if (LOG.isDebugEnabled()) {
+				LOG.debug("Incomplete VDM timed out after " + fragments.received + " of " + fragments.parts.length
+						+ " fragments");
+			}
+		}
+	}
+
+	private static int parseDigits(String msg, int start, int end) {
+		if (start >= end) {
+			return -1;
+		}
+		int val = 0;
+		for (int i = start; i < end; i++) {
+			char c = msg.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			val = val * 10 + (c - '0');
+		}
+		return val;
+	}
+
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	public synchronized long getCompleted() {
+		return completed;
+	}
+
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return number of complete messages discarded as duplicates
+	 */
+	public synchronized long getDuplicates() {
+		return duplicates;
+	}
+
+	public DuplicateFilter getDuplicateFilter() {
+		return duplicateFilter;
+	}
+
+	/**
+	 * Set filter checking complete messages, possibly shared with other
+	 * reassemblers
+	 * 
+	 * @param duplicateFilter
+	 *            filter or null to pass all messages
+	 */
+	public void setDuplicateFilter(DuplicateFilter duplicateFilter) {
+		this.duplicateFilter = duplicateFilter;
+	}
+
+	public synchronized long getTimeout() {
+		return timeout;
+	}
+
+	public synchronized void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public synchronized int getMaxPending() {
+		return maxPending;
+	}
+
+	public synchronized void setMaxPending(int maxPending) {
+		this.maxPending = maxPending;
+	}
+
+}
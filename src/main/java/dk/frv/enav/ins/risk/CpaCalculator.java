@@ -0,0 +1,224 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.risk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import dk.frv.enav.ins.ais.KinematicColumns;
+import dk.frv.enav.ins.common.util.LongObjectMap;
+
+/**
+ * Computes closest point of approach between own ship and the targets of a
+ * copy of the kinematic columns. Targets out of range are discarded first,
+ * the remaining are evaluated in parallel on a fork-join pool.
+ * <p>
+ * Positions are projected on a plane through own ship in nautical miles and
+ * targets are moved along their course from the time of their last report.
+ * Instances keep work arrays between evaluations and must be used by one
+ * thread at a time.
+ */
+public class CpaCalculator {
+
+	// Targets evaluated by one task
+	private static final int TASK_SIZE = 1024;
+
+	private final ForkJoinPool pool;
+	private final double range;
+	private final double cpaLimit;
+	private final double tcpaLimit;
+
+	private int[] indexes = new int[0];
+	private float[] ranges = new float[0];
+	private float[] cpas = new float[0];
+	private float[] tcpas = new float[0];
+
+	/**
+	 * @param pool
+	 *            pool to evaluate on
+	 * @param range
+	 *            max range of targets to evaluate in nautical miles
+	 * @param cpaLimit
+	 *            targets with a closer point of approach are dangerous, in
+	 *            nautical miles
+	 * @param tcpaLimit
+	 *            only approaches within this time are dangerous, in minutes
+	 */
+	public CpaCalculator(ForkJoinPool pool, double range, double cpaLimit, double tcpaLimit) {
+		this.pool = pool;
+		this.range = range;
+		this.cpaLimit = cpaLimit;
+		this.tcpaLimit = tcpaLimit;
+	}
+
+	/**
+	 * Evaluate own ship against the targets
+	 * 
+	 * @param columns
+	 *            copy of the kinematic columns
+	 * @param lat
+	 *            latitude of own ship
+	 * @param lon
+	 *            longitude of own ship
+	 * @param sog
+	 *            speed of own ship in knots
+	 * @param cog
+	 *            course of own ship in degrees
+	 * @param now
+	 *            time in milliseconds
+	 * @return
+	 */
+	public CpaEvaluation evaluate(KinematicColumns columns, double lat, double lon, double sog, double cog, long now) {
+		ensureCapacity(columns.size());
+		int count = columns.withinRange(lat, lon, range, indexes);
+
+		double cogR = Math.toRadians(cog);
+		CpaTask task = new CpaTask(columns, lat, lon, sog * Math.sin(cogR), sog * Math.cos(cogR), now, 0, count);
+		if (count <= TASK_SIZE) {
+			task.compute();
+		} else {
+			pool.invoke(task);
+		}
+
+		long[] mmsi = columns.getMmsi();
+		LongObjectMap<CpaResult> results = new LongObjectMap<CpaResult>(count);
+		List<CpaResult> dangerous = new ArrayList<CpaResult>();
+		for (int k = 0; k < count; k++) {
+			CpaResult result = new CpaResult(mmsi[indexes[k]], now, ranges[k], cpas[k], tcpas[k]);
+			results.put(result.getMmsi(), result);
+			if (cpas[k] <= cpaLimit && tcpas[k] >= 0 && tcpas[k] <= tcpaLimit) {
+				dangerous.add(result);
+			}
+		}
+		Collections.sort(dangerous);
+		return new CpaEvaluation(now, results, dangerous);
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (indexes.length >= capacity) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, indexes.length * 2);
+		indexes = new int[newCapacity];
+		ranges = new float[newCapacity];
+		cpas = new float[newCapacity];
+		tcpas = new float[newCapacity];
+	}
+
+	public double getRange() {
+		return range;
+	}
+
+	public double getCpaLimit() {
+		return cpaLimit;
+	}
+
+	public double getTcpaLimit() {
+		return tcpaLimit;
+	}
+
+	/**
+	 * Evaluation of the targets found in range from one index to another
+	 */
+	private class CpaTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final KinematicColumns columns;
+		private final double ownLat;
+		private final double ownLon;
+		// Velocity of own ship in knots east and north
+		private final double ownVx;
+		private final double ownVy;
+		private final long now;
+		private final int from;
+		private final int to;
+
+		CpaTask(KinematicColumns columns, double ownLat, double ownLon, double ownVx, double ownVy, long now, int from,
+				int to) {
+			this.columns = columns;
+			this.ownLat = ownLat;
+			this.ownLon = ownLon;
+			this.ownVx = ownVx;
+			this.ownVy = ownVy;
+			this.now = now;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > TASK_SIZE) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new CpaTask(columns, ownLat, ownLon, ownVx, ownVy, now, from, mid), new CpaTask(columns,
+						ownLat, ownLon, ownVx, ownVy, now, mid, to));
+				return;
+			}
+			double[] lat = columns.getLat();
+			double[] lon = columns.getLon();
+			float[] sog = columns.getSog();
+			float[] cog = columns.getCog();
+			long[] time = columns.getTime();
+			// Minutes of arc are nautical miles
+			double lonScale = Math.cos(Math.toRadians(ownLat)) * 60.0;
+			for (int k = from; k < to; k++) {
+				int i = indexes[k];
+				double cogR = Math.toRadians(cog[i]);
+				double vx = sog[i] * Math.sin(cogR);
+				double vy = sog[i] * Math.cos(cogR);
+				// Move target to now
+				double hours = Math.max(now - time[i], 0) / 3600000.0;
+				double dLon = lon[i] - ownLon;
+				if (dLon > 180) {
+					dLon -= 360;
+				} else if (dLon < -180) {
+					dLon += 360;
+				}
+				double x = dLon * lonScale + vx * hours;
+				double y = (lat[i] - ownLat) * 60.0 + vy * hours;
+				// Relative motion
+				double rvx = vx - ownVx;
+				double rvy = vy - ownVy;
+				double v2 = rvx * rvx + rvy * rvy;
+				double t = (v2 < 1e-9) ? 0 : -(x * rvx + y * rvy) / v2;
+				double cx = x + rvx * t;
+				double cy = y + rvy * t;
+				ranges[k] = (float) Math.sqrt(x * x + y * y);
+				cpas[k] = (float) Math.sqrt(cx * cx + cy * cy);
+				tcpas[k] = (float) (t * 60.0);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.risk;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.log4j.Logger;
+
+import com.bbn.openmap.MapHandlerChild;
+
+import dk.frv.enav.ins.EeINS;
+import dk.frv.enav.ins.ais.AisHandler;
+import dk.frv.enav.ins.ais.KinematicColumns;
+import dk.frv.enav.ins.ais.KinematicStore;
+import dk.frv.enav.ins.common.util.LongSet;
+import dk.frv.enav.ins.gps.GnssTime;
+import dk.frv.enav.ins.gps.GpsData;
+import dk.frv.enav.ins.gps.GpsHandler;
+import dk.frv.enav.ins.settings.NavSettings;
+
+/**
+ * On board collision assessment. Own ship is evaluated against all vessel
+ * targets in range once a second. Evaluation is skipped when neither own
+ * ship nor any target has changed since the last one. Listeners are alerted
+ * when the set of dangerous targets changes.
+ */
+public class CpaEngine extends MapHandlerChild implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(CpaEngine.class);
+
+	private static final long INTERVAL = 1000;
+
+	private final CpaCalculator calculator;
+	private volatile AisHandler aisHandler = null;
+	private volatile GpsHandler gpsHandler = null;
+	private volatile CpaEvaluation evaluation = CpaEvaluation.empty(0);
+	private List<ICpaAlarmListener> listeners = new CopyOnWriteArrayList<ICpaAlarmListener>();
+	// State of last evaluation
+	private KinematicColumns columns = null;
+	private long lastVersion = -1;
+	private GpsData lastOwn = null;
+
+	public CpaEngine() {
+		NavSettings navSettings = EeINS.getSettings().getNavSettings();
+		int threads = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
+		calculator = new CpaCalculator(new ForkJoinPool(threads), navSettings.getCpaRange(),
+				navSettings.getCpaLimit(), navSettings.getTcpaLimit());
+		EeINS.startThread(this, "CpaEngine");
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			EeINS.sleep(INTERVAL);
+			try {
+				evaluate();
+			} catch (RuntimeException e) {
+				LOG.error("CPA evaluation failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Evaluate own ship against the targets if anything has changed
+	 */
+	private void evaluate() {
+		AisHandler aisHandler = this.aisHandler;
+		GpsHandler gpsHandler = this.gpsHandler;
+		if (aisHandler == null || gpsHandler == null) {
+			return;
+		}
+		long now = GnssTime.getInstance().getTime();
+		GpsData own = gpsHandler.getCurrentData();
+		if (own.isBadPosition() || own.getPosition() == null) {
+			lastOwn = null;
+			publish(CpaEvaluation.empty(now));
+			return;
+		}
+		KinematicStore kinematics = aisHandler.getKinematics();
+		long version = kinematics.getVersion();
+		if (version == lastVersion && isSameOwnState(own)) {
+			return;
+		}
+		columns = kinematics.copy(columns);
+		lastVersion = version;
+		lastOwn = own;
+
+		double sog = (own.getSog() == null) ? 0 : own.getSog();
+		double cog = (own.getCog() == null) ? 0 : own.getCog();
+		publish(calculator.evaluate(columns, own.getPosition().getLatitude(), own.getPosition().getLongitude(), sog,
+				cog, now));
+	}
+
+	private boolean isSameOwnState(GpsData own) {
+		if (lastOwn == null) {
+			return false;
+		}
+		return own.getPosition().equals(lastOwn.getPosition()) && equals(own.getSog(), lastOwn.getSog())
+				&& equals(own.getCog(), lastOwn.getCog());
+	}
+
+	private static boolean equals(Double a, Double b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Make evaluation current and alert listeners if the dangerous targets
+	 * have changed
+	 * 
+	 * @param newEvaluation
+	 */
+	private void publish(CpaEvaluation newEvaluation) {
+		List<CpaResult> oldDangerous = evaluation.getDangerous();
+		List<CpaResult> dangerous = newEvaluation.getDangerous();
+		evaluation = newEvaluation;
+
+		LongSet oldMmsis = new LongSet(oldDangerous.size());
+		for (CpaResult result : oldDangerous) {
+			oldMmsis.add(result.getMmsi());
+		}
+		boolean changed = oldDangerous.size() != dangerous.size();
+		for (CpaResult result : dangerous) {
+			if (!oldMmsis.contains(result.getMmsi())) {
+				LOG.info("CPA alarm: " + result);
+				changed = true;
+			}
+		}
+		if (!changed) {
+			return;
+		}
+		for (ICpaAlarmListener listener : listeners) {
+			listener.dangerousTargetsChanged(dangerous);
+		}
+	}
+
+	/**
+	 * @return current evaluation
+	 */
+	public CpaEvaluation getEvaluation() {
+		return evaluation;
+	}
+
+	/**
+	 * @return dangerous targets of current evaluation, most urgent first
+	 */
+	public List<CpaResult> getDangerousTargets() {
+		return evaluation.getDangerous();
+	}
+
+	/**
+	 * @param mmsi
+	 * @return result of target in current evaluation or null if not in range
+	 */
+	public CpaResult getResult(long mmsi) {
+		return evaluation.getResult(mmsi);
+	}
+
+	public void addAlarmListener(ICpaAlarmListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeAlarmListener(ICpaAlarmListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void findAndInit(Object obj) {
+		if (aisHandler == null && obj instanceof AisHandler) {
+			aisHandler = (AisHandler) obj;
+		} else if (gpsHandler == null && obj instanceof GpsHandler) {
+			gpsHandler = (GpsHandler) obj;
+		}
+	}
+
+	@Override
+	public void findAndUndo(Object obj) {
+		if (obj == aisHandler) {
+			aisHandler = null;
+		} else if (obj == gpsHandler) {
+			gpsHandler = null;
+		}
+	}
+
+}
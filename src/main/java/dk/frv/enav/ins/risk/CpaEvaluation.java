@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.risk;
+
+import java.util.Collections;
+import java.util.List;
+
+import dk.frv.enav.ins.common.util.LongObjectMap;
+
+/**
+ * Result of evaluating own ship against the targets in range at a given
+ * time. Not changed after creation.
+ */
+public class CpaEvaluation {
+
+	private final long time;
+	private final LongObjectMap<CpaResult> results;
+	private final List<CpaResult> dangerous;
+
+	/**
+	 * @param time
+	 *            time of evaluation in milliseconds
+	 * @param results
+	 *            results by MMSI of all targets evaluated
+	 * @param dangerous
+	 *            dangerous targets, most urgent first
+	 */
+	public CpaEvaluation(long time, LongObjectMap<CpaResult> results, List<CpaResult> dangerous) {
+		this.time = time;
+		this.results = results;
+		this.dangerous = Collections.unmodifiableList(dangerous);
+	}
+
+	/**
+	 * @return evaluation with no targets
+	 */
+	public static CpaEvaluation empty(long time) {
+		return new CpaEvaluation(time, new LongObjectMap<CpaResult>(), Collections.<CpaResult> emptyList());
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @param mmsi
+	 * @return result of target or null if not evaluated
+	 */
+	public CpaResult getResult(long mmsi) {
+		return results.get(mmsi);
+	}
+
+	/**
+	 * @return dangerous targets, most urgent first
+	 */
+	public List<CpaResult> getDangerous() {
+		return dangerous;
+	}
+
+	/**
+	 * @return number of targets evaluated
+	 */
+	public int size() {
+		return results.size();
+	}
+
+}
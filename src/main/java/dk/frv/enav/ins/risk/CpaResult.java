@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.risk;
+
+/**
+ * Closest point of approach between own ship and a target as evaluated at a
+ * given time. Both vessels are assumed to keep course and speed.
+ */
+public class CpaResult implements Comparable<CpaResult> {
+
+	private final long mmsi;
+	private final long time;
+	private final double range;
+	private final double cpa;
+	private final double tcpa;
+
+	/**
+	 * @param mmsi
+	 * @param time
+	 *            time of evaluation in milliseconds
+	 * @param range
+	 *            range at time of evaluation in nautical miles
+	 * @param cpa
+	 *            distance at closest point of approach in nautical miles
+	 * @param tcpa
+	 *            minutes from time of evaluation to closest point of approach,
+	 *            negative if passed
+	 */
+	public CpaResult(long mmsi, long time, double range, double cpa, double tcpa) {
+		this.mmsi = mmsi;
+		this.time = time;
+		this.range = range;
+		this.cpa = cpa;
+		this.tcpa = tcpa;
+	}
+
+	public long getMmsi() {
+		return mmsi;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public double getRange() {
+		return range;
+	}
+
+	public double getCpa() {
+		return cpa;
+	}
+
+	public double getTcpa() {
+		return tcpa;
+	}
+
+	/**
+	 * Order by time to closest point of approach, then by distance
+	 */
+	@Override
+	public int compareTo(CpaResult other) {
+		int c = Double.compare(tcpa, other.tcpa);
+		if (c != 0) {
+			return c;
+		}
+		return Double.compare(cpa, other.cpa);
+	}
+
+	@Override
+	public String toString() {
+		return "CpaResult [mmsi=" + mmsi + ", range=" + range + ", cpa=" + cpa + ", tcpa=" + tcpa + "]";
+	}
+
+}
@@ -30,15 +30,14 @@
 package dk.frv.enav.ins.risk;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import dk.frv.enav.common.xml.risk.response.Risk;
 import dk.frv.enav.common.xml.risk.response.RiskList;
 import dk.frv.enav.ins.EeINS;
+import dk.frv.enav.ins.common.util.LongObjectMap;
 import dk.frv.enav.ins.services.shore.ShoreServiceException;
 
 public class RiskHandler implements Runnable {
@@ -49,8 +48,8 @@ public class RiskHandler implements Runnable {
 		HIGH, MEDIUM, LOW, UNKNOWN
 	};
 
-	private Map<Long, RiskList> riskListMap = new HashMap<Long, RiskList>();
-	private static final Object mutex = new Object();
+	// Replaced as a whole when new risk lists are received
+	private volatile LongObjectMap<RiskList> riskListMap = new LongObjectMap<RiskList>();
 
 	public RiskHandler() {
 		super();
@@ -68,12 +67,11 @@ public class RiskHandler implements Runnable {
 			} catch (ShoreServiceException e) {
 				LOG.warn("cannot get risk indexes", e);
 			}
-			synchronized (mutex) {
-				riskListMap.clear();
-				for (RiskList list : riskLists) {
-					riskListMap.put(list.getMmsi().longValue(), list);
-				}
+			LongObjectMap<RiskList> newMap = new LongObjectMap<RiskList>(riskLists.size());
+			for (RiskList list : riskLists) {
+				newMap.put(list.getMmsi().longValue(), list);
 			}
+			riskListMap = newMap;
 			EeINS.sleep(10000);
 		}
 
@@ -88,17 +86,17 @@ public class RiskHandler implements Runnable {
 			EeINS.startRiskHandler();
 		} else {
 			// stopping, clear the index map as it wont be updated any longer.
-			riskListMap.clear();
+			riskListMap = new LongObjectMap<RiskList>();
 		}
 
 	}
 
-	public RiskList getRiskList(Long mmsi) {
+	public RiskList getRiskList(long mmsi) {
 		return riskListMap.get(mmsi);
 
 	}
 
-	public Risk getRiskLevel(Long mmsi) {
+	public Risk getRiskLevel(long mmsi) {
 		
 		RiskList list = riskListMap.get(mmsi);
 		
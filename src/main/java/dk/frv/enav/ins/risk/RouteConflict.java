@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.risk;
+
+import java.util.Date;
+
+/**
+ * First point where the intended routes of two vessels come closer than the
+ * conflict distance at the same time. Own ship is given MMSI
+ * {@link RouteConflictDetector#OWN_SHIP}.
+ */
+public class RouteConflict implements Comparable<RouteConflict> {
+
+	private final long mmsiA;
+	private final long mmsiB;
+	private final long time;
+	private final double lat;
+	private final double lon;
+	private final double distance;
+
+	/**
+	 * @param mmsiA
+	 *            lowest MMSI of the two
+	 * @param mmsiB
+	 * @param time
+	 *            time of closest approach in milliseconds
+	 * @param lat
+	 *            latitude midway between the vessels
+	 * @param lon
+	 *            longitude midway between the vessels
+	 * @param distance
+	 *            distance between the vessels in nautical miles
+	 */
+	public RouteConflict(long mmsiA, long mmsiB, long time, double lat, double lon, double distance) {
+		this.mmsiA = Math.min(mmsiA, mmsiB);
+		this.mmsiB = Math.max(mmsiA, mmsiB);
+		this.time = time;
+		this.lat = lat;
+		this.lon = lon;
+		this.distance = distance;
+	}
+
+	public long getMmsiA() {
+		return mmsiA;
+	}
+
+	public long getMmsiB() {
+		return mmsiB;
+	}
+
+	/**
+	 * @param mmsi
+	 * @return if vessel is one of the two
+	 */
+	public boolean involves(long mmsi) {
+		return mmsiA == mmsi || mmsiB == mmsi;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public double getLat() {
+		return lat;
+	}
+
+	public double getLon() {
+		return lon;
+	}
+
+	public double getDistance() {
+		return distance;
+	}
+
+	/**
+	 * Order by time
+	 */
+	@Override
+	public int compareTo(RouteConflict other) {
+		return (time < other.time) ? -1 : ((time == other.time) ? 0 : 1);
+	}
+
+	@Override
+	public String toString() {
+		return "RouteConflict [mmsiA=" + mmsiA + ", mmsiB=" + mmsiB + ", time=" + new Date(time) + ", lat=" + lat
+				+ ", lon=" + lon + ", distance=" + distance + "]";
+	}
+
+}
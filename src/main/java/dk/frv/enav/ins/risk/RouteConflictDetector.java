@@ -0,0 +1,399 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.risk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.log4j.Logger;
+
+import com.bbn.openmap.MapHandlerChild;
+
+import dk.frv.enav.ins.EeINS;
+import dk.frv.enav.ins.ais.AisHandler;
+import dk.frv.enav.ins.ais.AisIntendedRoute;
+import dk.frv.enav.ins.ais.AisTarget;
+import dk.frv.enav.ins.ais.AisTargetChanges;
+import dk.frv.enav.ins.ais.IAisTargetBatchListener;
+import dk.frv.enav.ins.ais.VesselTarget;
+import dk.frv.enav.ins.common.util.LongObjectMap;
+import dk.frv.enav.ins.common.util.LongSet;
+import dk.frv.enav.ins.gps.GnssTime;
+import dk.frv.enav.ins.gps.GpsData;
+import dk.frv.enav.ins.gps.GpsHandler;
+import dk.frv.enav.ins.route.ActiveRoute;
+import dk.frv.enav.ins.route.IRoutesUpdateListener;
+import dk.frv.enav.ins.route.RouteManager;
+import dk.frv.enav.ins.route.RoutesUpdateEvent;
+
+/**
+ * Detects conflicts between the intended routes broadcast by vessels and the
+ * active route of own ship. Routes are kept in a space-time index and are
+ * evaluated against the index when received, changed or expired. The routes
+ * changed since the last evaluation are evaluated in parallel.
+ */
+public class RouteConflictDetector extends MapHandlerChild implements IAisTargetBatchListener, IRoutesUpdateListener,
+		Runnable {
+
+	private static final Logger LOG = Logger.getLogger(RouteConflictDetector.class);
+
+	/**
+	 * MMSI used for own ship
+	 */
+	public static final long OWN_SHIP = 0;
+
+	private static final long INTERVAL = 1000;
+	// Time between updates of own route as the ETA's change
+	private static final long OWN_ROUTE_INTERVAL = 60 * 1000; // One minute
+	// Routes evaluated by one task
+	private static final int TASK_SIZE = 16;
+
+	private final ForkJoinPool pool;
+	private final RouteConflictIndex index;
+	private volatile AisHandler aisHandler = null;
+	private volatile GpsHandler gpsHandler = null;
+	private volatile RouteManager routeManager = null;
+	private List<IRouteConflictListener> listeners = new CopyOnWriteArrayList<IRouteConflictListener>();
+
+	// Routes received and removed since last evaluation, guarded by pending
+	private final LongObjectMap<AisIntendedRoute> pending = new LongObjectMap<AisIntendedRoute>();
+	private final LongSet pendingRemoved = new LongSet();
+	private volatile boolean ownRouteChanged = false;
+	// Route of each target as last seen by the listener
+	private final LongObjectMap<AisIntendedRoute> knownRoutes = new LongObjectMap<AisIntendedRoute>();
+
+	// Conflicts by pair of MMSI's, changed by the detector thread only
+	private final LongObjectMap<RouteConflict> conflicts = new LongObjectMap<RouteConflict>();
+	private volatile List<RouteConflict> conflictList = Collections.emptyList();
+	private long lastOwnRoute = 0;
+
+	public RouteConflictDetector() {
+		double distance = EeINS.getSettings().getNavSettings().getRouteConflictDistance();
+		index = new RouteConflictIndex(distance);
+		pool = new ForkJoinPool(Math.max(Runtime.getRuntime().availableProcessors() - 1, 1));
+		EeINS.startThread(this, "RouteConflictDetector");
+	}
+
+	/**
+	 * Note the targets whose intended route has been received, cancelled or
+	 * expired
+	 */
+	@Override
+	public void targetsChanged(AisTargetChanges changes) {
+		for (AisTarget aisTarget : changes.getRemoved()) {
+			if (knownRoutes.remove(aisTarget.getMmsi()) != null) {
+				routeRemoved(aisTarget.getMmsi());
+			}
+		}
+		checkRoutes(changes.getAdded());
+		checkRoutes(changes.getUpdated());
+	}
+
+	/**
+	 * Targets are delivered as copies, but the copies of one received route
+	 * share its waypoint list
+	 */
+	private static boolean isSameRoute(AisIntendedRoute route, AisIntendedRoute known) {
+		if (route == null || known == null) {
+			return route == known;
+		}
+		return route.getWaypoints() == known.getWaypoints();
+	}
+
+	private void checkRoutes(List<AisTarget> targets) {
+		for (AisTarget aisTarget : targets) {
+			if (!(aisTarget instanceof VesselTarget)) {
+				continue;
+			}
+			long mmsi = aisTarget.getMmsi();
+			AisIntendedRoute route = ((VesselTarget) aisTarget).getAisRouteData();
+			if (isSameRoute(route, knownRoutes.get(mmsi))) {
+				continue;
+			}
+			if (route == null) {
+				knownRoutes.remove(mmsi);
+				routeRemoved(mmsi);
+			} else {
+				knownRoutes.put(mmsi, route);
+				synchronized (pending) {
+					pending.put(mmsi, route);
+					pendingRemoved.remove(mmsi);
+				}
+			}
+		}
+	}
+
+	private void routeRemoved(long mmsi) {
+		synchronized (pending) {
+			pending.remove(mmsi);
+			pendingRemoved.add(mmsi);
+		}
+	}
+
+	@Override
+	public void routesChanged(RoutesUpdateEvent e) {
+		if (e == RoutesUpdateEvent.ROUTE_ACTIVATED || e == RoutesUpdateEvent.ROUTE_DEACTIVATED
+				|| e == RoutesUpdateEvent.ACTIVE_ROUTE_FINISHED) {
+			ownRouteChanged = true;
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			EeINS.sleep(INTERVAL);
+			try {
+				update();
+			} catch (RuntimeException e) {
+				LOG.error("Route conflict detection failed", e);
+			}
+		}
+	}
+
+	/**
+	 * Apply the route changes to the index and evaluate the changed routes
+	 */
+	private void update() {
+		long now = GnssTime.getInstance().getTime();
+		LongSet changed = new LongSet();
+		List<RouteTrajectory> trajectories = new ArrayList<RouteTrajectory>();
+
+		long[] removed;
+		LongObjectMap<AisIntendedRoute> received = new LongObjectMap<AisIntendedRoute>();
+		synchronized (pending) {
+			removed = pendingRemoved.toArray();
+			pendingRemoved.clear();
+			for (long mmsi : pending.keys()) {
+				received.put(mmsi, pending.get(mmsi));
+			}
+			pending.clear();
+		}
+		for (long mmsi : removed) {
+			index.remove(mmsi);
+			changed.add(mmsi);
+		}
+		for (long mmsi : received.keys()) {
+			RouteTrajectory trajectory = RouteTrajectory.create(mmsi, received.get(mmsi), now);
+			changed.add(mmsi);
+			if (trajectory == null) {
+				index.remove(mmsi);
+				continue;
+			}
+			index.add(trajectory);
+			trajectories.add(trajectory);
+		}
+		if (ownRouteChanged || (lastOwnRoute > 0 && now - lastOwnRoute >= OWN_ROUTE_INTERVAL)) {
+			ownRouteChanged = false;
+			RouteTrajectory own = createOwnTrajectory(now);
+			lastOwnRoute = (own != null) ? now : 0;
+			changed.add(OWN_SHIP);
+			if (own == null) {
+				index.remove(OWN_SHIP);
+			} else {
+				index.add(own);
+				trajectories.add(own);
+			}
+		}
+
+		boolean modified = removeConflicts(changed, now);
+		if (trajectories.size() > 0) {
+			List<RouteConflict> found;
+			if (trajectories.size() <= TASK_SIZE) {
+				found = new QueryTask(trajectories, 0, trajectories.size()).compute();
+			} else {
+				found = pool.invoke(new QueryTask(trajectories, 0, trajectories.size()));
+			}
+			for (RouteConflict conflict : found) {
+				long key = pairKey(conflict.getMmsiA(), conflict.getMmsiB());
+				RouteConflict current = conflicts.get(key);
+				if (current == null || conflict.getTime() < current.getTime()) {
+					conflicts.put(key, conflict);
+				}
+				if (current == null && conflict.involves(OWN_SHIP)) {
+					LOG.info("Own route conflict: " + conflict);
+				}
+				modified = true;
+			}
+		}
+		if (modified) {
+			publish();
+		}
+	}
+
+	/**
+	 * Remove conflicts involving changed routes and conflicts passed
+	 * 
+	 * @return if any removed
+	 */
+	private boolean removeConflicts(LongSet changed, long now) {
+		boolean removed = false;
+		for (long key : conflicts.keys()) {
+			RouteConflict conflict = conflicts.get(key);
+			if (conflict.getTime() < now || changed.contains(conflict.getMmsiA())
+					|| changed.contains(conflict.getMmsiB())) {
+				conflicts.remove(key);
+				removed = true;
+			}
+		}
+		return removed;
+	}
+
+	private RouteTrajectory createOwnTrajectory(long now) {
+		RouteManager routeManager = this.routeManager;
+		GpsHandler gpsHandler = this.gpsHandler;
+		if (routeManager == null || gpsHandler == null || !routeManager.isRouteActive()) {
+			return null;
+		}
+		GpsData gpsData = gpsHandler.getCurrentData();
+		if (gpsData.isBadPosition() || gpsData.getPosition() == null) {
+			return null;
+		}
+		ActiveRoute activeRoute = routeManager.getActiveRoute();
+		if (activeRoute == null) {
+			return null;
+		}
+		return RouteTrajectory.create(OWN_SHIP, activeRoute, gpsData.getPosition(), now);
+	}
+
+	private void publish() {
+		List<RouteConflict> list = new ArrayList<RouteConflict>(conflicts.size());
+		for (RouteConflict conflict : conflicts.values()) {
+			list.add(conflict);
+		}
+		Collections.sort(list);
+		conflictList = Collections.unmodifiableList(list);
+		for (IRouteConflictListener listener : listeners) {
+			listener.conflictsChanged(conflictList);
+		}
+	}
+
+	private static long pairKey(long mmsiA, long mmsiB) {
+		return (Math.min(mmsiA, mmsiB) << 32) | Math.max(mmsiA, mmsiB);
+	}
+
+	/**
+	 * @return current conflicts, earliest first
+	 */
+	public List<RouteConflict> getConflicts() {
+		return conflictList;
+	}
+
+	/**
+	 * @param mmsi
+	 * @return current conflicts of vessel, earliest first
+	 */
+	public List<RouteConflict> getConflicts(long mmsi) {
+		List<RouteConflict> result = new ArrayList<RouteConflict>();
+		for (RouteConflict conflict : conflictList) {
+			if (conflict.involves(mmsi)) {
+				result.add(conflict);
+			}
+		}
+		return result;
+	}
+
+	public void addListener(IRouteConflictListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(IRouteConflictListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void findAndInit(Object obj) {
+		if (aisHandler == null && obj instanceof AisHandler) {
+			aisHandler = (AisHandler) obj;
+			aisHandler.addBatchListener(this);
+		} else if (gpsHandler == null && obj instanceof GpsHandler) {
+			gpsHandler = (GpsHandler) obj;
+		} else if (routeManager == null && obj instanceof RouteManager) {
+			routeManager = (RouteManager) obj;
+			routeManager.addListener(this);
+			ownRouteChanged = true;
+		}
+	}
+
+	@Override
+	public void findAndUndo(Object obj) {
+		if (obj == aisHandler) {
+			aisHandler.removeBatchListener(this);
+			aisHandler = null;
+		} else if (obj == gpsHandler) {
+			gpsHandler = null;
+		} else if (obj == routeManager) {
+			routeManager.removeListener(this);
+			routeManager = null;
+		}
+	}
+
+	/**
+	 * Query of the index for a range of the changed routes
+	 */
+	private class QueryTask extends RecursiveTask<List<RouteConflict>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<RouteTrajectory> trajectories;
+		private final int from;
+		private final int to;
+
+		QueryTask(List<RouteTrajectory> trajectories, int from, int to) {
+			this.trajectories = trajectories;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<RouteConflict> compute() {
+			if (to - from > TASK_SIZE) {
+				int mid = (from + to) >>> 1;
+				QueryTask left = new QueryTask(trajectories, from, mid);
+				left.fork();
+				List<RouteConflict> result = new QueryTask(trajectories, mid, to).compute();
+				result.addAll(left.join());
+				return result;
+			}
+			List<RouteConflict> result = new ArrayList<RouteConflict>();
+			for (int i = from; i < to; i++) {
+				for (RouteConflict conflict : index.query(trajectories.get(i).id).values()) {
+					result.add(conflict);
+				}
+			}
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.risk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.frv.enav.ins.common.util.LongObjectMap;
+
+/**
+ * Space-time index of route trajectories. Legs are cut into segments within
+ * fixed time slots, and each segment is put in the buckets of the slot and
+ * the lat/lon cells its box covers. Boxes are grown by half the conflict
+ * distance, so two segments coming within the conflict distance of each
+ * other always share a bucket.
+ * <p>
+ * The index is changed by one thread at a time. Queries may run in parallel
+ * while it is not changed.
+ */
+class RouteConflictIndex {
+
+	// Length of time slots
+	static final long SLOT = 10 * 60 * 1000; // 10 min
+	// Size of cells in degrees
+	static final double CELL = 0.1;
+
+	private final double distance;
+	private final LongObjectMap<List<Segment>> buckets = new LongObjectMap<List<Segment>>();
+	private final LongObjectMap<List<Segment>> segmentsById = new LongObjectMap<List<Segment>>();
+
+	/**
+	 * @param distance
+	 *            conflict distance in nautical miles
+	 */
+	RouteConflictIndex(double distance) {
+		this.distance = distance;
+	}
+
+	/**
+	 * Part of a leg within one time slot
+	 */
+	static class Segment {
+		final RouteTrajectory trajectory;
+		final long slot;
+		final long t0;
+		final long t1;
+		final double lat0;
+		final double lon0;
+		final double lat1;
+		final double lon1;
+		// Cells covered
+		int minX;
+		int maxX;
+		int minY;
+		int maxY;
+
+		Segment(RouteTrajectory trajectory, long slot, long t0, double lat0, double lon0, long t1, double lat1,
+				double lon1) {
+			this.trajectory = trajectory;
+			this.slot = slot;
+			this.t0 = t0;
+			this.lat0 = lat0;
+			this.lon0 = lon0;
+			this.t1 = t1;
+			this.lat1 = lat1;
+			this.lon1 = lon1;
+		}
+	}
+
+	/**
+	 * Insert trajectory replacing any with the same id
+	 * 
+	 * @param trajectory
+	 */
+	void add(RouteTrajectory trajectory) {
+		remove(trajectory.id);
+		List<Segment> segments = cut(trajectory);
+		for (Segment segment : segments) {
+			for (int y = segment.minY; y <= segment.maxY; y++) {
+				for (int x = segment.minX; x <= segment.maxX; x++) {
+					long key = key(segment.slot, x, y);
+					List<Segment> bucket = buckets.get(key);
+					if (bucket == null) {
+						bucket = new ArrayList<Segment>(4);
+						buckets.put(key, bucket);
+					}
+					bucket.add(segment);
+				}
+			}
+		}
+		segmentsById.put(trajectory.id, segments);
+	}
+
+	/**
+	 * Remove trajectory with id
+	 * 
+	 * @param id
+	 */
+	void remove(long id) {
+		List<Segment> segments = segmentsById.remove(id);
+		if (segments == null) {
+			return;
+		}
+		for (Segment segment : segments) {
+			for (int y = segment.minY; y <= segment.maxY; y++) {
+				for (int x = segment.minX; x <= segment.maxX; x++) {
+					long key = key(segment.slot, x, y);
+					List<Segment> bucket = buckets.get(key);
+					if (bucket == null) {
+						continue;
+					}
+					bucket.remove(segment);
+					if (bucket.isEmpty()) {
+						buckets.remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the first conflict of trajectory with each of the other
+	 * trajectories
+	 * 
+	 * @param id
+	 * @return conflicts by id of the other trajectory
+	 */
+	LongObjectMap<RouteConflict> query(long id) {
+		LongObjectMap<RouteConflict> conflicts = new LongObjectMap<RouteConflict>();
+		List<Segment> segments = segmentsById.get(id);
+		if (segments == null) {
+			return conflicts;
+		}
+		for (Segment a : segments) {
+			for (int y = a.minY; y <= a.maxY; y++) {
+				for (int x = a.minX; x <= a.maxX; x++) {
+					List<Segment> bucket = buckets.get(key(a.slot, x, y));
+					if (bucket == null) {
+						continue;
+					}
+					for (Segment b : bucket) {
+						long other = b.trajectory.id;
+						if (other == id) {
+							continue;
+						}
+						// Evaluate pair only in the first bucket they share
+						if (x != Math.max(a.minX, b.minX) || y != Math.max(a.minY, b.minY)) {
+							continue;
+						}
+						RouteConflict found = conflict(a, b);
+						if (found == null) {
+							continue;
+						}
+						RouteConflict current = conflicts.get(other);
+						if (current == null || found.getTime() < current.getTime()) {
+							conflicts.put(other, found);
+						}
+					}
+				}
+			}
+		}
+		return conflicts;
+	}
+
+	/**
+	 * Find closest approach of two segments while both are under way
+	 * 
+	 * @return conflict or null if not within distance
+	 */
+	RouteConflict conflict(Segment a, Segment b) {
+		long start = Math.max(a.t0, b.t0);
+		long end = Math.min(a.t1, b.t1);
+		if (start > end) {
+			return null;
+		}
+		// Plane in nautical miles through the first point of a
+		double lonScale = Math.cos(Math.toRadians(a.lat0)) * 60.0;
+		double ax = 0;
+		double ay = 0;
+		double avx = 0;
+		double avy = 0;
+		if (a.t1 > a.t0) {
+			avx = (a.lon1 - a.lon0) * lonScale / (a.t1 - a.t0);
+			avy = (a.lat1 - a.lat0) * 60.0 / (a.t1 - a.t0);
+		}
+		double bx = (b.lon0 - a.lon0) * lonScale;
+		double by = (b.lat0 - a.lat0) * 60.0;
+		double bvx = 0;
+		double bvy = 0;
+		if (b.t1 > b.t0) {
+			bvx = (b.lon1 - b.lon0) * lonScale / (b.t1 - b.t0);
+			bvy = (b.lat1 - b.lat0) * 60.0 / (b.t1 - b.t0);
+		}
+		// Positions at start of common time
+		ax += avx * (start - a.t0);
+		ay += avy * (start - a.t0);
+		bx += bvx * (start - b.t0);
+		by += bvy * (start - b.t0);
+		// Relative motion
+		double rx = bx - ax;
+		double ry = by - ay;
+		double vx = bvx - avx;
+		double vy = bvy - avy;
+		double v2 = vx * vx + vy * vy;
+		double t = 0;
+		if (v2 > 0) {
+			t = Math.min(Math.max(-(rx * vx + ry * vy) / v2, 0), end - start);
+		}
+		double dx = rx + vx * t;
+		double dy = ry + vy * t;
+		double dist = Math.sqrt(dx * dx + dy * dy);
+		if (dist > distance) {
+			return null;
+		}
+		// Midway between the two
+		double mx = (ax + bx + (avx + bvx) * t) / 2;
+		double my = (ay + by + (avy + bvy) * t) / 2;
+		return new RouteConflict(a.trajectory.id, b.trajectory.id, start + (long) t, a.lat0 + my / 60.0, a.lon0 + mx
+				/ lonScale, dist);
+	}
+
+	/**
+	 * Cut the legs of trajectory at slot boundaries
+	 */
+	private List<Segment> cut(RouteTrajectory trajectory) {
+		List<Segment> segments = new ArrayList<Segment>();
+		for (int i = 0; i < trajectory.legs(); i++) {
+			long t0 = trajectory.time[i];
+			long t1 = trajectory.time[i + 1];
+			double lat0 = trajectory.lat[i];
+			double lon0 = trajectory.lon[i];
+			double lat1 = trajectory.lat[i + 1];
+			double lon1 = trajectory.lon[i + 1];
+			long t = t0;
+			while (true) {
+				long slot = Math.floorDiv(t, SLOT);
+				long slotEnd = Math.min((slot + 1) * SLOT, t1);
+				double f0 = (t1 > t0) ? (double) (t - t0) / (t1 - t0) : 0;
+				double f1 = (t1 > t0) ? (double) (slotEnd - t0) / (t1 - t0) : 1;
+				Segment segment = new Segment(trajectory, slot, t, lat0 + (lat1 - lat0) * f0, lon0 + (lon1 - lon0)
+						* f0, slotEnd, lat0 + (lat1 - lat0) * f1, lon0 + (lon1 - lon0) * f1);
+				setCells(segment);
+				segments.add(segment);
+				if (slotEnd >= t1) {
+					break;
+				}
+				t = slotEnd;
+			}
+		}
+		return segments;
+	}
+
+	private void setCells(Segment segment) {
+		double margin = distance / 2 / 60.0;
+		double lonMargin = margin / Math.max(Math.cos(Math.toRadians(segment.lat0)), 0.01);
+		segment.minY = cell(Math.min(segment.lat0, segment.lat1) - margin, 90);
+		segment.maxY = cell(Math.max(segment.lat0, segment.lat1) + margin, 90);
+		segment.minX = cell(Math.min(segment.lon0, segment.lon1) - lonMargin, 180);
+		segment.maxX = cell(Math.max(segment.lon0, segment.lon1) + lonMargin, 180);
+	}
+
+	private static int cell(double degrees, double offset) {
+		return (int) Math.floor((degrees + offset) / CELL);
+	}
+
+	private static long key(long slot, int x, int y) {
+		return (slot << 26) | ((long) (y & 0x1fff) << 13) | (x & 0x1fff);
+	}
+
+	/**
+	 * @return number of trajectories
+	 */
+	int size() {
+		return segmentsById.size();
+	}
+
+	/**
+	 * @return number of non empty buckets
+	 */
+	int getBuckets() {
+		return buckets.size();
+	}
+
+}
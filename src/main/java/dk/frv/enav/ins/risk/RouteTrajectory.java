@@ -0,0 +1,162 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.risk;
+
+import java.util.Date;
+import java.util.List;
+
+import dk.frv.ais.geo.GeoLocation;
+import dk.frv.enav.ins.ais.AisIntendedRoute;
+import dk.frv.enav.ins.route.ActiveRoute;
+import dk.frv.enav.ins.route.RouteWaypoint;
+
+/**
+ * Planned movement of a vessel as positions at given times. The vessel is
+ * assumed to move at constant speed between the points. Points before a
+ * given start time are cut away.
+ */
+class RouteTrajectory {
+
+	final long id;
+	final double[] lat;
+	final double[] lon;
+	final long[] time;
+
+	private RouteTrajectory(long id, double[] lat, double[] lon, long[] time) {
+		this.id = id;
+		this.lat = lat;
+		this.lon = lon;
+		this.time = time;
+	}
+
+	/**
+	 * @return number of legs
+	 */
+	int legs() {
+		return Math.max(time.length - 1, 0);
+	}
+
+	/**
+	 * Create from broadcast intended route
+	 * 
+	 * @param mmsi
+	 * @param route
+	 * @param start
+	 *            time in milliseconds to start from
+	 * @return trajectory or null if nothing left after start
+	 */
+	static RouteTrajectory create(long mmsi, AisIntendedRoute route, long start) {
+		List<GeoLocation> waypoints = route.getWaypoints();
+		int count = waypoints.size();
+		if (count < 2 || route.getDuration() == 0 || route.getEta(count - 1) == null) {
+			return null;
+		}
+		double[] lat = new double[count];
+		double[] lon = new double[count];
+		long[] time = new long[count];
+		for (int i = 0; i < count; i++) {
+			lat[i] = waypoints.get(i).getLatitude();
+			lon[i] = waypoints.get(i).getLongitude();
+			time[i] = route.getEta(i).getTime();
+		}
+		return clip(mmsi, lat, lon, time, start);
+	}
+
+	/**
+	 * Create from own active route starting at own position
+	 * 
+	 * @param id
+	 * @param activeRoute
+	 * @param pos
+	 *            own position
+	 * @param now
+	 * @return trajectory or null if no ETA's
+	 */
+	static RouteTrajectory create(long id, ActiveRoute activeRoute, GeoLocation pos, long now) {
+		synchronized (activeRoute) {
+			if (!activeRoute.reCalcRemainingWpEta()) {
+				return null;
+			}
+			int active = activeRoute.getActiveWaypointIndex();
+			List<RouteWaypoint> waypoints = activeRoute.getWaypoints();
+			int count = waypoints.size() - active + 1;
+			double[] lat = new double[count];
+			double[] lon = new double[count];
+			long[] time = new long[count];
+			lat[0] = pos.getLatitude();
+			lon[0] = pos.getLongitude();
+			time[0] = now;
+			for (int i = 1; i < count; i++) {
+				RouteWaypoint waypoint = waypoints.get(active + i - 1);
+				Date eta = activeRoute.getWpEta(active + i - 1);
+				if (eta == null) {
+					return null;
+				}
+				lat[i] = waypoint.getPos().getLatitude();
+				lon[i] = waypoint.getPos().getLongitude();
+				time[i] = Math.max(eta.getTime(), time[i - 1]);
+			}
+			return clip(id, lat, lon, time, now);
+		}
+	}
+
+	/**
+	 * Cut away the part before start
+	 */
+	private static RouteTrajectory clip(long id, double[] lat, double[] lon, long[] time, long start) {
+		int n = time.length;
+		if (time[n - 1] <= start) {
+			return null;
+		}
+		// First point at or after start
+		int first = 0;
+		while (time[first] < start) {
+			first++;
+		}
+		if (first == 0) {
+			return new RouteTrajectory(id, lat, lon, time);
+		}
+		// Keep position at start on the leg ending at first
+		int count = n - first + 1;
+		double[] clippedLat = new double[count];
+		double[] clippedLon = new double[count];
+		long[] clippedTime = new long[count];
+		int prev = first - 1;
+		double f = (double) (start - time[prev]) / (time[first] - time[prev]);
+		clippedLat[0] = lat[prev] + (lat[first] - lat[prev]) * f;
+		clippedLon[0] = lon[prev] + (lon[first] - lon[prev]) * f;
+		clippedTime[0] = start;
+		System.arraycopy(lat, first, clippedLat, 1, count - 1);
+		System.arraycopy(lon, first, clippedLon, 1, count - 1);
+		System.arraycopy(time, first, clippedTime, 1, count - 1);
+		return new RouteTrajectory(id, clippedLat, clippedLon, clippedTime);
+	}
+
+}
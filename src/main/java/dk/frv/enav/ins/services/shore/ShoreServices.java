@@ -55,6 +55,7 @@ import dk.frv.enav.common.xml.risk.response.RiskList;
 import dk.frv.enav.common.xml.risk.response.RiskResponse;
 import dk.frv.enav.ins.ais.AisHandler;
 import dk.frv.enav.ins.ais.VesselPositionData;
+import dk.frv.enav.ins.ais.VesselTarget;
 import dk.frv.enav.ins.gps.GpsData;
 import dk.frv.enav.ins.gps.GpsHandler;
 import dk.frv.enav.ins.route.ActiveRoute;
@@ -230,10 +231,11 @@ public class ShoreServices extends MapHandlerChild implements IStatusComponent {
 	}
 	
 	private void addRequestParameters(ShoreServiceRequest request) throws ShoreServiceException {		
-		if (aisHandler != null && aisHandler.getOwnShip() != null) {
-		    request.setMmsi(aisHandler.getOwnShip().getMmsi());
-		    if (aisHandler.getOwnShip().getPositionData() != null) {
-		    	PositionReport posReport = convertPositionReport(aisHandler.getOwnShip().getPositionData());
+		VesselTarget ownShip = (aisHandler != null) ? aisHandler.getOwnShip() : null;
+		if (ownShip != null) {
+		    request.setMmsi(ownShip.getMmsi());
+		    if (ownShip.getPositionData() != null) {
+		    	PositionReport posReport = convertPositionReport(ownShip.getPositionData());
 		    	if (posReport != null) {
 		    		request.setPositionReport(posReport);
 		    	}
@@ -55,6 +55,13 @@ public class AisSettings implements Serializable {
 	private boolean showNameLabels = true;
 	private int showMinuteMarksAISTarget = 200;
 	private boolean showRisk = false;
+	private int trackDuration = 60; // In minutes 0 = no tracks
+	private double trackMinDistance = 50; // In meters
+	private int trackMaxPoints = 1000000; // All targets
+	private boolean showTracks = false;
+	private int dispatchInterval = 250; // In milliseconds
+	private int animationFrameRate = 10; // Frames per second 0 = no animation
+	private int predictionHorizon = 60; // In seconds
 	
 	public AisSettings() {
 		
@@ -73,6 +80,13 @@ public class AisSettings implements Serializable {
 		sartPrefix = PropUtils.intFromProperties(props, PREFIX + "sartPrefix", sartPrefix);
 		showNameLabels = PropUtils.booleanFromProperties(props, PREFIX + "showNameLabels", showNameLabels);
 		showMinuteMarksAISTarget = PropUtils.intFromProperties(props, PREFIX + "showMinuteMarksAISTarget", showMinuteMarksAISTarget);
+		trackDuration = PropUtils.intFromProperties(props, PREFIX + "trackDuration", trackDuration);
+		trackMinDistance = PropUtils.doubleFromProperties(props, PREFIX + "trackMinDistance", trackMinDistance);
+		trackMaxPoints = PropUtils.intFromProperties(props, PREFIX + "trackMaxPoints", trackMaxPoints);
+		showTracks = PropUtils.booleanFromProperties(props, PREFIX + "showTracks", showTracks);
+		dispatchInterval = PropUtils.intFromProperties(props, PREFIX + "dispatchInterval", dispatchInterval);
+		animationFrameRate = PropUtils.intFromProperties(props, PREFIX + "animationFrameRate", animationFrameRate);
+		predictionHorizon = PropUtils.intFromProperties(props, PREFIX + "predictionHorizon", predictionHorizon);
 	}
 	
 	public void setProperties(Properties props) {
@@ -88,6 +102,13 @@ public class AisSettings implements Serializable {
 		props.put(PREFIX + "sartPrefix", Integer.toString(sartPrefix));
 		props.put(PREFIX + "showNameLabels", Boolean.toString(showNameLabels));
 		props.put(PREFIX + "showMinuteMarksAISTarget", Float.toString(showMinuteMarksAISTarget));
+		props.put(PREFIX + "trackDuration", Integer.toString(trackDuration));
+		props.put(PREFIX + "trackMinDistance", Double.toString(trackMinDistance));
+		props.put(PREFIX + "trackMaxPoints", Integer.toString(trackMaxPoints));
+		props.put(PREFIX + "showTracks", Boolean.toString(showTracks));
+		props.put(PREFIX + "dispatchInterval", Integer.toString(dispatchInterval));
+		props.put(PREFIX + "animationFrameRate", Integer.toString(animationFrameRate));
+		props.put(PREFIX + "predictionHorizon", Integer.toString(predictionHorizon));
 	}
 
 	public boolean isVisible() {
@@ -193,6 +214,64 @@ public class AisSettings implements Serializable {
 	public void setShowRisk(boolean showRisk) {
 		this.showRisk = showRisk;
 	}
+
+	public int getTrackDuration() {
+		return trackDuration;
+	}
+
+	public void setTrackDuration(int trackDuration) {
+		this.trackDuration = trackDuration;
+	}
+
+	public double getTrackMinDistance() {
+		return trackMinDistance;
+	}
+
+	public void setTrackMinDistance(double trackMinDistance) {
+		this.trackMinDistance = trackMinDistance;
+	}
+
+	public int getTrackMaxPoints() {
+		return trackMaxPoints;
+	}
+
+	public void setTrackMaxPoints(int trackMaxPoints) {
+		this.trackMaxPoints = trackMaxPoints;
+	}
+
+	public boolean isShowTracks() {
+		return showTracks;
+	}
+
+	public void setShowTracks(boolean showTracks) {
+		this.showTracks = showTracks;
+	}
 	
-	
+	/**
+	 * Interval between deliveries of coalesced target updates in milliseconds
+	 */
+	public int getDispatchInterval() {
+		return dispatchInterval;
+	}
+
+	public void setDispatchInterval(int dispatchInterval) {
+		this.dispatchInterval = dispatchInterval;
+	}
+
+	public int getAnimationFrameRate() {
+		return animationFrameRate;
+	}
+
+	public void setAnimationFrameRate(int animationFrameRate) {
+		this.animationFrameRate = animationFrameRate;
+	}
+
+	public int getPredictionHorizon() {
+		return predictionHorizon;
+	}
+
+	public void setPredictionHorizon(int predictionHorizon) {
+		this.predictionHorizon = predictionHorizon;
+	}
+
 }
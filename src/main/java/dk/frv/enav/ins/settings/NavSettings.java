@@ -53,6 +53,10 @@ public class NavSettings implements Serializable {
 	private double defaultXtd = 0.1;
 	private double minWpRadius = 0.2;
 	private boolean relaxedWpChange = true;
+	private double cpaLimit = 0.5; // Nautical miles
+	private double tcpaLimit = 12; // Minutes
+	private double cpaRange = 12; // Nautical miles
+	private double routeConflictDistance = 1.0; // Nautical miles
 	
 	public NavSettings() {
 	}
@@ -69,6 +73,10 @@ public class NavSettings implements Serializable {
 		defaultXtd = PropUtils.doubleFromProperties(props, PREFIX + "defaultXtd", defaultXtd);
 		minWpRadius = PropUtils.doubleFromProperties(props, PREFIX + "minWpRadius", minWpRadius);
 		relaxedWpChange = PropUtils.booleanFromProperties(props, PREFIX + "relaxedWpChange", relaxedWpChange);
+		cpaLimit = PropUtils.doubleFromProperties(props, PREFIX + "cpaLimit", cpaLimit);
+		tcpaLimit = PropUtils.doubleFromProperties(props, PREFIX + "tcpaLimit", tcpaLimit);
+		cpaRange = PropUtils.doubleFromProperties(props, PREFIX + "cpaRange", cpaRange);
+		routeConflictDistance = PropUtils.doubleFromProperties(props, PREFIX + "routeConflictDistance", routeConflictDistance);
 	}
 	
 	public void setProperties(Properties props) {
@@ -83,6 +91,10 @@ public class NavSettings implements Serializable {
 		props.put(PREFIX + "defaultXtd", Double.toString(defaultXtd));
 		props.put(PREFIX + "minWpRadius", Double.toString(minWpRadius));
 		props.put(PREFIX + "relaxedWpChange", Boolean.toString(relaxedWpChange));
+		props.put(PREFIX + "cpaLimit", Double.toString(cpaLimit));
+		props.put(PREFIX + "tcpaLimit", Double.toString(tcpaLimit));
+		props.put(PREFIX + "cpaRange", Double.toString(cpaRange));
+		props.put(PREFIX + "routeConflictDistance", Double.toString(routeConflictDistance));
 	}
 	
 	public boolean isAutoFollow() {
@@ -169,4 +181,36 @@ public class NavSettings implements Serializable {
 		this.relaxedWpChange = relaxedWpChange;
 	}
 	
+	public double getCpaLimit() {
+		return cpaLimit;
+	}
+	
+	public void setCpaLimit(double cpaLimit) {
+		this.cpaLimit = cpaLimit;
+	}
+	
+	public double getTcpaLimit() {
+		return tcpaLimit;
+	}
+	
+	public void setTcpaLimit(double tcpaLimit) {
+		this.tcpaLimit = tcpaLimit;
+	}
+	
+	public double getCpaRange() {
+		return cpaRange;
+	}
+	
+	public void setCpaRange(double cpaRange) {
+		this.cpaRange = cpaRange;
+	}
+	
+	public double getRouteConflictDistance() {
+		return routeConflictDistance;
+	}
+	
+	public void setRouteConflictDistance(double routeConflictDistance) {
+		this.routeConflictDistance = routeConflictDistance;
+	}
+
 }
@@ -40,6 +40,8 @@ import com.bbn.openmap.util.PropUtils;
 import dk.frv.enav.common.FormatException;
 import dk.frv.enav.common.util.DateUtils;
 import dk.frv.enav.common.util.ParseUtils;
+import dk.frv.enav.ins.common.util.RingBuffer.OverflowPolicy;
+import dk.frv.enav.ins.nmea.NmeaServer;
 
 /**
  * Sensor settings
@@ -52,7 +54,7 @@ public class SensorSettings implements Serializable {
 	private static final String PREFIX = "sensor.";
 	
 	public enum SensorConnectionType {
-		NONE, TCP, SERIAL, FILE, AIS_SHARED;
+		NONE, TCP, SERIAL, FILE, AIS_SHARED, MULTI;
 		public static SensorConnectionType parseString(String type) {
 			if (type.equalsIgnoreCase("TCP")) {
 				return TCP;
@@ -62,6 +64,8 @@ public class SensorSettings implements Serializable {
 				return FILE;
 			} else if (type.equalsIgnoreCase("AIS_SHARED")) {
 				return AIS_SHARED;
+			} else if (type.equalsIgnoreCase("MULTI")) {
+				return MULTI;
 			}
 			return NONE;
 		}
@@ -71,11 +75,17 @@ public class SensorSettings implements Serializable {
 	private String aisHostOrSerialPort = "localhost";
 	private String aisFilename = "";
 	private int aisTcpPort = 4001;
+	/**
+	 * Comma separated list of sources used with connection type MULTI, e.g.
+	 * tcp://host:port,udp://port,file:filename
+	 */
+	private String aisSources = "";
 	
 	private SensorConnectionType gpsConnectionType = SensorConnectionType.AIS_SHARED;
 	private String gpsHostOrSerialPort = "COM11";
 	private String gpsFilename = "";
 	private int gpsTcpPort = 8888;
+	private String gpsSources = "";
 	
 	private boolean simulateGps = false;
 	private long simulatedOwnShip = 219622000; // Scanlines Helsinore
@@ -87,6 +97,31 @@ public class SensorSettings implements Serializable {
 		
 	private int replaySpeedup = 1;
 	private Date replayStartDate = null;
+	
+	/**
+	 * Size of the rings between reading, decoding and listeners
+	 */
+	private int queueSize = 8192;
+	/**
+	 * Number of decode and target update workers. 0 means one per processor.
+	 */
+	private int decodeWorkers = 0;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	/**
+	 * Time in ms AIS messages are remembered to discard copies from other
+	 * sources. 0 disables duplicate suppression.
+	 */
+	private long duplicateWindow = 5000;
+	/**
+	 * Directory to record received sentences to. Empty disables recording.
+	 */
+	private String recordDirectory = "";
+	private int recordSegmentMinutes = 60;
+	/**
+	 * Port to serve the merged feed on. 0 disables the server.
+	 */
+	private int serverPort = 0;
+	private int serverMaxClientBuffer = NmeaServer.DEFAULT_MAX_CLIENT_BUFFER;
 
 	public SensorSettings() {
 		
@@ -96,15 +131,25 @@ public class SensorSettings implements Serializable {
 		aisConnectionType = SensorConnectionType.parseString(props.getProperty(PREFIX + "aisConnectionType", aisConnectionType.name()));
 		aisHostOrSerialPort = props.getProperty(PREFIX + "aisHostOrSerialPort", aisHostOrSerialPort);
 		aisTcpPort = PropUtils.intFromProperties(props, PREFIX + "aisTcpPort", aisTcpPort);
+		aisSources = props.getProperty(PREFIX + "aisSources", aisSources);
 		gpsConnectionType = SensorConnectionType.parseString(props.getProperty(PREFIX + "gpsConnectionType", gpsConnectionType.name()));
 		gpsHostOrSerialPort = props.getProperty(PREFIX + "gpsHostOrSerialPort", gpsHostOrSerialPort);
 		gpsTcpPort = PropUtils.intFromProperties(props, PREFIX + "gpsTcpPort", gpsTcpPort);
+		gpsSources = props.getProperty(PREFIX + "gpsSources", gpsSources);
 		simulateGps = PropUtils.booleanFromProperties(props, PREFIX + "simulateGps", simulateGps);
 		simulatedOwnShip = PropUtils.longFromProperties(props, PREFIX + "simulatedOwnShip", simulatedOwnShip);
 		aisSensorRange = PropUtils.doubleFromProperties(props, PREFIX + "aisSensorRange", aisSensorRange);
 		aisFilename = props.getProperty(PREFIX + "aisFilename", aisFilename);
 		gpsFilename = props.getProperty(PREFIX + "gpsFilename", gpsFilename);
 		replaySpeedup = PropUtils.intFromProperties(props, PREFIX + "replaySpeedup", replaySpeedup);
+		queueSize = PropUtils.intFromProperties(props, PREFIX + "queueSize", queueSize);
+		decodeWorkers = PropUtils.intFromProperties(props, PREFIX + "decodeWorkers", decodeWorkers);
+		overflowPolicy = OverflowPolicy.parseString(props.getProperty(PREFIX + "overflowPolicy", overflowPolicy.name()));
+		duplicateWindow = PropUtils.longFromProperties(props, PREFIX + "duplicateWindow", duplicateWindow);
+		recordDirectory = props.getProperty(PREFIX + "recordDirectory", recordDirectory);
+		recordSegmentMinutes = PropUtils.intFromProperties(props, PREFIX + "recordSegmentMinutes", recordSegmentMinutes);
+		serverPort = PropUtils.intFromProperties(props, PREFIX + "serverPort", serverPort);
+		serverMaxClientBuffer = PropUtils.intFromProperties(props, PREFIX + "serverMaxClientBuffer", serverMaxClientBuffer);
 		String replayStartStr = props.getProperty(PREFIX + "replayStartDate", "");
 		if (replayStartStr.length() > 0) {
 			try {
@@ -120,15 +165,25 @@ public class SensorSettings implements Serializable {
 		props.put(PREFIX + "aisConnectionType", aisConnectionType.name());
 		props.put(PREFIX + "aisHostOrSerialPort", aisHostOrSerialPort);
 		props.put(PREFIX + "aisTcpPort", Integer.toString(aisTcpPort));
+		props.put(PREFIX + "aisSources", aisSources);
 		props.put(PREFIX + "gpsConnectionType", gpsConnectionType.name());
 		props.put(PREFIX + "gpsHostOrSerialPort", gpsHostOrSerialPort);
 		props.put(PREFIX + "gpsTcpPort", Integer.toString(gpsTcpPort));
+		props.put(PREFIX + "gpsSources", gpsSources);
 		props.put(PREFIX + "simulateGps", Boolean.toString(simulateGps));
 		props.put(PREFIX + "simulatedOwnShip", Long.toString(simulatedOwnShip));
 		props.put(PREFIX + "aisSensorRange", Double.toString(aisSensorRange));
 		props.put(PREFIX + "aisFilename", aisFilename);
 		props.put(PREFIX + "gpsFilename", gpsFilename);
 		props.put(PREFIX + "replaySpeedup", Integer.toString(replaySpeedup));
+		props.put(PREFIX + "queueSize", Integer.toString(queueSize));
+		props.put(PREFIX + "decodeWorkers", Integer.toString(decodeWorkers));
+		props.put(PREFIX + "overflowPolicy", overflowPolicy.name());
+		props.put(PREFIX + "duplicateWindow", Long.toString(duplicateWindow));
+		props.put(PREFIX + "recordDirectory", recordDirectory);
+		props.put(PREFIX + "recordSegmentMinutes", Integer.toString(recordSegmentMinutes));
+		props.put(PREFIX + "serverPort", Integer.toString(serverPort));
+		props.put(PREFIX + "serverMaxClientBuffer", Integer.toString(serverMaxClientBuffer));
 		String replayStartStr = "";
 		if (replayStartDate != null) {			
 			replayStartStr = DateUtils.getISO8620(replayStartDate);
@@ -160,6 +215,14 @@ public class SensorSettings implements Serializable {
 		this.aisTcpPort = aisTcpPort;
 	}
 
+	public String getAisSources() {
+		return aisSources;
+	}
+
+	public void setAisSources(String aisSources) {
+		this.aisSources = aisSources;
+	}
+
 	public SensorConnectionType getGpsConnectionType() {
 		return gpsConnectionType;
 	}
@@ -184,6 +247,14 @@ public class SensorSettings implements Serializable {
 		this.gpsTcpPort = gpsTcpPort;
 	}
 	
+	public String getGpsSources() {
+		return gpsSources;
+	}
+
+	public void setGpsSources(String gpsSources) {
+		this.gpsSources = gpsSources;
+	}
+	
 	public boolean isSimulateGps() {
 		return simulateGps;
 	}
@@ -240,4 +311,77 @@ public class SensorSettings implements Serializable {
 		this.replayStartDate = replayStartDate;
 	}
 	
+	public int getQueueSize() {
+		return queueSize;
+	}
+	
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+	
+	public int getDecodeWorkers() {
+		return decodeWorkers;
+	}
+	
+	public void setDecodeWorkers(int decodeWorkers) {
+		this.decodeWorkers = decodeWorkers;
+	}
+	
+	/**
+	 * Get number of decode workers with 0 resolved to the number of processors
+	 * 
+	 * @return
+	 */
+	public int getEffectiveDecodeWorkers() {
+		return (decodeWorkers > 0) ? decodeWorkers : Runtime.getRuntime().availableProcessors();
+	}
+	
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+	
+	public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+	
+	public long getDuplicateWindow() {
+		return duplicateWindow;
+	}
+	
+	public void setDuplicateWindow(long duplicateWindow) {
+		this.duplicateWindow = duplicateWindow;
+	}
+	
+	public String getRecordDirectory() {
+		return recordDirectory;
+	}
+	
+	public void setRecordDirectory(String recordDirectory) {
+		this.recordDirectory = recordDirectory;
+	}
+	
+	public int getRecordSegmentMinutes() {
+		return recordSegmentMinutes;
+	}
+	
+	public void setRecordSegmentMinutes(int recordSegmentMinutes) {
+		this.recordSegmentMinutes = recordSegmentMinutes;
+	}
+	
+	public int getServerPort() {
+		return serverPort;
+	}
+	
+	public void setServerPort(int serverPort) {
+		this.serverPort = serverPort;
+	}
+	
+	public int getServerMaxClientBuffer() {
+		return serverMaxClientBuffer;
+	}
+	
+	public void setServerMaxClientBuffer(int serverMaxClientBuffer) {
+		this.serverMaxClientBuffer = serverMaxClientBuffer;
+	}
+	
 }
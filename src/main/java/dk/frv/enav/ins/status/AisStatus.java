@@ -32,6 +32,8 @@ package dk.frv.enav.ins.status;
 import java.util.Date;
 
 import dk.frv.enav.ins.common.text.Formatter;
+import dk.frv.enav.ins.common.util.RingBuffer;
+import dk.frv.enav.ins.nmea.NmeaPipeline;
 
 /**
  * AIS status
@@ -40,19 +42,21 @@ public class AisStatus extends ComponentStatus {
 	
 	private static final long RECEPTION_INTERVAL = 30000; // 30 secs
 	
-	private Date lastReceived = new Date(0);
+	// Marked for every message, kept as time to avoid garbage
+	private volatile long lastReceived = 0;
 	private Date lastSent = null;
 	private Date lastSendError = null;
 	private Boolean sendOk = null;
 	private Status sendStatus = Status.UNKNOWN;
 	private Status receiveStatus = Status.UNKNOWN;
+	private NmeaPipeline pipeline = null;
 	
 	public AisStatus() {
 		super("AIS");
 	}
 	
-	public synchronized void markAisReception() {
-		lastReceived = new Date();
+	public void markAisReception() {
+		lastReceived = System.currentTimeMillis();
 	}
 	
 	public synchronized void markSuccesfullSend() {
@@ -71,7 +75,7 @@ public class AisStatus extends ComponentStatus {
 		// Set status based on times
 		
 		// Base firstly on reception
-		long elapsed = System.currentTimeMillis() - lastReceived.getTime();
+		long elapsed = System.currentTimeMillis() - lastReceived;
 		status = (elapsed > RECEPTION_INTERVAL) ? Status.ERROR : Status.OK;
 		shortStatusText += status.name() + " - Sending ";
 		receiveStatus = status;
@@ -106,11 +110,26 @@ public class AisStatus extends ComponentStatus {
 		} else {
 			buf.append("Last send: " + Formatter.formatLongDateTime(lastSent));
 		}
+		if (pipeline != null) {
+			buf.append("<br/>");
+			for (int i = 0; i < pipeline.getShardCount(); i++) {
+				appendRing(buf, "Worker " + i + " queue", pipeline.getRing(i));
+			}
+		}
 		return buf.toString();
 	}
 	
+	private static void appendRing(StringBuilder buf, String name, RingBuffer<?> ring) {
+		buf.append(name + ": " + ring.getDepth() + " of " + ring.getCapacity() + " (max " + ring.getMaxDepth() + ")<br/>");
+		buf.append("&nbsp;&nbsp;Dropped: " + ring.getDropped() + " Class B: " + ring.getDroppedLowPriority() + "<br/>");
+	}
+	
+	public void setPipeline(NmeaPipeline pipeline) {
+		this.pipeline = pipeline;
+	}
+	
 	public Date getLastReceived() {
-		return lastReceived;
+		return new Date(lastReceived);
 	}
 	
 	public Date getLastSendError() {
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.status;
+
+import java.util.List;
+
+import dk.frv.enav.ins.common.text.Formatter;
+import dk.frv.enav.ins.nmea.NmeaSensor;
+import dk.frv.enav.ins.nmea.NmeaSource;
+
+/**
+ * Status of the sources of a multiplexing NMEA sensor
+ */
+public class IngestStatus extends ComponentStatus {
+
+	private List<NmeaSource> sources;
+
+	public IngestStatus(List<NmeaSource> sources) {
+		super("NMEA sources");
+		this.sources = sources;
+		int connected = 0;
+		for (NmeaSource source : sources) {
+			if (source.getStatus() == NmeaSensor.Status.CONNECTED) {
+				connected++;
+			}
+		}
+		if (connected == 0) {
+			setStatus(Status.ERROR);
+		} else if (connected < sources.size()) {
+			setStatus(Status.PARTIAL);
+		} else {
+			setStatus(Status.OK);
+		}
+		setShortStatusText(connected + " of " + sources.size() + " sources connected");
+	}
+
+	@Override
+	public String getStatusHtml() {
+		StringBuilder buf = new StringBuilder();
+		for (NmeaSource source : sources) {
+			buf.append(source.getName() + ": " + source.getStatus().name() + "<br/>");
+			buf.append("&nbsp;&nbsp;Lines: " + source.getReceivedLines() + " Bad checksum: " + source.getInvalidChecksums()
+					+ " Reconnects: " + source.getReconnects() + "<br/>");
+			long aisMessages = source.getAisMessages();
+			if (aisMessages > 0) {
+				buf.append("&nbsp;&nbsp;AIS messages: " + aisMessages + " Unique: "
+						+ Formatter.formatDouble(100.0 * source.getUniqueAisMessages() / aisMessages, 1) + "%<br/>");
+			}
+			buf.append("&nbsp;&nbsp;Last reception: " + Formatter.formatLongDateTime(source.getLastReceived()) + "<br/>");
+		}
+		return buf.toString();
+	}
+
+}
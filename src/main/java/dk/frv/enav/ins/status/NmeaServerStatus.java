@@ -0,0 +1,68 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.status;
+
+import java.util.List;
+
+import dk.frv.enav.ins.nmea.NmeaServer;
+
+/**
+ * Status of the NMEA server feeding downstream consumers
+ */
+public class NmeaServerStatus extends ComponentStatus {
+
+	private NmeaServer server;
+	private List<String> clients;
+
+	public NmeaServerStatus(NmeaServer server) {
+		super("NMEA server");
+		this.server = server;
+		this.clients = server.getClientNames();
+		setStatus(server.isListening() ? Status.OK : Status.ERROR);
+		if (server.isListening()) {
+			setShortStatusText(clients.size() + " clients on port " + server.getPort());
+		} else {
+			setShortStatusText("Not listening on port " + server.getPort());
+		}
+	}
+
+	@Override
+	public String getStatusHtml() {
+		StringBuilder buf = new StringBuilder();
+		buf.append("Port: " + server.getPort() + " " + (server.isListening() ? "listening" : "not listening") + "<br/>");
+		buf.append("Messages: " + server.getMessages() + " Dropped: " + server.getDropped() + " Slow clients: "
+				+ server.getSlowDisconnects() + "<br/>");
+		for (String client : clients) {
+			buf.append("Client: " + client + "<br/>");
+		}
+		return buf.toString();
+	}
+
+}
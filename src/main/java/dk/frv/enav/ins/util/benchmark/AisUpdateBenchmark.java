@@ -0,0 +1,174 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.util.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import dk.frv.ais.geo.GeoLocation;
+import dk.frv.ais.message.AisMessage;
+import dk.frv.ais.message.AisMessage1;
+import dk.frv.ais.message.AisPosition;
+import dk.frv.enav.ins.EeINS;
+import dk.frv.enav.ins.ais.AisHandler;
+import dk.frv.enav.ins.gps.GnssTime;
+import dk.frv.enav.ins.gps.GpsData;
+import dk.frv.enav.ins.settings.Settings;
+
+/**
+ * Benchmark measuring the allocation rate of the AIS handler when updating
+ * existing targets with already decoded position reports. Decoding is left
+ * out so that only garbage made by the target update is counted.
+ */
+public class AisUpdateBenchmark {
+
+	private static final int WARMUP_ROUNDS = 200;
+
+	private AisHandler aisHandler;
+	private AisMessage[] messages;
+	private int rounds;
+
+	public AisUpdateBenchmark(int targets, int rounds) {
+		this.rounds = rounds;
+		EeINS.setSettings(new Settings());
+		GnssTime.init();
+		aisHandler = new AisHandler();
+		// Exercise the range check with own ship in the middle of the targets
+		aisHandler.setAisRange(1000);
+		GpsData gpsData = new GpsData();
+		gpsData.setPosition(new GeoLocation(56, 11));
+		aisHandler.gpsDataUpdate(gpsData);
+
+		messages = new AisMessage[targets];
+		for (int i = 0; i < targets; i++) {
+			long mmsi = 219000000 + i;
+			AisPosition pos = new AisPosition();
+			pos.setLatitude((long) ((55.5 + (i % 100) / 100.0) * 600000));
+			pos.setLongitude((long) ((10.5 + (i / 100) / 100.0) * 600000));
+			AisMessage1 msg1 = new AisMessage1();
+			msg1.setUserId(mmsi);
+			msg1.setPos(pos);
+			msg1.setNavStatus(0);
+			msg1.setSog(120);
+			msg1.setCog(1800);
+			msg1.setTrueHeading(180);
+			messages[i] = msg1;
+		}
+	}
+
+	public void run() {
+		// Create targets and let the JIT settle
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			runRound();
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long allocatedStart = getAllocatedBytes(threadId);
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			runRound();
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = getAllocatedBytes(threadId) - allocatedStart;
+
+		long updates = (long) rounds * messages.length;
+		double seconds = elapsed / 1e9;
+		System.out.println("Targets:     " + aisHandler.getVesselTargets().size());
+		System.out.println(String.format("Updates:     %d (%.0f/s)", updates, updates / seconds));
+		if (allocatedStart >= 0) {
+			System.out.println(String.format("Allocated:   %.1f MB (%.1f bytes/update)", allocated / 1e6,
+					(double) allocated / updates));
+		} else {
+			System.out.println("Allocated:   not supported by this JVM");
+		}
+	}
+
+	private void runRound() {
+		for (AisMessage message : messages) {
+			aisHandler.receive(message);
+		}
+	}
+
+	/**
+	 * Bytes allocated by thread
+	 * 
+	 * @param threadId
+	 * @return bytes or -1 if not supported
+	 */
+	private static long getAllocatedBytes(long threadId) {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		try {
+			if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+				return -1;
+			}
+			com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+			if (!sunThreadBean.isThreadAllocatedMemorySupported()) {
+				return -1;
+			}
+			sunThreadBean.setThreadAllocatedMemoryEnabled(true);
+			return sunThreadBean.getThreadAllocatedBytes(threadId);
+		} catch (NoClassDefFoundError e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		System.out.println("AIS Update Benchmark");
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+		int targets = 1000;
+		int rounds = 2000;
+		try {
+			if (args.length > 0) {
+				targets = Integer.parseInt(args[0]);
+			}
+			if (args.length > 1) {
+				rounds = Integer.parseInt(args[1]);
+			}
+		} catch (NumberFormatException e) {
+			usage();
+		}
+		new AisUpdateBenchmark(targets, rounds).run();
+		System.exit(0);
+	}
+
+	public static void usage() {
+		System.out.println("Usage: AisUpdateBenchmark [targets] [rounds]");
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.util.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import dk.frv.ais.geo.GeoLocation;
+import dk.frv.enav.ins.ais.KinematicColumns;
+import dk.frv.enav.ins.ais.KinematicStore;
+import dk.frv.enav.ins.ais.VesselPositionData;
+import dk.frv.enav.ins.ais.VesselTarget;
+import dk.frv.enav.ins.risk.CpaCalculator;
+import dk.frv.enav.ins.risk.CpaEvaluation;
+
+/**
+ * Benchmark of the CPA calculator. Vessels with random course and speed are
+ * placed within 20 nautical miles of own ship and own ship is evaluated
+ * against them on one thread and on all processors. The time per evaluation
+ * of the best and median round is reported after a warmup.
+ */
+public class CpaBenchmark {
+
+	private static final int WARMUP_ROUNDS = 200;
+	private static final double LAT = 56;
+	private static final double LON = 11;
+
+	private final int rounds;
+	private final KinematicColumns columns;
+	private final long now = System.currentTimeMillis();
+
+	public CpaBenchmark(int targets, int rounds) {
+		this.rounds = rounds;
+		Random random = new Random(1);
+		KinematicStore store = new KinematicStore();
+		for (int i = 0; i < targets; i++) {
+			VesselTarget vesselTarget = new VesselTarget();
+			vesselTarget.setMmsi(219000000 + i);
+			VesselPositionData positionData = new VesselPositionData();
+			double lat = LAT + (random.nextDouble() - 0.5) * 40 / 60.0;
+			double lon = LON + (random.nextDouble() - 0.5) * 40 / 60.0 / Math.cos(Math.toRadians(LAT));
+			positionData.setPos(new GeoLocation(lat, lon));
+			positionData.setSog((float) (random.nextDouble() * 20));
+			positionData.setCog((float) (random.nextDouble() * 360));
+			vesselTarget.setPositionData(positionData);
+			vesselTarget.setLastReceived(now - random.nextInt(10000));
+			store.update(vesselTarget);
+		}
+		columns = store.copy(null);
+	}
+
+	public void run() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		CpaCalculator single = new CpaCalculator(new ForkJoinPool(1), 12, 0.5, 12);
+		CpaCalculator parallel = new CpaCalculator(new ForkJoinPool(processors), 12, 0.5, 12);
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			single.evaluate(columns, LAT, LON, 12, 45, now);
+			parallel.evaluate(columns, LAT, LON, 12, 45, now);
+		}
+		double[] singleTimes = new double[rounds];
+		double[] parallelTimes = new double[rounds];
+		CpaEvaluation evaluation = null;
+		// Alternate so both see the same machine state
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			single.evaluate(columns, LAT, LON, 12, 45, now);
+			singleTimes[i] = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			evaluation = parallel.evaluate(columns, LAT, LON, 12, 45, now);
+			parallelTimes[i] = (System.nanoTime() - start) / 1e6;
+		}
+
+		System.out.println("Targets:     " + columns.size());
+		System.out.println("In range:    " + evaluation.size());
+		System.out.println("Dangerous:   " + evaluation.getDangerous().size());
+		print("1 thread", singleTimes);
+		print(processors + " threads", parallelTimes);
+	}
+
+	private void print(String name, double[] times) {
+		Arrays.sort(times);
+		System.out.println(String.format("%-12s best %.3f ms median %.3f ms per evaluation", name + ":", times[0],
+				times[times.length / 2]));
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		System.out.println("CPA Benchmark");
+		int targets = 10000;
+		int rounds = 500;
+		try {
+			if (args.length > 0) {
+				targets = Integer.parseInt(args[0]);
+			}
+			if (args.length > 1) {
+				rounds = Integer.parseInt(args[1]);
+			}
+		} catch (NumberFormatException e) {
+			usage();
+		}
+		new CpaBenchmark(targets, rounds).run();
+		System.exit(0);
+	}
+
+	public static void usage() {
+		System.out.println("Usage: CpaBenchmark [targets] [rounds]");
+		System.exit(0);
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.util.benchmark;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import dk.frv.enav.ins.common.util.LongObjectMap;
+
+/**
+ * Benchmark comparing lookups by MMSI in a LongObjectMap with a HashMap of
+ * boxed keys. Each round looks up all keys in shuffled order, half of them
+ * present. The time per lookup of the best and median round is reported
+ * after a warmup, together with the heap used by each map.
+ */
+public class LongMapBenchmark {
+
+	private static final int WARMUP_ROUNDS = 50;
+
+	private final int size;
+	private final int rounds;
+	private final long[] keys;
+	private final long[] lookups;
+	private long sink = 0;
+
+	public LongMapBenchmark(int size, int rounds) {
+		this.size = size;
+		this.rounds = rounds;
+		Random random = new Random(1);
+		keys = new long[size];
+		lookups = new long[2 * size];
+		for (int i = 0; i < size; i++) {
+			// MMSI's of Danish and nearby vessels
+			keys[i] = 200000000 + random.nextInt(100000000);
+			lookups[2 * i] = keys[i];
+			lookups[2 * i + 1] = 200000000 + random.nextInt(100000000);
+		}
+		// Shuffle lookups
+		for (int i = lookups.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			long tmp = lookups[i];
+			lookups[i] = lookups[j];
+			lookups[j] = tmp;
+		}
+	}
+
+	public void run() {
+		long heapStart = usedHeap();
+		LongObjectMap<Object> longMap = new LongObjectMap<Object>();
+		for (long key : keys) {
+			longMap.put(key, Boolean.TRUE);
+		}
+		long longMapHeap = usedHeap() - heapStart;
+		heapStart = usedHeap();
+		Map<Long, Object> hashMap = new HashMap<Long, Object>();
+		for (long key : keys) {
+			hashMap.put(key, Boolean.TRUE);
+		}
+		long hashMapHeap = usedHeap() - heapStart;
+
+		double[] longMapTimes = new double[rounds];
+		double[] hashMapTimes = new double[rounds];
+		for (int i = 0; i < WARMUP_ROUNDS; i++) {
+			runLongMap(longMap);
+			runHashMap(hashMap);
+		}
+		// Alternate so both see the same machine state
+		for (int i = 0; i < rounds; i++) {
+			longMapTimes[i] = runLongMap(longMap);
+			hashMapTimes[i] = runHashMap(hashMap);
+		}
+
+		System.out.println("Entries:       " + longMap.size());
+		print("LongObjectMap", longMapTimes, longMapHeap);
+		print("HashMap<Long>", hashMapTimes, hashMapHeap);
+		System.out.println("(" + sink + ")");
+	}
+
+	/**
+	 * @return ns per lookup
+	 */
+	private double runLongMap(LongObjectMap<Object> map) {
+		long start = System.nanoTime();
+		int found = 0;
+		for (long key : lookups) {
+			if (map.get(key) != null) {
+				found++;
+			}
+		}
+		sink += found;
+		return (double) (System.nanoTime() - start) / lookups.length;
+	}
+
+	/**
+	 * @return ns per lookup
+	 */
+	private double runHashMap(Map<Long, Object> map) {
+		long start = System.nanoTime();
+		int found = 0;
+		for (long key : lookups) {
+			if (map.get(key) != null) {
+				found++;
+			}
+		}
+		sink += found;
+		return (double) (System.nanoTime() - start) / lookups.length;
+	}
+
+	private void print(String name, double[] times, long heap) {
+		Arrays.sort(times);
+		System.out.println(String.format("%s: best %.1f ns median %.1f ns per lookup, heap %.1f MB (%.0f bytes/entry)",
+				name, times[0], times[times.length / 2], heap / 1e6, (double) heap / size));
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		System.out.println("Long Map Benchmark");
+		int size = 10000;
+		int rounds = 200;
+		try {
+			if (args.length > 0) {
+				size = Integer.parseInt(args[0]);
+			}
+			if (args.length > 1) {
+				rounds = Integer.parseInt(args[1]);
+			}
+		} catch (NumberFormatException e) {
+			usage();
+		}
+		new LongMapBenchmark(size, rounds).run();
+	}
+
+	public static void usage() {
+		System.out.println("Usage: LongMapBenchmark [entries] [rounds]");
+		System.exit(0);
+	}
+
+}
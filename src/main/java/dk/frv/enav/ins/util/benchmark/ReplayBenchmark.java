@@ -0,0 +1,302 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.util.benchmark;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.bbn.openmap.proj.Mercator;
+import com.bbn.openmap.proj.coords.LatLonPoint;
+
+import dk.frv.ais.message.AisMessage;
+import dk.frv.ais.reader.ISendResultListener;
+import dk.frv.ais.reader.SendException;
+import dk.frv.ais.reader.SendRequest;
+import dk.frv.enav.ins.EeINS;
+import dk.frv.enav.ins.ais.AisHandler;
+import dk.frv.enav.ins.common.util.RingBuffer.OverflowPolicy;
+import dk.frv.enav.ins.gps.GnssTime;
+import dk.frv.enav.ins.layers.ais.AisLayer;
+import dk.frv.enav.ins.nmea.IPipelineMonitor;
+import dk.frv.enav.ins.nmea.NmeaPipeline;
+import dk.frv.enav.ins.nmea.NmeaReplayEngine;
+import dk.frv.enav.ins.nmea.NmeaSensor;
+import dk.frv.enav.ins.nmea.NmeaSentenceType;
+import dk.frv.enav.ins.nmea.SensorType;
+import dk.frv.enav.ins.nmea.VdmReassembler;
+import dk.frv.enav.ins.settings.Settings;
+
+/**
+ * Headless benchmark pushing a recorded NMEA log through framing, decoding,
+ * the AIS handler and optionally the AIS layer as fast as possible. Reports
+ * throughput, latency percentiles per stage and allocation rate.
+ */
+public class ReplayBenchmark {
+
+	private LatencyHistogram publishLatency = new LatencyHistogram("framing/publish");
+	private LatencyHistogram queueLatency = new LatencyHistogram("queue");
+	private LatencyHistogram decodeLatency = new LatencyHistogram("decode");
+	private LatencyHistogram updateLatency = new LatencyHistogram("target update");
+	private LatencyHistogram totalLatency = new LatencyHistogram("end-to-end");
+	private AtomicLong messages = new AtomicLong();
+	private AtomicLong handled = new AtomicLong();
+
+	private File file;
+	private boolean layers;
+	private BenchmarkSensor sensor;
+	private AisHandler aisHandler;
+
+	/**
+	 * Sensor timing the stages of the pipeline
+	 */
+	private class BenchmarkSensor extends NmeaSensor implements IPipelineMonitor {
+
+		private ThreadLocal<long[]> updateNanos = new ThreadLocal<long[]>() {
+			@Override
+			protected long[] initialValue() {
+				return new long[1];
+			}
+		};
+
+		@Override
+		protected void handleFrame(byte[] buf, int lineStart, int start, int end, NmeaSentenceType type, int sourceId) {
+			long t0 = System.nanoTime();
+			super.handleFrame(buf, lineStart, start, end, type, sourceId);
+			publishLatency.record(System.nanoTime() - t0);
+		}
+
+		@Override
+		protected void processFrame(byte[] buf, int start, int end, NmeaSentenceType type, int sourceId,
+				VdmReassembler reassembler) {
+			long[] update = updateNanos.get();
+			update[0] = 0;
+			long t0 = System.nanoTime();
+			super.processFrame(buf, start, end, type, sourceId, reassembler);
+			long elapsed = System.nanoTime() - t0;
+			if (type == NmeaSentenceType.VDM) {
+				decodeLatency.record(elapsed - update[0]);
+			}
+		}
+
+		@Override
+		protected void distributeAis(AisMessage aisMessage, boolean ownMessage) {
+			long t0 = System.nanoTime();
+			super.distributeAis(aisMessage, ownMessage);
+			long elapsed = System.nanoTime() - t0;
+			updateNanos.get()[0] += elapsed;
+			updateLatency.record(elapsed);
+			messages.incrementAndGet();
+		}
+
+		@Override
+		public void sentenceHandled(long queueNanos, long handleNanos) {
+			queueLatency.record(queueNanos);
+			totalLatency.record(queueNanos + handleNanos);
+			handled.incrementAndGet();
+		}
+
+		@Override
+		public void run() {
+			// Replay is driven by the benchmark
+		}
+
+		@Override
+		public void send(SendRequest sendRequest, ISendResultListener resultListener) throws SendException {
+			throw new SendException("Cannot send in benchmark");
+		}
+
+	}
+
+	public ReplayBenchmark(File file, Settings settings, boolean layers) {
+		this.file = file;
+		this.layers = layers;
+		EeINS.setSettings(settings);
+		GnssTime.init();
+		sensor = new BenchmarkSensor();
+		sensor.addSensorType(SensorType.AIS);
+		sensor.setDecodeWorkers(settings.getSensorSettings().getEffectiveDecodeWorkers());
+		sensor.setQueueSize(settings.getSensorSettings().getQueueSize());
+		// Nothing may be dropped
+		sensor.setOverflowPolicy(OverflowPolicy.BLOCK);
+	}
+
+	public void run() throws Exception {
+		sensor.start();
+		NmeaPipeline pipeline = sensor.getPipeline();
+		pipeline.setMonitor(sensor);
+		aisHandler = new AisHandler();
+		aisHandler.findAndInit(sensor);
+		if (layers) {
+			// Vessel graphics look up risk levels, the handler thread exits at
+			// once without the shore service
+			EeINS.getSettings().getAisSettings().setShowRisk(false);
+			EeINS.startRiskHandler();
+			AisLayer aisLayer = new AisLayer();
+			aisLayer.setProjection(new Mercator(new LatLonPoint.Double(56, 11), 2000000, 1280, 1024));
+			aisLayer.findAndInit(aisHandler);
+		}
+
+		NmeaReplayEngine engine = new NmeaReplayEngine(sensor, file);
+		System.out.println("Indexing " + file);
+		engine.open();
+		engine.setSpeed(Double.POSITIVE_INFINITY);
+
+		System.out.println("Replaying with " + pipeline.getShardCount() + " workers" + (layers ? " and AIS layer" : ""));
+		long allocatedStart = getAllocatedBytes();
+		long gcCountStart = getGcCount();
+		long gcTimeStart = getGcTime();
+		long start = System.nanoTime();
+		engine.run();
+		// Wait for the workers to empty the rings
+		long published = 0;
+		while (true) {
+			published = 0;
+			for (int i = 0; i < pipeline.getShardCount(); i++) {
+				published += pipeline.getRing(i).getPublished();
+			}
+			if (handled.get() >= published) {
+				break;
+			}
+			Thread.sleep(1);
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = getAllocatedBytes() - allocatedStart;
+
+		double seconds = elapsed / 1e9;
+		System.out.println();
+		System.out.println(String.format("Elapsed:     %.3f s", seconds));
+		System.out.println(String.format("Sentences:   %d (%.0f/s)", published, published / seconds));
+		System.out.println(String.format("Messages:    %d (%.0f/s)", messages.get(), messages.get() / seconds));
+		System.out.println("Targets:     " + aisHandler.getVesselTargets().size());
+		System.out.println();
+		System.out.println(publishLatency);
+		System.out.println(queueLatency);
+		System.out.println(decodeLatency);
+		System.out.println(updateLatency);
+		System.out.println(totalLatency);
+		System.out.println();
+		if (allocated >= 0) {
+			System.out.println(String.format("Allocated:   %.1f MB (%.1f MB/s, %.0f bytes/message)", allocated / 1e6,
+					allocated / 1e6 / seconds, (double) allocated / Math.max(1, messages.get())));
+		} else {
+			System.out.println("Allocated:   not supported by this JVM");
+		}
+		System.out.println(String.format("GC:          %d collections, %d ms", getGcCount() - gcCountStart,
+				getGcTime() - gcTimeStart));
+	}
+
+	/**
+	 * Sum of bytes allocated by all live threads
+	 * 
+	 * @return bytes or -1 if not supported
+	 */
+	private static long getAllocatedBytes() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		try {
+			if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+				return -1;
+			}
+			com.sun.management.ThreadMXBean sunThreadBean = (com.sun.management.ThreadMXBean) threadBean;
+			if (!sunThreadBean.isThreadAllocatedMemorySupported()) {
+				return -1;
+			}
+			sunThreadBean.setThreadAllocatedMemoryEnabled(true);
+			long sum = 0;
+			for (long bytes : sunThreadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+				if (bytes > 0) {
+					sum += bytes;
+				}
+			}
+			return sum;
+		} catch (NoClassDefFoundError e) {
+			return -1;
+		}
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gcBean.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long getGcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gcBean.getCollectionTime());
+		}
+		return time;
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		System.out.println("Replay Benchmark");
+		BasicConfigurator.configure();
+		Logger.getRootLogger().setLevel(Level.WARN);
+		String filename = null;
+		String settingsFile = null;
+		boolean layers = false;
+		for (String arg : args) {
+			if (arg.equals("-layers")) {
+				layers = true;
+			} else if (filename == null) {
+				filename = arg;
+			} else {
+				settingsFile = arg;
+			}
+		}
+		if (filename == null) {
+			usage();
+		}
+		Settings settings = (settingsFile != null) ? new Settings(settingsFile) : new Settings();
+		if (settingsFile != null) {
+			settings.loadFromFile();
+		}
+		new ReplayBenchmark(new File(filename), settings, layers).run();
+		System.exit(0);
+	}
+
+	public static void usage() {
+		System.out.println("Usage: ReplayBenchmark <nmea file> [settings file] [-layers]");
+		System.exit(0);
+	}
+
+}
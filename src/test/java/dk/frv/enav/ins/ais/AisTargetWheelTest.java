@@ -0,0 +1,113 @@
+/*
+ * Copyright 2011 Danish Maritime Authority. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *   1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ *   2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY Danish Maritime Authority ``AS IS'' 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL <COPYRIGHT HOLDER> OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ * The views and conclusions contained in the software and documentation are those
+ * of the authors and should not be interpreted as representing official policies,
+ * either expressed or implied, of Danish Maritime Authority.
+ * 
+ */
+package dk.frv.enav.ins.ais;
+
+import java.util.List;
+
+/**
+ * Test of the aging wheel when time goes back, as when an older log is
+ * replayed or a replay seeks backwards
+ */
+public class AisTargetWheelTest {
+
+	private static final long SECOND = 1000;
+	private static final long WALL_CLOCK = 1318000000000L;
+	private static final long REPLAY_START = WALL_CLOCK - 365L * 24 * 3600 * SECOND;
+
+	public static void main(String[] args) {
+		testReplayOfOlderLog();
+		testBackwardSeek();
+		testPassedDeadlineAfterJump();
+		System.out.println("AisTargetWheelTest passed");
+	}
+
+	/**
+	 * Targets received during replay of an older log are aged in replay time,
+	 * and targets scheduled before the replay are kept for their deadline
+	 */
+	private static void testReplayOfOlderLog() {
+		AisTargetWheel wheel = new AisTargetWheel(WALL_CLOCK);
+		AisTarget live = target(1);
+		wheel.schedule(live, WALL_CLOCK + 60 * SECOND);
+		wheel.advance(WALL_CLOCK + SECOND);
+
+		// GNSS time moves back to the time of the log
+		check(wheel.advance(REPLAY_START).isEmpty(), "nothing due at start of replay");
+		AisTarget replayed = target(2);
+		wheel.schedule(replayed, REPLAY_START + 60 * SECOND);
+		check(wheel.advance(REPLAY_START + 59 * SECOND).isEmpty(), "nothing due before deadline");
+		List<AisTarget> due = wheel.advance(REPLAY_START + 61 * SECOND);
+		check(due.size() == 1 && due.get(0) == replayed, "replayed target due in replay time");
+		check(wheel.size() == 1, "target scheduled before replay kept");
+
+		due = wheel.advance(WALL_CLOCK + 61 * SECOND);
+		check(due.size() == 1 && due.get(0) == live, "target scheduled before replay due at its deadline");
+		check(wheel.size() == 0, "wheel empty");
+	}
+
+	/**
+	 * Targets scheduled after a backward seek are aged from the new position
+	 */
+	private static void testBackwardSeek() {
+		AisTargetWheel wheel = new AisTargetWheel(REPLAY_START);
+		wheel.advance(REPLAY_START + 100 * SECOND);
+		wheel.advance(REPLAY_START + 10 * SECOND);
+		AisTarget aisTarget = target(3);
+		wheel.schedule(aisTarget, REPLAY_START + 20 * SECOND);
+		List<AisTarget> due = wheel.advance(REPLAY_START + 21 * SECOND);
+		check(due.size() == 1 && due.get(0) == aisTarget, "target due after backward seek");
+	}
+
+	/**
+	 * An entry whose deadline is passed at the new time is returned by the
+	 * next advance
+	 */
+	private static void testPassedDeadlineAfterJump() {
+		AisTargetWheel wheel = new AisTargetWheel(REPLAY_START + 100 * SECOND);
+		AisTarget aisTarget = target(4);
+		wheel.schedule(aisTarget, REPLAY_START + 5 * SECOND);
+		check(wheel.advance(REPLAY_START).isEmpty(), "deadline not passed after jump");
+		List<AisTarget> due = wheel.advance(REPLAY_START + 6 * SECOND);
+		check(due.size() == 1 && due.get(0) == aisTarget, "target due after jump");
+	}
+
+	private static AisTarget target(long mmsi) {
+		VesselTarget vesselTarget = new VesselTarget();
+		vesselTarget.setMmsi(mmsi);
+		return vesselTarget;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+}